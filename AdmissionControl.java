@@ -0,0 +1,222 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * AdmissionControl limita el ritmo de pujas por conexión, por pujador y en todo el servidor, para
+ * que un cliente que inunda el servidor no empeore la latencia de los demás.
+ *
+ * Cada límite es un cubo de fichas con un ritmo sostenido y una ráfaga máxima, implementado con el
+ * algoritmo GCRA: el cubo guarda sólo el instante teórico en que quedaría vacío, y admitir una puja
+ * es un compare-and-set que lo adelanta un intervalo. No hay hilos de recarga ni cerrojos, y para un
+ * cliente que respeta el límite el coste es una lectura del reloj y un CAS sin competencia por cubo.
+ *
+ * La comprobación se hace antes de tocar el lote: una puja rechazada no llega al motor de pujas, ni
+ * al diario, ni a los avisos, y el cliente recibe BidFrame.SLOW_DOWN. Una puja rechazada por un
+ * límite devuelve las fichas que ya había gastado en los anteriores, así que cuando el servidor está
+ * saturado los clientes que respetan su límite no vacían sus propios cubos con pujas que no pasan.
+ *
+ * El límite del servidor se reparte en varios cubos (uno por procesador, redondeado a potencia de
+ * dos), cada uno con su parte del ritmo y de la ráfaga. Cada hilo empieza por su propio cubo y sólo
+ * pasa a los demás si está vacío, de modo que las pujas de hilos distintos no compiten por el mismo
+ * compare-and-set y el servidor no rechaza pujas mientras quede alguna ficha.
+ */
+public class AdmissionControl {
+
+    /**
+     * Cubo de fichas GCRA. Puede compartirse entre hilos.
+     */
+    public static final class Bucket {
+        // Nanosegundos entre fichas al ritmo sostenido
+        private final long interval;
+        // Adelanto máximo sobre el reloj: la ráfaga admitida
+        private final long tolerance;
+        // Instante teórico de llegada de la siguiente puja
+        private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * Constructor para Bucket.
+         *
+         * @param ratePerSecond Fichas por segundo
+         * @param burst         Fichas que se pueden gastar de golpe
+         */
+        public Bucket(int ratePerSecond, int burst) {
+            this.interval = 1_000_000_000L / ratePerSecond;
+            this.tolerance = interval * burst;
+        }
+
+        /**
+         * Gasta una ficha si la hay.
+         *
+         * @param now Instante actual de System.nanoTime()
+         * @return True si se admite la puja
+         */
+        public boolean tryAcquire(long now) {
+            while (true) {
+                long current = arrival.get();
+                long next = Math.max(current, now - tolerance) + interval;
+                if (next - now > 0)
+                    return false;
+                if (arrival.compareAndSet(current, next))
+                    return true;
+            }
+        }
+
+        /**
+         * Indica si queda alguna ficha, sin gastarla.
+         *
+         * @param now Instante actual de System.nanoTime()
+         * @return True si tryAcquire admitiría ahora una puja
+         */
+        public boolean hasToken(long now) {
+            return Math.max(arrival.get(), now - tolerance) + interval - now <= 0;
+        }
+
+        /**
+         * Devuelve una ficha gastada por una puja que otro límite ha rechazado.
+         */
+        public void release() {
+            arrival.addAndGet(-interval);
+        }
+    }
+
+    private final int connectionRate;
+    private final int connectionBurst;
+    private final int bidderRate;
+    private final int bidderBurst;
+    // Cubos del límite del servidor y máscara para elegir el de cada hilo
+    private final Bucket[] global;
+    private final int globalMask;
+    // Cubos de los pujadores, indexados por su identificador en BidderDirectory
+    private volatile Bucket[] bidders = new Bucket[64];
+    private final LongAdder throttledByConnection = new LongAdder();
+    private final LongAdder throttledByBidder = new LongAdder();
+    private final LongAdder throttledByServer = new LongAdder();
+
+    /**
+     * Constructor para AdmissionControl.
+     *
+     * @param connectionRate  Pujas por segundo de una conexión
+     * @param connectionBurst Ráfaga de pujas de una conexión
+     * @param bidderRate      Pujas por segundo de un pujador, sumando todas sus conexiones
+     * @param bidderBurst     Ráfaga de pujas de un pujador
+     * @param globalRate      Pujas por segundo de todo el servidor
+     * @param globalBurst     Ráfaga de pujas de todo el servidor
+     */
+    public AdmissionControl(int connectionRate, int connectionBurst, int bidderRate, int bidderBurst, int globalRate, int globalBurst) {
+        this.connectionRate = connectionRate;
+        this.connectionBurst = connectionBurst;
+        this.bidderRate = bidderRate;
+        this.bidderBurst = bidderBurst;
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors())
+            stripes <<= 1;
+        this.global = new Bucket[stripes];
+        for (int i = 0; i < stripes; i++)
+            global[i] = new Bucket(Math.max(1, globalRate / stripes), Math.max(1, globalBurst / stripes));
+        this.globalMask = stripes - 1;
+    }
+
+    /**
+     * Crea el cubo de una conexión nueva.
+     *
+     * @return Cubo con el límite por conexión
+     */
+    public Bucket newConnectionBucket() {
+        return new Bucket(connectionRate, connectionBurst);
+    }
+
+    /**
+     * Decide si se admite una puja. Primero se mira, sin gastar fichas, si el servidor tiene alguna;
+     * después se gastan la de la conexión, la del pujador y la del servidor, en ese orden, de modo
+     * que un cliente que inunda agota su propio cubo sin gastar fichas del servidor. Si un límite
+     * rechaza la puja, se devuelven las fichas gastadas en los anteriores.
+     *
+     * @param connection Cubo de la conexión
+     * @param bidderId   Identificador del pujador (BidderDirectory.UNKNOWN_BIDDER si no se conoce)
+     * @return True si la puja puede pasar al lote
+     */
+    public boolean admit(Bucket connection, int bidderId) {
+        long now = System.nanoTime();
+        int stripe = (int) Thread.currentThread().getId() & globalMask;
+        if (!hasGlobalToken(stripe, now)) {
+            throttledByServer.increment();
+            return false;
+        }
+        if (!connection.tryAcquire(now)) {
+            throttledByConnection.increment();
+            return false;
+        }
+        Bucket bidder = bidderId != BidderDirectory.UNKNOWN_BIDDER ? bucketOf(bidderId) : null;
+        if (bidder != null && !bidder.tryAcquire(now)) {
+            connection.release();
+            throttledByBidder.increment();
+            return false;
+        }
+        if (!acquireGlobal(stripe, now)) {
+            // Otros hilos han gastado las últimas fichas del servidor después de comprobarlas
+            connection.release();
+            if (bidder != null)
+                bidder.release();
+            throttledByServer.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indica si algún cubo del servidor tiene fichas, empezando por el del hilo.
+     */
+    private boolean hasGlobalToken(int stripe, long now) {
+        for (int i = 0; i <= globalMask; i++) {
+            if (global[(stripe + i) & globalMask].hasToken(now))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gasta una ficha del primer cubo del servidor que la tenga, empezando por el del hilo.
+     */
+    private boolean acquireGlobal(int stripe, long now) {
+        for (int i = 0; i <= globalMask; i++) {
+            if (global[(stripe + i) & globalMask].tryAcquire(now))
+                return true;
+        }
+        return false;
+    }
+
+    public long getThrottledByConnection() {
+        return throttledByConnection.sum();
+    }
+
+    public long getThrottledByBidder() {
+        return throttledByBidder.sum();
+    }
+
+    public long getThrottledByServer() {
+        return throttledByServer.sum();
+    }
+
+    /**
+     * Obtiene el cubo de un pujador, creándolo la primera vez.
+     */
+    private Bucket bucketOf(int bidderId) {
+        Bucket[] current = bidders;
+        if (bidderId < current.length && current[bidderId] != null)
+            return current[bidderId];
+        synchronized (this) {
+            current = bidders;
+            if (bidderId >= current.length)
+                current = Arrays.copyOf(current, Math.max(bidderId + 1, current.length * 2));
+            else if (current[bidderId] != null)
+                return current[bidderId];
+            // Los campos del cubo son final, así que un lector sin cerrojo nunca lo ve a medio construir
+            Bucket bucket = new Bucket(bidderRate, bidderBurst);
+            current[bidderId] = bucket;
+            bidders = current;
+            return bucket;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * AsyncLogger escribe mensajes en la consola desde un hilo propio, con un máximo de mensajes por segundo.
+ *
+ * Quien registra un mensaje sólo deja el formato y sus argumentos en una cola acotada, sin esperar:
+ * el texto se compone y se escribe en el hilo del registro, así que System.out (que toma un cerrojo
+ * en cada línea) deja de frenar la ruta de las pujas. Si se supera el máximo por segundo o la cola
+ * está llena, el mensaje se descarta y se cuenta; cada segundo con descartes se indica cuántos hubo.
+ * El límite por segundo es aproximado: el contador se reinicia sin coordinar a los hilos.
+ */
+public class AsyncLogger {
+
+    // Número máximo de mensajes pendientes de escribir
+    private static final int QUEUE_SIZE = 8192;
+
+    /**
+     * Mensaje pendiente: formato de String.format y sus argumentos.
+     */
+    private static final class Record {
+        private final String format;
+        private final Object[] args;
+
+        private Record(String format, Object[] args) {
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    private final int maxPerSecond;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder dropped = new LongAdder();
+    // Segundo actual y mensajes aceptados en él
+    private volatile long second;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Constructor para AsyncLogger.
+     *
+     * @param maxPerSecond Número máximo de mensajes por segundo
+     */
+    public AsyncLogger(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Arranca el hilo que escribe los mensajes.
+     */
+    public void start() {
+        Thread thread = new Thread(this::run, "async-logger");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Registra un mensaje. No bloquea.
+     *
+     * @param format Formato del mensaje, como en String.format
+     * @param args   Argumentos del formato
+     */
+    public void log(String format, Object... args) {
+        long now = System.currentTimeMillis() / 1000;
+        if (now != second) {
+            second = now;
+            count.set(0);
+        }
+        if (count.incrementAndGet() > maxPerSecond || !queue.offer(new Record(format, args)))
+            dropped.increment();
+    }
+
+    /**
+     * Obtiene el número de mensajes descartados desde el arranque.
+     *
+     * @return Mensajes descartados
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Bucle del hilo del registro: escribe los mensajes y, una vez por segundo, los descartes.
+     */
+    private void run() {
+        long reported = 0;
+        long nextReport = System.currentTimeMillis() + 1000;
+        while (!Thread.currentThread().isInterrupted()) {
+            Record record;
+            try {
+                record = queue.poll(Math.max(1, nextReport - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (record != null)
+                System.out.println(String.format(record.format, record.args));
+            if (System.currentTimeMillis() >= nextReport) {
+                long total = dropped.sum();
+                if (total > reported)
+                    System.out.println("(" + (total - reported) + " mensajes de registro omitidos)");
+                reported = total;
+                nextReport = System.currentTimeMillis() + 1000;
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Auction representa un lote en subasta: el producto, su estado de pujas y su fecha de cierre.
+ *
+ * Cada lote tiene su propio BidEngine, de modo que las pujas de lotes distintos no comparten
+ * ningún estado ni compiten entre sí. El formato del lote (inglesa, sobre cerrado u holandesa)
+ * decide qué pujas pasan al motor y quién gana al cerrar.
+ */
+public class Auction {
+
+    // Estados del ciclo de vida del lote
+    private static final int CREATED = 0;
+    private static final int OPEN = 1;
+    private static final int CLOSED = 2;
+
+    // Producto que se subasta
+    private final Product product;
+    // Motor de aceptación de pujas del lote
+    private final BidEngine bidEngine;
+    // Respuestas UDP ya codificadas para la versión actual del lote
+    private final SnapshotCache snapshotCache;
+    // Estado actual del lote
+    private final AtomicInteger state = new AtomicInteger(CREATED);
+    // Instante de cierre en milisegundos (0 mientras no se haya iniciado)
+    private final AtomicLong deadline = new AtomicLong();
+    // Regla de pujas y de adjudicación del lote
+    private volatile AuctionFormat format = new EnglishFormat();
+
+    /**
+     * Constructor para Auction.
+     *
+     * @param product Producto que se subasta; el lote acepta las pujas con el motor del producto
+     */
+    public Auction(Product product) {
+        this.product = product;
+        this.bidEngine = product.getBids();
+        this.snapshotCache = new SnapshotCache(this);
+    }
+
+    public int getId() {
+        return product.getId();
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public long getDeadline() {
+        return deadline.get();
+    }
+
+    public AuctionFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Cambia el formato del lote. Sólo tiene efecto antes de abrirlo.
+     *
+     * @param format Formato del lote
+     */
+    public void setFormat(AuctionFormat format) {
+        if (!isStarted())
+            this.format = format;
+    }
+
+    public boolean isStarted() {
+        return state.get() != CREATED;
+    }
+
+    public boolean isOpen() {
+        return state.get() == OPEN;
+    }
+
+    /**
+     * Abre el lote para recibir pujas.
+     *
+     * @param now      Instante de apertura en milisegundos
+     * @param duration Duración del lote en milisegundos
+     * @return True si el lote se ha abierto con esta llamada
+     */
+    public boolean start(long now, long duration) {
+        deadline.set(now + duration);
+        format.open(now);
+        return state.compareAndSet(CREATED, OPEN);
+    }
+
+    /**
+     * Reabre un lote recuperado del diario con su instante de cierre original.
+     *
+     * @param deadline Instante de cierre en milisegundos
+     * @return True si el lote se ha abierto con esta llamada
+     */
+    public boolean resume(long deadline) {
+        this.deadline.set(deadline);
+        format.open(System.currentTimeMillis());
+        return state.compareAndSet(CREATED, OPEN);
+    }
+
+    /**
+     * Retrasa el cierre del lote hasta un instante dado, si es posterior al actual. Lo usan los
+     * servidores seguidores para aplicar las ampliaciones que decide el líder.
+     *
+     * @param deadline Instante de cierre en milisegundos
+     * @return True si el cierre se ha retrasado
+     */
+    public boolean restoreDeadline(long deadline) {
+        long current;
+        while ((current = this.deadline.get()) < deadline) {
+            if (this.deadline.compareAndSet(current, deadline))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Amplía el cierre del lote si una puja llega cuando queda menos de un margen dado (antisniping).
+     * Sólo cambia el instante de cierre; el planificador lo comprueba al vencer el plazo anterior.
+     *
+     * @param now    Instante de la puja en milisegundos
+     * @param window Margen mínimo que debe quedar tras la puja
+     * @return Nuevo instante de cierre, o 0 si no se ha ampliado
+     */
+    public long extendDeadline(long now, long window) {
+        long current = deadline.get();
+        while (isOpen() && current - now < window) {
+            if (deadline.compareAndSet(current, now + window))
+                return now + window;
+            current = deadline.get();
+        }
+        return 0;
+    }
+
+    /**
+     * Cierra el lote. Sólo la primera llamada tiene efecto. El cierre pasa por el motor de pujas, así
+     * que una puja que ya había comprobado que el lote estaba abierto se acepta antes del cierre o se
+     * rechaza, nunca después.
+     *
+     * @return True si el lote se ha cerrado con esta llamada
+     */
+    public boolean close() {
+        if (!state.compareAndSet(OPEN, CLOSED))
+            return false;
+        bidEngine.close();
+        return true;
+    }
+
+    /**
+     * Intenta aceptar una puja para este lote.
+     *
+     * @param bid Puja recibida
+     * @return Número de secuencia de la puja aceptada, 0 si el lote no está abierto o el formato la rechaza,
+     *         o AuctionFormat.SEALED o ALREADY_BID en la subasta en sobre cerrado
+     */
+    public int submit(AuctionItem bid) {
+        return isOpen() ? format.submit(bidEngine, bid) : 0;
+    }
+
+    /**
+     * Aplica una puja que ya se aceptó, leída del diario o recibida del líder, aunque el lote esté
+     * cerrado: el motor la aceptó antes del cierre, pero su registro puede llegar después del de
+     * cierre porque lo escribe otro hilo.
+     *
+     * @param bid Puja aceptada
+     * @return Número de secuencia de la puja, o 0 si el motor la rechaza
+     */
+    public int restore(AuctionItem bid) {
+        return format.restore(bidEngine, bid);
+    }
+
+    /**
+     * Elige a los ganadores del lote según su formato. Se llama una vez, después de cerrarlo.
+     *
+     * @return Pujas ganadoras, de mayor a menor
+     */
+    public List<AuctionItem> settle() {
+        return format.close(bidEngine);
+    }
+
+    /**
+     * Obtiene el precio que se muestra a los pujadores: la puja ganadora o, en la subasta holandesa,
+     * el precio actual del reloj.
+     *
+     * @return Precio actual del lote
+     */
+    public int getAskingPrice() {
+        return format.getAskingPrice(bidEngine, System.currentTimeMillis());
+    }
+
+    /**
+     * Obtiene el número de secuencia de la puja ganadora (1 para el precio de salida).
+     *
+     * @return Número de secuencia
+     */
+    public int getSequence() {
+        return bidEngine.size();
+    }
+
+    /**
+     * Obtiene el identificador del pujador que va ganando, sin buscar su nombre en el directorio.
+     *
+     * @return Identificador del pujador, o BidderDirectory.UNKNOWN_BIDDER si sólo está el precio de salida
+     */
+    public int getLeaderId() {
+        int sequence = bidEngine.size();
+        return sequence > 1 ? bidEngine.getColumns().getBidderId(sequence - 1) : BidderDirectory.UNKNOWN_BIDDER;
+    }
+
+    /**
+     * Obtiene el número de reintentos del motor de pujas por pujas simultáneas.
+     *
+     * @return Número de compare-and-set fallidos
+     */
+    public long getContention() {
+        return bidEngine.getRetries();
+    }
+
+    /**
+     * Obtiene la puja ganadora en este momento.
+     *
+     * @return AuctionItem con la oferta máxima
+     */
+    public AuctionItem getBest() {
+        return bidEngine.getBest();
+    }
+
+    /**
+     * Copia las pujas más recientes del lote.
+     *
+     * @param limit Número máximo de pujas
+     * @param out   Lista en la que se añaden las pujas, de la más antigua a la más reciente
+     * @return Versión del historial (secuencia de la puja más reciente)
+     */
+    public int getRecent(int limit, List<AuctionItem> out) {
+        return bidEngine.getRecent(limit, out);
+    }
+
+    /**
+     * Copia las pujas del lote aceptadas después de una versión dada.
+     *
+     * @param version Versión que ya conoce el cliente
+     * @param limit   Número máximo de pujas
+     * @param out     Lista en la que se añaden las pujas, de la más antigua a la más reciente
+     * @return Versión actual del historial
+     */
+    public int getSince(int version, int limit, List<AuctionItem> out) {
+        return bidEngine.getSince(version, limit, out);
+    }
+
+    /**
+     * Obtiene las pujas máximas (pujas automáticas) del lote.
+     *
+     * @return Pujas máximas del producto
+     */
+    public ProxyBids getProxyBids() {
+        return product.getProxyBids();
+    }
+
+    public SnapshotCache getSnapshotCache() {
+        return snapshotCache;
+    }
+
+    /**
+     * Obtiene una copia del historial de pujas aceptadas del lote.
+     *
+     * @return Lista de pujas en orden de aceptación
+     */
+    public List<AuctionItem> getHistory() {
+        return bidEngine.getHistory();
+    }
+
+    @Override
+    public String toString() {
+        AuctionItem best = getBest();
+        if (format instanceof DutchFormat && isOpen() && !format.isSettled())
+            return "[" + getId() + "] " + product.getName() + " - holandesa a " + getAskingPrice() + "€";
+        if (format instanceof SealedBidFormat && isOpen())
+            return "[" + getId() + "] " + product.getName() + " - " + format + " (salida " + best.getPrice() + "€)";
+        return "[" + getId() + "] " + product.getName() + " - " + best.getPrice() + "€ (" + best.getUsername() + ")";
+    }
+}
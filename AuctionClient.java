@@ -1,11 +1,17 @@
 import java.io.*;
 import java.net.Socket;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import pcd.util.TextIO4GUI;
 
@@ -24,76 +30,300 @@ public class AuctionClient {
     // Tamaño del búfer utilizado para recibir mensajes
     private final static int BUFFER_SIZE = 65535;
 
+    // Tamaño máximo de una solicitud UDP
+    private static final int MAX_REQUEST_SIZE = 64;
+
+    // Intervalo de consulta cuando no hay publicación multicast (5 segundos)
+    private static final long POLL_PERIOD = 5000;
+
+    // Intervalo de resincronización con publicación multicast (30 segundos)
+    private static final long RESYNC_PERIOD = 30000;
+
+    // Actualizaciones multicast que pueden esperar a una anterior antes de dar el hueco por perdido
+    private static final int REORDER_WINDOW = 16;
+
+    // Espera máxima a una actualización multicast anterior (50 milisegundos)
+    private static final long REORDER_WAIT = 50;
+
     /**
      * MessageSender es responsable de enviar mensajes al servidor a intervalos regulares.
+     * Con la publicación multicast activa sólo pide instantáneas: al empezar, cuando se detecta un hueco
+     * en la secuencia y, con poca frecuencia, para cubrir la pérdida del último datagrama.
+     * La solicitud se codifica una sola vez por lote y se envía por un DatagramChannel conectado al
+     * servidor, así que la dirección sólo se resuelve al conectar. Los envíos periódicos los hace el
+     * bucle de MessageReceiver, sin hilo ni temporizador propios.
      */
-    static class MessageSender implements Runnable {
+    static class MessageSender {
 
-        private DatagramSocket sock;  // DatagramSocket para enviar mensajes
-        private String hostname;       // Nombre de host o dirección IP del servidor
-        private Timer timer;           // Temporizador para programar el envío periódico de mensajes
+        private final DatagramChannel channel;  // Canal conectado al servidor
+        private final long period;              // Intervalo entre envíos periódicos en milisegundos
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);  // Solicitud ya codificada
+        private final ByteBuffer historyRequest = ByteBuffer.allocate(MAX_REQUEST_SIZE);  // Solicitud de historial
+        private int auctionId;                  // Lote seleccionado (0 para el lote por defecto)
+        private long nextRequest;               // Instante del siguiente envío periódico en milisegundos
 
         /**
          * Constructor para MessageSender.
          *
-         * @param sock     DatagramSocket para enviar mensajes
+         * @param channel Canal conectado al servidor (ver connect)
+         * @param period  Intervalo entre envíos periódicos en milisegundos
+         */
+        MessageSender(DatagramChannel channel, long period) {
+            this.channel = channel;
+            this.period = period;
+            encode(0);
+        }
+
+        /**
+         * Abre un canal UDP conectado al servidor. La dirección se resuelve una sola vez.
+         *
          * @param hostname Nombre de host o dirección IP del servidor
+         * @return Canal conectado
+         * @throws IOException Si no se puede abrir el canal
          */
-        MessageSender(DatagramSocket sock, String hostname) {
-            this.sock = sock;
-            this.hostname = hostname;
-            this.timer = new Timer();
+        static DatagramChannel connect(String hostname) throws IOException {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress(hostname, UDP_SERVER_PORT));
+            return channel;
         }
 
         /**
-         * Envía el mensaje especificado al servidor.
+         * Selecciona el lote del que se solicita información y pide su instantánea.
          *
-         * @param s Mensaje a enviar
-         * @throws Exception Si ocurre un error durante el envío del mensaje
+         * @param auctionId Identificador del lote (0 para el lote por defecto)
          */
-        private void sendMessage(String s) throws Exception {
-            byte buf[] = s.getBytes();
-            InetAddress address = InetAddress.getByName(hostname);
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, address, UDP_SERVER_PORT);
-            sock.send(packet);
+        synchronized void setAuctionId(int auctionId) {
+            encode(auctionId);
+            requestSnapshot();
+        }
+
+        private void encode(int auctionId) {
+            this.auctionId = auctionId;
+            request.clear();
+            request.put((auctionId == 0 ? "snapshot" : "snapshot " + auctionId).getBytes(StandardCharsets.US_ASCII));
+            request.flip();
         }
 
         /**
-         * Método principal ejecutado cuando comienza el hilo.
-         * Intenta enviar un mensaje inicial y luego programa el envío periódico de un mensaje "info".
+         * Pide al servidor una instantánea del lote seleccionado.
          */
-        public void run() {
-            // Tarea del temporizador para enviar el mensaje "info" cada 5 segundos
-            timer.scheduleAtFixedRate(new TimerTask() {
-                public void run() {
-                    try {
-                        sendMessage("info");
-                    } catch (IOException e) {
-                    	TextIO4GUI.putln("Error de envío del paquete UDP.");
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+        synchronized void requestSnapshot() {
+            try {
+                request.rewind();
+                channel.write(request);
+            } catch (IOException e) {
+            	TextIO4GUI.putln("Error de envío del paquete UDP.");
+            }
+            nextRequest = System.currentTimeMillis() + period;
+        }
+
+        /**
+         * Pide al servidor el historial binario del lote seleccionado (ver BidSnapshot).
+         *
+         * @param version Versión que ya se conoce, o 0 para las pujas más recientes
+         */
+        synchronized void requestHistory(int version) {
+            historyRequest.clear();
+            historyRequest.put(("history " + auctionId + " " + version).getBytes(StandardCharsets.US_ASCII));
+            historyRequest.flip();
+            try {
+                channel.write(historyRequest);
+            } catch (IOException e) {
+            	TextIO4GUI.putln("Error de envío del paquete UDP.");
+            }
+        }
+
+        /**
+         * Hace el envío periódico si le toca.
+         *
+         * @param now Instante actual en milisegundos
+         * @return Milisegundos hasta el siguiente envío periódico (al menos 1)
+         */
+        synchronized long poll(long now) {
+            if (now >= nextRequest)
+                requestSnapshot();
+            return Math.max(1, nextRequest - now);
+        }
+    }
+
+    /**
+     * AuctionView es la copia local del estado del lote: la puja ganadora y su número de secuencia.
+     * Aplica las actualizaciones de BidFeed en orden. Una actualización que llega antes que la
+     * anterior espera como mucho REORDER_WAIT o REORDER_WINDOW actualizaciones, por si la red las ha
+     * reordenado; después el hueco se da por perdido y se pide al servidor el historial desde la última
+     * puja aplicada, para mostrar también las pujas perdidas.
+     */
+    static class AuctionView implements BidFeed.Listener, BidSnapshot.Listener {
+
+        /**
+         * Actualización recibida antes que alguna anterior.
+         */
+        private static final class Update {
+            private final int price;
+            private final String username;
+
+            private Update(int price, String username) {
+                this.price = price;
+                this.username = username;
+            }
+        }
+
+        private MessageSender sender;   // Envía las solicitudes de instantánea e historial
+        private int auctionId;          // Lote seguido (0 hasta conocer el lote por defecto)
+        private int sequence = -1;      // Secuencia de la última actualización aplicada (-1 sin instantánea)
+        private boolean resyncing;      // Indica si ya se ha pedido el historial por un hueco
+        private final TreeMap<Integer, Update> early = new TreeMap<>();  // Actualizaciones a la espera de una anterior
+        private long gapSince;          // Instante en que empezó a faltar la siguiente actualización
+
+        AuctionView(MessageSender sender) {
+            this.sender = sender;
+        }
+
+        /**
+         * Cambia el lote seguido. El estado se descarta hasta recibir su instantánea.
+         *
+         * @param auctionId Identificador del lote (0 para el lote por defecto)
+         */
+        synchronized void setAuctionId(int auctionId) {
+            this.auctionId = auctionId;
+            this.sequence = -1;
+            early.clear();
+        }
+
+        @Override
+        public synchronized void onUpdate(byte type, int auctionId, int sequence, int price, long time, String username) {
+            if (type == BidFeed.SNAPSHOT) {
+                if (this.auctionId == 0)
+                    this.auctionId = auctionId;
+                if (auctionId != this.auctionId || sequence <= this.sequence)
+                    return;
+                resyncing = false;
+            } else {
+                if (auctionId != this.auctionId || this.sequence < 0 || sequence <= this.sequence)
+                    return;
+                if (sequence > this.sequence + 1) {
+                    // Falta una actualización anterior: puede llegar más tarde o haberse perdido
+                    if (early.isEmpty())
+                        gapSince = System.currentTimeMillis();
+                    if (early.size() < REORDER_WINDOW)
+                        early.put(sequence, new Update(price, username));
+                    if (early.size() >= REORDER_WINDOW || System.currentTimeMillis() - gapSince >= REORDER_WAIT)
+                        lost();
+                    return;
                 }
-            }, 0, 5000);
+            }
+            show(sequence, price, username);
+            drain();
+        }
+
+        /**
+         * Da por perdido el hueco si la actualización que falta no ha llegado a tiempo.
+         *
+         * @param now Instante actual en milisegundos
+         * @return Milisegundos hasta la siguiente comprobación, o 0 si no hay ningún hueco pendiente
+         */
+        synchronized long poll(long now) {
+            if (early.isEmpty() || resyncing)
+                return 0;
+            long remaining = gapSince + REORDER_WAIT - now;
+            if (remaining > 0)
+                return remaining;
+            lost();
+            return 0;
+        }
+
+        /**
+         * Pide las pujas que faltan, una sola vez por hueco.
+         */
+        private void lost() {
+            if (!resyncing) {
+                resyncing = true;
+                sender.requestHistory(this.sequence);
+            }
+        }
+
+        /**
+         * Aplica las actualizaciones que esperaban y descarta las que ya se han aplicado.
+         */
+        private void drain() {
+            Map.Entry<Integer, Update> first;
+            while ((first = early.firstEntry()) != null && first.getKey() <= sequence + 1) {
+                early.pollFirstEntry();
+                if (first.getKey() == sequence + 1)
+                    show(first.getKey(), first.getValue().price, first.getValue().username);
+            }
+            if (!early.isEmpty())
+                gapSince = System.currentTimeMillis();
+        }
+
+        private void show(int sequence, int price, String username) {
+            this.sequence = sequence;
+            TextIO4GUI.putln("Lote " + auctionId + ": puja actual de " + price + "€ (" + username + ", puja nº " + sequence + ")");
+        }
+
+        @Override
+        public synchronized void onHistory(int auctionId, int from, int version, List<AuctionItem> bids) {
+            if (this.auctionId == 0)
+                this.auctionId = auctionId;
+            if (auctionId != this.auctionId)
+                return;
+            resyncing = false;
+            if (bids.isEmpty())
+                return;
+            StringBuilder view = new StringBuilder();
+            view.append("Lote ").append(auctionId).append(": pujas ").append(from + 1).append(" a ").append(from + bids.size())
+                    .append(" de ").append(version);
+            int bidSequence = from;
+            for (AuctionItem bid : bids) {
+                bidSequence++;
+                view.append("\n  puja nº ").append(bidSequence).append(": ").append(bid.getPrice()).append("€ (")
+                        .append(bid.getUsername()).append(")");
+            }
+            TextIO4GUI.putln(view.toString());
+            if (from + bids.size() > this.sequence)
+                this.sequence = from + bids.size();
+            drain();
         }
     }
 
     /**
-     * MessageReceiver es responsable de recibir mensajes del servidor y mostrarlos usando TextIO4GUI.
+     * MessageReceiver es el bucle de eventos UDP del cliente: un único hilo recibe con un Selector las
+     * respuestas del servidor y la publicación multicast, siempre en el mismo búfer, y hace los envíos
+     * periódicos de MessageSender entre una recepción y otra. Las actualizaciones binarias de BidFeed se
+     * aplican a la copia local del lote, los trozos de historial de BidSnapshot se reúnen antes de
+     * entregarlos y el resto de mensajes se muestran usando TextIO4GUI.
      */
     static class MessageReceiver implements Runnable {
 
-        private DatagramSocket sock;  // DatagramSocket para recibir mensajes
-        private byte buf[];           // Búfer para almacenar datos de mensajes recibidos
+        private final Selector selector;       // Selector con los canales UDP registrados
+        private final MessageSender sender;    // Envíos periódicos (null si no hay)
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);  // Búfer compartido por todos los canales
+        private final BidFeed.Listener view;   // Copia local del estado del lote
+        private final BidSnapshot.Assembler history;  // Reúne los trozos de las respuestas de historial (null si se descartan)
 
         /**
          * Constructor para MessageReceiver.
          *
-         * @param s DatagramSocket para recibir mensajes
+         * @param sender Envíos periódicos que hace el bucle (null si no hay)
+         * @param view   Copia local del estado del lote (o cualquier receptor de BidFeed)
+         * @throws IOException Si no se puede abrir el Selector
          */
-        MessageReceiver(DatagramSocket s) {
-            sock = s;
-            buf = new byte[BUFFER_SIZE];
+        MessageReceiver(MessageSender sender, BidFeed.Listener view) throws IOException {
+            this.selector = Selector.open();
+            this.sender = sender;
+            this.view = view;
+            this.history = view instanceof BidSnapshot.Listener ? new BidSnapshot.Assembler((BidSnapshot.Listener) view) : null;
+        }
+
+        /**
+         * Añade un canal al bucle. Debe llamarse antes de arrancar el hilo.
+         *
+         * @param channel Canal conectado al servidor o unido al grupo multicast
+         * @throws IOException Si no se puede registrar el canal
+         */
+        void register(DatagramChannel channel) throws IOException {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
         }
 
         /**
@@ -103,29 +333,424 @@ public class AuctionClient {
         public void run() {
             while (true) {
                 try {
-                    DatagramPacket packet = new DatagramPacket(buf, buf.length);
-                    sock.receive(packet);
-                    String received = new String(packet.getData(), 0, packet.getLength());
-                    TextIO4GUI.putln(received);
-                } catch (Exception e) {
-                    // Imprime excepciones que ocurran durante la recepción de mensajes
+                    long now = System.currentTimeMillis();
+                    long timeout = sender != null ? sender.poll(now) : 0;
+                    // Un hueco en la publicación multicast se da por perdido aunque no llegue nada más
+                    long reorder = view instanceof AuctionView ? ((AuctionView) view).poll(now) : 0;
+                    if (reorder > 0 && (timeout == 0 || reorder < timeout))
+                        timeout = reorder;
+                    selector.select(timeout);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        receive((DatagramChannel) key.channel());
+                    }
+                } catch (IOException e) {
                 	TextIO4GUI.putln("Error de recepción del paquete UDP.");
                 }
             }
         }
+
+        /**
+         * Procesa todos los datagramas disponibles en un canal.
+         *
+         * @param channel Canal con datos pendientes
+         * @throws IOException Si el canal falla
+         */
+        private void receive(DatagramChannel channel) throws IOException {
+            while (true) {
+                buffer.clear();
+                try {
+                    // En un canal conectado se lee sin crear la dirección del remitente
+                    if (channel.isConnected() ? channel.read(buffer) <= 0 : channel.receive(buffer) == null)
+                        return;
+                } catch (PortUnreachableException e) {
+                    // El servidor aún no atiende; el siguiente envío periódico lo vuelve a intentar
+                    return;
+                }
+                if (BidFeed.decode(buffer.array(), buffer.position(), view))
+                    continue;
+                if (buffer.position() > 0 && buffer.get(0) == BidSnapshot.CHUNK) {
+                    if (history != null)
+                        history.accept(buffer.array(), buffer.position());
+                    continue;
+                }
+                TextIO4GUI.putln(new String(buffer.array(), 0, buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * BidWriter envía las pujas del usuario al servidor por la conexión TCP.
+     * El identificador de correlación lo elige quien puja y vuelve en la respuesta del servidor,
+     * si el modo de envío tiene respuestas por puja.
+     */
+    interface BidWriter {
+        void sendBid(int correlationId, int auctionId, String username, int price) throws IOException;
+
+        /**
+         * Envía una puja máxima: el servidor pujará por el usuario hasta ese precio.
+         *
+         * @return False si el modo de envío no admite pujas máximas
+         */
+        boolean sendProxyBid(int correlationId, int auctionId, String username, int maxPrice) throws IOException;
+
+        void sendExit() throws IOException;
+    }
+
+    /**
+     * ObjectBidWriter envía las pujas serializando objetos AuctionItem.
+     */
+    static class ObjectBidWriter implements BidWriter {
+
+        private ObjectOutputStream objectOutputStream;  // Stream de objetos hacia el servidor
+
+        ObjectBidWriter(ObjectOutputStream objectOutputStream) {
+            this.objectOutputStream = objectOutputStream;
+        }
+
+        public void sendBid(int correlationId, int auctionId, String username, int price) throws IOException {
+            objectOutputStream.writeObject(new AuctionItem(auctionId, username, price));
+            objectOutputStream.flush();
+        }
+
+        public boolean sendProxyBid(int correlationId, int auctionId, String username, int maxPrice) {
+            return false;
+        }
+
+        public void sendExit() throws IOException {
+            objectOutputStream.writeObject("exit");
+            objectOutputStream.flush();
+        }
+    }
+
+    /**
+     * BinaryBidWriter envía las pujas con el protocolo binario BidFrame.
+     * Al conectar se saluda al servidor para obtener el identificador numérico del pujador;
+     * después cada puja se codifica en el mismo búfer, sin crear objetos.
+     * Si el servidor acepta respuestas por puja, las pujas se envían como BID_REQUEST y run()
+     * entrega cada BID_ACK al receptor indicado, sin que el envío espere por ellas. También recibe
+     * los avisos del servidor sobre cambios de precio, pujas superadas y cierres.
+     * Si se crea con el socket y el servidor admite sesiones, al perder la conexión abre otra y
+     * reanuda la sesión con RESUME; el servidor le envía entonces el estado de sus lotes.
+     */
+    static class BinaryBidWriter implements BidWriter, BidFrame.Handler, Runnable {
+
+        // Intentos de reconexión y espera entre ellos, en milisegundos
+        private static final int RECONNECT_ATTEMPTS = 5;
+        private static final long RECONNECT_DELAY = 1000;
+
+        private OutputStream out;  // Stream de salida del socket TCP
+        private volatile DataInputStream in;  // Stream de entrada del socket TCP
+        private ByteBuffer buffer = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);  // Búfer reutilizado para cada trama enviada
+        private int bidderId = BidderDirectory.UNKNOWN_BIDDER;  // Identificador asignado por el servidor
+        private boolean acknowledged;  // Indica si el servidor contesta cada puja
+        private boolean proxyBids;  // Indica si el servidor admite pujas máximas
+        private boolean sessions;  // Indica si el servidor admite reanudar la sesión
+        private long token;  // Clave de la sesión, recibida en la trama SESSION
+        private BidFrame.Handler acks;  // Receptor de las respuestas (null para mostrarlas por consola)
+        private final String username;  // Nombre del usuario, para volver a saludar si la sesión no se reanuda
+        private final int capabilities;  // Capacidades anunciadas en el saludo
+        private Socket socket;  // Socket TCP (null si no se puede reconectar)
+        private volatile boolean exiting;  // Indica que se ha pedido salir
+
+        /**
+         * Constructor para BinaryBidWriter. Realiza el saludo con el servidor.
+         *
+         * @param in       Stream de entrada del socket TCP
+         * @param out      Stream de salida del socket TCP
+         * @param username Nombre del usuario
+         * @param acks     Receptor de las respuestas a las pujas (null para mostrarlas por consola)
+         * @throws IOException Si el servidor no completa el saludo
+         */
+        BinaryBidWriter(InputStream in, OutputStream out, String username, BidFrame.Handler acks) throws IOException {
+            this(in, out, username, acks, BidFrame.SUPPORTED_CAPABILITIES);
+        }
+
+        /**
+         * Constructor para BinaryBidWriter con las capacidades que se anuncian al servidor.
+         *
+         * @param in           Stream de entrada del socket TCP
+         * @param out          Stream de salida del socket TCP
+         * @param username     Nombre del usuario
+         * @param acks         Receptor de las respuestas a las pujas (null para mostrarlas por consola)
+         * @param capabilities Capacidades anunciadas en el saludo
+         * @throws IOException Si el servidor no completa el saludo
+         */
+        BinaryBidWriter(InputStream in, OutputStream out, String username, BidFrame.Handler acks, int capabilities) throws IOException {
+            this.out = out;
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.acks = acks;
+            this.username = username;
+            this.capabilities = capabilities;
+            handshake(false);
+        }
+
+        /**
+         * Constructor para BinaryBidWriter que se reconecta al servidor si pierde la conexión.
+         *
+         * @param socket   Socket TCP conectado al servidor
+         * @param username Nombre del usuario
+         * @param acks     Receptor de las respuestas a las pujas (null para mostrarlas por consola)
+         * @throws IOException Si el servidor no completa el saludo
+         */
+        BinaryBidWriter(Socket socket, String username, BidFrame.Handler acks) throws IOException {
+            this(socket.getInputStream(), socket.getOutputStream(), username, acks, BidFrame.SUPPORTED_CAPABILITIES);
+            this.socket = socket;
+        }
+
+        /**
+         * Saluda al servidor con HELLO o, si se pide y hay sesión, con RESUME. Si el servidor no
+         * reconoce la sesión, vuelve a saludar con HELLO en la misma conexión.
+         *
+         * @param resume True para reanudar la sesión
+         * @throws IOException Si el servidor no completa el saludo
+         */
+        private void handshake(boolean resume) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+            if (resume && token != 0) {
+                buffer.clear();
+                BidFrame.encodeResume(buffer, bidderId, token, capabilities);
+                out.write(buffer.array(), 0, buffer.position());
+                out.flush();
+                readFrame(frame);
+                if (bidderId != BidderDirectory.UNKNOWN_BIDDER) {
+                    if (sessions)
+                        readFrame(frame);
+                    return;
+                }
+            }
+            buffer.clear();
+            BidFrame.encodeHello(buffer, username.getBytes(StandardCharsets.UTF_8), capabilities);
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            readFrame(frame);
+            if (sessions)
+                readFrame(frame);
+        }
+
+        /**
+         * Abre una conexión nueva con el servidor y reanuda la sesión, salvo que otro hilo ya lo
+         * haya hecho después del fallo de la conexión indicada.
+         *
+         * @param failed Stream de entrada de la conexión que ha fallado
+         * @throws IOException Si no se puede volver a conectar
+         */
+        private synchronized void reconnect(DataInputStream failed) throws IOException {
+            if (in != failed)
+                return;
+            InetSocketAddress address = (InetSocketAddress) socket.getRemoteSocketAddress();
+            socket.close();
+            IOException error = null;
+            for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+                if (exiting)
+                    break;
+                Socket candidate = new Socket();
+                try {
+                    candidate.connect(address);
+                    candidate.setTcpNoDelay(true);
+                    socket = candidate;
+                    out = candidate.getOutputStream();
+                    in = new DataInputStream(new BufferedInputStream(candidate.getInputStream()));
+                    handshake(true);
+                    if (acks == null)
+                        System.out.println("Conexión recuperada con el servidor.");
+                    return;
+                } catch (IOException e) {
+                    candidate.close();
+                    error = e;
+                }
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            throw error != null ? error : new IOException("Reconexión cancelada");
+        }
+
+        /**
+         * Lee y decodifica una trama completa del servidor.
+         *
+         * @param frame Búfer en el que se lee la trama
+         * @throws IOException Si la conexión falla o la trama no es válida
+         */
+        private void readFrame(ByteBuffer frame) throws IOException {
+            readFrame(in, frame);
+        }
+
+        private void readFrame(DataInputStream in, ByteBuffer frame) throws IOException {
+            frame.clear();
+            frame.putInt(in.readInt());
+            frame.flip();
+            int size = BidFrame.frameSize(frame);
+            in.readFully(frame.array(), 4, size - 4);
+            frame.limit(size);
+            BidFrame.decode(frame, this);
+        }
+
+        boolean isAcknowledged() {
+            return acknowledged;
+        }
+
+        @Override
+        public void onWelcome(int bidderId, int capabilities) {
+            this.bidderId = bidderId;
+            this.acknowledged = (capabilities & BidFrame.CAPABILITY_BID_ACKS) != 0;
+            this.proxyBids = acknowledged && (capabilities & BidFrame.CAPABILITY_PROXY_BIDS) != 0;
+            this.sessions = (capabilities & BidFrame.CAPABILITY_SESSIONS) != 0;
+        }
+
+        @Override
+        public void onSession(int bidderId, long token) {
+            this.token = token;
+        }
+
+        @Override
+        public void onBidAck(int correlationId, int auctionId, byte result, int sequence, int price) throws IOException {
+            if (acks != null) {
+                acks.onBidAck(correlationId, auctionId, result, sequence, price);
+                return;
+            }
+            switch (result) {
+                case BidFrame.ACCEPTED:
+                    System.out.println("Puja nº " + correlationId + " aceptada en el lote " + auctionId + " (" + price + "€).");
+                    break;
+                case BidFrame.OUTBID:
+                    System.out.println("Puja nº " + correlationId + " superada: el precio actual del lote " + auctionId + " es " + price + "€.");
+                    break;
+                case BidFrame.ALREADY_BID:
+                    System.out.println("Puja nº " + correlationId + " rechazada: ya tienes una puja en sobre cerrado para el lote " + auctionId + ".");
+                    break;
+                case BidFrame.NOT_SUPPORTED:
+                    System.out.println("Puja nº " + correlationId + " rechazada: el lote " + auctionId + " no admite este tipo de puja.");
+                    break;
+                case BidFrame.CLOSED:
+                    System.out.println("Puja nº " + correlationId + " rechazada: la subasta del lote " + auctionId + " está cerrada.");
+                    break;
+                case BidFrame.SLOW_DOWN:
+                    System.out.println("Puja nº " + correlationId + " no procesada: demasiadas pujas, espera un momento.");
+                    break;
+                case BidFrame.ERROR:
+                    System.out.println("Puja nº " + correlationId + " no procesada por un error del servidor; vuelve a intentarlo.");
+                    break;
+                default:
+                    System.out.println("Puja nº " + correlationId + " rechazada: lote no encontrado (" + auctionId + ").");
+            }
+        }
+
+        @Override
+        public void onEvent(byte kind, int auctionId, int sequence, int price, int leaderId) throws IOException {
+            if (acks != null) {
+                acks.onEvent(kind, auctionId, sequence, price, leaderId);
+                return;
+            }
+            switch (kind) {
+                case BidFrame.PRICE_CHANGED:
+                    if (leaderId != bidderId)
+                        System.out.println("Nueva puja en el lote " + auctionId + ": " + price + "€.");
+                    break;
+                case BidFrame.BID_OUTBID:
+                    System.out.println("Tu puja en el lote " + auctionId + " ha sido superada: la puja actual es " + price + "€.");
+                    break;
+                case BidFrame.AUCTION_CLOSED:
+                    if (leaderId == bidderId)
+                        System.out.println("La subasta del lote " + auctionId + " ha finalizado. ¡Has ganado con " + price + "€!");
+                    else
+                        System.out.println("La subasta del lote " + auctionId + " ha finalizado con una puja ganadora de " + price + "€.");
+                    break;
+                default:
+                    // Aviso de una versión posterior del servidor
+            }
+        }
+
+        /**
+         * Método principal ejecutado cuando comienza el hilo.
+         * Recibe las respuestas del servidor hasta que se cierra la conexión; si se pierde sin
+         * haber pedido salir, se reconecta y sigue recibiendo en la conexión nueva.
+         */
+        public void run() {
+            ByteBuffer frame = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+            while (true) {
+                DataInputStream current = in;
+                try {
+                    while (true)
+                        readFrame(current, frame);
+                } catch (IOException e) {
+                    if (exiting || socket == null) {
+                        // El servidor ha cerrado la conexión
+                        if (!(e instanceof EOFException) && acks == null)
+                            System.out.println("Desconexión: " + e.getMessage());
+                        return;
+                    }
+                    try {
+                        reconnect(current);
+                    } catch (IOException failed) {
+                        if (acks == null)
+                            System.out.println("Desconexión: " + failed.getMessage());
+                        return;
+                    }
+                }
+            }
+        }
+
+        public synchronized void sendBid(int correlationId, int auctionId, String username, int price) throws IOException {
+            try {
+                writeBid(correlationId, auctionId, price);
+            } catch (IOException e) {
+                if (socket == null)
+                    throw e;
+                // La puja se vuelve a enviar una vez en la conexión nueva
+                reconnect(in);
+                writeBid(correlationId, auctionId, price);
+            }
+        }
+
+        private void writeBid(int correlationId, int auctionId, int price) throws IOException {
+            buffer.clear();
+            if (acknowledged)
+                BidFrame.encodeBidRequest(buffer, correlationId, auctionId, bidderId, price, System.currentTimeMillis());
+            else
+                BidFrame.encodeBid(buffer, auctionId, bidderId, price, System.currentTimeMillis());
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+        }
+
+        public synchronized boolean sendProxyBid(int correlationId, int auctionId, String username, int maxPrice) throws IOException {
+            if (!proxyBids)
+                return false;
+            buffer.clear();
+            BidFrame.encodeProxyRequest(buffer, correlationId, auctionId, bidderId, maxPrice, System.currentTimeMillis());
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+            return true;
+        }
+
+        public synchronized void sendExit() throws IOException {
+            exiting = true;
+            buffer.clear();
+            BidFrame.encodeExit(buffer);
+            out.write(buffer.array(), 0, buffer.position());
+            out.flush();
+        }
     }
 
     /**
      * Método para manejar el input de los clientes.
      *
-     * @param objectOutputStream Elemento introducido por el cliente que se enviará al servidor
+     * @param bidWriter Elemento que envía al servidor las pujas introducidas por el cliente
      * @param username Nombre del usuario
+     * @param auctionId Identificador del lote en el que se puja
      */
-    private static void handleUserInput(ObjectOutputStream objectOutputStream, String username) {
+    private static void handleUserInput(BidWriter bidWriter, String username, int auctionId) {
+        int bids = 0;  // Número de pujas enviadas, que sirve de identificador de correlación
         try (BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in))) {
             while (true) {
                 System.out.println("\n1. Enviar puja");
-                System.out.println("2. Salir");
+                System.out.println("2. Fijar puja máxima (el servidor puja por ti)");
+                System.out.println("3. Salir");
                 System.out.print("Seleccione una opción: ");
 
                 int choice = Integer.parseInt(userInput.readLine().trim());
@@ -134,13 +759,16 @@ public class AuctionClient {
                     case 1:
                         System.out.print("Ingrese su puja: ");
                         int bidAmount = Integer.parseInt(userInput.readLine().trim());
-                        AuctionItem bid = new AuctionItem(username, bidAmount);
-                        objectOutputStream.writeObject(bid);
-                        objectOutputStream.flush();
+                        bidWriter.sendBid(++bids, auctionId, username, bidAmount);
                         break;
                     case 2:
-                        objectOutputStream.writeObject("exit");
-                        objectOutputStream.flush();
+                        System.out.print("Ingrese su puja máxima: ");
+                        int maxAmount = Integer.parseInt(userInput.readLine().trim());
+                        if (!bidWriter.sendProxyBid(++bids, auctionId, username, maxAmount))
+                            System.out.println("El servidor no admite pujas máximas en este modo.");
+                        break;
+                    case 3:
+                        bidWriter.sendExit();
                         System.exit(0);
                         break;
                     default:
@@ -178,32 +806,47 @@ public class AuctionClient {
     /**
      * Método principal para la aplicación AuctionClient.
      *
-     * @param args Argumentos de la línea de comandos (no utilizados en esta aplicación)
+     * @param args Argumentos de la línea de comandos: "--legacy" envía las pujas como objetos serializados
      * @throws Exception Si ocurre un error durante la ejecución del método principal
      */
     public static void main(String[] args) throws Exception {
+        boolean legacy = false;
+        for (String arg : args) {
+            if (arg.equals("--legacy"))
+                legacy = true;
+        }
+
         // Crea una instancia de TextIO4GUI para mostrar mensajes
         new TextIO4GUI("Auction Client");
 
-        // Crea un DatagramSocket para la comunicación con el servidor
-        DatagramSocket socket = new DatagramSocket();
+        // Crea un canal UDP conectado al servidor
+        DatagramChannel channel = MessageSender.connect("localhost");
+
+        // Se une al grupo multicast en el que el servidor publica las pujas aceptadas
+        DatagramChannel feedChannel = null;
+        try {
+            feedChannel = BidFeed.openReceiver();
+        } catch (IOException e) {
+            TextIO4GUI.putln("Publicación multicast no disponible; se consultará al servidor periódicamente.");
+        }
 
         // Crea instancias de MessageReceiver y MessageSender
-        MessageReceiver r = new MessageReceiver(socket);
-        MessageSender s = new MessageSender(socket, "localhost");
+        MessageSender s = new MessageSender(channel, feedChannel != null ? RESYNC_PERIOD : POLL_PERIOD);
+        AuctionView view = new AuctionView(s);
+        MessageReceiver r = new MessageReceiver(s, view);
+        r.register(channel);
+        if (feedChannel != null)
+            r.register(feedChannel);
 
-        // Crea y comienza hilos para la recepción y el envío de mensajes
-        Thread rt = new Thread(r);
-        Thread st = new Thread(s);
+        // Un solo hilo recibe los mensajes UDP y hace los envíos periódicos
+        Thread rt = new Thread(r, "udp-loop");
+        rt.setDaemon(true);
         rt.start();
-        st.start();
 
         //Crea un socket TCP para la conexión con el servidor
         try (Socket tcpSocket = new Socket("localhost", TCP_SERVER_PORT);
 
-        //Crea streams de entrada y salida para la comunicación con el servidor y crea un BufferedReader para leer los datos de entrada del cliente
-        ObjectOutputStream objectOutputStream = new ObjectOutputStream(tcpSocket.getOutputStream());
-        ObjectInputStream objectInputStream = new ObjectInputStream(tcpSocket.getInputStream());
+        //Crea un BufferedReader para leer los datos de entrada del cliente
         BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in))) {
 
         //Le pide al usuario introducir un nombre
@@ -211,21 +854,47 @@ public class AuctionClient {
         String username = userInput.readLine();
         System.out.println(username);
 
+        //Le pide al usuario el lote en el que quiere pujar
+        System.out.print("Ingresa el identificador del lote (0 para el lote por defecto): ");
+        String auctionInput = userInput.readLine();
+        int auctionId = auctionInput == null || auctionInput.trim().isEmpty() ? 0 : Integer.parseInt(auctionInput.trim());
+        view.setAuctionId(auctionId);
+        s.setAuctionId(auctionId);
+        // Muestra las pujas más recientes del lote, como la respuesta "info" pero en binario compacto
+        s.requestHistory(0);
+
+        //Crea los streams de comunicación con el servidor según el modo elegido
+        BidWriter bidWriter;
+        Thread receiveThread = null;
+        if (!legacy) {
+            BinaryBidWriter binaryBidWriter = new BinaryBidWriter(tcpSocket, username, null);
+            bidWriter = binaryBidWriter;
+            // Recibe las respuestas del servidor a cada puja
+            receiveThread = new Thread(binaryBidWriter);
+            receiveThread.setDaemon(true);
+        } else {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(tcpSocket.getOutputStream());
+            ObjectInputStream objectInputStream = new ObjectInputStream(tcpSocket.getInputStream());
+            bidWriter = new ObjectBidWriter(objectOutputStream);
+            receiveThread = new Thread(() -> {
+               try {
+                   handleServerMessages(objectInputStream);
+               } catch (EOFException e) {
+                   e.printStackTrace();
+               }
+            });
+        }
+
         // Crea y comienza hilos para la recepción y el envío de mensajes
-        Thread inputThread = new Thread(() -> handleUserInput(objectOutputStream, username));
-        Thread receiveThread = new Thread(() -> {
-           try {
-               handleServerMessages(objectInputStream);
-           } catch (EOFException e) {
-               e.printStackTrace();
-           }
-        });
+        Thread inputThread = new Thread(() -> handleUserInput(bidWriter, username, auctionId));
 
         inputThread.start();
-        receiveThread.start();
+        if (receiveThread != null)
+            receiveThread.start();
 
         inputThread.join();  // Espera a que el hilo de entrada termine
-        receiveThread.join();  // Espera a que el hilo de recepción termine
+        if (receiveThread != null)
+            receiveThread.join();  // Espera a que el hilo de recepción termine
         tcpSocket.close();  //Cierra la conexión TCP
 
        } catch (IOException | InterruptedException e) {
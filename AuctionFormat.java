@@ -0,0 +1,95 @@
+import java.util.List;
+
+
+/**
+ * AuctionFormat es la regla con la que un lote recibe las pujas y elige a los ganadores.
+ *
+ * Todos los formatos comparten la misma entrada de pujas: Auction.submit entrega cada puja al formato
+ * del lote junto con su motor de pujas, en el que quedan las pujas que se hacen públicas (las que van
+ * ganando en la subasta inglesa, la venta en la holandesa y los ganadores de la subasta en sobre
+ * cerrado al cerrarla). Así el historial, las instantáneas, el diario y los avisos funcionan igual
+ * con cualquier formato.
+ */
+public interface AuctionFormat {
+
+    // Resultado de submit: la puja se ha guardado en sobre cerrado
+    int SEALED = -1;
+    // Resultado de submit: el pujador ya tenía una puja en sobre cerrado
+    int ALREADY_BID = -2;
+
+    /**
+     * Obtiene el nombre del formato que se muestra a los usuarios.
+     *
+     * @return Nombre del formato
+     */
+    String getName();
+
+    /**
+     * Indica si el formato es una subasta ascendente a viva voz: sólo entonces se descartan las pujas
+     * que no superan a la ganadora sin llegar al formato, se amplía el cierre ante las pujas de
+     * último momento y se admiten pujas máximas.
+     *
+     * @return True para la subasta inglesa
+     */
+    boolean isAscending();
+
+    /**
+     * Empieza a contar el tiempo del formato al abrir el lote.
+     *
+     * @param now Instante de apertura en milisegundos
+     */
+    void open(long now);
+
+    /**
+     * Decide una puja recibida mientras el lote está abierto.
+     *
+     * @param bids Motor de pujas del lote
+     * @param bid  Puja recibida
+     * @return Número de secuencia en el motor si la puja se hace pública, 0 si se rechaza,
+     *         SEALED si se guarda en sobre cerrado o ALREADY_BID si el pujador ya tenía una
+     */
+    int submit(BidEngine bids, AuctionItem bid);
+
+    /**
+     * Aplica una puja que ya se hizo pública, al reproducir el diario o al recibirla del líder. No
+     * vuelve a decidirla ni comprueba si el lote está abierto, pero deja el formato como si la
+     * hubiera aceptado (por ejemplo, la subasta holandesa queda vendida).
+     *
+     * @param bids Motor de pujas del lote
+     * @param bid  Puja pública
+     * @return Número de secuencia en el motor, o 0 si el motor la rechaza
+     */
+    int restore(BidEngine bids, AuctionItem bid);
+
+    /**
+     * Obtiene el precio que se muestra a los pujadores.
+     *
+     * @param bids Motor de pujas del lote
+     * @param now  Instante actual en milisegundos
+     * @return Puja ganadora, precio de salida o precio actual del reloj, según el formato
+     */
+    int getAskingPrice(BidEngine bids, long now);
+
+    /**
+     * Indica si el lote ya tiene ganador antes de su instante de cierre.
+     *
+     * @return True si el lote puede cerrarse ya
+     */
+    boolean isSettled();
+
+    /**
+     * Obtiene cada cuánto debe revisarse el lote mientras está abierto, además de la cuenta atrás.
+     *
+     * @return Intervalo en milisegundos, o 0 si el formato no cambia con el tiempo
+     */
+    long getTickInterval();
+
+    /**
+     * Elige a los ganadores al cerrar el lote. Los que aún no estuvieran en el motor de pujas se
+     * añaden a él, de menor a mayor.
+     *
+     * @param bids Motor de pujas del lote
+     * @return Pujas ganadoras, de mayor a menor (vacía si no hay ganador)
+     */
+    List<AuctionItem> close(BidEngine bids);
+}
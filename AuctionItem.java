@@ -1,18 +1,48 @@
 import java.io.Serializable;
+import java.util.Comparator;
 
 public class AuctionItem implements Serializable{
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * Orden de las pujas: por precio y, a igual precio, la más antigua es mayor. Sirve para ordenar
+	 * pujas ya guardadas (los ganadores de un sobre cerrado, las listas que se muestran); para aceptar
+	 * una puja el motor sólo compara el precio, que debe ser estrictamente mayor.
+	 */
+	public static final Comparator<AuctionItem> BY_PRICE_THEN_TIME = new Comparator<AuctionItem>() {
+		@Override
+		public int compare(AuctionItem a, AuctionItem b) {
+			int byPrice = Integer.compare(a.price, b.price);
+			return byPrice != 0 ? byPrice : Long.compare(b.time, a.time);
+		}
+	};
+	
+	private int auctionId;
 	private String username;
 	private int price;
 	private long time;
+	// Identificador del pujador en el servidor (0 si no se conoce); no viaja con la puja serializada
+	private transient int bidderId;
 	
 	public AuctionItem(String username, int price) {
+		this(0, username, price);
+	}
+	
+	public AuctionItem(int auctionId, String username, int price) {
+		this.auctionId = auctionId;
 		this.username = username;
 		this.price = price;
 		this.time = System.currentTimeMillis();
 	}
 
+	public int getAuctionId() {
+		return auctionId;
+	}
+
+	public void setAuctionId(int auctionId) {
+		this.auctionId = auctionId;
+	}
+
 	public String getUsername() {
 		return username;
 	}
@@ -36,6 +66,14 @@ public class AuctionItem implements Serializable{
 	public void setTime(long time) {
 		this.time = time;
 	}
+
+	public int getBidderId() {
+		return bidderId;
+	}
+
+	public void setBidderId(int bidderId) {
+		this.bidderId = bidderId;
+	}
 	
 	@Override
 	public String toString() {
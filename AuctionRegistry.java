@@ -0,0 +1,167 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * AuctionRegistry mantiene todos los lotes de un servidor, repartidos en fragmentos (shards)
+ * según el identificador del producto.
+ *
+ * El identificador 0 se reserva para el lote por defecto, que es el primero que se registra;
+ * así los clientes que no indican lote siguen pujando como antes.
+ */
+public class AuctionRegistry {
+
+    // Identificador utilizado por los clientes que no indican lote
+    public static final int DEFAULT_AUCTION_ID = 0;
+
+    // Fragmentos del registro, indexados por identificador de producto
+    private final ConcurrentHashMap<Integer, Auction>[] shards;
+    // Máscara para calcular el fragmento (número de fragmentos potencia de dos)
+    private final int mask;
+    // Siguiente identificador de producto a asignar
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    // Lote por defecto
+    private volatile Auction defaultAuction;
+    // Directorio de pujadores compartido por los historiales de los lotes
+    private final BidderDirectory bidders;
+    // Indica si los historiales de los lotes nuevos se guardan fuera del heap
+    private volatile boolean offHeapHistory;
+
+    /**
+     * Constructor para AuctionRegistry.
+     *
+     * @param shardCount Número de fragmentos deseado (se redondea a la siguiente potencia de dos)
+     */
+    public AuctionRegistry(int shardCount) {
+        this(shardCount, new BidderDirectory());
+    }
+
+    /**
+     * Constructor para AuctionRegistry.
+     *
+     * @param shardCount Número de fragmentos deseado (se redondea a la siguiente potencia de dos)
+     * @param bidders    Directorio de pujadores con el que se guardan los historiales de los lotes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AuctionRegistry(int shardCount, BidderDirectory bidders) {
+        this.bidders = bidders;
+        int size = 1;
+        while (size < shardCount)
+            size <<= 1;
+        this.shards = new ConcurrentHashMap[size];
+        for (int i = 0; i < size; i++)
+            shards[i] = new ConcurrentHashMap<>();
+        this.mask = size - 1;
+    }
+
+    /**
+     * Indica si el historial de pujas de los lotes que se registren a partir de ahora se guarda fuera del heap.
+     *
+     * @param offHeapHistory True para guardar precios e instantes en búferes directos
+     */
+    public void setOffHeapHistory(boolean offHeapHistory) {
+        this.offHeapHistory = offHeapHistory;
+    }
+
+    /**
+     * Crea y registra un nuevo lote con un identificador de producto nuevo.
+     *
+     * @param name          Nombre del producto
+     * @param description   Descripción del producto
+     * @param initialPrice  Precio inicial del producto
+     * @return Lote creado
+     */
+    public Auction create(String name, String description, int initialPrice) {
+        return register(new Product(nextId.getAndIncrement(), name, description, initialPrice, bidders, offHeapHistory));
+    }
+
+    /**
+     * Vuelve a registrar un lote con su identificador original, por ejemplo al reproducir el diario.
+     * Los lotes que se creen después reciben identificadores mayores. Si ya había un lote con ese
+     * identificador, como en un seguidor que rehace un lote desviado, el nuevo lo sustituye.
+     *
+     * @param id            Identificador del producto
+     * @param name          Nombre del producto
+     * @param description   Descripción del producto
+     * @param initialPrice  Precio inicial del producto
+     * @return Lote registrado
+     */
+    public Auction restore(int id, String name, String description, int initialPrice) {
+        reserve(id);
+        return register(new Product(id, name, description, initialPrice, bidders, offHeapHistory));
+    }
+
+    /**
+     * Impide que los lotes nuevos reciban un identificador ya usado, aunque su lote no se haya
+     * recuperado (por ejemplo, un lote cerrado que el diario ya ha olvidado).
+     *
+     * @param id Mayor identificador usado
+     */
+    public void reserve(int id) {
+        int next;
+        while ((next = nextId.get()) <= id && !nextId.compareAndSet(next, id + 1))
+            ;
+    }
+
+    private Auction register(Product product) {
+        Auction auction = new Auction(product);
+        shards[shardOf(product.getId())].put(product.getId(), auction);
+        synchronized (this) {
+            if (defaultAuction == null || defaultAuction.getId() == product.getId())
+                defaultAuction = auction;
+        }
+        return auction;
+    }
+
+    /**
+     * Obtiene un lote por su identificador de producto.
+     *
+     * @param id Identificador del producto (0 para el lote por defecto)
+     * @return Lote, o null si no existe
+     */
+    public Auction get(int id) {
+        if (id == DEFAULT_AUCTION_ID)
+            return defaultAuction;
+        return shards[shardOf(id)].get(id);
+    }
+
+    /**
+     * Calcula el fragmento al que pertenece un identificador de producto.
+     *
+     * @param id Identificador del producto
+     * @return Índice del fragmento
+     */
+    public int shardOf(int id) {
+        return (id ^ (id >>> 16)) & mask;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Obtiene una copia de todos los lotes registrados.
+     *
+     * @return Lista de lotes
+     */
+    public List<Auction> getAuctions() {
+        List<Auction> auctions = new ArrayList<>();
+        for (ConcurrentHashMap<Integer, Auction> shard : shards)
+            auctions.addAll(shard.values());
+        return auctions;
+    }
+
+    /**
+     * Obtiene el número de lotes registrados.
+     *
+     * @return Número de lotes
+     */
+    public int size() {
+        int size = 0;
+        for (ConcurrentHashMap<Integer, Auction> shard : shards)
+            size += shard.size();
+        return size;
+    }
+}
@@ -1,19 +1,34 @@
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.SortedSet;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.EOFException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.management.JMException;
 
 
 /**
@@ -25,115 +40,998 @@ public class AuctionServer {
     private static final int UDP_SERVER_PORT = 9876;
     // Tamaño del búfer utilizado para recibir mensajes UDP
     private final static int BUFFER_SIZE = 65535;
-    // Producto a subastar
-    private static Product product;
-    // Variable para almacenar el tiempo de inicio de la subasta
-    private static long startTime;
     // Duración de la subasta en milisegundos (1 minuto)
     private static final long AUCTION_DURATION = 60 * 1000;
+    // Margen que debe quedar tras una puja aceptada; si queda menos, el cierre se amplía (antisniping)
+    private static final long ANTI_SNIPING_WINDOW = 10 * 1000;
+    // Tiempo antes del cierre a partir del cual se muestra la cuenta atrás cada segundo
+    private static final long COUNTDOWN = 10 * 1000;
+    // Número de fragmentos del registro de lotes
+    private static final int REGISTRY_SHARDS = 16;
+    // Número máximo de lotes listados en una respuesta "list"
+    private static final int MAX_LISTED_AUCTIONS = 500;
     // Bandera que determina el fin de la subasta
-    private static boolean flag = false;
+    private static volatile boolean flag = false;
 
     // Número de puerto para la comunicación TCP
     private static final int TCP_PORT = 12345;
-    //Lista de handler de clientes
-    private static List<ClientHandler> clientHandlers = new ArrayList<>();
-    //Producto actual a subastar
-    private static Product currentProduct;
-    //Lista de pujas
-    private static List<AuctionItem> bids;
-    //Identifica si la subasta se ha iniciado
-    private static boolean auctionOpen = false;
+    // Número de hilos que atienden las solicitudes UDP
+    private static final int UDP_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Directorio del diario de pujas
+    private static final String JOURNAL_DIR = "journal";
+    // Puerto local de consulta de las métricas
+    private static final int METRICS_PORT = 9100;
+    // Número de puerto de replicación hacia los servidores seguidores
+    private static final int REPLICATION_PORT = 12346;
+    // Número máximo de mensajes por segundo del registro de la ruta de las pujas
+    private static final int MAX_LOG_RATE = 1000;
+    // Pujas por segundo y ráfaga admitidas por conexión, por pujador y en todo el servidor
+    private static final int CONNECTION_BID_RATE = 1000;
+    private static final int CONNECTION_BID_BURST = 200;
+    private static final int BIDDER_BID_RATE = 1000;
+    private static final int BIDDER_BID_BURST = 200;
+    private static final int SERVER_BID_RATE = 100_000;
+    private static final int SERVER_BID_BURST = 10_000;
+    // Número de bucles de eventos del front end NIO
+    private static final int NIO_EVENT_LOOPS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Posiciones del anillo de cada secuenciador de pujas
+    private static final int SEQUENCER_CAPACITY = 8192;
+    // Espacio para la respuesta al saludo: WELCOME, SESSION y el estado de los lotes de una sesión reanudada
+    static final int MAX_WELCOME_SIZE = BidFrame.MAX_FRAME_SIZE + BidFrame.SESSION_FRAME_SIZE
+            + SessionRegistry.MAX_RESUMED_LOTS * BidFrame.EVENT_FRAME_SIZE;
+    //Conjunto de handlers de clientes conectados
+    private static final Set<ClientHandler> clientHandlers = ConcurrentHashMap.newKeySet();
+    //Identificadores numéricos de los pujadores
+    private static final BidderDirectory bidders = new BidderDirectory();
+    //Sesiones de los pujadores: conexiones, claves de reanudación y pujas por lote
+    private static final SessionRegistry sessions = new SessionRegistry(bidders);
+    //Registro de lotes en subasta, indexado por identificador de producto
+    private static final AuctionRegistry registry = new AuctionRegistry(REGISTRY_SHARDS, bidders);
+    //Ejecutor de hilos virtuales para los handlers (null para un hilo de plataforma por handler)
+    private static ExecutorService handlerExecutor;
+    //Diario de lotes y pujas aceptadas (null si no está activado)
+    private static BidJournal journal;
+    //Envío de lotes y pujas aceptadas a los servidores seguidores (null si no está activado)
+    private static BidReplicator replicator;
+    //Avisos de precio, pujas superadas y cierres a los clientes TCP
+    private static final EventFanout events = new EventFanout(bidders);
+    //Registro asíncrono de los mensajes de la ruta de las pujas
+    private static final AsyncLogger log = new AsyncLogger(MAX_LOG_RATE);
+    //Front end NIO (null en el modo de un hilo por cliente)
+    private static volatile NioBidServer nioServer;
+    //Secuenciadores de pujas, cada uno con un grupo de fragmentos del registro (null si no están activados)
+    private static volatile BidSequencer[] sequencers;
+    //Límites de ritmo de pujas
+    private static final AdmissionControl admission = new AdmissionControl(CONNECTION_BID_RATE, CONNECTION_BID_BURST,
+            BIDDER_BID_RATE, BIDDER_BID_BURST, SERVER_BID_RATE, SERVER_BID_BURST);
+    //Métricas del servidor
+    private static final ServerMetrics metrics = new ServerMetrics(registry, events, log, admission, sessions,
+            () -> clientHandlers.size() + (nioServer != null ? nioServer.getConnectionCount() : 0));
+    //Planificador de los cierres de los lotes
+    private static final DeadlineScheduler scheduler = new DeadlineScheduler();
+    //Número de lotes abiertos
+    private static final AtomicInteger openAuctions = new AtomicInteger();
+    //Indica si ya no se van a registrar más lotes
+    private static volatile boolean registrationDone = false;
     
 
     /**
-     * Establece la información del producto para la subasta.
+     * Registra un nuevo producto para subastar.
      *
      * @param name          Nombre del producto
      * @param description   Descripción del producto
      * @param initialPrice  Precio inicial del producto para la subasta
+     * @return Lote creado para el producto
      */
-    public void setProduct(String name, String description, int initialPrice) {
-        product = new Product(name, description, initialPrice);
+    public Auction setProduct(String name, String description, int initialPrice) {
+        return registry.create(name, description, initialPrice);
     }
 
     /**
      * Agrega una oferta para un artículo de subasta.
      *
-     * @param username Nombre del ofertante
-     * @param price    Precio de la oferta
+     * @param productId Identificador del producto
+     * @param username  Nombre del ofertante
+     * @param price     Precio de la oferta
      * @return True si la oferta se agrega correctamente, false en caso contrario
      */
-    public boolean addAuctionItem(String username, int price) {
-        SortedSet<AuctionItem> bids = product.getAuctions();
-        if ((price > bids.last().getPrice()) ||
-                (bids.size() == 0 && price >= product.getInitialPrice()))
-            return bids.add(new AuctionItem(username, price));
-        else
-            return false;
+    public boolean addAuctionItem(int productId, String username, int price) {
+        return placeBid(productId, username, price) == BidFrame.ACCEPTED;
     }
 
     /**
      * Obtiene el artículo de subasta con la oferta máxima.
      *
-     * @return AuctionItem con la oferta máxima
+     * @param productId Identificador del producto
+     * @return AuctionItem con la oferta máxima, o null si el producto no existe o no tiene pujas
      */
-    public AuctionItem getMaxBid() {
-    	if(!product.getAuctions().isEmpty())
-    		return product.getAuctions().last();
-    	else
-    		return null;
+    public AuctionItem getMaxBid(int productId) {
+        Auction auction = registry.get(productId);
+        return auction != null ? auction.getProduct().getMaxBid() : null;
     }
 
     /**
      * Agrega una oferta para un artículo de subasta.
+     * La puja se dirige al lote indicado en la propia puja; cada lote decide con su BidEngine.
+     *
+     * @param bid Objeto de la puja (lote, cantidad y nombre)
+     * @return True si la puja se ha aceptado
+     */
+    public static boolean addAuctionItem(AuctionItem bid) {
+    	return placeBid(bid.getAuctionId(), bid.getUsername(), bid.getPrice()) == BidFrame.ACCEPTED;
+    }
+
+    /**
+     * Agrega una oferta de un pujador identificado en el saludo del protocolo binario.
+     *
+     * @param auctionId Identificador del lote
+     * @param bidderId  Identificador del pujador
+     * @param price     Precio de la oferta
+     * @return Resultado de la puja (BidFrame.ACCEPTED, OUTBID, CLOSED, UNKNOWN_AUCTION, UNKNOWN_BIDDER o ALREADY_BID)
+     */
+    public static byte placeBid(int auctionId, int bidderId, int price) {
+    	String username = bidders.nameOf(bidderId);
+    	if(username == null) {
+    		log.log("Puja de un pujador desconocido (%d).", bidderId);
+    		metrics.bid(auctionId, registry.get(auctionId) == null ? BidFrame.UNKNOWN_AUCTION : BidFrame.UNKNOWN_BIDDER, 0);
+    		return BidFrame.UNKNOWN_BIDDER;
+    	}
+    	return placeBid(auctionId, bidderId, username, price);
+    }
+
+    /**
+     * Agrega una oferta de un pujador conocido sólo por su nombre (Product.addBid).
      *
-     * @param bid Objeto de la puja (cantidad y nombre)
+     * @param auctionId Identificador del lote
+     * @param username  Nombre del ofertante
+     * @param price     Precio de la oferta
+     * @return Resultado de la puja
      */
-    public static synchronized void addAuctionItem(AuctionItem bid) {
-    	if(bid.getPrice() > bids.get(bids.size() - 1).getPrice()) {
-    		bids.add(new AuctionItem(bid.getUsername(), bid.getPrice()));
-    		System.out.println("La puja de "+bid.getUsername()+" por "+bid.getPrice()+" ha sido aceptada.");
+    private static byte placeBid(int auctionId, String username, int price) {
+    	return placeBid(auctionId, bidders.intern(username), username, price);
+    }
+
+    /**
+     * Agrega una oferta para un lote. En la subasta inglesa, las pujas que no superan a la ganadora se
+     * rechazan sin crear ningún objeto. Las pujas en sobre cerrado se dan por aceptadas al guardarse,
+     * sin avisos ni anotaciones hasta el cierre. La puja lleva el identificador del pujador hasta el
+     * historial del lote, y las aceptadas se anotan en su sesión.
+     *
+     * @param auctionId Identificador del lote
+     * @param bidderId  Identificador del pujador
+     * @param username  Nombre del ofertante
+     * @param price     Precio de la oferta
+     * @return Resultado de la puja (BidFrame.ACCEPTED, OUTBID, CLOSED, UNKNOWN_AUCTION o ALREADY_BID)
+     */
+    private static byte placeBid(int auctionId, int bidderId, String username, int price) {
+    	long start = System.nanoTime();
+    	Auction auction = registry.get(auctionId);
+    	if(auction == null) {
+    		log.log("La puja de %s es para un lote inexistente (%d).", username, auctionId);
+    		metrics.bid(auctionId, BidFrame.UNKNOWN_AUCTION, 0);
+    		return BidFrame.UNKNOWN_AUCTION;
+    	}
+    	AuctionFormat format = auction.getFormat();
+    	int sequence = 0;
+    	long deadline = 0;
+    	if(!format.isAscending() || price > auction.getBest().getPrice()) {
+    		AuctionItem item = new AuctionItem(auction.getId(), username, price);
+    		item.setBidderId(bidderId);
+    		sequence = auction.submit(item);
+    		if(sequence == AuctionFormat.SEALED || sequence == AuctionFormat.ALREADY_BID) {
+    			byte result = sequence == AuctionFormat.SEALED ? BidFrame.ACCEPTED : BidFrame.ALREADY_BID;
+    			// Una puja guardada se da por aceptada, así que se anota y se replica aunque no sea pública
+    			if(result == BidFrame.ACCEPTED) {
+    				try {
+    					if(journal != null)
+    						journal.appendSealed(item);
+    					if(replicator != null)
+    						replicator.appendSealed(item);
+    					sessions.recordBid(bidderId, auction.getId(), price);
+    				} catch(RuntimeException e) {
+    					logAnnounceFailure(username, auction, e);
+    				}
+    			}
+    			metrics.bid(auction.getId(), result, System.nanoTime() - start);
+    			log.log(result == BidFrame.ACCEPTED ? "%s entrega una puja en sobre cerrado para el lote %3$d."
+    					: "%s ya tenía una puja en sobre cerrado para el lote %3$d; se rechaza la de %2$d.", username, price, auction.getId());
+    			return result;
+    		}
+    		// La puja ya está aceptada: si falla algo al anotarla o avisarla, se registra y se sigue
+    		// contestando ACCEPTED, porque el motor no la va a deshacer
+    		if(sequence > 0) {
+    			try {
+    				deadline = announceBid(auction, item, sequence);
+    			} catch(RuntimeException e) {
+    				logAnnounceFailure(username, auction, e);
+    			}
+    		}
+    	}
+    	boolean accepted = sequence > 0;
+    	byte result = accepted ? BidFrame.ACCEPTED : auction.isOpen() && !format.isSettled() ? BidFrame.OUTBID : BidFrame.CLOSED;
+    	metrics.bid(auction.getId(), result, System.nanoTime() - start);
+
+    	// Los mensajes se escriben en el hilo del registro, fuera de la ruta de la puja
+    	if(accepted && !format.isAscending()) {
+    		log.log("%s compra el lote %d a %d€ en la subasta holandesa.", username, auction.getId(), auction.getBest().getPrice());
+    	}
+    	else if(accepted) {
+    		log.log("La puja de %s por %d en el lote %d ha sido aceptada.", username, price, auction.getId());
+    		if(deadline > 0)
+    			log.log("El cierre del lote %d se amplía %d segundos.", auction.getId(), ANTI_SNIPING_WINDOW / 1000);
     	}
     	else {
-    		System.out.println("La puja de "+bid.getUsername()+" por "+bid.getPrice()+" NO ha sido aceptada.");
+    		log.log("La puja de %s por %d en el lote %d NO ha sido aceptada.", username, price, auction.getId());
+    	}
+    	// Una puja aceptada puede hacer que responda la puja máxima de otro pujador
+    	try {
+    		if(accepted && auction.getProxyBids().hasCompetitor(bidderId))
+    			resolveProxyBids(auction);
+    	} catch(RuntimeException e) {
+    		logAnnounceFailure(username, auction, e);
+    	}
+    	return result;
+    }
+
+    /**
+     * Anota, replica y avisa una puja aceptada (el aviso la publica también en BidFeed), la apunta en
+     * la sesión del pujador y amplía el cierre del lote si hace falta.
+     *
+     * @param auction  Lote
+     * @param item     Puja aceptada, con el identificador del pujador
+     * @param sequence Número de secuencia de la puja aceptada
+     * @return Nuevo cierre del lote, o 0 si no se ha ampliado
+     */
+    private static long announceBid(Auction auction, AuctionItem item, int sequence) {
+    	AuctionFormat format = auction.getFormat();
+    	int bidderId = item.getBidderId();
+    	// En la subasta holandesa la puja pública es la venta al precio del reloj, no el precio ofrecido
+    	if(!format.isAscending())
+    		item = auction.getBest();
+    	if(journal != null)
+    		journal.appendBid(item, sequence);
+    	if(replicator != null)
+    		replicator.appendBid(item, sequence);
+    	events.bidAccepted(item, sequence);
+    	// En la subasta holandesa se paga el precio del reloj, que es la puja ganadora tras la venta
+    	sessions.recordBid(bidderId, auction.getId(), item.getPrice());
+    	if(!format.isAscending())
+    		return 0;
+    	long deadline = auction.extendDeadline(System.currentTimeMillis(), ANTI_SNIPING_WINDOW);
+    	if(deadline > 0 && journal != null)
+    		journal.appendDeadline(auction.getId(), deadline);
+    	if(deadline > 0 && replicator != null)
+    		replicator.appendDeadline(auction.getId(), deadline);
+    	return deadline;
+    }
+
+    /**
+     * Registra un fallo posterior a la aceptación de una puja, que ya no se puede deshacer.
+     *
+     * @param username Nombre del ofertante
+     * @param auction  Lote
+     * @param e        Excepción
+     */
+    private static void logAnnounceFailure(String username, Auction auction, RuntimeException e) {
+    	log.log("La puja de %s en el lote %d se ha aceptado, pero ha fallado al anotarla o avisarla: %s", username, auction.getId(), e);
+    }
+
+    /**
+     * Crea el cubo de fichas de una conexión nueva, con el límite de pujas por conexión.
+     *
+     * @return Cubo de la conexión
+     */
+    static AdmissionControl.Bucket newConnectionBucket() {
+    	return admission.newConnectionBucket();
+    }
+
+    /**
+     * Decide si una puja entra en el servidor o se rechaza con BidFrame.SLOW_DOWN, antes de buscar
+     * el lote. Para un cliente que respeta los límites cuesta una lectura del reloj y tres CAS.
+     *
+     * @param connection Cubo de la conexión que envía la puja
+     * @param bidderId   Identificador del pujador
+     * @return True si la puja puede procesarse
+     */
+    static boolean admit(AdmissionControl.Bucket connection, int bidderId) {
+    	return admission.admit(connection, bidderId);
+    }
+
+    /**
+     * Fija la puja máxima de un pujador identificado en el saludo del protocolo binario y hace en su
+     * nombre las pujas necesarias frente a las demás pujas máximas del lote.
+     *
+     * @param auctionId Identificador del lote
+     * @param bidderId  Identificador del pujador
+     * @param maxPrice  Precio máximo que el pujador está dispuesto a pagar
+     * @return ACCEPTED si el pujador va ganando, OUTBID si no, o CLOSED, UNKNOWN_AUCTION, UNKNOWN_BIDDER
+     *         o NOT_SUPPORTED si el lote no es una subasta inglesa
+     */
+    public static byte placeProxyBid(int auctionId, int bidderId, int maxPrice) {
+    	String username = bidders.nameOf(bidderId);
+    	Auction auction = registry.get(auctionId);
+    	if(username == null)
+    		return BidFrame.UNKNOWN_BIDDER;
+    	if(auction == null)
+    		return BidFrame.UNKNOWN_AUCTION;
+    	if(!auction.isOpen())
+    		return BidFrame.CLOSED;
+    	if(!auction.getFormat().isAscending())
+    		return BidFrame.NOT_SUPPORTED;
+    	// Aunque el máximo no sea el más alto, puede subir el precio del que va ganando
+    	auction.getProxyBids().register(bidderId, maxPrice);
+    	log.log("%s fija una puja máxima de %d en el lote %d.", username, maxPrice, auction.getId());
+    	resolveProxyBids(auction);
+    	AuctionItem best = auction.getBest();
+    	return best.getBidderId() == bidderId ? BidFrame.ACCEPTED : auction.isOpen() ? BidFrame.OUTBID : BidFrame.CLOSED;
+    }
+
+    /**
+     * Aplica una puja o una puja máxima en el hilo que llama.
+     *
+     * @param kind      BidSequencer.BID o BidSequencer.PROXY
+     * @param auctionId Identificador del lote
+     * @param bidderId  Identificador del pujador
+     * @param price     Precio de la puja, o máximo de la puja máxima
+     * @return Resultado de la puja
+     */
+    private static byte apply(int kind, int auctionId, int bidderId, int price) {
+    	return kind == BidSequencer.PROXY ? placeProxyBid(auctionId, bidderId, price) : placeBid(auctionId, bidderId, price);
+    }
+
+    /**
+     * Arranca los secuenciadores de pujas. Cada fragmento del registro se asigna a uno de ellos, así
+     * que todas las pujas de un lote las aplica siempre el mismo hilo.
+     *
+     * @param count Número de secuenciadores
+     */
+    private static void startSequencers(int count) {
+    	BidSequencer[] started = new BidSequencer[Math.max(1, Math.min(count, registry.getShardCount()))];
+    	for (int i = 0; i < started.length; i++) {
+    		started[i] = new BidSequencer(SEQUENCER_CAPACITY, AuctionServer::apply, log);
+    		started[i].start("bid-sequencer-" + i);
+    	}
+    	sequencers = started;
+    	metrics.setSequencers(started);
+    }
+
+    /**
+     * Entrega una puja o una puja máxima al secuenciador de su lote, si están activados. El resultado
+     * llega a completion desde el hilo del secuenciador.
+     *
+     * @param kind          BidSequencer.BID o BidSequencer.PROXY
+     * @param correlationId Identificador que se devuelve con el resultado
+     * @param auctionId     Identificador del lote
+     * @param bidderId      Identificador del pujador
+     * @param price         Precio de la puja, o máximo de la puja máxima
+     * @param completion    Receptor del resultado, o null si no se espera respuesta
+     * @return False si no hay secuenciadores y la puja debe aplicarse en el hilo que llama
+     */
+    static boolean sequence(int kind, int correlationId, int auctionId, int bidderId, int price, BidSequencer.Completion completion) {
+    	BidSequencer[] current = sequencers;
+    	if(current == null)
+    		return false;
+    	// El lote por defecto va al secuenciador de su identificador real
+    	Auction auction = registry.get(auctionId);
+    	int shard = registry.shardOf(auction != null ? auction.getId() : auctionId);
+    	current[shard % current.length].publish(kind, correlationId, auctionId, bidderId, price, completion);
+    	return true;
+    }
+
+    /**
+     * Aplica una puja o una puja máxima y espera su resultado: en el secuenciador de su lote, si están
+     * activados, o en el hilo que llama.
+     *
+     * @param kind      BidSequencer.BID o BidSequencer.PROXY
+     * @param auctionId Identificador del lote
+     * @param bidderId  Identificador del pujador
+     * @param price     Precio de la puja, o máximo de la puja máxima
+     * @param waiter    Espera del hilo que llama
+     * @return Resultado de la puja
+     */
+    private static byte applyInOrder(int kind, int auctionId, int bidderId, int price, BidSequencer.Waiter waiter) {
+    	waiter.reset();
+    	return sequence(kind, 0, auctionId, bidderId, price, waiter) ? waiter.await() : apply(kind, auctionId, bidderId, price);
+    }
+
+    /**
+     * Hace las pujas automáticas del máximo más alto de un lote, con las mismas comprobaciones,
+     * anotaciones y avisos que el resto de pujas.
+     *
+     * @param auction Lote
+     */
+    private static void resolveProxyBids(Auction auction) {
+    	auction.getProxyBids().resolve(auction.getProduct().getBids(),
+    			(bidderId, price) -> placeBid(auction.getId(), bidderId, price) != BidFrame.CLOSED);
+    }
+
+    /**
+     * Codifica la respuesta a una puja con el precio actual del lote: la puja ganadora o, en la subasta
+     * holandesa, el precio del reloj.
+     *
+     * @param out           Búfer de salida
+     * @param correlationId Identificador de la puja contestada
+     * @param auctionId     Identificador del lote indicado en la puja
+     * @param result        Resultado de la puja
+     */
+    static void encodeBidAck(ByteBuffer out, int correlationId, int auctionId, byte result) {
+    	Auction auction = registry.get(auctionId);
+    	if(auction == null) {
+    		BidFrame.encodeBidAck(out, correlationId, auctionId, result, 0, 0);
+    		return;
+    	}
+    	BidFrame.encodeBidAck(out, correlationId, auction.getId(), result, auction.getSequence(), auction.getAskingPrice());
+    }
+
+    /**
+     * Describe el resultado de una puja para los clientes que usan streams de objetos.
+     *
+     * @param bid      Puja recibida
+     * @param bidderId Identificador del pujador
+     * @param result   Resultado de la puja
+     * @return Mensaje para el cliente
+     */
+    private static String describeResult(AuctionItem bid, int bidderId, byte result) {
+    	Auction auction = registry.get(bid.getAuctionId());
+    	switch(result) {
+    		case BidFrame.ACCEPTED:
+    			return "Puja de " + bid.getPrice() + "€ aceptada en el lote " + auction.getId() + ".";
+    		case BidFrame.OUTBID:
+    			int highest = sessions.sessionOf(bidderId).getHighestBid(auction.getId());
+    			return "Puja de " + bid.getPrice() + "€ superada: el precio actual del lote " + auction.getId() + " es " + auction.getAskingPrice() + "€"
+    					+ (highest > 0 ? " (tu puja más alta: " + highest + "€)." : ".");
+    		case BidFrame.ALREADY_BID:
+    			return "Ya tienes una puja en sobre cerrado para el lote " + auction.getId() + ": sólo se admite una por pujador.";
+    		case BidFrame.NOT_SUPPORTED:
+    			return "El lote " + auction.getId() + " no admite este tipo de puja.";
+    		case BidFrame.CLOSED:
+    			return "La subasta del lote " + auction.getId() + " está cerrada.";
+    		case BidFrame.ERROR:
+    			return "La puja de " + bid.getPrice() + "€ no se ha podido procesar por un error del servidor. Vuelve a intentarlo.";
+    		case BidFrame.SLOW_DOWN:
+    			return "Demasiadas pujas: la puja de " + bid.getPrice() + "€ no se ha procesado. Espera un momento antes de volver a pujar.";
+    		default:
+    			return "Lote no encontrado: " + bid.getAuctionId();
+    	}
+    }
+
+    /**
+     * Obtiene el identificador numérico de un pujador, asignándole uno si es nuevo.
+     *
+     * @param username Nombre del usuario
+     * @return Identificador del pujador
+     */
+    public static int registerBidder(String username) {
+    	return bidders.intern(username);
+    }
+
+    /**
+     * Abre una conexión con la sesión de un pujador que saluda con HELLO.
+     *
+     * @param username Nombre del usuario
+     * @return Sesión del pujador
+     */
+    static SessionRegistry.Session openSession(String username) {
+    	return sessions.open(username);
+    }
+
+    /**
+     * Reanuda la sesión de un pujador que vuelve a conectarse con RESUME.
+     *
+     * @param bidderId Identificador del pujador
+     * @param token    Clave de la sesión
+     * @return Sesión reanudada, o null si no es válida
+     */
+    static SessionRegistry.Session resumeSession(int bidderId, long token) {
+    	SessionRegistry.Session session = sessions.resume(bidderId, token);
+    	if(session != null)
+    		log.log("%s reanuda su sesión (pujador %d).", session.getUsername(), bidderId);
+    	return session;
+    }
+
+    /**
+     * Cierra la conexión de una sesión; la sesión se conserva para reanudarla.
+     *
+     * @param session Sesión de la conexión (puede ser null)
+     */
+    static void closeSession(SessionRegistry.Session session) {
+    	sessions.close(session);
+    }
+
+    /**
+     * Codifica la respuesta al saludo: WELCOME y, si el cliente admite sesiones, SESSION con la clave.
+     * Al reanudar una sesión se añade un EVENT por lote en el que el pujador ha pujado, con el estado
+     * actual del lote; el identificador del pujador que va ganando le indica si sigue ganando.
+     *
+     * @param out          Búfer de salida, con al menos MAX_WELCOME_SIZE bytes libres
+     * @param session      Sesión de la conexión
+     * @param capabilities Capacidades anunciadas por el cliente
+     * @param resumed      True si la sesión se ha reanudado con RESUME
+     */
+    static void encodeWelcome(ByteBuffer out, SessionRegistry.Session session, int capabilities, boolean resumed) {
+    	int accepted = capabilities & BidFrame.SUPPORTED_CAPABILITIES;
+    	BidFrame.encodeWelcome(out, session.getBidderId(), accepted);
+    	if((accepted & BidFrame.CAPABILITY_SESSIONS) == 0)
+    		return;
+    	BidFrame.encodeSession(out, session.getBidderId(), session.getToken());
+    	if(!resumed)
+    		return;
+    	for(int auctionId : session.getLots(SessionRegistry.MAX_RESUMED_LOTS)) {
+    		Auction auction = registry.get(auctionId);
+    		if(auction == null)
+    			continue;
+    		BidFrame.encodeEvent(out, auction.isOpen() ? BidFrame.PRICE_CHANGED : BidFrame.AUCTION_CLOSED,
+    				auctionId, auction.getSequence(), auction.getAskingPrice(), auction.getLeaderId());
     	}
     }
     
     /**
-     * Maneja automáticamente la subasta.
+     * Obtiene las métricas del servidor.
+     *
+     * @return Métricas del servidor
+     */
+    static ServerMetrics getMetrics() {
+    	return metrics;
+    }
+
+    /**
+     * Suscribe una conexión TCP a los avisos de precio, de pujas superadas y de cierre.
+     *
+     * @param username Usuario de la conexión
+     * @param text     True si la conexión recibe los avisos como texto
+     * @param onReady  Aviso cuando hay mensajes pendientes
+     * @return Suscripción de la conexión
+     */
+    static EventFanout.Subscription subscribe(String username, boolean text, Runnable onReady) {
+    	return events.subscribe(username, text, onReady);
+    }
+
+    /**
+     * Cancela la suscripción de una conexión TCP a los avisos.
+     *
+     * @param subscription Suscripción de la conexión (puede ser null)
+     */
+    static void unsubscribe(EventFanout.Subscription subscription) {
+    	events.unsubscribe(subscription);
+    }
+
+    /**
+     * Inicia la subasta de un lote y programa su cierre.
+     *
+     * @param auction Lote que se subasta
+     */
+    private void startAuction(Auction auction) {
+        if (auction.start(System.currentTimeMillis(), AUCTION_DURATION)) {
+            openAuctions.incrementAndGet();
+            if (journal != null)
+                journal.appendLot(auction);
+            if (replicator != null)
+                replicator.appendLot(auction);
+            System.out.println("Subasta iniciada para el producto: " + auction.getProduct().getName() + " (lote " + auction.getId() + ")");
+            new AuctionTimer(this, auction).schedule(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Lote leído del diario, con sus pujas ordenadas por número de secuencia y sus pujas en sobre
+     * cerrado en el orden en que se guardaron.
+     * Las pujas de un lote pueden aparecer desordenadas en el diario si se aceptaron en hilos distintos.
+     */
+    private static class RecoveredLot {
+        private final Auction auction;
+        private long deadline;
+        private boolean closed;
+        private final TreeMap<Integer, AuctionItem> bids = new TreeMap<>();
+        private final List<AuctionItem> sealed = new ArrayList<>();
+
+        private RecoveredLot(Auction auction, long deadline) {
+            this.auction = auction;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Reconstruye los lotes y sus pujas a partir del diario y empieza a anotar en él, con un
+     * checkpoint de los lotes que siguen abiertos que sustituye a los segmentos anteriores. Los lotes
+     * que seguían abiertos se vuelven a programar con su instante de cierre original; si ya ha pasado,
+     * se cierran enseguida.
      *
-     * @param product Producto que se subasta
+     * @param recovered Diario que se reproduce
+     * @throws IOException Si no se puede leer el diario
      */
-    private static void handleAuction(Product product) {
-        while (true) {
-            if (!auctionOpen && currentProduct != null) {
-                startAuction(product);
+    private void recover(BidJournal recovered) throws IOException {
+        final Map<Integer, RecoveredLot> lots = new HashMap<>();
+        long records = recovered.replay(new BidJournal.Listener() {
+            public void onLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+                Auction auction = registry.restore(auctionId, name, description, initialPrice);
+                auction.setFormat(format);
+                lots.put(auctionId, new RecoveredLot(auction, deadline));
+            }
+
+            public void onBid(int auctionId, int sequence, int price, long time, String username) {
+                RecoveredLot lot = lots.get(auctionId);
+                if (lot != null) {
+                    AuctionItem bid = new AuctionItem(auctionId, username, price);
+                    bid.setTime(time);
+                    lot.bids.put(sequence, bid);
+                }
+            }
+
+            public void onSealed(int auctionId, int price, long time, String username) {
+                RecoveredLot lot = lots.get(auctionId);
+                if (lot != null) {
+                    AuctionItem bid = new AuctionItem(auctionId, username, price);
+                    bid.setTime(time);
+                    lot.sealed.add(bid);
+                }
+            }
+
+            public void onDeadline(int auctionId, long deadline) {
+                RecoveredLot lot = lots.get(auctionId);
+                if (lot != null)
+                    lot.deadline = Math.max(lot.deadline, deadline);
+            }
+
+            public void onClose(int auctionId) {
+                RecoveredLot lot = lots.get(auctionId);
+                if (lot != null)
+                    lot.closed = true;
+            }
+
+            public void onLastLot(int auctionId) {
+                registry.reserve(auctionId);
+            }
+        });
+
+        List<Auction> reopened = new ArrayList<>();
+        for (RecoveredLot lot : lots.values()) {
+            Auction auction = lot.auction;
+            auction.resume(lot.deadline);
+            if (replicator != null)
+                replicator.appendLot(auction);
+            for (AuctionItem bid : lot.sealed) {
+                if (auction.submit(bid) == AuctionFormat.SEALED && replicator != null)
+                    replicator.appendSealed(bid);
+            }
+            for (AuctionItem bid : lot.bids.values()) {
+                int sequence = auction.restore(bid);
+                if (sequence > 0 && replicator != null)
+                    replicator.appendBid(bid, sequence);
+            }
+            if (lot.closed) {
+                auction.close();
+                if (replicator != null)
+                    replicator.appendClose(auction.getId());
+            } else {
+                openAuctions.incrementAndGet();
+                reopened.add(auction);
             }
         }
+        System.out.println("Diario reproducido: " + records + " registros, " + lots.size() + " lotes recuperados (" + reopened.size() + " abiertos).");
+
+        // El checkpoint sólo lleva los lotes abiertos: los cerrados se olvidan en el siguiente arranque.
+        // El cierre de los lotes reabiertos ya se anota en el diario
+        recovered.start(checkpoint -> {
+            List<AuctionItem> bids = new ArrayList<>();
+            for (Auction auction : reopened) {
+                checkpoint.appendLot(auction);
+                if (auction.getFormat() instanceof SealedBidFormat) {
+                    for (AuctionItem bid : ((SealedBidFormat) auction.getFormat()).getSealedBids())
+                        checkpoint.appendSealed(bid);
+                }
+                bids.clear();
+                auction.getSince(1, Integer.MAX_VALUE, bids);
+                int sequence = 1;
+                for (AuctionItem bid : bids)
+                    checkpoint.appendBid(bid, ++sequence);
+            }
+        });
+        journal = recovered;
+        for (Auction auction : reopened)
+            new AuctionTimer(this, auction).schedule(System.currentTimeMillis());
     }
-    
+
     /**
-     * Inicia una subasta.
+     * Escribe el estado de los lotes iniciados para un seguidor que se acaba de conectar: el lote con
+     * su formato, sus pujas en sobre cerrado, sus pujas públicas en orden de secuencia y su cierre.
      *
-     * @param product Producto que se subasta
+     * @param out Instantánea del seguidor
+     * @throws IOException Si el seguidor se desconecta
      */
-    private static synchronized void startAuction(Product product) {
-        if (!auctionOpen) {
-            currentProduct = product;
+    private static void snapshot(BidReplicator.Snapshot out) throws IOException {
+        List<AuctionItem> bids = new ArrayList<>();
+        for (Auction auction : registry.getAuctions()) {
+            if (!auction.isStarted())
+                continue;
+            out.lot(auction);
+            if (auction.getFormat() instanceof SealedBidFormat) {
+                for (AuctionItem bid : ((SealedBidFormat) auction.getFormat()).getSealedBids())
+                    out.sealed(bid);
+            }
+            // La secuencia 1 es el precio de salida, que ya va en el registro del lote
             bids.clear();
-            auctionOpen = true;
-            System.out.println("Subasta iniciada para el producto: " + product.getName());
+            auction.getSince(1, Integer.MAX_VALUE, bids);
+            int sequence = 1;
+            for (AuctionItem bid : bids)
+                out.bid(bid, ++sequence);
+            if (!auction.isOpen())
+                out.close(auction.getId());
         }
     }
+
+    /**
+     * Replica aplica los registros que llegan del líder en un servidor seguidor y los vuelve a anotar
+     * para sus propios seguidores. Las pujas de un lote se aplican en orden de secuencia: las que llegan
+     * antes que alguna anterior esperan a que llegue. Los registros repetidos, como los que se
+     * reciben en la instantánea y en el flujo o al cambiar de líder, se ignoran.
+     *
+     * Si el motor rechaza la siguiente puja de un lote, la copia del lote se ha desviado de la del
+     * líder: se descartan sus pujas pendientes, se ignoran sus registros y se pide una instantánea
+     * nueva, con la que el lote se vuelve a crear desde cero.
+     */
+    private static class Replica implements BidReplicator.Follower {
+        // Pujas pendientes de alguna anterior, por lote y número de secuencia
+        private final Map<Integer, TreeMap<Integer, AuctionItem>> pending = new HashMap<>();
+        // Lotes desviados, a la espera de la instantánea
+        private final Set<Integer> stale = new HashSet<>();
+        private boolean resync;
+
+        public boolean takeResync() {
+            boolean requested = resync;
+            resync = false;
+            return requested;
+        }
+
+        public void onLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+            if (registry.get(auctionId) != null && !stale.remove(auctionId))
+                return;
+            pending.remove(auctionId);
+            Auction auction = registry.restore(auctionId, name, description, initialPrice);
+            auction.setFormat(format);
+            auction.resume(deadline);
+            if (replicator != null)
+                replicator.appendLot(auctionId, name, description, initialPrice, deadline, format);
+        }
+
+        public void onBid(int auctionId, int sequence, int price, long time, String username) {
+            Auction auction = registry.get(auctionId);
+            if (auction == null || sequence <= auction.getSequence() || stale.contains(auctionId))
+                return;
+            AuctionItem bid = new AuctionItem(auctionId, username, price);
+            bid.setTime(time);
+            TreeMap<Integer, AuctionItem> waiting = pending.computeIfAbsent(auctionId, id -> new TreeMap<>());
+            waiting.put(sequence, bid);
+            // El líder acepta cada puja antes de cerrar el lote, pero el hilo que la aceptó puede
+            // replicarla después del cierre: Auction.restore la aplica aunque el lote esté cerrado
+            AuctionItem next;
+            while ((next = waiting.remove(auction.getSequence() + 1)) != null) {
+                int accepted = auction.restore(next);
+                if (accepted == 0) {
+                    log.log("La puja %d del lote %d no se puede aplicar en el seguidor; se pide una instantánea al líder.", auction.getSequence() + 1, auctionId);
+                    waiting.clear();
+                    stale.add(auctionId);
+                    resync = true;
+                    return;
+                }
+                if (replicator != null)
+                    replicator.appendBid(next, accepted);
+            }
+        }
+
+        public void onLastLot(int auctionId) {
+            // El flujo de replicación no lleva este registro: los lotes cerrados se envían completos
+        }
+
+        public void onSealed(int auctionId, int price, long time, String username) {
+            Auction auction = registry.get(auctionId);
+            if (auction == null || stale.contains(auctionId))
+                return;
+            AuctionItem bid = new AuctionItem(auctionId, username, price);
+            bid.setTime(time);
+            // Una puja repetida tras cambiar de líder recibe ALREADY_BID y no se reenvía
+            if (auction.submit(bid) == AuctionFormat.SEALED && replicator != null)
+                replicator.appendSealed(bid);
+        }
+
+        public void onDeadline(int auctionId, long deadline) {
+            Auction auction = registry.get(auctionId);
+            if (auction != null && auction.restoreDeadline(deadline) && replicator != null)
+                replicator.appendDeadline(auctionId, deadline);
+        }
+
+        public void onClose(int auctionId) {
+            Auction auction = registry.get(auctionId);
+            if (auction != null && auction.close() && replicator != null)
+                replicator.appendClose(auctionId);
+        }
+    }
+
+    /**
+     * Sigue a los líderes indicados, por orden de prioridad, hasta que no queda ninguno al que seguir.
+     * El primero es el líder inicial, al que se espera si aún no ha arrancado; si se pierde un líder,
+     * se sigue al siguiente de la lista. Cuando se pierden todos, este servidor pasa a ser el líder.
+     *
+     * @param leaders Direcciones "host:puerto" de replicación, de mayor a menor prioridad
+     * @throws InterruptedException Si se interrumpe la espera al líder inicial
+     */
+    private void follow(String[] leaders) throws InterruptedException {
+        Replica replica = new Replica();
+        for (int i = 0; i < leaders.length; i++) {
+            int colon = leaders[i].lastIndexOf(':');
+            String host = leaders[i].substring(0, colon);
+            int port = Integer.parseInt(leaders[i].substring(colon + 1));
+            while (!BidReplicator.follow(host, port, replica) && i == 0) {
+                System.out.println("Esperando al líder " + leaders[i] + "...");
+                Thread.sleep(BidReplicator.FAILOVER_TIMEOUT);
+            }
+        }
+        promote();
+    }
+
+    /**
+     * Convierte un servidor seguidor en líder: programa el cierre de los lotes abiertos y empieza a
+     * aceptar pujas. Los lotes cuyo cierre ya ha pasado se cierran enseguida.
+     */
+    private void promote() {
+        System.out.println("No queda ningún líder: este servidor pasa a ser el líder.");
+        long now = System.currentTimeMillis();
+        for (Auction auction : registry.getAuctions()) {
+            if (auction.isOpen()) {
+                openAuctions.incrementAndGet();
+                new AuctionTimer(this, auction).schedule(now);
+            }
+        }
+    }
+
+    /**
+     * Indica que no se van a registrar más lotes; la subasta termina cuando se cierre el último.
+     */
+    private static void finishRegistration() {
+        registrationDone = true;
+        if (openAuctions.get() == 0)
+            flag = true;
+    }
     
     /**
-     * Cierra la subasta y muestra por consola el ganador.
+     * Cierra la subasta de un lote.
+     *
+     * @param auction Lote que se cierra
+     * @return True si el lote se ha cerrado con esta llamada
+     */
+    public boolean closeAuction(Auction auction) {
+        return auction.close();
+    }
+
+    /**
+     * AuctionTimer vigila el cierre de un lote con el planificador: muestra la cuenta atrás en los
+     * últimos segundos y cierra el lote en su instante de cierre, o antes si el formato ya tiene
+     * ganador (la venta de la subasta holandesa).
+     * Si una puja ha ampliado el cierre, la tarea se vuelve a programar para el nuevo instante,
+     * de modo que las ampliaciones no tocan el planificador. Los formatos que cambian con el tiempo
+     * se revisan además cada intervalo del formato.
+     */
+    private static class AuctionTimer implements Runnable {
+
+        private final AuctionServer server;
+        private final Auction auction;
+        // Último precio anunciado del reloj de la subasta holandesa
+        private int announcedPrice;
+        // Último segundo anunciado de la cuenta atrás
+        private long announcedSeconds;
+
+        private AuctionTimer(AuctionServer server, Auction auction) {
+            this.server = server;
+            this.auction = auction;
+        }
+
+        /**
+         * Programa la siguiente comprobación: el inicio de la cuenta atrás, el siguiente segundo o el cierre.
+         *
+         * @param now Instante actual en milisegundos
+         */
+        private void schedule(long now) {
+            long deadline = auction.getDeadline();
+            long next = deadline - now > COUNTDOWN ? deadline - COUNTDOWN : Math.min(deadline, now + 1000);
+            long tick = auction.getFormat().getTickInterval();
+            if (tick > 0)
+                next = Math.min(next, now + tick);
+            scheduler.schedule(next, this);
+        }
+
+        public void run() {
+            long now = System.currentTimeMillis();
+            long remainingTime = auction.getDeadline() - now;
+            AuctionFormat format = auction.getFormat();
+            if (remainingTime > 0 && !format.isSettled()) {
+                if (format.getTickInterval() > 0) {
+                    int price = auction.getAskingPrice();
+                    if (price != announcedPrice)
+                        System.out.println("Precio actual (lote " + auction.getId() + "): " + price + "€");
+                    announcedPrice = price;
+                }
+                long seconds = (remainingTime + 999) / 1000;
+                if (remainingTime <= COUNTDOWN && seconds != announcedSeconds) {
+                    // Muestra el tiempo restante cuando quedan 10 segundos o menos
+                    System.out.println("Tiempo restante (lote " + auction.getId() + "): " + seconds + " segundos");
+                    announcedSeconds = seconds;
+                }
+                schedule(now);
+                return;
+            }
+            if (server.closeAuction(auction)) {
+                // Los ganadores que el formato añade al cerrar se anotan y publican como cualquier puja
+                int before = auction.getSequence();
+                List<AuctionItem> winners = auction.settle();
+                List<AuctionItem> revealed = new ArrayList<>();
+                auction.getSince(before, Integer.MAX_VALUE, revealed);
+                int sequence = before;
+                for (AuctionItem bid : revealed) {
+                    sequence++;
+                    if (journal != null)
+                        journal.appendBid(bid, sequence);
+                    if (replicator != null)
+                        replicator.appendBid(bid, sequence);
+                    events.bidAccepted(bid, sequence);
+                }
+                if (journal != null)
+                    journal.appendClose(auction.getId());
+                if (replicator != null)
+                    replicator.appendClose(auction.getId());
+                System.out.println("La subasta del lote " + auction.getId() + " ha finalizado.");
+                // Notifica a los clientes conectados sobre el cierre de la subasta
+                events.auctionClosed(auction);
+                if (winners.size() == 1)
+                    System.out.println("El ganador de la subasta es "+winners.get(0).getUsername()+" con una puja de "+winners.get(0).getPrice()+". ¡Enhorabuena!");
+                else if (!winners.isEmpty()) {
+                    StringBuilder names = new StringBuilder();
+                    for (AuctionItem winner : winners)
+                        names.append(names.length() > 0 ? ", " : "").append(winner.getUsername()).append(" (").append(winner.getPrice()).append("€)");
+                    System.out.println("Ganadores del lote " + auction.getId() + ": " + names + ". ¡Enhorabuena!");
+                }
+                else
+                    System.out.println("El lote " + auction.getId() + " se cierra sin pujas.");
+                if (openAuctions.decrementAndGet() == 0 && registrationDone)
+                    flag = true;
+            }
+        }
+    }
+
+    /**
+     * Obtiene un lote por su identificador de producto.
+     *
+     * @param id Identificador del producto (0 para el lote por defecto)
+     * @return Lote, o null si no existe
+     */
+    static Auction findAuction(int id) {
+        return registry.get(id);
+    }
+
+    /**
+     * Indica si todos los lotes han terminado.
+     *
+     * @return True si la subasta ha finalizado
+     */
+    static boolean isFinished() {
+        return flag;
+    }
+
+    /**
+     * Construye el resumen de los lotes registrados.
+     *
+     * @return Texto con un lote por línea
      */
-    public void closeAuction() {
-        flag = true;
-        if(getMaxBid() != null)
-        	System.out.println("GANADOR: " + getMaxBid().getUsername() + " con una cantidad de " + getMaxBid().getPrice() + "€");
+    static String buildAuctionList() {
+        List<Auction> auctions = registry.getAuctions();
+        StringBuilder str = new StringBuilder("\n--------- LOTES EN SUBASTA (" + auctions.size() + ") ---------\n");
+        int listed = 0;
+        for (Auction auction : auctions) {
+            if (listed++ == MAX_LISTED_AUCTIONS) {
+                str.append("... y ").append(auctions.size() - MAX_LISTED_AUCTIONS).append(" lotes más\n");
+                break;
+            }
+            str.append(auction).append("\n");
+        }
+        return str.toString();
     }
 
     /**
@@ -164,15 +1062,22 @@ public class AuctionServer {
             InetAddress clientIPAddress = receivePacket.getAddress();
             int clientPort = receivePacket.getPort();
 
-            System.out.println(clientIPAddress + ":" + clientPort + " solicitó información.");
-
-            String message = "\n--------- INFORMACIÓN DE LA SUBASTA ---------\n" + bids.toString();
+            log.log("%s:%d solicitó información.", clientIPAddress, clientPort);
+            metrics.udpRequest();
 
-            byte[] buffer = message.getBytes();
-            sendPacket = new DatagramPacket(buffer, buffer.length, clientIPAddress, clientPort);
+            ByteBuffer buffer = ByteBuffer.allocate(UdpInfoServer.MAX_REPLY_SIZE);
+            byte[][] chunks = UdpInfoServer.writeReply(new UdpInfoServer.RequestParser().load(receivePacket.getData(), receivePacket.getLength()), buffer);
 
             try {
-                udpSocket.send(sendPacket);
+                if (chunks == null) {
+                    sendPacket = new DatagramPacket(buffer.array(), buffer.position(), clientIPAddress, clientPort);
+                    udpSocket.send(sendPacket);
+                } else {
+                    for (byte[] chunk : chunks) {
+                        sendPacket = new DatagramPacket(chunk, chunk.length, clientIPAddress, clientPort);
+                        udpSocket.send(sendPacket);
+                    }
+                }
             } catch (IOException e) {
             	System.out.print("Error de envío del paquete UDP.");
             }
@@ -197,24 +1102,85 @@ public class AuctionServer {
             }
 
             UDPClientHandler clientHandler = new UDPClientHandler(udpSocket, udpPacket);
-            new Thread(clientHandler).start();
+            startHandler(clientHandler);
         }
     }
 
     /**
      * Maneja la conexión con los clientes y su interacción con el servidor
      */
-    private static class ClientHandler implements Runnable {
+    private static class ClientHandler implements Runnable, BidFrame.Handler {
         private Socket clientSocket;
+        private InputStream inputStream;
+        private OutputStream outputStream;
+        private ObjectOutputStream objectOutputStream;
+        private int bidderId = BidderDirectory.UNKNOWN_BIDDER;
+        private SessionRegistry.Session session;
+        private boolean connected = true;
+        private ByteBuffer ack;
+        private EventFanout.Subscription subscription;
+        private final AdmissionControl.Bucket bucket = newConnectionBucket();
+        private final BidSequencer.Waiter waiter = new BidSequencer.Waiter();
+        // Cerrojo de las escrituras en el socket; no es un monitor para que un hilo virtual que
+        // espera a escribir no bloquee su hilo portador
+        private final ReentrantLock writeLock = new ReentrantLock();
 
         public ClientHandler(Socket clientSocket) {
+            this(clientSocket, null);
+        }
+
+        /**
+         * Constructor para ClientHandler con un stream de entrada propio.
+         *
+         * @param clientSocket Socket del cliente
+         * @param inputStream  Stream de entrada que incluye los bytes ya leídos por el front end NIO
+         */
+        ClientHandler(Socket clientSocket, InputStream inputStream) {
             this.clientSocket = clientSocket;
+            this.inputStream = inputStream;
         }
 
         @Override
         public void run() {
+            try {
+                // El primer byte indica si el cliente usa serialización de Java o el protocolo binario
+                InputStream input = new BufferedInputStream(inputStream != null ? inputStream : clientSocket.getInputStream());
+                input.mark(1);
+                int first = input.read();
+                input.reset();
+
+                if (first < 0)
+                    System.out.println("Cliente desconectado");
+                else if (first == BidFrame.LEGACY_STREAM_MAGIC)
+                    handleObjectStream(input);
+                else
+                    handleFrames(input);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                clientHandlers.remove(this);
+                events.unsubscribe(subscription);
+                closeSession(session);
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Atiende a un cliente que envía objetos AuctionItem serializados.
+         *
+         * @param input Stream de entrada del cliente
+         * @throws IOException Si la conexión falla
+         */
+        private void handleObjectStream(InputStream input) throws IOException {
             try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-                 ObjectInputStream objectInputStream = new ObjectInputStream(clientSocket.getInputStream())) {
+                 ObjectInputStream objectInputStream = new ObjectInputStream(input)) {
+                this.objectOutputStream = objectOutputStream;
+                // Los clientes antiguos reciben los avisos como texto
+                subscribe(null, true);
 
                 // Lógica del servidor para manejar la conexión con el cliente
                 while (true) {
@@ -224,110 +1190,476 @@ public class AuctionServer {
                         if (receivedObject instanceof AuctionItem) {
                             // Lógica para manejar pujas recibidas
                             AuctionItem receivedBid = (AuctionItem) receivedObject;
-                            addAuctionItem(receivedBid);
+                            subscription.setUsername(receivedBid.getUsername());
+                            // El protocolo antiguo envía el nombre en cada puja; la sesión se abre con el primero
+                            if (session == null || !session.getUsername().equals(receivedBid.getUsername())) {
+                                closeSession(session);
+                                session = openSession(receivedBid.getUsername());
+                            }
+                            int bidder = session.getBidderId();
+                            byte result = admit(bucket, bidder)
+                                    ? applyInOrder(BidSequencer.BID, receivedBid.getAuctionId(), bidder, receivedBid.getPrice(), waiter)
+                                    : BidFrame.SLOW_DOWN;
+                            // Cada puja se contesta en el mismo stream, en el orden en que llegan
+                            writeLock.lock();
+                            try {
+                                objectOutputStream.writeObject(describeResult(receivedBid, bidder, result));
+                                objectOutputStream.flush();
+                            } finally {
+                                writeLock.unlock();
+                            }
                         } else if (receivedObject instanceof String && ((String) receivedObject).equalsIgnoreCase("exit")) {
                             // Cliente desea salir
                             System.out.println("Cliente desconectado");
-                            clientHandlers.remove(this);
                             break;
                         }
                     } catch (EOFException eof) {
                         System.out.println("Cliente desconectado");
-                        clientHandlers.remove(this);
                         break;
                     } catch (ClassNotFoundException e) {
                         e.printStackTrace();
                     }
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
+            }
+        }
+
+        /**
+         * Atiende a un cliente que usa el protocolo binario BidFrame, reutilizando un único búfer por conexión.
+         *
+         * @param input Stream de entrada del cliente
+         * @throws IOException Si la conexión falla o el cliente envía una trama no válida
+         */
+        private void handleFrames(InputStream input) throws IOException {
+            DataInputStream dataInputStream = new DataInputStream(input);
+            ByteBuffer frame = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+            outputStream = new BufferedOutputStream(clientSocket.getOutputStream());
+
+            while (connected) {
+                frame.clear();
                 try {
-                    clientSocket.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    frame.putInt(dataInputStream.readInt());
+                } catch (EOFException eof) {
+                    System.out.println("Cliente desconectado");
+                    break;
+                }
+                frame.flip();
+                int size = BidFrame.frameSize(frame);
+                dataInputStream.readFully(frame.array(), 4, size - 4);
+                frame.limit(size);
+                BidFrame.decode(frame, this);
+                // Las respuestas a pujas encadenadas se envían juntas cuando no quedan más por leer
+                if (input.available() == 0) {
+                    writeLock.lock();
+                    try {
+                        outputStream.flush();
+                    } finally {
+                        writeLock.unlock();
+                    }
                 }
             }
         }
+
+        @Override
+        public void onHello(String username, int capabilities) throws IOException {
+            if (bidderId != BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Saludo repetido");
+            welcome(openSession(username), capabilities, false);
+        }
+
+        @Override
+        public void onResume(int bidderId, long token, int capabilities) throws IOException {
+            if (this.bidderId != BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Saludo repetido");
+            SessionRegistry.Session resumed = resumeSession(bidderId, token);
+            if (resumed != null) {
+                welcome(resumed, capabilities, true);
+                return;
+            }
+            // Sesión desconocida: el cliente debe saludar con HELLO en esta misma conexión
+            ByteBuffer frame = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+            BidFrame.encodeWelcome(frame, BidderDirectory.UNKNOWN_BIDDER, 0);
+            outputStream.write(frame.array(), 0, frame.position());
+            outputStream.flush();
+        }
+
+        /**
+         * Asocia la conexión a una sesión, contesta el saludo y la suscribe a los avisos si los pide.
+         */
+        private void welcome(SessionRegistry.Session session, int capabilities, boolean resumed) throws IOException {
+            this.session = session;
+            this.bidderId = session.getBidderId();
+            ByteBuffer frame = ByteBuffer.allocate(MAX_WELCOME_SIZE);
+            encodeWelcome(frame, session, capabilities, resumed);
+            writeLock.lock();
+            try {
+                outputStream.write(frame.array(), 0, frame.position());
+                outputStream.flush();
+            } finally {
+                writeLock.unlock();
+            }
+            if ((capabilities & BidFrame.CAPABILITY_EVENTS) != 0)
+                subscribe(session.getUsername(), false);
+        }
+
+        @Override
+        public void onBid(int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            // Sin respuesta por puja, las pujas que superan el límite se descartan
+            if (admit(bucket, bidderId) && !sequence(BidSequencer.BID, 0, auctionId, bidderId, price, null))
+                placeBid(auctionId, bidderId, price);
+        }
+
+        @Override
+        public void onBidRequest(int correlationId, int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            byte result = admit(bucket, bidderId) ? applyInOrder(BidSequencer.BID, auctionId, bidderId, price, waiter) : BidFrame.SLOW_DOWN;
+            if (ack == null)
+                ack = ByteBuffer.allocate(BidFrame.BID_ACK_FRAME_SIZE);
+            ack.clear();
+            encodeBidAck(ack, correlationId, auctionId, result);
+            writeLock.lock();
+            try {
+                outputStream.write(ack.array(), 0, ack.position());
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void onProxyRequest(int correlationId, int auctionId, int bidderId, int maxPrice, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            byte result = admit(bucket, bidderId) ? applyInOrder(BidSequencer.PROXY, auctionId, bidderId, maxPrice, waiter) : BidFrame.SLOW_DOWN;
+            if (ack == null)
+                ack = ByteBuffer.allocate(BidFrame.BID_ACK_FRAME_SIZE);
+            ack.clear();
+            encodeBidAck(ack, correlationId, auctionId, result);
+            writeLock.lock();
+            try {
+                outputStream.write(ack.array(), 0, ack.position());
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        /**
+         * Suscribe la conexión a los avisos y arranca el hilo que los escribe, de modo que un
+         * cliente que lee despacio sólo retrasa sus propios avisos.
+         *
+         * @param username Usuario de la conexión (null si aún no se conoce)
+         * @param text     True para enviar los avisos como texto
+         */
+        private void subscribe(String username, boolean text) {
+            subscription = events.subscribe(username, text, null);
+            startHandler(this::writeEvents);
+        }
+
+        /**
+         * Escribe los avisos pendientes hasta que se cancela la suscripción o se cierra la conexión.
+         * Las escrituras de avisos y de respuestas se hacen con el cerrojo de escritura del handler.
+         */
+        private void writeEvents() {
+            try {
+                EventFanout.Event event;
+                while ((event = subscription.take()) != null) {
+                    writeLock.lock();
+                    try {
+                        if (subscription.isText())
+                            objectOutputStream.writeObject(event.getText());
+                        else
+                            outputStream.write(event.getFrame());
+                        if (subscription.isEmpty()) {
+                            if (subscription.isText())
+                                objectOutputStream.flush();
+                            else
+                                outputStream.flush();
+                        }
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // El servidor se está cerrando
+            } catch (IOException e) {
+                // La conexión se ha cerrado; el handler lo detecta al leer
+                events.unsubscribe(subscription);
+            }
+        }
+
+        @Override
+        public void onExit() {
+            System.out.println("Cliente desconectado");
+            connected = false;
+        }
+    }
+
+    /**
+     * Atiende con un ClientHandler bloqueante una conexión antigua recibida por el front end NIO.
+     *
+     * @param clientSocket Socket del cliente, ya en modo bloqueante
+     * @param inputStream  Stream de entrada que incluye los bytes ya leídos
+     */
+    static void handOffLegacyConnection(Socket clientSocket, InputStream inputStream) {
+        ClientHandler clientHandler = new ClientHandler(clientSocket, inputStream);
+        clientHandlers.add(clientHandler);
+        startHandler(clientHandler);
+    }
+
+    /**
+     * Ejecuta un handler TCP o UDP en un hilo virtual, si ese modo está activo, o en un hilo de plataforma nuevo.
+     *
+     * @param handler Handler que se ejecuta
+     */
+    private static void startHandler(Runnable handler) {
+        if (handlerExecutor != null)
+            handlerExecutor.execute(handler);
+        else
+            new Thread(handler).start();
+    }
+
+    /**
+     * Crea un ejecutor con un hilo virtual por tarea.
+     * Se obtiene por reflexión para que el servidor siga compilando y ejecutándose en versiones de Java sin hilos virtuales.
+     *
+     * @return Ejecutor de hilos virtuales, o null si la JVM no los soporta
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
 
+    /**
+     * Maneja la conexión de múltiples usuarios con un hilo por cliente.
+     *
+     * @param port Puerto TCP de los clientes
+     * @throws IOException Si no se puede abrir el puerto TCP
+     */
+    private static void handleTCP(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                // Los avisos y las respuestas son escrituras pequeñas e independientes: no se agrupan con Nagle
+                clientSocket.setTcpNoDelay(true);
+                log.log("Nuevo cliente TCP conectado desde: %s", clientSocket.getInetAddress());
+
+                ClientHandler clientHandler = new ClientHandler(clientSocket);
+                clientHandlers.add(clientHandler);
+                startHandler(clientHandler);
+            }
+        }
+    }
 
     /**
      * Método principal para la aplicación AuctionServer.
      *
-     * @param args Argumentos de la línea de comandos (no utilizados en esta aplicación)
+     * @param args Argumentos de la línea de comandos: "--nio" sustituye el hilo por cliente TCP por el front end NIO,
+     *             "--virtual" ejecuta cada handler TCP y UDP en un hilo virtual (Java 21 o superior),
+     *             "--udp-threads" atiende cada datagrama UDP con un UDPClientHandler en lugar de UdpInfoServer,
+     *             "--journal" anota lotes y pujas en el diario del directorio "journal" y los recupera al arrancar,
+     *             "--offheap-history" guarda los precios e instantes del historial de pujas fuera del heap,
+     *             "--replicate" envía lotes y pujas a los servidores seguidores por el puerto de replicación,
+     *             "--follow host:puerto[,host:puerto...]" arranca como seguidor de los líderes indicados, por orden
+     *             de prioridad, y pasa a ser el líder cuando los pierde todos,
+     *             "--port-offset N" suma N a todos los puertos, para arrancar varios servidores en la misma máquina,
+     *             "--sequencer [N]" aplica las pujas TCP en N hilos secuenciadores (uno por procesador si no se indica)
      */
     public static void main(String[] args) {
+        boolean nio = false;
+        boolean udpThreads = false;
+        boolean journaled = false;
+        boolean replicated = false;
+        String[] leaders = null;
+        int portOffset = 0;
+        int sequencerCount = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--nio"))
+                nio = true;
+            else if (arg.equals("--udp-threads"))
+                udpThreads = true;
+            else if (arg.equals("--journal"))
+                journaled = true;
+            else if (arg.equals("--offheap-history"))
+                registry.setOffHeapHistory(true);
+            else if (arg.equals("--replicate"))
+                replicated = true;
+            else if (arg.equals("--follow") && i + 1 < args.length)
+                leaders = args[++i].split(",");
+            else if (arg.equals("--port-offset") && i + 1 < args.length)
+                portOffset = Integer.parseInt(args[++i]);
+            else if (arg.equals("--sequencer"))
+                sequencerCount = i + 1 < args.length && args[i + 1].matches("\\d+")
+                        ? Integer.parseInt(args[++i]) : Runtime.getRuntime().availableProcessors();
+            else if (arg.equals("--virtual")) {
+                handlerExecutor = newVirtualThreadExecutor();
+                if (handlerExecutor == null)
+                    System.out.println("Esta JVM no soporta hilos virtuales; se usarán hilos de plataforma.");
+            }
+        }
 
-        try (ServerSocket serverSocket = new ServerSocket(TCP_PORT)) {
+        try {
             BufferedReader userInput = new BufferedReader(new InputStreamReader(System.in));
 
-            System.out.println("Ingrese la información del producto que se va a subastar:");
-            System.out.print("Nombre: ");
-            String name = userInput.readLine().trim();
-            System.out.print("Descripción: ");
-            String description = userInput.readLine().trim();
-            System.out.print("Precio inicial: ");
-            int initialPrice = Integer.parseInt(userInput.readLine());
+            AuctionServer auctionServer = new AuctionServer();
+            scheduler.start();
+            events.start();
+            log.start();
+            metrics.sample(scheduler);
+            if (sequencerCount > 0)
+                startSequencers(sequencerCount);
+            try {
+                // Publica las métricas por JMX y como texto en un puerto local
+                metrics.registerMBean();
+                metrics.startScrapeServer(METRICS_PORT + portOffset);
+            } catch (IOException | JMException e) {
+                System.out.println("No se pueden publicar las métricas: " + e);
+            }
+            if (replicated || leaders != null) {
+                try {
+                    // Un seguidor también reenvía lo que recibe, por si pasa a ser el líder de otros seguidores
+                    BidReplicator started = new BidReplicator(AuctionServer::snapshot);
+                    started.listen(REPLICATION_PORT + portOffset);
+                    replicator = started;
+                } catch (IOException e) {
+                    System.out.println("No se puede abrir el puerto de replicación: " + e);
+                }
+            }
+            if (leaders != null) {
+                // Un seguidor sólo responde consultas UDP hasta que pasa a ser el líder
+                startUDP(udpThreads, UDP_SERVER_PORT + portOffset);
+                auctionServer.follow(leaders);
+                finishRegistration();
+                openBidFeed();
+                startTCP(nio, TCP_PORT + portOffset);
+                return;
+            }
+            if (journaled) {
+                try {
+                    // Recupera los lotes del diario antes de anotar nada nuevo
+                    auctionServer.recover(new BidJournal(new File(JOURNAL_DIR)));
+                } catch (IOException e) {
+                    System.out.println("No se puede abrir el diario de pujas: " + e);
+                }
+            }
+            String another;
+            do {
+                System.out.println("Ingrese la información del producto que se va a subastar:");
+                System.out.print("Nombre: ");
+                String name = userInput.readLine().trim();
+                System.out.print("Descripción: ");
+                String description = userInput.readLine().trim();
+                System.out.print("Precio inicial: ");
+                int initialPrice = Integer.parseInt(userInput.readLine().trim());
+
+                // Registra el producto como un nuevo lote
+                Auction auction = auctionServer.setProduct(name, description, initialPrice);
+                auction.setFormat(readFormat(userInput, initialPrice));
+                System.out.println("Producto registrado como lote " + auction.getId() + " (subasta " + auction.getFormat().getName() + ").");
+                auctionServer.startAuction(auction);
+
+                System.out.print("¿Añadir otro producto? (s/n): ");
+                another = userInput.readLine();
+            } while (another != null && another.trim().equalsIgnoreCase("s"));
             System.out.println("Subasta iniciada. Esperando ofertas...");
             
             userInput.close();
+            finishRegistration();
+            openBidFeed();
+            startUDP(udpThreads, UDP_SERVER_PORT + portOffset);
+            startTCP(nio, TCP_PORT + portOffset);
 
-            // Establece la información del producto
-            AuctionServer auctionServer = new AuctionServer();
-            auctionServer.setProduct(name, description, initialPrice);
-            AuctionItem item=new AuctionItem("Precio de salida", initialPrice);
-            bids=new ArrayList<>();
-            bids.add(item);
-            startTime = System.currentTimeMillis();
-
-            // Crear un nuevo hilo para manejar la subasta
-            Thread handleAuction=new Thread(() -> handleAuction(product));
-            handleAuction.start();
-            
-            Timer timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    long elapsedTime = System.currentTimeMillis() - startTime;
-                    long remainingTime = AUCTION_DURATION - elapsedTime;
-
-                    if (remainingTime <= 10 * 1000) {
-                        // Muestra el tiempo restante cuando quedan 10 segundos o menos
-                        System.out.println("Tiempo restante: " + (remainingTime / 1000) + " segundos");
-                    }
-
-                    if (remainingTime <= 0) {
-                        auctionServer.closeAuction();
-                        System.out.println("La subasta ha finalizado.");
-                        // Notifica a los clientes conectados sobre el cierre de la subasta (implementación necesaria)
-                        timer.cancel();  // Cancela el temporizador después de cerrar la subasta
-                        System.out.println("El ganador de la subasta es "+bids.get(bids.size()-1).getUsername()+" con una puja de "+bids.get(bids.size()-1).getPrice()+". ¡Enhorabuena!");
-                    }
-                }
-            }, 0, 1000);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
-            try {
-                // Crea DatagramSocket para la comunicación con los clientes y comienza a manejar la comunicación UDP
-                DatagramSocket udpSocket = new DatagramSocket(UDP_SERVER_PORT);
-                new Thread(() -> handleUDP(udpSocket)).start();
-            } catch (IOException e) {
-                System.out.println("Error: " + e);
+    /**
+     * Pregunta el formato de subasta de un lote. Una respuesta vacía elige el valor por defecto.
+     *
+     * @param userInput    Entrada de la consola
+     * @param initialPrice Precio de salida del lote
+     * @return Formato del lote
+     * @throws IOException Si no se puede leer la consola
+     */
+    private static AuctionFormat readFormat(BufferedReader userInput, int initialPrice) throws IOException {
+        System.out.print("Formato (1 inglesa, 2 sobre cerrado, 3 holandesa) [1]: ");
+        String choice = readOption(userInput, "1");
+        if (choice.equals("2")) {
+            System.out.print("Número de ganadores [1]: ");
+            return new SealedBidFormat(Integer.parseInt(readOption(userInput, "1")));
+        }
+        if (choice.equals("3")) {
+            // El reloj nunca baja hasta el precio de salida, que actúa como precio de reserva
+            int defaultPrice = initialPrice * 2 + 1;
+            System.out.print("Precio de partida del reloj [" + defaultPrice + "]: ");
+            int startPrice = Integer.parseInt(readOption(userInput, String.valueOf(defaultPrice)));
+            if (startPrice <= initialPrice) {
+                System.out.println("El precio de partida debe superar al de salida; se usa " + defaultPrice + ".");
+                startPrice = defaultPrice;
             }
+            System.out.print("Bajada por segundo [1]: ");
+            return new DutchFormat(startPrice, Integer.parseInt(readOption(userInput, "1")));
+        }
+        return new EnglishFormat();
+    }
 
-            //Maneja la conexión de múltiples usuarios
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Nuevo cliente TCP conectado desde: " + clientSocket.getInetAddress());
+    private static String readOption(BufferedReader userInput, String defaultValue) throws IOException {
+        String line = userInput.readLine();
+        return line == null || line.trim().isEmpty() ? defaultValue : line.trim();
+    }
 
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                clientHandlers.add(clientHandler);
-                Thread clientH=new Thread(clientHandler);
-                clientH.start();
-            }
+    /**
+     * Abre la publicación multicast de las pujas aceptadas.
+     */
+    private static void openBidFeed() {
+        try {
+            events.setFeed(new BidFeed());
+        } catch (IOException e) {
+            System.out.println("No se puede abrir la publicación multicast: " + e);
+        }
+    }
 
+    /**
+     * Empieza a atender las consultas UDP.
+     *
+     * @param udpThreads True para atender cada datagrama con un UDPClientHandler
+     * @param port       Puerto UDP
+     */
+    private static void startUDP(boolean udpThreads, int port) {
+        try {
+            if (udpThreads) {
+                // Crea DatagramSocket para la comunicación con los clientes y comienza a manejar la comunicación UDP
+                DatagramSocket udpSocket = new DatagramSocket(port);
+                new Thread(() -> handleUDP(udpSocket)).start();
+            } else {
+                // Atiende las solicitudes UDP con un número fijo de hilos y búferes reutilizados
+                new UdpInfoServer(port, UDP_WORKERS, log).start();
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Error: " + e);
+        }
+    }
+
+    /**
+     * Atiende a los clientes TCP; no vuelve mientras el servidor esté en marcha.
+     *
+     * @param nio  True para usar el front end NIO en lugar de un hilo por cliente
+     * @param port Puerto TCP
+     * @throws IOException Si no se puede abrir el puerto TCP
+     */
+    private static void startTCP(boolean nio, int port) throws IOException {
+        //Maneja la conexión de múltiples usuarios
+        if (nio) {
+            System.out.println("Front end TCP NIO con " + NIO_EVENT_LOOPS + " bucles de eventos.");
+            nioServer = new NioBidServer(port, NIO_EVENT_LOOPS);
+            nioServer.run();
+        } else {
+            handleTCP(port);
         }
     }
 }
\ No newline at end of file
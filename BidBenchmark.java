@@ -0,0 +1,528 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * BidBenchmark mide el coste de las operaciones críticas del servidor de subastas.
+ *
+ * Cada prueba se ejecuta en uno o varios hilos durante varias iteraciones de calentamiento y de
+ * medida de duración fija. Se cubren la aceptación de pujas (BidEngine, con uno y con varios hilos
+ * compitiendo por el mismo lote, y anotándolas en el diario), la codificación de una puja con streams de objetos frente al
+ * protocolo BidFrame, la representación de un producto y de la respuesta "info" con historiales de
+ * 10 a 1.000.000 pujas, y la construcción de la respuesta UDP con UdpInfoServer y con el camino de
+ * un UDPClientHandler por datagrama.
+ *
+ * Cada prueba corre en su propia JVM, como los forks de JMH: el proceso principal lanza un proceso
+ * hijo por prueba con ProcessBuilder, con el mismo classpath y las mismas opciones de la JVM, y lee
+ * su resultado. Así el perfilado y la compilación de una prueba no influyen en las demás, y una
+ * prueba da las mismas cifras se ejecute sola (con un filtro) o junto a las otras.
+ *
+ * Los resultados se muestran como tabla y, con "--csv", se añaden a un fichero CSV con una etiqueta
+ * (por ejemplo el commit) para comparar ejecuciones de distintos commits en la misma máquina y con
+ * el mismo JDK.
+ *
+ * Uso: java -Xmx2g BidBenchmark [filtro] [--csv fichero] [--label etiqueta] [--quick]
+ */
+public class BidBenchmark {
+
+    // Iteraciones y duración de cada iteración en milisegundos
+    private static int warmupIterations = 3;
+    private static int measureIterations = 5;
+    private static long iterationMillis = 1000;
+    // Tamaños de historial de las pruebas de representación
+    private static final int[] HISTORY_SIZES = {10, 1000, 100000, 1000000};
+    // Número de pujas tras el que se reinicia el motor, para que el historial no agote la memoria
+    private static final int ENGINE_RESET = 1 << 20;
+    // Columnas del fichero CSV
+    private static final String CSV_HEADER = "label,benchmark,param,threads,ops_per_sec,ns_per_op,ns_per_op_stddev";
+    // Prefijo de la línea con la que un proceso hijo entrega su resultado
+    private static final String RESULT_PREFIX = "@resultado ";
+
+    // Destino de los resultados, para que el compilador no elimine las operaciones medidas
+    private static volatile Object sink;
+
+    /**
+     * Operación medida. Cada hilo tiene su propia instancia.
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Crea la operación de un hilo.
+     */
+    interface Fixture {
+        Operation create(int thread, int threads) throws Exception;
+    }
+
+    /**
+     * Resultado de una prueba.
+     */
+    private static final class Result {
+        private final String name;
+        private final String param;
+        private final int threads;
+        private final double opsPerSecond;
+        private final double nsPerOp;
+        private final double stddev;
+
+        private Result(String name, String param, int threads, double opsPerSecond, double nsPerOp, double stddev) {
+            this.name = name;
+            this.param = param;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+            this.nsPerOp = nsPerOp;
+            this.stddev = stddev;
+        }
+
+        private static Result parse(String csv) {
+            String[] fields = csv.split(",", -1);
+            return new Result(fields[1], fields[2], Integer.parseInt(fields[3]), Double.parseDouble(fields[4]),
+                    Double.parseDouble(fields[5]), Double.parseDouble(fields[6]));
+        }
+
+        private String toCsv(String label) {
+            return String.format(Locale.ROOT, "%s,%s,%s,%d,%.1f,%.2f,%.2f", label, name, param, threads, opsPerSecond, nsPerOp, stddev);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-32s %-14s %3d %16.1f %14.2f ± %.2f", name, param, threads, opsPerSecond, nsPerOp, stddev);
+        }
+    }
+
+    private final String filter;
+    // Prueba que ejecuta un proceso hijo (nombre, parámetro e hilos), o null en el proceso principal
+    private final String[] only;
+    // Pruebas seleccionadas por el proceso principal, que las ejecuta cada una en un proceso hijo
+    private final List<String[]> selected = new ArrayList<>();
+    private final List<Result> results = new ArrayList<>();
+
+    private BidBenchmark(String filter, String[] only) {
+        this.filter = filter;
+        this.only = only;
+    }
+
+    /**
+     * Ejecuta una prueba si su nombre contiene el filtro. En el proceso principal sólo se apunta, sin
+     * crear sus operaciones; en un proceso hijo sólo se ejecuta la prueba que se le ha pedido.
+     *
+     * @param name    Nombre de la prueba
+     * @param param   Parámetro de la prueba (tamaño del historial, bytes por puja...)
+     * @param threads Número de hilos
+     * @param fixture Creador de la operación de cada hilo
+     */
+    private void run(String name, String param, int threads, Fixture fixture) throws Exception {
+        if (filter != null && !name.contains(filter))
+            return;
+        if (only == null) {
+            selected.add(new String[] {name, param, String.valueOf(threads)});
+            return;
+        }
+        if (!only[0].equals(name) || !only[1].equals(param) || !only[2].equals(String.valueOf(threads)))
+            return;
+        Operation[] operations = new Operation[threads];
+        for (int i = 0; i < threads; i++)
+            operations[i] = fixture.create(i, threads);
+
+        double[] nsPerOp = new double[measureIterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < warmupIterations + measureIterations; i++) {
+            long[] measured = iterate(operations);
+            if (i >= warmupIterations) {
+                nsPerOp[i - warmupIterations] = (double) measured[1] * threads / measured[0];
+                totalOps += measured[0];
+                totalNanos += measured[1];
+            }
+        }
+
+        double mean = (double) totalNanos * threads / totalOps;
+        double variance = 0;
+        for (double value : nsPerOp)
+            variance += (value - mean) * (value - mean);
+        Result result = new Result(name, param, threads, totalOps * 1e9 / totalNanos, mean,
+                Math.sqrt(variance / Math.max(1, measureIterations - 1)));
+        results.add(result);
+        System.out.println(RESULT_PREFIX + result.toCsv(""));
+    }
+
+    /**
+     * Ejecuta cada prueba seleccionada en un proceso hijo, con el mismo classpath y las mismas
+     * opciones de la JVM, y recoge su resultado.
+     *
+     * @param quick True para pasar "--quick" a los procesos hijos
+     */
+    private void fork(boolean quick) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (String[] benchmark : selected) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(BidBenchmark.class.getName());
+            command.add("--fork");
+            command.add(benchmark[0]);
+            command.add(benchmark[1]);
+            command.add(benchmark[2]);
+            if (quick)
+                command.add("--quick");
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            Result result = null;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith(RESULT_PREFIX))
+                        result = Result.parse(line.substring(RESULT_PREFIX.length()));
+                    else
+                        System.out.println(line);
+                }
+            }
+            int status = process.waitFor();
+            if (status != 0 || result == null)
+                throw new IOException("La prueba " + benchmark[0] + " (" + benchmark[1] + ", " + benchmark[2]
+                        + " hilos) ha terminado con el código " + status + " sin resultado");
+            results.add(result);
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Ejecuta una iteración: todos los hilos repiten su operación hasta que se agota el tiempo.
+     *
+     * @param operations Operación de cada hilo
+     * @return Número total de operaciones y duración de la iteración en nanosegundos
+     */
+    private static long[] iterate(Operation[] operations) throws Exception {
+        final long[] counts = new long[operations.length];
+        final Exception[] errors = new Exception[1];
+        final CountDownLatch ready = new CountDownLatch(operations.length);
+        final CountDownLatch go = new CountDownLatch(1);
+        final Object lock = new Object();
+        Thread[] threads = new Thread[operations.length];
+        final Stop flag = new Stop();
+
+        for (int i = 0; i < operations.length; i++) {
+            final int index = i;
+            final Operation operation = operations[i];
+            threads[i] = new Thread(() -> {
+                long count = 0;
+                try {
+                    ready.countDown();
+                    go.await();
+                    while (!flag.stopped) {
+                        operation.run();
+                        count++;
+                    }
+                } catch (Exception e) {
+                    synchronized (lock) {
+                        errors[0] = e;
+                    }
+                }
+                counts[index] = count;
+            }, "bench-" + i);
+            threads[i].start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        Thread.sleep(iterationMillis);
+        flag.stopped = true;
+        for (Thread thread : threads)
+            thread.join();
+        long elapsed = System.nanoTime() - start;
+        synchronized (lock) {
+            if (errors[0] != null)
+                throw errors[0];
+        }
+
+        long total = 0;
+        for (long count : counts)
+            total += count;
+        return new long[] {Math.max(1, total), elapsed};
+    }
+
+    /**
+     * Señal de fin de iteración compartida por los hilos.
+     */
+    private static final class Stop {
+        private volatile boolean stopped;
+    }
+
+    /**
+     * Motor compartido por los hilos de las pruebas de aceptación de pujas. El hilo 0 lo sustituye
+     * por uno vacío cada ENGINE_RESET pujas; los demás hilos vuelven a empezar sus precios al verlo.
+     */
+    private static final class SharedEngine {
+        private volatile BidEngine engine = newEngine();
+
+        private static BidEngine newEngine() {
+            return new BidEngine(new AuctionItem(1, "Precio de salida", 0));
+        }
+    }
+
+    /**
+     * Prueba la aceptación de pujas con precios crecientes. Con varios hilos, los precios de los
+     * hilos se intercalan y parte de las pujas se rechazan, como en una guerra de pujas.
+     */
+    private void benchmarkBids(int threads) throws Exception {
+        benchmarkBids("bid.submit", threads, null);
+    }
+
+    /**
+     * Prueba la aceptación de pujas anotando cada puja aceptada en un diario temporal.
+     */
+    private void benchmarkJournaledBids(int threads) throws Exception {
+        if (filter != null && !"bid.submitJournaled".contains(filter))
+            return;
+        if (only == null || !only[0].equals("bid.submitJournaled")) {
+            // Sin diario: la prueba sólo se apunta, o es otra la que se ejecuta
+            benchmarkBids("bid.submitJournaled", threads, null);
+            return;
+        }
+        File directory = Files.createTempDirectory("bid-journal").toFile();
+        try {
+            BidJournal journal = new BidJournal(directory);
+            journal.start(empty -> { });
+            benchmarkBids("bid.submitJournaled", threads, journal);
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    private void benchmarkBids(String name, int threads, final BidJournal journal) throws Exception {
+        final SharedEngine shared = new SharedEngine();
+        run(name, "-", threads, (thread, count) -> new Operation() {
+            private BidEngine current;
+            private int local;
+
+            public void run() {
+                BidEngine engine = shared.engine;
+                if (engine != current) {
+                    current = engine;
+                    local = 0;
+                }
+                if (++local == ENGINE_RESET && thread == 0)
+                    shared.engine = SharedEngine.newEngine();
+                AuctionItem bid = new AuctionItem(1, "pujador", local * count + thread);
+                int sequence = engine.submit(bid);
+                if (sequence > 0 && journal != null)
+                    journal.appendBid(bid, sequence);
+            }
+        });
+    }
+
+    /**
+     * Prueba la codificación y decodificación de una puja con streams de objetos y con BidFrame.
+     */
+    private void benchmarkSerialization() throws Exception {
+        // Stream de objetos, como ObjectBidWriter en el cliente
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.flush();
+        bytes.reset();
+        objectOut.writeObject(new AuctionItem(1, "pujador", 100));
+        objectOut.flush();
+        int objectSize = bytes.size();
+        run("serialize.objectStream.write", objectSize + " bytes", 1, (thread, count) -> () -> {
+            bytes.reset();
+            objectOut.writeObject(new AuctionItem(1, "pujador", 100));
+            objectOut.flush();
+        });
+
+        // Lectura de un stream con muchas pujas, como ClientHandler en el servidor
+        final int batch = 4096;
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ObjectOutputStream batchOut = new ObjectOutputStream(written);
+        for (int i = 0; i < batch; i++)
+            batchOut.writeObject(new AuctionItem(1, "pujador", i));
+        batchOut.close();
+        final byte[] stream = written.toByteArray();
+        run("serialize.objectStream.read", objectSize + " bytes", 1, (thread, count) -> new Operation() {
+            private ObjectInputStream in;
+            private int remaining;
+
+            public void run() throws Exception {
+                if (remaining == 0) {
+                    in = new ObjectInputStream(new ByteArrayInputStream(stream));
+                    remaining = batch;
+                }
+                sink = in.readObject();
+                remaining--;
+            }
+        });
+
+        final ByteBuffer frame = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+        run("serialize.bidFrame.write", BidFrame.BID_FRAME_SIZE + " bytes", 1, (thread, count) -> () -> {
+            frame.clear();
+            BidFrame.encodeBid(frame, 1, 42, 100, System.currentTimeMillis());
+        });
+
+        final ByteBuffer encoded = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+        BidFrame.encodeBid(encoded, 1, 42, 100, System.currentTimeMillis());
+        encoded.flip();
+        final long[] total = new long[1];
+        final BidFrame.Handler handler = new BidFrame.Handler() {
+            @Override
+            public void onBid(int auctionId, int bidderId, int price, long clientTime) {
+                total[0] += price;
+            }
+        };
+        run("serialize.bidFrame.read", BidFrame.BID_FRAME_SIZE + " bytes", 1, (thread, count) -> () -> {
+            encoded.rewind();
+            BidFrame.decode(encoded, handler);
+        });
+        sink = total;
+    }
+
+    /**
+     * Prueba la representación de un lote según el tamaño de su historial: Product.toString(), que
+     * recorre todas las pujas, frente a la respuesta "info" de SnapshotCache, que sólo incluye las
+     * más recientes y se vuelve a codificar tras cada puja aceptada.
+     */
+    private void benchmarkSnapshots() throws Exception {
+        for (final int size : HISTORY_SIZES) {
+            run("snapshot.productToString", String.valueOf(size), 1, (thread, count) -> {
+                Product product = new Product(1, "Lote", "Producto de prueba", 0);
+                for (int i = 1; i <= size; i++)
+                    product.addBid("pujador" + (i % 100), i);
+                return () -> sink = product.toString();
+            });
+            sink = null;
+
+            run("snapshot.info", String.valueOf(size), 1, (thread, count) -> {
+                Auction auction = new Auction(new Product(1, "Lote", "Producto de prueba", 0));
+                auction.start(System.currentTimeMillis(), Long.MAX_VALUE / 2);
+                for (int i = 1; i <= size; i++)
+                    auction.submit(new AuctionItem(1, "pujador" + (i % 100), i));
+                final int[] price = {size};
+                return () -> {
+                    auction.submit(new AuctionItem(1, "pujador", ++price[0]));
+                    sink = auction.getSnapshotCache().getInfo();
+                };
+            });
+            sink = null;
+        }
+    }
+
+    /**
+     * Prueba la construcción de la respuesta UDP a "info" para un lote con pujas: con los búferes
+     * reutilizados de UdpInfoServer y con las asignaciones de un UDPClientHandler por datagrama.
+     */
+    private void benchmarkUdpReplies(int threads) throws Exception {
+        Auction auction = new AuctionServer().setProduct("Lote", "Producto de prueba", 0);
+        auction.start(System.currentTimeMillis(), Long.MAX_VALUE / 2);
+        for (int i = 1; i <= 100; i++)
+            auction.submit(new AuctionItem(auction.getId(), "pujador" + i, i));
+        final byte[] request = ("info " + auction.getId()).getBytes();
+        final InetAddress address = InetAddress.getLoopbackAddress();
+
+        for (int t : new int[] {1, threads}) {
+            run("udp.reply", "info", t, (thread, count) -> {
+                UdpInfoServer.RequestParser parser = new UdpInfoServer.RequestParser();
+                ByteBuffer reply = ByteBuffer.allocateDirect(UdpInfoServer.MAX_REPLY_SIZE);
+                return () -> {
+                    parser.load(request, request.length);
+                    reply.clear();
+                    UdpInfoServer.writeReply(parser, reply);
+                };
+            });
+            run("udp.replyPerDatagram", "info", t, (thread, count) -> () -> {
+                ByteBuffer buffer = ByteBuffer.allocate(UdpInfoServer.MAX_REPLY_SIZE);
+                UdpInfoServer.writeReply(new UdpInfoServer.RequestParser().load(request, request.length), buffer);
+                sink = new DatagramPacket(buffer.array(), buffer.position(), address, 9876);
+            });
+            if (threads == 1)
+                break;
+        }
+    }
+
+    /**
+     * Añade los resultados a un fichero CSV, escribiendo la cabecera si el fichero es nuevo.
+     */
+    private void writeCsv(String path, String label) throws IOException {
+        boolean exists = new File(path).length() > 0;
+        try (PrintWriter out = new PrintWriter(new FileWriter(path, true))) {
+            if (!exists)
+                out.println(CSV_HEADER);
+            for (Result result : results)
+                out.println(result.toCsv(label));
+        }
+    }
+
+    /**
+     * Método principal para la aplicación BidBenchmark.
+     *
+     * @param args Filtro por nombre de prueba, "--csv fichero", "--label etiqueta" y "--quick" (una iteración de cada tipo);
+     *             los procesos hijos reciben "--fork prueba parámetro hilos"
+     * @throws Exception Si falla alguna prueba
+     */
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        String csv = null;
+        String label = "";
+        String[] only = null;
+        boolean quick = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--csv"))
+                csv = args[++i];
+            else if (args[i].equals("--label"))
+                label = args[++i];
+            else if (args[i].equals("--fork")) {
+                only = new String[] {args[i + 1], args[i + 2], args[i + 3]};
+                i += 3;
+            } else if (args[i].equals("--quick")) {
+                quick = true;
+                warmupIterations = 1;
+                measureIterations = 1;
+                iterationMillis = 500;
+            } else
+                filter = args[i];
+        }
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        BidBenchmark benchmark = new BidBenchmark(filter, only);
+        if (only == null)
+            System.out.println(String.format(Locale.ROOT, "%-32s %-14s %3s %16s %14s", "Prueba", "Parámetro", "Hil", "ops/s", "ns/op"));
+        benchmark.benchmarkBids(1);
+        benchmark.benchmarkBids(threads);
+        benchmark.benchmarkJournaledBids(1);
+        benchmark.benchmarkJournaledBids(threads);
+        benchmark.benchmarkSerialization();
+        benchmark.benchmarkSnapshots();
+        benchmark.benchmarkUdpReplies(threads);
+        if (only != null)
+            return;
+        benchmark.fork(quick);
+
+        if (csv != null) {
+            benchmark.writeCsv(csv, label);
+            System.out.println("Resultados añadidos a " + csv);
+        }
+    }
+}
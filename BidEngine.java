@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * BidEngine decide la aceptación de pujas sin utilizar cerrojos.
+ *
+ * La puja ganadora se guarda en una referencia atómica que se actualiza mediante compare-and-set,
+ * junto con su número de secuencia, de modo que el propio CAS que acepta una puja le asigna también
+ * su posición en el historial. Las pujas aceptadas se guardan por columnas en un BidHistory.
+ * Se mantiene la regla original: gana la puja estrictamente mayor. A igual precio se queda la que ya
+ * va ganando, sea cual sea el instante de cada una, así que dos pujas simultáneas del mismo precio
+ * nunca se aceptan las dos.
+ *
+ * El cierre del lote también se decide con un compare-and-set sobre la misma referencia: una puja se
+ * acepta antes del cierre o no se acepta, así que la ganadora que se anuncia al cerrar es la misma
+ * que se obtiene al reproducir el diario o en un seguidor.
+ */
+public class BidEngine {
+
+    /**
+     * Puja ganadora inmutable, su número de secuencia y si el lote ya no admite pujas.
+     */
+    private static final class Leader {
+        private final AuctionItem bid;
+        private final int count;
+        private final boolean closed;
+
+        private Leader(AuctionItem bid, int count, boolean closed) {
+            this.bid = bid;
+            this.count = count;
+            this.closed = closed;
+        }
+    }
+
+    // Puja ganadora y número de pujas aceptadas
+    private final AtomicReference<Leader> head;
+    // Pujas aceptadas, por columnas
+    private final BidHistory history;
+    // Número de compare-and-set fallidos porque otra puja ganó la carrera
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Constructor para BidEngine, con un directorio de pujadores propio y el historial en el heap.
+     *
+     * @param openingBid Puja inicial (precio de salida) que abre el historial
+     */
+    public BidEngine(AuctionItem openingBid) {
+        this(openingBid, new BidderDirectory(), false);
+    }
+
+    /**
+     * Constructor para BidEngine.
+     *
+     * @param openingBid Puja inicial (precio de salida) que abre el historial
+     * @param bidders    Directorio en el que se registran los nombres de los pujadores del historial
+     * @param offHeap    True para guardar precios e instantes del historial fuera del heap
+     */
+    public BidEngine(AuctionItem openingBid, BidderDirectory bidders, boolean offHeap) {
+        this.history = new BidHistory(openingBid.getAuctionId(), bidders, offHeap);
+        this.history.set(0, openingBid);
+        this.head = new AtomicReference<>(new Leader(openingBid, 1, false));
+    }
+
+    /**
+     * Intenta aceptar una puja. La decisión no toma ningún cerrojo: si otra puja gana la carrera,
+     * se vuelve a comparar con el nuevo valor hasta que la puja se acepta o deja de ser mayor.
+     *
+     * Una puja aceptada queda con el identificador de su pujador (AuctionItem.getBidderId), aunque
+     * llegase sólo con el nombre.
+     *
+     * @param bid Puja recibida
+     * @return Posición de la puja en el historial (su número de secuencia), o 0 si no supera a la
+     *         ganadora o el motor está cerrado
+     */
+    public int submit(AuctionItem bid) {
+        return accept(bid, false);
+    }
+
+    /**
+     * Aplica una puja que ya se aceptó, leída del diario o recibida del líder, con la misma regla que
+     * submit pero aunque el motor esté cerrado: la puja se aceptó antes del cierre, pero el hilo que la
+     * aceptó puede anotarla después de que otro anote el cierre.
+     *
+     * @param bid Puja aceptada
+     * @return Posición de la puja en el historial, o 0 si no supera a la ganadora
+     */
+    public int restore(AuctionItem bid) {
+        return accept(bid, true);
+    }
+
+    private int accept(AuctionItem bid, boolean evenIfClosed) {
+        Leader current = head.get();
+        if ((current.closed && !evenIfClosed) || bid.getPrice() <= current.bid.getPrice())
+            return 0;
+
+        // Lo que puede fallar se hace antes del CAS: una posición publicada sin escribir dejaría
+        // esperando para siempre a quien la lea
+        int bidderId = history.bidderIdOf(bid);
+        bid.setBidderId(bidderId);
+        history.reserve(current.count);
+        Leader candidate = new Leader(bid, current.count + 1, current.closed);
+        while (!head.compareAndSet(current, candidate)) {
+            retries.increment();
+            current = head.get();
+            if ((current.closed && !evenIfClosed) || bid.getPrice() <= current.bid.getPrice())
+                return 0;
+            history.reserve(current.count);
+            candidate = new Leader(bid, current.count + 1, current.closed);
+        }
+        history.write(candidate.count - 1, bid, bidderId);
+        return candidate.count;
+    }
+
+    /**
+     * Añade una puja al historial sin compararla con la ganadora, y pasa a ser la ganadora. Lo usan
+     * los formatos que eligen a varios ganadores al cerrar, que pueden tener el mismo precio; deben
+     * añadirlos de peor a mejor para que la ganadora sea la mejor. Funciona también con el motor
+     * cerrado.
+     *
+     * @param bid Puja ganadora
+     * @return Posición de la puja en el historial (su número de secuencia)
+     */
+    public int award(AuctionItem bid) {
+        int bidderId = history.bidderIdOf(bid);
+        bid.setBidderId(bidderId);
+        Leader current;
+        Leader candidate;
+        do {
+            current = head.get();
+            history.reserve(current.count);
+            candidate = new Leader(bid, current.count + 1, current.closed);
+        } while (!head.compareAndSet(current, candidate));
+        history.write(candidate.count - 1, bid, bidderId);
+        return candidate.count;
+    }
+
+    /**
+     * Deja de aceptar pujas con submit. Las pujas que ganaron el compare-and-set antes siguen
+     * aceptadas; las demás se rechazan.
+     *
+     * @return True si el motor se ha cerrado con esta llamada
+     */
+    public boolean close() {
+        while (true) {
+            Leader current = head.get();
+            if (current.closed)
+                return false;
+            if (head.compareAndSet(current, new Leader(current.bid, current.count, true)))
+                return true;
+        }
+    }
+
+    /**
+     * Indica si el motor ya no acepta pujas con submit.
+     *
+     * @return True si está cerrado
+     */
+    public boolean isClosed() {
+        return head.get().closed;
+    }
+
+    /**
+     * Obtiene la puja ganadora en este momento.
+     *
+     * @return AuctionItem con la oferta máxima
+     */
+    public AuctionItem getBest() {
+        return head.get().bid;
+    }
+
+    /**
+     * Obtiene el número de compare-and-set fallidos, es decir, cuántas veces una puja ha tenido que
+     * volver a compararse porque otra se aceptó a la vez.
+     *
+     * @return Número de reintentos
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Obtiene el número de pujas del historial, incluido el precio de salida.
+     * Coincide con el número de secuencia de la puja ganadora.
+     *
+     * @return Número de pujas aceptadas
+     */
+    public int size() {
+        return head.get().count;
+    }
+
+    /**
+     * Obtiene el historial por columnas, para recorrerlo sin crear un AuctionItem por puja.
+     * Sólo deben leerse las posiciones menores que size().
+     *
+     * @return Historial de pujas aceptadas
+     */
+    public BidHistory getColumns() {
+        return history;
+    }
+
+    /**
+     * Copia las pujas más recientes del historial, sin recorrer el resto.
+     *
+     * @param limit Número máximo de pujas
+     * @param out   Lista en la que se añaden las pujas, de la más antigua a la más reciente
+     * @return Número de secuencia de la puja más reciente copiada (versión del historial)
+     */
+    public int getRecent(int limit, List<AuctionItem> out) {
+        int count = size();
+        history.copy(Math.max(0, count - limit), count, out);
+        return count;
+    }
+
+    /**
+     * Copia las pujas aceptadas después de una versión dada del historial.
+     *
+     * @param version Número de secuencia de la última puja que ya se conoce
+     * @param limit   Número máximo de pujas; si hay más, se copian las más antiguas
+     * @param out     Lista en la que se añaden las pujas, de la más antigua a la más reciente
+     * @return Número de secuencia de la puja más reciente del historial
+     */
+    public int getSince(int version, int limit, List<AuctionItem> out) {
+        int count = size();
+        // En long para que un límite como Integer.MAX_VALUE no desborde la suma
+        history.copy(Math.max(0, version), (int) Math.min(count, (long) version + limit), out);
+        return count;
+    }
+
+    /**
+     * Obtiene una copia del historial de pujas aceptadas, en orden de aceptación.
+     *
+     * @return Lista de pujas, de la más antigua a la más reciente
+     */
+    public List<AuctionItem> getHistory() {
+        int count = size();
+        List<AuctionItem> out = new ArrayList<>(count);
+        history.copy(0, count, out);
+        return out;
+    }
+}
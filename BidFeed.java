@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+
+/**
+ * BidFeed publica cada puja aceptada como un datagrama pequeño en un grupo multicast.
+ *
+ * Cada datagrama lleva el lote, el número de secuencia de la puja en ese lote, el precio, la hora y
+ * el nombre del pujador. Un cliente que recibe un número de secuencia mayor que el siguiente
+ * esperado sabe que ha perdido datagramas y pide una instantánea por UDP unicast ("snapshot <id>"),
+ * que usa el mismo formato con otro tipo de mensaje.
+ *
+ * Las pujas las publica el hilo de reparto de EventFanout, en orden de secuencia dentro de cada lote,
+ * así que un hueco en la secuencia indica un datagrama perdido o reordenado por la red, no dos pujas
+ * publicadas a la vez desde hilos distintos.
+ */
+public class BidFeed {
+
+    // Grupo y puerto multicast en los que se publican las pujas
+    public static final String GROUP = "230.0.0.1";
+    public static final int PORT = 9877;
+
+    // Tipos de datagrama
+    public static final byte DELTA = 1;
+    public static final byte SNAPSHOT = 2;
+
+    // Tamaño de la cabecera: tipo, lote, secuencia, precio, hora y longitud del nombre
+    public static final int HEADER_SIZE = 1 + 4 + 4 + 4 + 8 + 2;
+    // Tamaño máximo de un datagrama de la publicación
+    public static final int MAX_DATAGRAM_SIZE = 512;
+
+    /**
+     * Recibe los datagramas decodificados.
+     */
+    public interface Listener {
+        void onUpdate(byte type, int auctionId, int sequence, int price, long time, String username);
+    }
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress group;
+    // Búfer de codificación; sólo publica un hilo
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    // Indica si ya se ha avisado de un error de envío
+    private volatile boolean failed;
+
+    /**
+     * Constructor para BidFeed.
+     *
+     * @throws IOException Si no se puede abrir el canal de publicación
+     */
+    public BidFeed() throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(GROUP), PORT);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+    }
+
+    /**
+     * Abre un canal que recibe la publicación, unido al grupo en todas las interfaces activas que
+     * admiten multicast. El canal queda en modo bloqueante.
+     *
+     * @return Canal unido al grupo
+     * @throws IOException Si no se puede abrir el canal o ninguna interfaz admite multicast
+     */
+    public static DatagramChannel openReceiver() throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        InetAddress group = InetAddress.getByName(GROUP);
+        int joined = 0;
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(PORT));
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || !networkInterface.supportsMulticast())
+                    continue;
+                try {
+                    channel.join(group, networkInterface);
+                    joined++;
+                } catch (IOException e) {
+                    // Interfaz sin dirección IPv4
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (joined == 0) {
+            channel.close();
+            throw new IOException("Ninguna interfaz admite multicast");
+        }
+        return channel;
+    }
+
+    /**
+     * Publica una puja aceptada. Sólo debe llamarlo un hilo.
+     *
+     * @param bid      Puja aceptada
+     * @param sequence Número de secuencia de la puja en su lote
+     */
+    public void publish(AuctionItem bid, int sequence) {
+        buffer.clear();
+        encode(buffer, DELTA, bid, sequence);
+        buffer.flip();
+        try {
+            channel.send(buffer, group);
+        } catch (IOException e) {
+            if (!failed) {
+                failed = true;
+                System.out.println("Error de envío de la publicación multicast: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Codifica un datagrama de la publicación.
+     *
+     * @param out      Búfer de salida
+     * @param type     DELTA o SNAPSHOT
+     * @param bid      Puja ganadora
+     * @param sequence Número de secuencia de la puja en su lote
+     */
+    public static void encode(ByteBuffer out, byte type, AuctionItem bid, int sequence) {
+        byte[] name = bid.getUsername().getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, MAX_DATAGRAM_SIZE - HEADER_SIZE);
+        // Un nombre recortado termina en un carácter completo, no a mitad de su secuencia UTF-8
+        while (nameLength < name.length && nameLength > 0 && (name[nameLength] & 0xC0) == 0x80)
+            nameLength--;
+        out.put(type);
+        out.putInt(bid.getAuctionId());
+        out.putInt(sequence);
+        out.putInt(bid.getPrice());
+        out.putLong(bid.getTime());
+        out.putShort((short) nameLength);
+        out.put(name, 0, nameLength);
+    }
+
+    /**
+     * Decodifica un datagrama de la publicación.
+     *
+     * @param data     Datos recibidos
+     * @param length   Longitud de los datos
+     * @param listener Receptor del datagrama decodificado
+     * @return True si el datagrama es de la publicación, false si es otro tipo de mensaje
+     */
+    public static boolean decode(byte[] data, int length, Listener listener) {
+        if (length < HEADER_SIZE || (data[0] != DELTA && data[0] != SNAPSHOT))
+            return false;
+        ByteBuffer in = ByteBuffer.wrap(data, 0, length);
+        byte type = in.get();
+        int auctionId = in.getInt();
+        int sequence = in.getInt();
+        int price = in.getInt();
+        long time = in.getLong();
+        int nameLength = in.getShort() & 0xFFFF;
+        if (nameLength > in.remaining())
+            return false;
+        String username = new String(data, in.position(), nameLength, StandardCharsets.UTF_8);
+        listener.onUpdate(type, auctionId, sequence, price, time, username);
+        return true;
+    }
+}
@@ -0,0 +1,444 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * BidFrame define el protocolo binario de pujas sobre TCP.
+ *
+ * Cada trama empieza por su longitud (int, sin contarse a sí misma), la versión del protocolo y el
+ * tipo de mensaje. Al conectar, el cliente envía HELLO con su nombre y las capacidades que soporta;
+ * el servidor responde WELCOME con el identificador numérico asignado al pujador, y a partir de ahí
+ * cada puja viaja como BID: lote, pujador, precio y marca de tiempo del cliente, sin cadenas.
+ *
+ * Si ambos extremos aceptan CAPABILITY_BID_ACKS, las pujas viajan como BID_REQUEST con un
+ * identificador de correlación elegido por el cliente, y el servidor contesta cada una con BID_ACK:
+ * el mismo identificador, el resultado y el precio de la puja ganadora. El cliente puede enviar
+ * muchas pujas seguidas sin esperar y emparejar cada respuesta por su identificador: sin
+ * secuenciador las respuestas llegan en el orden de las pujas, pero con --sequencer las pujas de
+ * lotes de distintos secuenciadores, y los rechazos que no pasan por ellos (SLOW_DOWN), pueden
+ * contestarse en otro orden.
+ *
+ * Con CAPABILITY_PROXY_BIDS el cliente puede enviar PROXY_REQUEST, con el mismo formato que
+ * BID_REQUEST pero con el precio máximo que está dispuesto a pagar: el servidor puja por él cuando
+ * haga falta y contesta con BID_ACK (ACCEPTED si el pujador va ganando, OUTBID si no).
+ *
+ * Con CAPABILITY_EVENTS el servidor envía además, sin que se pidan, tramas EVENT con los cambios de
+ * precio, las pujas superadas del propio pujador y los cierres de los lotes.
+ *
+ * Con CAPABILITY_SESSIONS el servidor envía tras WELCOME una trama SESSION con la clave de la sesión
+ * del pujador. Si la conexión se pierde, el cliente puede abrir otra y enviar RESUME con su
+ * identificador y esa clave en lugar de HELLO; el servidor contesta WELCOME con el mismo
+ * identificador, otra trama SESSION y un EVENT PRICE_CHANGED (o AUCTION_CLOSED) por cada lote en el
+ * que el pujador ha pujado. Si no reconoce la sesión, contesta WELCOME con UNKNOWN_BIDDER y el
+ * cliente debe saludar con HELLO.
+ *
+ * Un stream de serialización de Java empieza siempre por el byte 0xAC, que nunca puede ser el
+ * primer byte de la longitud de una trama: así el servidor distingue a los clientes antiguos.
+ *
+ * Los métodos de codificación escriben en el búfer recibido y la decodificación entrega los campos
+ * como tipos primitivos, de modo que enviar o recibir una puja no crea objetos.
+ */
+public final class BidFrame {
+
+    // Versión del protocolo
+    public static final byte VERSION = 1;
+
+    // Tipos de mensaje
+    public static final byte HELLO = 1;
+    public static final byte WELCOME = 2;
+    public static final byte BID = 3;
+    public static final byte EXIT = 4;
+    public static final byte BID_REQUEST = 5;
+    public static final byte BID_ACK = 6;
+    public static final byte EVENT = 7;
+    public static final byte PROXY_REQUEST = 8;
+    public static final byte SESSION = 9;
+    public static final byte RESUME = 10;
+
+    // Capacidades anunciadas en el saludo
+    public static final int CAPABILITY_BINARY_BIDS = 1;
+    public static final int CAPABILITY_BID_ACKS = 2;
+    public static final int CAPABILITY_EVENTS = 4;
+    public static final int CAPABILITY_PROXY_BIDS = 8;
+    public static final int CAPABILITY_SESSIONS = 16;
+    // Capacidades que soporta esta versión
+    public static final int SUPPORTED_CAPABILITIES = CAPABILITY_BINARY_BIDS | CAPABILITY_BID_ACKS | CAPABILITY_EVENTS
+            | CAPABILITY_PROXY_BIDS | CAPABILITY_SESSIONS;
+
+    // Resultados de una puja en BID_ACK
+    public static final byte ACCEPTED = 0;
+    public static final byte OUTBID = 1;
+    public static final byte CLOSED = 2;
+    public static final byte UNKNOWN_AUCTION = 3;
+    public static final byte UNKNOWN_BIDDER = 4;
+    // El cliente supera su ritmo de pujas o el servidor está saturado: la puja no se ha procesado
+    public static final byte SLOW_DOWN = 5;
+    // El pujador ya tiene una puja en un lote en sobre cerrado, que sólo admite una por pujador
+    public static final byte ALREADY_BID = 6;
+    // El formato del lote no admite este tipo de puja (pujas máximas fuera de la subasta inglesa)
+    public static final byte NOT_SUPPORTED = 7;
+    // El servidor no ha podido aplicar la puja por un error interno; el cliente puede volver a enviarla
+    public static final byte ERROR = 8;
+
+    // Tipos de aviso en EVENT
+    public static final byte PRICE_CHANGED = 1;
+    public static final byte BID_OUTBID = 2;
+    public static final byte AUCTION_CLOSED = 3;
+
+    // Primer byte de un stream de serialización de Java (0xACED)
+    public static final int LEGACY_STREAM_MAGIC = 0xAC;
+
+    // Tamaño de la cabecera: longitud, versión y tipo
+    public static final int HEADER_SIZE = 4 + 1 + 1;
+    // Tamaño de una trama BID completa
+    public static final int BID_FRAME_SIZE = HEADER_SIZE + 4 + 4 + 4 + 8;
+    // Tamaño de una trama BID_REQUEST completa
+    public static final int BID_REQUEST_FRAME_SIZE = BID_FRAME_SIZE + 4;
+    // Tamaño de una trama BID_ACK completa
+    public static final int BID_ACK_FRAME_SIZE = HEADER_SIZE + 4 + 4 + 1 + 4 + 4;
+    // Tamaño de una trama EVENT completa
+    public static final int EVENT_FRAME_SIZE = HEADER_SIZE + 1 + 4 + 4 + 4 + 4;
+    // Tamaño de una trama SESSION completa
+    public static final int SESSION_FRAME_SIZE = HEADER_SIZE + 4 + 8;
+    // Tamaño de una trama RESUME completa
+    public static final int RESUME_FRAME_SIZE = HEADER_SIZE + 4 + 4 + 8;
+    // Tamaño máximo de una trama, incluida la cabecera de longitud
+    public static final int MAX_FRAME_SIZE = 512;
+
+    /**
+     * Recibe las tramas decodificadas. Los mensajes que un extremo no espera son un error de protocolo.
+     */
+    public interface Handler {
+        default void onHello(String username, int capabilities) throws IOException {
+            throw new IOException("Mensaje HELLO inesperado");
+        }
+
+        default void onWelcome(int bidderId, int capabilities) throws IOException {
+            throw new IOException("Mensaje WELCOME inesperado");
+        }
+
+        default void onBid(int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            throw new IOException("Mensaje BID inesperado");
+        }
+
+        default void onExit() throws IOException {
+            throw new IOException("Mensaje EXIT inesperado");
+        }
+
+        default void onBidRequest(int correlationId, int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            throw new IOException("Mensaje BID_REQUEST inesperado");
+        }
+
+        default void onProxyRequest(int correlationId, int auctionId, int bidderId, int maxPrice, long clientTime) throws IOException {
+            throw new IOException("Mensaje PROXY_REQUEST inesperado");
+        }
+
+        default void onBidAck(int correlationId, int auctionId, byte result, int sequence, int price) throws IOException {
+            throw new IOException("Mensaje BID_ACK inesperado");
+        }
+
+        default void onEvent(byte kind, int auctionId, int sequence, int price, int leaderId) throws IOException {
+            throw new IOException("Mensaje EVENT inesperado");
+        }
+
+        default void onSession(int bidderId, long token) throws IOException {
+            throw new IOException("Mensaje SESSION inesperado");
+        }
+
+        default void onResume(int bidderId, long token, int capabilities) throws IOException {
+            throw new IOException("Mensaje RESUME inesperado");
+        }
+    }
+
+    private BidFrame() {
+    }
+
+    private static void putHeader(ByteBuffer out, int payloadLength, byte type) {
+        out.putInt(2 + payloadLength);
+        out.put(VERSION);
+        out.put(type);
+    }
+
+    /**
+     * Codifica el saludo inicial del cliente.
+     *
+     * @param out          Búfer de salida
+     * @param username     Nombre del usuario codificado en UTF-8
+     * @param capabilities Capacidades soportadas por el cliente
+     */
+    public static void encodeHello(ByteBuffer out, byte[] username, int capabilities) {
+        putHeader(out, 4 + 2 + username.length, HELLO);
+        out.putInt(capabilities);
+        out.putShort((short) username.length);
+        out.put(username);
+    }
+
+    /**
+     * Codifica la respuesta del servidor al saludo.
+     *
+     * @param out          Búfer de salida
+     * @param bidderId     Identificador asignado al pujador
+     * @param capabilities Capacidades aceptadas por el servidor
+     */
+    public static void encodeWelcome(ByteBuffer out, int bidderId, int capabilities) {
+        putHeader(out, 4 + 4, WELCOME);
+        out.putInt(bidderId);
+        out.putInt(capabilities);
+    }
+
+    /**
+     * Codifica la clave de la sesión del pujador, que el servidor envía tras WELCOME.
+     *
+     * @param out      Búfer de salida
+     * @param bidderId Identificador del pujador
+     * @param token    Clave para reanudar la sesión
+     */
+    public static void encodeSession(ByteBuffer out, int bidderId, long token) {
+        putHeader(out, 4 + 8, SESSION);
+        out.putInt(bidderId);
+        out.putLong(token);
+    }
+
+    /**
+     * Codifica la reanudación de una sesión, que el cliente envía en lugar de HELLO.
+     *
+     * @param out          Búfer de salida
+     * @param bidderId     Identificador del pujador
+     * @param token        Clave recibida en la trama SESSION
+     * @param capabilities Capacidades soportadas por el cliente
+     */
+    public static void encodeResume(ByteBuffer out, int bidderId, long token, int capabilities) {
+        putHeader(out, 4 + 4 + 8, RESUME);
+        out.putInt(capabilities);
+        out.putInt(bidderId);
+        out.putLong(token);
+    }
+
+    /**
+     * Codifica una puja.
+     *
+     * @param out        Búfer de salida
+     * @param auctionId  Identificador del lote
+     * @param bidderId   Identificador del pujador
+     * @param price      Precio de la puja
+     * @param clientTime Marca de tiempo del cliente en milisegundos
+     */
+    public static void encodeBid(ByteBuffer out, int auctionId, int bidderId, int price, long clientTime) {
+        putHeader(out, 4 + 4 + 4 + 8, BID);
+        out.putInt(auctionId);
+        out.putInt(bidderId);
+        out.putInt(price);
+        out.putLong(clientTime);
+    }
+
+    /**
+     * Codifica una puja que el servidor debe contestar con BID_ACK.
+     *
+     * @param out           Búfer de salida
+     * @param correlationId Identificador de la puja elegido por el cliente
+     * @param auctionId     Identificador del lote
+     * @param bidderId      Identificador del pujador
+     * @param price         Precio de la puja
+     * @param clientTime    Marca de tiempo del cliente en milisegundos
+     */
+    public static void encodeBidRequest(ByteBuffer out, int correlationId, int auctionId, int bidderId, int price, long clientTime) {
+        encodeRequest(out, BID_REQUEST, correlationId, auctionId, bidderId, price, clientTime);
+    }
+
+    private static void encodeRequest(ByteBuffer out, byte type, int correlationId, int auctionId, int bidderId, int price, long clientTime) {
+        putHeader(out, 4 + 4 + 4 + 4 + 8, type);
+        out.putInt(correlationId);
+        out.putInt(auctionId);
+        out.putInt(bidderId);
+        out.putInt(price);
+        out.putLong(clientTime);
+    }
+
+    /**
+     * Codifica una puja máxima, que el servidor contesta con BID_ACK.
+     *
+     * @param out           Búfer de salida
+     * @param correlationId Identificador de la puja elegido por el cliente
+     * @param auctionId     Identificador del lote
+     * @param bidderId      Identificador del pujador
+     * @param maxPrice      Precio máximo que el pujador está dispuesto a pagar
+     * @param clientTime    Marca de tiempo del cliente en milisegundos
+     */
+    public static void encodeProxyRequest(ByteBuffer out, int correlationId, int auctionId, int bidderId, int maxPrice, long clientTime) {
+        encodeRequest(out, PROXY_REQUEST, correlationId, auctionId, bidderId, maxPrice, clientTime);
+    }
+
+    /**
+     * Codifica la respuesta del servidor a una puja.
+     *
+     * @param out           Búfer de salida
+     * @param correlationId Identificador de la puja contestada
+     * @param auctionId     Identificador del lote
+     * @param result        ACCEPTED, OUTBID, CLOSED, UNKNOWN_AUCTION, UNKNOWN_BIDDER, SLOW_DOWN, ALREADY_BID, NOT_SUPPORTED o ERROR
+     * @param sequence      Número de secuencia de la puja ganadora
+     * @param price         Precio de la puja ganadora, o precio actual del reloj en la subasta holandesa
+     */
+    public static void encodeBidAck(ByteBuffer out, int correlationId, int auctionId, byte result, int sequence, int price) {
+        putHeader(out, 4 + 4 + 1 + 4 + 4, BID_ACK);
+        out.putInt(correlationId);
+        out.putInt(auctionId);
+        out.put(result);
+        out.putInt(sequence);
+        out.putInt(price);
+    }
+
+    /**
+     * Codifica un aviso del servidor sobre un lote.
+     *
+     * @param out       Búfer de salida
+     * @param kind      PRICE_CHANGED, BID_OUTBID o AUCTION_CLOSED
+     * @param auctionId Identificador del lote
+     * @param sequence  Número de secuencia de la puja ganadora
+     * @param price     Precio de la puja ganadora
+     * @param leaderId  Identificador del pujador que va ganando
+     */
+    public static void encodeEvent(ByteBuffer out, byte kind, int auctionId, int sequence, int price, int leaderId) {
+        putHeader(out, 1 + 4 + 4 + 4 + 4, EVENT);
+        out.put(kind);
+        out.putInt(auctionId);
+        out.putInt(sequence);
+        out.putInt(price);
+        out.putInt(leaderId);
+    }
+
+    /**
+     * Codifica un mensaje de salida.
+     *
+     * @param out Búfer de salida
+     */
+    public static void encodeExit(ByteBuffer out) {
+        putHeader(out, 0, EXIT);
+    }
+
+    /**
+     * Obtiene la longitud total de la trama que empieza en la posición actual del búfer.
+     *
+     * @param in Búfer de entrada en modo lectura
+     * @return Longitud de la trama incluida la cabecera de longitud, o -1 si aún no se conoce
+     * @throws IOException Si la longitud no es válida
+     */
+    public static int frameSize(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4)
+            return -1;
+        int length = in.getInt(in.position());
+        if (length < 2 || length + 4 > MAX_FRAME_SIZE)
+            throw new IOException("Trama de tamaño no válido: " + length);
+        return length + 4;
+    }
+
+    /**
+     * Decodifica una trama completa del búfer, si la hay.
+     *
+     * @param in      Búfer de entrada en modo lectura
+     * @param handler Receptor de la trama decodificada
+     * @return True si se ha consumido una trama, false si los datos están incompletos
+     * @throws IOException Si la trama está mal formada, es de otra versión o tiene un tipo desconocido
+     */
+    public static boolean decode(ByteBuffer in, Handler handler) throws IOException {
+        int size = frameSize(in);
+        if (size < 0 || in.remaining() < size)
+            return false;
+
+        int end = in.position() + size;
+        in.position(in.position() + 4);
+        byte version = in.get();
+        byte type = in.get();
+        if (version != VERSION)
+            throw new IOException("Versión de protocolo no soportada: " + version);
+
+        switch (type) {
+            case BID:
+                expectSize(size, BID_FRAME_SIZE);
+                int auctionId = in.getInt();
+                int bidderId = in.getInt();
+                int price = in.getInt();
+                long clientTime = in.getLong();
+                handler.onBid(auctionId, bidderId, price, clientTime);
+                break;
+            case HELLO:
+                if (size < HEADER_SIZE + 4 + 2)
+                    throw new IOException("Trama HELLO mal formada");
+                int capabilities = in.getInt();
+                int nameLength = in.getShort() & 0xFFFF;
+                expectSize(size, HEADER_SIZE + 4 + 2 + nameLength);
+                byte[] name = new byte[nameLength];
+                in.get(name);
+                handler.onHello(new String(name, StandardCharsets.UTF_8), capabilities);
+                break;
+            case WELCOME:
+                expectSize(size, HEADER_SIZE + 4 + 4);
+                int assignedId = in.getInt();
+                int accepted = in.getInt();
+                handler.onWelcome(assignedId, accepted);
+                break;
+            case EXIT:
+                expectSize(size, HEADER_SIZE);
+                handler.onExit();
+                break;
+            case BID_REQUEST:
+            case PROXY_REQUEST: {
+                expectSize(size, BID_REQUEST_FRAME_SIZE);
+                int correlationId = in.getInt();
+                int requestAuctionId = in.getInt();
+                int requestBidderId = in.getInt();
+                int requestPrice = in.getInt();
+                long requestTime = in.getLong();
+                if (type == BID_REQUEST)
+                    handler.onBidRequest(correlationId, requestAuctionId, requestBidderId, requestPrice, requestTime);
+                else
+                    handler.onProxyRequest(correlationId, requestAuctionId, requestBidderId, requestPrice, requestTime);
+                break;
+            }
+            case BID_ACK: {
+                expectSize(size, BID_ACK_FRAME_SIZE);
+                int correlationId = in.getInt();
+                int ackAuctionId = in.getInt();
+                byte result = in.get();
+                int sequence = in.getInt();
+                int leadingPrice = in.getInt();
+                handler.onBidAck(correlationId, ackAuctionId, result, sequence, leadingPrice);
+                break;
+            }
+            case EVENT: {
+                expectSize(size, EVENT_FRAME_SIZE);
+                byte kind = in.get();
+                int eventAuctionId = in.getInt();
+                int eventSequence = in.getInt();
+                int eventPrice = in.getInt();
+                int leaderId = in.getInt();
+                handler.onEvent(kind, eventAuctionId, eventSequence, eventPrice, leaderId);
+                break;
+            }
+            case SESSION: {
+                expectSize(size, SESSION_FRAME_SIZE);
+                int sessionBidderId = in.getInt();
+                long token = in.getLong();
+                handler.onSession(sessionBidderId, token);
+                break;
+            }
+            case RESUME: {
+                expectSize(size, RESUME_FRAME_SIZE);
+                int resumeCapabilities = in.getInt();
+                int resumeBidderId = in.getInt();
+                long token = in.getLong();
+                handler.onResume(resumeBidderId, token, resumeCapabilities);
+                break;
+            }
+            default:
+                throw new IOException("Tipo de trama desconocido: " + type);
+        }
+        in.position(end);
+        return true;
+    }
+
+    private static void expectSize(int size, int expected) throws IOException {
+        if (size != expected)
+            throw new IOException("Trama de tamaño incorrecto: " + size + " (se esperaba " + expected + ")");
+    }
+}
@@ -0,0 +1,249 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * BidHistory guarda las pujas aceptadas de un lote por columnas: precios, instantes e identificadores
+ * de pujador en arrays de tipos primitivos, repartidos en bloques de tamaño fijo que se añaden según
+ * crece el historial.
+ *
+ * Cada puja ocupa 16 bytes y ningún objeto, así que el recolector no tiene que recorrer el historial;
+ * los AuctionItem sólo se crean al consultarlo. Con la opción fuera del heap, los precios y los
+ * instantes se guardan en búferes directos y sólo los identificadores quedan en el heap.
+ *
+ * Las posiciones las asigna BidEngine (una por número de secuencia), de modo que varios hilos pueden
+ * escribir a la vez en posiciones distintas. Una posición se publica al escribir su identificador de
+ * pujador, que nunca es 0; quien lee una posición aún sin publicar espera a que se termine de escribir.
+ * Por eso todo lo que puede fallar (registrar el nombre del pujador, reservar el bloque) se hace con
+ * bidderIdOf y reserve antes de que el motor asigne la posición, y write sólo copia valores: una
+ * posición asignada siempre se llega a escribir.
+ */
+public class BidHistory {
+
+    // Número de pujas por bloque (potencia de dos)
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Bloque de CHUNK_SIZE pujas consecutivas.
+     */
+    private static final class Chunk {
+        private final IntBuffer prices;
+        private final LongBuffer times;
+        // Identificadores de pujador; 0 indica que la posición aún no se ha escrito
+        private final AtomicIntegerArray bidders = new AtomicIntegerArray(CHUNK_SIZE);
+
+        private Chunk(boolean offHeap) {
+            if (offHeap) {
+                ByteBuffer data = ByteBuffer.allocateDirect(CHUNK_SIZE * (Integer.BYTES + Long.BYTES))
+                        .order(ByteOrder.nativeOrder());
+                data.limit(CHUNK_SIZE * Long.BYTES);
+                this.times = data.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+                data.limit(data.capacity()).position(CHUNK_SIZE * Long.BYTES);
+                this.prices = data.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+            } else {
+                this.prices = IntBuffer.allocate(CHUNK_SIZE);
+                this.times = LongBuffer.allocate(CHUNK_SIZE);
+            }
+        }
+    }
+
+    private final int auctionId;
+    private final BidderDirectory bidders;
+    private final boolean offHeap;
+    // Bloques del historial; el array se sustituye por uno mayor al añadir bloques
+    private volatile Chunk[] chunks = new Chunk[4];
+
+    /**
+     * Constructor para BidHistory.
+     *
+     * @param auctionId Identificador del lote, que se asigna a las pujas al consultarlas
+     * @param bidders   Directorio en el que se registran los nombres de los pujadores
+     * @param offHeap   True para guardar precios e instantes fuera del heap
+     */
+    public BidHistory(int auctionId, BidderDirectory bidders, boolean offHeap) {
+        this.auctionId = auctionId;
+        this.bidders = bidders;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Escribe una puja en una posición del historial. Cada posición se escribe una sola vez.
+     *
+     * @param index Posición (número de secuencia de la puja menos uno)
+     * @param bid   Puja aceptada
+     */
+    public void set(int index, AuctionItem bid) {
+        int bidderId = bidderIdOf(bid);
+        reserve(index);
+        write(index, bid, bidderId);
+    }
+
+    /**
+     * Obtiene el identificador con el que se guarda el pujador de una puja, registrándolo si es nuevo.
+     *
+     * @param bid Puja
+     * @return Identificador en el directorio de pujadores
+     */
+    public int bidderIdOf(AuctionItem bid) {
+        // Las pujas del protocolo binario ya traen el identificador y no hace falta buscar el nombre
+        int bidderId = bid.getBidderId();
+        return bidderId != BidderDirectory.UNKNOWN_BIDDER ? bidderId : bidders.intern(bid.getUsername());
+    }
+
+    /**
+     * Crea el bloque de una posición si aún no existe.
+     *
+     * @param index Posición
+     */
+    public void reserve(int index) {
+        chunkFor(index);
+    }
+
+    /**
+     * Escribe una puja en una posición ya reservada y la publica. No reserva memoria ni consulta el
+     * directorio de pujadores, así que no falla.
+     *
+     * @param index    Posición reservada con reserve
+     * @param bid      Puja aceptada
+     * @param bidderId Identificador obtenido con bidderIdOf
+     */
+    public void write(int index, AuctionItem bid, int bidderId) {
+        Chunk chunk = existing(index);
+        int offset = index & CHUNK_MASK;
+        chunk.prices.put(offset, bid.getPrice());
+        chunk.times.put(offset, bid.getTime());
+        chunk.bidders.set(offset, bidderId);
+    }
+
+    /**
+     * Obtiene el precio de una puja del historial.
+     *
+     * @param index Posición de la puja
+     * @return Precio
+     */
+    public int getPrice(int index) {
+        Chunk chunk = published(index);
+        return chunk.prices.get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Obtiene el instante de una puja del historial.
+     *
+     * @param index Posición de la puja
+     * @return Instante en milisegundos
+     */
+    public long getTime(int index) {
+        Chunk chunk = published(index);
+        return chunk.times.get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Obtiene el identificador del pujador de una puja del historial.
+     *
+     * @param index Posición de la puja
+     * @return Identificador en el directorio de pujadores
+     */
+    public int getBidderId(int index) {
+        return published(index).bidders.get(index & CHUNK_MASK);
+    }
+
+    /**
+     * Obtiene el nombre de un pujador del historial.
+     *
+     * @param bidderId Identificador en el directorio de pujadores
+     * @return Nombre del pujador
+     */
+    public String nameOf(int bidderId) {
+        return bidders.nameOf(bidderId);
+    }
+
+    /**
+     * Obtiene una puja del historial.
+     *
+     * @param index Posición de la puja
+     * @return AuctionItem creado a partir de las columnas
+     */
+    public AuctionItem get(int index) {
+        Chunk chunk = published(index);
+        int offset = index & CHUNK_MASK;
+        AuctionItem bid = new AuctionItem(auctionId, bidders.nameOf(chunk.bidders.get(offset)), chunk.prices.get(offset));
+        bid.setTime(chunk.times.get(offset));
+        return bid;
+    }
+
+    /**
+     * Copia un rango de pujas del historial.
+     *
+     * @param from Primera posición (incluida)
+     * @param to   Última posición (excluida)
+     * @param out  Lista en la que se añaden las pujas, en orden de posición
+     */
+    public void copy(int from, int to, List<AuctionItem> out) {
+        for (int index = from; index < to; index++)
+            out.add(get(index));
+    }
+
+    /**
+     * Obtiene la memoria reservada por el historial para las pujas, escritas o no.
+     *
+     * @return Número de bytes
+     */
+    public long getReservedBytes() {
+        long count = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != null)
+                count++;
+        }
+        return count * CHUNK_SIZE * (Integer.BYTES * 2 + Long.BYTES);
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Obtiene el bloque de una posición ya publicada, esperando si aún se está escribiendo.
+     */
+    private Chunk published(int index) {
+        Chunk chunk;
+        while ((chunk = existing(index)) == null || chunk.bidders.get(index & CHUNK_MASK) == BidderDirectory.UNKNOWN_BIDDER)
+            Thread.yield();
+        return chunk;
+    }
+
+    private Chunk existing(int index) {
+        Chunk[] current = chunks;
+        int slot = index >>> CHUNK_SHIFT;
+        return slot < current.length ? current[slot] : null;
+    }
+
+    /**
+     * Obtiene el bloque de una posición, creándolo si no existe.
+     */
+    private Chunk chunkFor(int index) {
+        Chunk chunk = existing(index);
+        if (chunk != null)
+            return chunk;
+        synchronized (this) {
+            int slot = index >>> CHUNK_SHIFT;
+            Chunk[] current = chunks;
+            if (slot >= current.length)
+                current = Arrays.copyOf(current, Math.max(slot + 1, current.length * 2));
+            else if (current[slot] != null)
+                return current[slot];
+            else
+                current = current.clone();
+            chunk = new Chunk(offHeap);
+            current[slot] = chunk;
+            chunks = current;
+            return chunk;
+        }
+    }
+}
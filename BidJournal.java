@@ -0,0 +1,595 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+
+/**
+ * BidJournal guarda en disco, antes de olvidarlos, los lotes con su formato, las pujas aceptadas y
+ * las pujas guardadas en sobre cerrado.
+ *
+ * El diario es una serie de segmentos de tamaño fijo proyectados en memoria. Cada registro lleva su
+ * longitud y un CRC32 del contenido, de modo que al reproducir el diario tras una caída se descarta
+ * un registro escrito a medias. Anotar una puja sólo copia unos pocos bytes en el segmento; un hilo
+ * aparte vuelca los cambios a disco cada pocos milisegundos (group commit), así que ninguna puja
+ * espera a un fsync.
+ *
+ * El diario no crece sin límite. Al arrancar, después de reproducirlo, el servidor escribe un
+ * checkpoint con el estado de los lotes que siguen abiertos en un segmento temporal; cuando está en
+ * disco se renombra como segmento y se borran todos los anteriores, así que los lotes cerrados se
+ * olvidan en el siguiente arranque. Mientras el servidor funciona, el hilo de volcado borra los
+ * segmentos llenos en los que sólo hay registros de lotes cerrados. Cada segmento empieza con el
+ * mayor identificador de lote anotado hasta entonces, para que un lote olvidado no se reutilice.
+ */
+public class BidJournal {
+
+    // Tamaño de cada segmento del diario
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    // Intervalo entre volcados a disco en milisegundos
+    private static final long FLUSH_INTERVAL = 2;
+    // Tamaño de la cabecera de un registro: longitud y CRC32
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    // Tamaño máximo del contenido de un registro
+    static final int MAX_RECORD_SIZE = 2048;
+    // Tamaño máximo de un texto dentro de un registro (nombre, descripción)
+    private static final int MAX_STRING_SIZE = 512;
+    // Prefijo y extensión de los ficheros de segmento
+    private static final String SEGMENT_PREFIX = "bids-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    // Extensión del segmento de checkpoint mientras se escribe
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    // Tipos de registro
+    private static final byte LOT = 1;
+    private static final byte BID = 2;
+    private static final byte DEADLINE = 3;
+    private static final byte CLOSE = 4;
+    private static final byte SEALED = 5;
+    private static final byte LAST_LOT = 6;
+
+    // Formatos de lote, al final del registro de lote; un registro sin formato es de subasta inglesa
+    private static final byte ENGLISH_FORMAT = 0;
+    private static final byte SEALED_FORMAT = 1;
+    private static final byte DUTCH_FORMAT = 2;
+
+    /**
+     * Recibe los registros del diario al reproducirlo, en el orden en que se escribieron.
+     */
+    public interface Listener {
+        void onLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format);
+
+        void onBid(int auctionId, int sequence, int price, long time, String username);
+
+        void onSealed(int auctionId, int price, long time, String username);
+
+        void onDeadline(int auctionId, long deadline);
+
+        void onClose(int auctionId);
+
+        /**
+         * Recibe el mayor identificador de lote anotado antes del segmento, aunque su lote ya se haya
+         * olvidado.
+         */
+        void onLastLot(int auctionId);
+    }
+
+    /**
+     * Escribe el estado de los lotes abiertos al empezar a anotar en el diario.
+     */
+    public interface Checkpoint {
+        /**
+         * Anota con appendLot, appendSealed y appendBid cada lote que sigue abierto.
+         *
+         * @param journal Diario en el que se escribe el checkpoint
+         */
+        void write(BidJournal journal);
+    }
+
+    /**
+     * Búfer de codificación y CRC de cada hilo que escribe en el diario.
+     */
+    private static final class Encoder {
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_RECORD_SIZE);
+        private final CRC32 crc = new CRC32();
+    }
+
+    private final File directory;
+    private final ThreadLocal<Encoder> encoders = new ThreadLocal<Encoder>() {
+        @Override
+        protected Encoder initialValue() {
+            return new Encoder();
+        }
+    };
+    // Segmentos llenos pendientes del último volcado
+    private final ConcurrentLinkedQueue<MappedByteBuffer> retired = new ConcurrentLinkedQueue<>();
+    // Segmento actual y su número; se modifican con el cerrojo del diario
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    // Mayor identificador de lote anotado o reproducido; se modifica con el cerrojo del diario
+    private int lastLot;
+    // Lotes con registros en cada segmento escrito desde el arranque, y lotes cerrados; se modifican
+    // con el cerrojo del diario
+    private final TreeMap<Integer, Set<Integer>> segmentLots = new TreeMap<>();
+    private final Set<Integer> closedLots = new HashSet<>();
+    private Set<Integer> currentLots;
+    // Último lote añadido a currentLots, para no buscarlo en cada puja
+    private int currentLot = -1;
+    // Se ha cerrado algún lote desde la última limpieza de segmentos
+    private boolean cleanupPending;
+    // Registros escritos y registros ya volcados a disco
+    private volatile long written;
+    private long flushed;
+    // Cerrojo de los volcados, distinto del de escritura para que las pujas no esperen a un fsync
+    private final Object flushLock = new Object();
+
+    /**
+     * Constructor para BidJournal. Abre el directorio del diario, creándolo si no existe.
+     *
+     * @param directory Directorio de los segmentos
+     * @throws IOException Si no se puede crear el directorio
+     */
+    public BidJournal(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("No se puede crear el directorio del diario: " + directory);
+    }
+
+    /**
+     * Reproduce los segmentos existentes. Un segmento se lee hasta su final o hasta el primer registro
+     * incompleto o con un CRC que no coincide.
+     *
+     * @param listener Receptor de los registros
+     * @return Número de registros reproducidos
+     * @throws IOException Si no se puede leer algún segmento
+     */
+    public long replay(Listener listener) throws IOException {
+        long records = 0;
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[MAX_RECORD_SIZE];
+        for (File file : segments()) {
+            segmentIndex = Math.max(segmentIndex, indexOf(file));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                ByteBuffer in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                while (in.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = in.getInt();
+                    int checksum = in.getInt();
+                    if (length <= 0 || length > MAX_RECORD_SIZE || length > in.remaining())
+                        break;
+                    in.get(payload, 0, length);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        System.out.println("Registro dañado en " + file.getName() + "; se descarta el resto del segmento.");
+                        break;
+                    }
+                    if (payload[0] == LOT || payload[0] == LAST_LOT)
+                        lastLot = Math.max(lastLot, ByteBuffer.wrap(payload, 1, 4).getInt());
+                    decode(ByteBuffer.wrap(payload, 0, length), listener);
+                    records++;
+                }
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Decodifica el contenido de un registro, sin su cabecera. BidReplicator usa el mismo formato.
+     *
+     * @param in       Contenido del registro
+     * @param listener Receptor del registro
+     */
+    static void decode(ByteBuffer in, Listener listener) {
+        byte type = in.get();
+        switch (type) {
+            case LOT: {
+                int auctionId = in.getInt();
+                int initialPrice = in.getInt();
+                long deadline = in.getLong();
+                String name = getString(in);
+                String description = getString(in);
+                listener.onLot(auctionId, name, description, initialPrice, deadline, decodeFormat(in));
+                break;
+            }
+            case BID: {
+                int auctionId = in.getInt();
+                int sequence = in.getInt();
+                int price = in.getInt();
+                long time = in.getLong();
+                listener.onBid(auctionId, sequence, price, time, getString(in));
+                break;
+            }
+            case DEADLINE:
+                listener.onDeadline(in.getInt(), in.getLong());
+                break;
+            case CLOSE:
+                listener.onClose(in.getInt());
+                break;
+            case LAST_LOT:
+                listener.onLastLot(in.getInt());
+                break;
+            case SEALED: {
+                int auctionId = in.getInt();
+                int price = in.getInt();
+                long time = in.getLong();
+                listener.onSealed(auctionId, price, time, getString(in));
+                break;
+            }
+            default:
+                System.out.println("Tipo de registro desconocido en el diario: " + type);
+        }
+    }
+
+    /**
+     * Decodifica el formato del final de un registro de lote. Un nuevo objeto de formato por lote,
+     * ya abierto en su instante original si depende del tiempo.
+     */
+    private static AuctionFormat decodeFormat(ByteBuffer in) {
+        if (!in.hasRemaining())
+            return new EnglishFormat();
+        byte kind = in.get();
+        switch (kind) {
+            case SEALED_FORMAT:
+                return new SealedBidFormat(in.getInt());
+            case DUTCH_FORMAT: {
+                DutchFormat format = new DutchFormat(in.getInt(), in.getInt());
+                long openedAt = in.getLong();
+                if (openedAt > 0)
+                    format.open(openedAt);
+                return format;
+            }
+            case ENGLISH_FORMAT:
+                return new EnglishFormat();
+            default:
+                System.out.println("Formato de lote desconocido en el diario: " + kind + "; se usa la subasta inglesa.");
+                return new EnglishFormat();
+        }
+    }
+
+    /**
+     * Escribe el checkpoint en un segmento nuevo, borra los segmentos anteriores y arranca el hilo
+     * que vuelca los cambios a disco. Se llama después de reproducir el diario y antes de anotar nada.
+     * Si el proceso cae a mitad del checkpoint, el segmento temporal se descarta y los anteriores
+     * siguen intactos.
+     *
+     * @param checkpoint Escritor del estado de los lotes abiertos
+     * @throws IOException Si no se puede crear el segmento o sustituir los anteriores
+     */
+    public void start(Checkpoint checkpoint) throws IOException {
+        File[] previous = segments();
+        for (File file : temporaries()) {
+            if (!file.delete())
+                System.out.println("No se puede borrar el checkpoint incompleto " + file.getName() + ".");
+        }
+        File target;
+        File temporary;
+        synchronized (this) {
+            target = segmentFile(segmentIndex + 1);
+            temporary = new File(directory, target.getName() + TEMPORARY_SUFFIX);
+            open(temporary);
+        }
+        checkpoint.write(this);
+        synchronized (this) {
+            segment.force();
+        }
+        if (!temporary.renameTo(target))
+            throw new IOException("No se puede renombrar el checkpoint " + temporary + " como " + target.getName());
+        // A partir de aquí el checkpoint sustituye a los segmentos anteriores
+        for (File file : previous) {
+            if (!file.delete())
+                System.out.println("No se puede borrar el segmento " + file.getName() + ".");
+        }
+        Thread flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Anota un lote abierto.
+     *
+     * @param auction Lote abierto
+     */
+    public void appendLot(Auction auction) {
+        Encoder encoder = encoders.get();
+        encodeLot(begin(encoder), auction);
+        append(encoder);
+    }
+
+    /**
+     * Anota una puja aceptada.
+     *
+     * @param bid      Puja aceptada
+     * @param sequence Número de secuencia de la puja en su lote
+     */
+    public void appendBid(AuctionItem bid, int sequence) {
+        Encoder encoder = encoders.get();
+        encodeBid(begin(encoder), bid.getAuctionId(), sequence, bid.getPrice(), bid.getTime(), bid.getUsername());
+        append(encoder);
+    }
+
+    /**
+     * Anota una puja guardada en sobre cerrado, que aún no está en el motor de pujas.
+     *
+     * @param bid Puja guardada
+     */
+    public void appendSealed(AuctionItem bid) {
+        Encoder encoder = encoders.get();
+        encodeSealed(begin(encoder), bid);
+        append(encoder);
+    }
+
+    /**
+     * Anota la ampliación del cierre de un lote.
+     *
+     * @param auctionId Identificador del lote
+     * @param deadline  Nuevo instante de cierre
+     */
+    public void appendDeadline(int auctionId, long deadline) {
+        Encoder encoder = encoders.get();
+        encodeDeadline(begin(encoder), auctionId, deadline);
+        append(encoder);
+    }
+
+    /**
+     * Anota el cierre de un lote.
+     *
+     * @param auctionId Identificador del lote
+     */
+    public void appendClose(int auctionId) {
+        Encoder encoder = encoders.get();
+        encodeClose(begin(encoder), auctionId);
+        append(encoder);
+    }
+
+    private static ByteBuffer begin(Encoder encoder) {
+        ByteBuffer out = encoder.buffer;
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Codifica el contenido de un registro de lote abierto.
+     *
+     * @param out     Búfer de salida
+     * @param auction Lote abierto
+     */
+    static void encodeLot(ByteBuffer out, Auction auction) {
+        Product product = auction.getProduct();
+        encodeLot(out, auction.getId(), product.getName(), product.getDescription(), product.getInitialPrice(), auction.getDeadline(), auction.getFormat());
+    }
+
+    static void encodeLot(ByteBuffer out, int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+        out.put(LOT);
+        out.putInt(auctionId);
+        out.putInt(initialPrice);
+        out.putLong(deadline);
+        putString(out, name);
+        putString(out, description);
+        encodeFormat(out, format);
+    }
+
+    private static void encodeFormat(ByteBuffer out, AuctionFormat format) {
+        if (format instanceof SealedBidFormat) {
+            out.put(SEALED_FORMAT);
+            out.putInt(((SealedBidFormat) format).getWinners());
+        } else if (format instanceof DutchFormat) {
+            DutchFormat dutch = (DutchFormat) format;
+            out.put(DUTCH_FORMAT);
+            out.putInt(dutch.getStartPrice());
+            out.putInt(dutch.getDecrement());
+            out.putLong(dutch.getOpenedAt());
+        } else {
+            out.put(ENGLISH_FORMAT);
+        }
+    }
+
+    static void encodeBid(ByteBuffer out, int auctionId, int sequence, int price, long time, String username) {
+        out.put(BID);
+        out.putInt(auctionId);
+        out.putInt(sequence);
+        out.putInt(price);
+        out.putLong(time);
+        putString(out, username);
+    }
+
+    static void encodeSealed(ByteBuffer out, AuctionItem bid) {
+        out.put(SEALED);
+        out.putInt(bid.getAuctionId());
+        out.putInt(bid.getPrice());
+        out.putLong(bid.getTime());
+        putString(out, bid.getUsername());
+    }
+
+    static void encodeDeadline(ByteBuffer out, int auctionId, long deadline) {
+        out.put(DEADLINE);
+        out.putInt(auctionId);
+        out.putLong(deadline);
+    }
+
+    static void encodeClose(ByteBuffer out, int auctionId) {
+        out.put(CLOSE);
+        out.putInt(auctionId);
+    }
+
+    /**
+     * Copia en el segmento el registro codificado por el hilo, con su cabecera.
+     * Sólo la copia se hace con el cerrojo; el CRC se calcula antes.
+     */
+    private void append(Encoder encoder) {
+        ByteBuffer out = encoder.buffer;
+        int length = out.position();
+        encoder.crc.reset();
+        encoder.crc.update(out.array(), 0, length);
+        int checksum = (int) encoder.crc.getValue();
+        synchronized (this) {
+            try {
+                if (segment.remaining() < RECORD_HEADER_SIZE + length)
+                    roll();
+            } catch (IOException e) {
+                System.out.println("No se puede abrir un nuevo segmento del diario: " + e.getMessage());
+                return;
+            }
+            segment.putInt(length);
+            segment.putInt(checksum);
+            segment.put(out.array(), 0, length);
+            written++;
+            // Todos los registros llevan el identificador del lote tras el tipo
+            int auctionId = out.getInt(1);
+            if (auctionId != currentLot) {
+                currentLots.add(auctionId);
+                currentLot = auctionId;
+            }
+            byte type = out.get(0);
+            if (type == LOT)
+                lastLot = Math.max(lastLot, auctionId);
+            else if (type == CLOSE && closedLots.add(auctionId))
+                cleanupPending = true;
+        }
+    }
+
+    /**
+     * Cierra el segmento actual, dejándolo pendiente del próximo volcado, y abre el siguiente.
+     */
+    private void roll() throws IOException {
+        retired.add(segment);
+        open(segmentFile(segmentIndex + 1));
+    }
+
+    /**
+     * Abre un segmento con el siguiente número y escribe en él el mayor identificador de lote.
+     */
+    private void open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(SEGMENT_SIZE);
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        segmentIndex++;
+        currentLots = new HashSet<>();
+        currentLot = -1;
+        segmentLots.put(segmentIndex, currentLots);
+        ByteBuffer out = ByteBuffer.allocate(1 + 4);
+        out.put(LAST_LOT);
+        out.putInt(lastLot);
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        segment.putInt(out.position());
+        segment.putInt((int) crc.getValue());
+        segment.put(out.array(), 0, out.position());
+    }
+
+    /**
+     * Bucle del hilo de volcado: fuerza a disco los segmentos con registros nuevos.
+     */
+    private void flushLoop() {
+        while (true) {
+            try {
+                Thread.sleep(FLUSH_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Fuerza a disco todos los registros escritos hasta ahora y borra los segmentos llenos en los que
+     * sólo hay lotes cerrados.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            long target = written;
+            MappedByteBuffer full;
+            while ((full = retired.poll()) != null)
+                full.force();
+            if (target != flushed) {
+                MappedByteBuffer current;
+                synchronized (this) {
+                    current = segment;
+                }
+                current.force();
+                flushed = target;
+            }
+            for (int index : closedSegments()) {
+                File file = segmentFile(index);
+                if (!file.delete())
+                    System.out.println("No se puede borrar el segmento " + file.getName() + ".");
+            }
+        }
+    }
+
+    /**
+     * Retira de la cuenta los segmentos llenos cuyos lotes están todos cerrados.
+     *
+     * @return Números de los segmentos que se pueden borrar
+     */
+    private synchronized List<Integer> closedSegments() {
+        List<Integer> closed = new ArrayList<>();
+        if (!cleanupPending)
+            return closed;
+        cleanupPending = false;
+        for (Map.Entry<Integer, Set<Integer>> entry : segmentLots.headMap(segmentIndex).entrySet()) {
+            if (closedLots.containsAll(entry.getValue()))
+                closed.add(entry.getKey());
+        }
+        for (int index : closed)
+            segmentLots.remove(index);
+        return closed;
+    }
+
+    private File[] segments() {
+        return list(SEGMENT_SUFFIX);
+    }
+
+    private File[] temporaries() {
+        return list(SEGMENT_SUFFIX + TEMPORARY_SUFFIX);
+    }
+
+    private File[] list(String suffix) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix));
+        if (files == null)
+            return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    private File segmentFile(int index) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static int indexOf(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_SIZE);
+        // Un texto largo se corta al principio de un carácter, no entre los bytes de uno
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80)
+            length--;
+        out.putShort((short) length);
+        out.put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,510 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * BidReplicator envía por TCP a los servidores seguidores los lotes, las pujas aceptadas y las
+ * guardadas en sobre cerrado del líder, con los mismos registros que BidJournal, para que mantengan
+ * una copia en caliente del estado.
+ *
+ * Los registros se guardan en memoria, en una cadena de bloques, en el orden en que se anotan. Cada
+ * seguidor tiene un hilo que, al conectarse, le envía una instantánea del estado actual de los lotes
+ * (la escribe el Source del servidor) y después los registros que se anoten desde ese momento. El
+ * replicador sólo guarda el último bloque: los anteriores se liberan en cuanto todos los hilos de
+ * envío los han recorrido, así que la memoria no crece con la vida del lote. Un registro puede llegar
+ * por la instantánea y otra vez por el flujo; el seguidor ignora los repetidos.
+ *
+ * El hilo de envío manda de una vez todo lo pendiente y, cuando no queda nada, se duerme hasta que se
+ * anota un registro nuevo o hay que mandar un latido cada HEARTBEAT_INTERVAL; si el seguidor deja de
+ * recibirlos durante FAILOVER_TIMEOUT, da por caído al líder. Un seguidor cuya copia de un lote se
+ * desvía vuelve a conectarse para recibir una instantánea nueva.
+ *
+ * Un seguidor que deja de leer sin cerrar la conexión bloquea la escritura de su hilo de envío, que
+ * retendría todos los bloques desde el suyo. Por eso, al empezar un bloque nuevo, se cierra la
+ * conexión de los hilos de envío que van más de MAX_LAG_CHUNKS bloques por detrás: el seguidor ve
+ * la conexión cerrada, vuelve a conectarse y se pone al día con una instantánea nueva. Sólo da por
+ * caído al líder si no recibe latidos o no puede volver a conectarse.
+ *
+ * En el flujo, cada registro va precedido de su longitud; una longitud 0 es un latido.
+ */
+public class BidReplicator {
+
+    // Intervalo entre latidos cuando no hay registros nuevos, en milisegundos
+    public static final int HEARTBEAT_INTERVAL = 100;
+    // Tiempo sin recibir nada tras el que el seguidor da por caído al líder, en milisegundos
+    public static final int FAILOVER_TIMEOUT = 1000;
+    // Tiempo máximo de conexión con el líder, en milisegundos
+    private static final int CONNECT_TIMEOUT = 1000;
+    // Tamaño de cada bloque del registro en memoria
+    private static final int CHUNK_SIZE = 1 << 20;
+    // Bloques que un hilo de envío puede llevar de retraso antes de desconectar a su seguidor
+    static final int MAX_LAG_CHUNKS = 16;
+    // Latido: un registro de longitud 0
+    private static final byte[] HEARTBEAT = new byte[4];
+    // Fin de una conexión con el líder, en el seguidor
+    private static final int RESYNC = 0;
+    private static final int CLOSED = 1;
+    private static final int LOST = 2;
+
+    /**
+     * Escribe el estado completo de los lotes para un seguidor que se acaba de conectar.
+     */
+    public interface Source {
+        /**
+         * Escribe cada lote iniciado con sus pujas públicas, sus pujas en sobre cerrado y su cierre.
+         *
+         * @param out Instantánea del seguidor
+         * @throws IOException Si el seguidor se desconecta
+         */
+        void snapshot(Snapshot out) throws IOException;
+    }
+
+    /**
+     * Receptor de los registros en un seguidor.
+     */
+    public interface Follower extends BidJournal.Listener {
+        /**
+         * Indica si la copia de algún lote se ha desviado y hay que pedir al líder una instantánea
+         * nueva. Se consulta tras cada registro y vuelve a false al consultarlo.
+         *
+         * @return True para volver a conectar con el líder
+         */
+        boolean takeResync();
+    }
+
+    /**
+     * Instantánea que recibe un seguidor al conectarse, con los mismos registros que el flujo.
+     */
+    public static final class Snapshot {
+        private final ByteBuffer buffer = ByteBuffer.allocate(4 + BidJournal.MAX_RECORD_SIZE);
+        private final OutputStream out;
+
+        private Snapshot(OutputStream out) {
+            this.out = out;
+        }
+
+        public void lot(Auction auction) throws IOException {
+            BidJournal.encodeLot(begin(), auction);
+            write();
+        }
+
+        public void bid(AuctionItem bid, int sequence) throws IOException {
+            BidJournal.encodeBid(begin(), bid.getAuctionId(), sequence, bid.getPrice(), bid.getTime(), bid.getUsername());
+            write();
+        }
+
+        public void sealed(AuctionItem bid) throws IOException {
+            BidJournal.encodeSealed(begin(), bid);
+            write();
+        }
+
+        public void close(int auctionId) throws IOException {
+            BidJournal.encodeClose(begin(), auctionId);
+            write();
+        }
+
+        private ByteBuffer begin() {
+            buffer.clear();
+            buffer.position(4);
+            return buffer;
+        }
+
+        private void write() throws IOException {
+            buffer.putInt(0, buffer.position() - 4);
+            out.write(buffer.array(), 0, buffer.position());
+        }
+    }
+
+    /**
+     * Bloque del registro. Sólo se escribe en el último bloque; cuando se llena, se enlaza el
+     * siguiente y el bloque ya no cambia.
+     */
+    private static final class Chunk {
+        // Posición del bloque en la cadena, para medir el retraso de los hilos de envío
+        private final long index;
+        private final byte[] data = new byte[CHUNK_SIZE];
+        // Bytes escritos; se publica después de copiar cada registro
+        private volatile int used;
+        // Bloque siguiente; se publica cuando este ya no admite más registros
+        private volatile Chunk next;
+
+        private Chunk(long index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Hilo de envío de un seguidor.
+     */
+    private static final class Sender {
+        private final Thread thread;
+        private final Socket socket;
+        // El hilo está a punto de dormirse o dormido esperando registros
+        private volatile boolean waiting;
+        // Posición del bloque que está enviando
+        private volatile long chunk;
+        // La conexión se ha cerrado por ir demasiado retrasado
+        private volatile boolean dropped;
+
+        private Sender(Thread thread, Socket socket) {
+            this.thread = thread;
+            this.socket = socket;
+        }
+    }
+
+    private final Source source;
+    /**
+     * Búfer de codificación de cada hilo que anota registros.
+     */
+    private final ThreadLocal<ByteBuffer> encoders = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BidJournal.MAX_RECORD_SIZE);
+        }
+    };
+    // Último bloque del registro; se modifica con el cerrojo del replicador
+    private Chunk tail = new Chunk(0);
+    // Hilos de envío conectados; el array se sustituye con el cerrojo del replicador
+    private volatile Sender[] senders = new Sender[0];
+
+    /**
+     * Constructor para BidReplicator.
+     *
+     * @param source Origen de las instantáneas para los seguidores que se conectan
+     */
+    public BidReplicator(Source source) {
+        this.source = source;
+    }
+
+    /**
+     * Anota un lote abierto.
+     *
+     * @param auction Lote abierto
+     */
+    public void appendLot(Auction auction) {
+        ByteBuffer out = begin();
+        BidJournal.encodeLot(out, auction);
+        append(out);
+    }
+
+    /**
+     * Anota un lote recibido de otro servidor, para reenviarlo a los seguidores propios.
+     */
+    public void appendLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+        ByteBuffer out = begin();
+        BidJournal.encodeLot(out, auctionId, name, description, initialPrice, deadline, format);
+        append(out);
+    }
+
+    /**
+     * Anota una puja aceptada.
+     *
+     * @param bid      Puja aceptada
+     * @param sequence Número de secuencia de la puja en su lote
+     */
+    public void appendBid(AuctionItem bid, int sequence) {
+        ByteBuffer out = begin();
+        BidJournal.encodeBid(out, bid.getAuctionId(), sequence, bid.getPrice(), bid.getTime(), bid.getUsername());
+        append(out);
+    }
+
+    /**
+     * Anota una puja guardada en sobre cerrado.
+     *
+     * @param bid Puja guardada
+     */
+    public void appendSealed(AuctionItem bid) {
+        ByteBuffer out = begin();
+        BidJournal.encodeSealed(out, bid);
+        append(out);
+    }
+
+    /**
+     * Anota la ampliación del cierre de un lote.
+     *
+     * @param auctionId Identificador del lote
+     * @param deadline  Nuevo instante de cierre
+     */
+    public void appendDeadline(int auctionId, long deadline) {
+        ByteBuffer out = begin();
+        BidJournal.encodeDeadline(out, auctionId, deadline);
+        append(out);
+    }
+
+    /**
+     * Anota el cierre de un lote.
+     *
+     * @param auctionId Identificador del lote
+     */
+    public void appendClose(int auctionId) {
+        ByteBuffer out = begin();
+        BidJournal.encodeClose(out, auctionId);
+        append(out);
+    }
+
+    private ByteBuffer begin() {
+        ByteBuffer out = encoders.get();
+        out.clear();
+        return out;
+    }
+
+    /**
+     * Copia el registro codificado por el hilo al final del registro en memoria, con su longitud, y
+     * despierta a los hilos de envío que esperan. Un registro nunca se reparte entre dos bloques.
+     */
+    private void append(ByteBuffer out) {
+        int length = out.position();
+        boolean started = false;
+        synchronized (this) {
+            Chunk chunk = tail;
+            int used = chunk.used;
+            if (used + 4 + length > CHUNK_SIZE) {
+                Chunk next = new Chunk(chunk.index + 1);
+                chunk.next = next;
+                tail = next;
+                chunk = next;
+                used = 0;
+                started = true;
+            }
+            byte[] data = chunk.data;
+            data[used] = (byte) (length >>> 24);
+            data[used + 1] = (byte) (length >>> 16);
+            data[used + 2] = (byte) (length >>> 8);
+            data[used + 3] = (byte) length;
+            System.arraycopy(out.array(), 0, data, used + 4, length);
+            chunk.used = used + 4 + length;
+        }
+        if (started)
+            dropLagging();
+        for (Sender sender : senders) {
+            if (sender.waiting) {
+                sender.waiting = false;
+                LockSupport.unpark(sender.thread);
+            }
+        }
+    }
+
+    /**
+     * Cierra la conexión de los hilos de envío que van más de MAX_LAG_CHUNKS bloques por detrás del
+     * último. Si el hilo está bloqueado escribiendo, la escritura falla y el hilo termina, así que deja
+     * de retener sus bloques.
+     */
+    private void dropLagging() {
+        long last = tail.index;
+        for (Sender sender : senders) {
+            if (last - sender.chunk > MAX_LAG_CHUNKS && !sender.dropped) {
+                sender.dropped = true;
+                System.out.println("El seguidor " + sender.socket.getRemoteSocketAddress() + " va " + (last - sender.chunk)
+                        + " bloques por detrás; se cierra su conexión para que pida una instantánea nueva.");
+                try {
+                    sender.socket.close();
+                } catch (IOException e) {
+                    // La conexión ya estaba cerrada
+                }
+            }
+        }
+    }
+
+    /**
+     * Atiende las conexiones de los seguidores en un puerto, con un hilo de envío por seguidor.
+     *
+     * @param port Puerto TCP de replicación
+     * @throws IOException Si no se puede abrir el puerto
+     */
+    public void listen(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    Thread sender = new Thread(() -> send(socket), "replication-sender");
+                    sender.setDaemon(true);
+                    sender.start();
+                } catch (IOException e) {
+                    System.out.println("Error al aceptar un seguidor: " + e.getMessage());
+                }
+            }
+        }, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Envía a un seguidor la instantánea del estado y después los registros nuevos y los latidos,
+     * hasta que se cierra la conexión.
+     */
+    private void send(Socket socket) {
+        Sender sender = new Sender(Thread.currentThread(), socket);
+        Chunk chunk;
+        int offset;
+        synchronized (this) {
+            // Todo lo anotado antes de este punto ya está en el estado que recoge la instantánea
+            chunk = tail;
+            offset = chunk.used;
+            sender.chunk = chunk.index;
+            senders = add(senders, sender);
+        }
+        System.out.println("Seguidor conectado desde " + socket.getRemoteSocketAddress() + ".");
+        try (Socket s = socket) {
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            source.snapshot(new Snapshot(out));
+            out.flush();
+            long lastWrite = System.currentTimeMillis();
+            while (true) {
+                int used = chunk.used;
+                if (offset < used) {
+                    out.write(chunk.data, offset, used - offset);
+                    out.flush();
+                    offset = used;
+                    lastWrite = System.currentTimeMillis();
+                    continue;
+                }
+                // Se lee el enlace antes de volver a leer el bloque: si ya hay un bloque siguiente,
+                // este está completo
+                Chunk next = chunk.next;
+                if (next != null) {
+                    if (offset == chunk.used) {
+                        chunk = next;
+                        offset = 0;
+                        sender.chunk = chunk.index;
+                    }
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastWrite >= HEARTBEAT_INTERVAL) {
+                    out.write(HEARTBEAT);
+                    out.flush();
+                    lastWrite = now;
+                }
+                // Se anuncia la espera antes de comprobar por última vez si hay registros nuevos
+                sender.waiting = true;
+                if (chunk.used == offset && chunk.next == null)
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, lastWrite + HEARTBEAT_INTERVAL - now)));
+                sender.waiting = false;
+            }
+        } catch (IOException e) {
+            if (!sender.dropped)
+                System.out.println("Seguidor desconectado: " + socket.getRemoteSocketAddress() + ".");
+        } finally {
+            synchronized (this) {
+                senders = remove(senders, sender);
+            }
+        }
+    }
+
+    private static Sender[] add(Sender[] current, Sender sender) {
+        Sender[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = sender;
+        return next;
+    }
+
+    private static Sender[] remove(Sender[] current, Sender sender) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == sender) {
+                Sender[] next = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                return next;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Obtiene el número de seguidores conectados.
+     *
+     * @return Seguidores conectados
+     */
+    public int getFollowerCount() {
+        return senders.length;
+    }
+
+    /**
+     * Se conecta a un líder y entrega sus registros en orden hasta que deja de recibir latidos o no
+     * puede volver a conectarse. Si el receptor pide una instantánea nueva o el líder cierra la
+     * conexión (por ejemplo, porque el seguidor iba demasiado retrasado), vuelve a conectarse y
+     * recibe una instantánea nueva.
+     *
+     * @param host     Dirección del líder
+     * @param port     Puerto de replicación del líder
+     * @param listener Receptor de los registros
+     * @return False si no se ha podido conectar; true si se ha conectado y después se ha perdido el líder
+     */
+    public static boolean follow(String host, int port, Follower listener) {
+        boolean connected = false;
+        while (true) {
+            Socket socket = connect(host, port);
+            if (socket == null) {
+                if (connected)
+                    System.out.println("Se ha perdido el líder " + host + ":" + port + " (no acepta la conexión).");
+                return connected;
+            }
+            if (!connected)
+                System.out.println("Siguiendo al líder " + host + ":" + port + ".");
+            connected = true;
+            int outcome = receive(socket, host, port, listener);
+            if (outcome == LOST)
+                return true;
+            if (outcome == RESYNC)
+                System.out.println("Se pide al líder " + host + ":" + port + " una instantánea nueva.");
+            else
+                System.out.println("El líder " + host + ":" + port + " ha cerrado la conexión; se vuelve a conectar.");
+        }
+    }
+
+    private static Socket connect(String host, int port) {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(FAILOVER_TIMEOUT);
+            return socket;
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // La conexión no llegó a abrirse
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Entrega los registros de una conexión con el líder.
+     *
+     * @return RESYNC si el receptor ha pedido una instantánea nueva, CLOSED si el líder ha cerrado la
+     *         conexión o LOST si ha dejado de enviar latidos
+     */
+    private static int receive(Socket socket, String host, int port, Follower listener) {
+        byte[] payload = new byte[BidJournal.MAX_RECORD_SIZE];
+        try (Socket s = socket; DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+            while (true) {
+                int length = in.readInt();
+                if (length == 0)
+                    continue;
+                if (length < 0 || length > payload.length)
+                    throw new IOException("Registro de replicación de tamaño no válido: " + length);
+                in.readFully(payload, 0, length);
+                BidJournal.decode(ByteBuffer.wrap(payload, 0, length), listener);
+                if (listener.takeResync())
+                    return RESYNC;
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("Se ha perdido el líder " + host + ":" + port + " (sin latidos durante " + FAILOVER_TIMEOUT + " ms).");
+            return LOST;
+        } catch (IOException e) {
+            // Un líder caído tampoco acepta la nueva conexión, y entonces follow lo da por perdido
+            return CLOSED;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * BidSequencer ordena las pujas de un grupo de fragmentos del registro de lotes: los hilos de las
+ * conexiones dejan cada puja decodificada en un anillo de posiciones reservadas al arrancar, y un
+ * único hilo las saca por tandas y las aplica, una detrás de otra, con la regla de aceptación de
+ * siempre.
+ *
+ * Como sólo un hilo aplica las pujas de cada lote, el compare-and-set del motor de pujas nunca
+ * falla y el orden de aceptación es el orden del anillo. El hilo recorre todas las pujas publicadas
+ * (hasta MAX_BATCH) antes de liberar sus posiciones, así que con más carga reparte el coste de cada
+ * despertar entre más pujas. Cuando el anillo está vacío, espera unas vueltas cediendo el procesador
+ * y después se duerme hasta que un productor lo despierta; cuando está lleno, son los productores
+ * los que esperan.
+ *
+ * Los resultados se entregan a una Completion desde el hilo del secuenciador; los avisos, la
+ * publicación multicast y el diario siguen saliendo de la ruta de aceptación como sin secuenciador.
+ * Una excepción al aplicar una solicitud o al entregar su resultado se registra y la solicitud se
+ * contesta con BidFrame.ERROR: el hilo es el único que aplica las pujas de sus lotes, y si terminara
+ * los productores esperarían para siempre a que el anillo se vaciase. Por eso el Processor sólo
+ * puede lanzar una excepción antes de aceptar la puja en el motor; lo que falle después se trata
+ * dentro y se contesta con el resultado del motor.
+ */
+public class BidSequencer implements Runnable {
+
+    // Tipos de solicitud
+    public static final int BID = 0;
+    public static final int PROXY = 1;
+
+    // Máximo de pujas que se aplican antes de liberar sus posiciones
+    public static final int MAX_BATCH = 256;
+    // Vueltas sin trabajo antes de dormir el hilo
+    private static final int IDLE_SPINS = 64;
+
+    /**
+     * Recibe el resultado de una solicitud, en el hilo del secuenciador.
+     */
+    public interface Completion {
+        /**
+         * @param correlationId Identificador de la solicitud contestada
+         * @param auctionId     Identificador del lote indicado en la solicitud
+         * @param result        Resultado (BidFrame.ACCEPTED, OUTBID, ...)
+         */
+        void complete(int correlationId, int auctionId, byte result);
+    }
+
+    /**
+     * Aplica una solicitud: la regla de aceptación de las pujas o de las pujas máximas. Una excepción
+     * indica que la solicitud no se ha aplicado; si el motor ya ha aceptado la puja, process debe
+     * devolver su resultado aunque falle algo después.
+     */
+    public interface Processor {
+        byte process(int kind, int auctionId, int bidderId, int price);
+    }
+
+    /**
+     * Completion para los hilos que esperan el resultado de su propia puja, como un handler bloqueante.
+     * Cada hilo usa la suya y sólo tiene una solicitud pendiente.
+     */
+    public static final class Waiter implements Completion {
+        private volatile Thread waiting;
+        // Resultado, o -1 mientras no ha llegado
+        private volatile int result = -1;
+
+        public void complete(int correlationId, int auctionId, byte result) {
+            this.result = result;
+            LockSupport.unpark(waiting);
+        }
+
+        /**
+         * Prepara la espera de una solicitud nueva. Se llama antes de publicarla.
+         */
+        public void reset() {
+            waiting = Thread.currentThread();
+            result = -1;
+        }
+
+        /**
+         * Espera el resultado de la solicitud publicada después de reset().
+         *
+         * @return Resultado de la solicitud
+         */
+        public byte await() {
+            int value;
+            while ((value = result) < 0)
+                LockSupport.park(this);
+            return (byte) value;
+        }
+    }
+
+    /**
+     * Posición del anillo. Los campos se escriben antes de publicar el número de solicitud y se
+     * leen después de verlo publicado.
+     */
+    private static final class Slot {
+        // Número de la solicitud guardada; -1 si la posición no se ha usado
+        private volatile long published = -1;
+        private int kind;
+        private int correlationId;
+        private int auctionId;
+        private int bidderId;
+        private int price;
+        private Completion completion;
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final Processor processor;
+    private final AsyncLogger log;
+    // Siguiente número de solicitud que reservará un productor
+    private final AtomicLong claimed = new AtomicLong();
+    // Número de solicitudes aplicadas; las posiciones de las anteriores se pueden reutilizar
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    // Solicitudes que han fallado con una excepción
+    private final LongAdder failures = new LongAdder();
+    private volatile Thread thread;
+    // Indica que el hilo del secuenciador está dormido o a punto de dormirse
+    private volatile boolean sleeping;
+
+    /**
+     * Constructor para BidSequencer.
+     *
+     * @param capacity  Número de posiciones del anillo (se redondea a la siguiente potencia de dos)
+     * @param processor Regla que se aplica a cada solicitud
+     * @param log       Registro de las solicitudes que fallan
+     */
+    public BidSequencer(int capacity, Processor processor, AsyncLogger log) {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++)
+            ring[i] = new Slot();
+        this.mask = size - 1;
+        this.processor = processor;
+        this.log = log;
+    }
+
+    /**
+     * Arranca el hilo del secuenciador.
+     *
+     * @param name Nombre del hilo
+     */
+    public void start(String name) {
+        Thread started = new Thread(this, name);
+        started.setDaemon(true);
+        thread = started;
+        started.start();
+    }
+
+    /**
+     * Publica una solicitud en el anillo. Si está lleno, espera a que el secuenciador libere posiciones.
+     *
+     * @param kind          BID o PROXY
+     * @param correlationId Identificador que se devuelve con el resultado
+     * @param auctionId     Identificador del lote
+     * @param bidderId      Identificador del pujador
+     * @param price         Precio de la puja, o máximo de la puja máxima
+     * @param completion    Receptor del resultado, o null si no se espera respuesta
+     */
+    public void publish(int kind, int correlationId, int auctionId, int bidderId, int price, Completion completion) {
+        long sequence;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence - applied.get() >= ring.length) {
+                Thread.yield();
+                continue;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1))
+                break;
+        }
+        Slot slot = ring[(int) sequence & mask];
+        slot.kind = kind;
+        slot.correlationId = correlationId;
+        slot.auctionId = auctionId;
+        slot.bidderId = bidderId;
+        slot.price = price;
+        slot.completion = completion;
+        slot.published = sequence;
+        if (sleeping)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Método principal ejecutado cuando comienza el hilo.
+     * Aplica las solicitudes en orden de publicación, por tandas.
+     */
+    public void run() {
+        long next = 0;
+        int idle = 0;
+        while (true) {
+            int count = 0;
+            Slot slot;
+            while (count < MAX_BATCH && (slot = ring[(int) next & mask]).published == next) {
+                apply(slot);
+                next++;
+                count++;
+            }
+            if (count > 0) {
+                applied.lazySet(next);
+                batches.lazySet(batches.get() + 1);
+                idle = 0;
+            } else if (++idle < IDLE_SPINS) {
+                Thread.yield();
+            } else {
+                // Un productor que publique después de leer sleeping a false ya se ve al volver a comprobar
+                sleeping = true;
+                if (ring[(int) next & mask].published != next)
+                    LockSupport.park(this);
+                sleeping = false;
+                idle = 0;
+            }
+        }
+    }
+
+    /**
+     * Aplica la solicitud de una posición y entrega su resultado. Una excepción no sale de aquí.
+     */
+    private void apply(Slot slot) {
+        Completion completion = slot.completion;
+        slot.completion = null;
+        byte result;
+        try {
+            result = processor.process(slot.kind, slot.auctionId, slot.bidderId, slot.price);
+        } catch (RuntimeException | Error e) {
+            failures.increment();
+            log.log("Error al aplicar la puja de %d en el lote %d: %s", slot.bidderId, slot.auctionId, e);
+            result = BidFrame.ERROR;
+        }
+        if (completion == null)
+            return;
+        try {
+            completion.complete(slot.correlationId, slot.auctionId, result);
+        } catch (RuntimeException | Error e) {
+            failures.increment();
+            log.log("Error al contestar la puja %d del lote %d: %s", slot.correlationId, slot.auctionId, e);
+        }
+    }
+
+    /**
+     * Obtiene el número de solicitudes aplicadas.
+     *
+     * @return Solicitudes aplicadas
+     */
+    public long getApplied() {
+        return applied.get();
+    }
+
+    /**
+     * Obtiene el número de tandas de solicitudes aplicadas. Las solicitudes aplicadas entre el número
+     * de tandas es el tamaño medio de tanda.
+     *
+     * @return Número de tandas
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Obtiene el número de solicitudes que han fallado con una excepción.
+     *
+     * @return Solicitudes fallidas
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Obtiene el número de solicitudes publicadas que aún no se han aplicado.
+     *
+     * @return Solicitudes pendientes
+     */
+    public int getBacklog() {
+        return (int) (claimed.get() - applied.get());
+    }
+}
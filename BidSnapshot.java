@@ -0,0 +1,296 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * BidSnapshot codifica un tramo del historial de pujas de un lote en binario compacto, para las
+ * respuestas UDP "history", y lo reparte en trozos que caben en un datagrama sin fragmentación IP.
+ *
+ * El cuerpo empieza con un diccionario de los pujadores del tramo (cada nombre una sola vez) y sigue
+ * con una entrada por puja: la posición del pujador en el diccionario, la diferencia de precio con la
+ * puja anterior y la diferencia de instante, todo en enteros de longitud variable. Una puja típica
+ * ocupa 3 o 4 bytes en lugar de los 50 o 60 del texto de "info". Si el cuerpo no cabe en un trozo, se
+ * comprime con Deflate cuando así ocupa menos.
+ *
+ * Cada trozo lleva una cabecera con el lote, la versión, la versión de partida, su número y el número
+ * de trozos, de modo que el cliente los reúne con un Assembler en cualquier orden. El primer byte
+ * (CHUNK) no coincide con los tipos de BidFeed ni con el inicio de las respuestas de texto.
+ */
+public class BidSnapshot {
+
+    // Tipo de datagrama de los trozos
+    public static final byte CHUNK = 3;
+    // Indicadores de la cabecera
+    public static final byte RAW = 0;
+    public static final byte DEFLATED = 1;
+
+    // Tamaño de la cabecera: tipo, lote, versión, versión de partida, número de trozo, trozos e indicadores
+    public static final int HEADER_SIZE = 1 + 4 + 4 + 4 + 2 + 2 + 1;
+    // Tamaño máximo de un trozo: MTU de Ethernet menos las cabeceras IP y UDP
+    public static final int MAX_DATAGRAM_SIZE = 1500 - 20 - 8;
+    // Número máximo de pujas de una respuesta
+    public static final int MAX_BIDS = 4096;
+
+    /**
+     * Recibe los tramos de historial ya reunidos y decodificados.
+     */
+    public interface Listener {
+        /**
+         * @param auctionId Identificador del lote
+         * @param from      Versión de partida: la primera puja tiene el número de secuencia from + 1
+         * @param version   Versión del lote al codificar el tramo
+         * @param bids      Pujas del tramo, de la más antigua a la más reciente
+         */
+        void onHistory(int auctionId, int from, int version, List<AuctionItem> bids);
+    }
+
+    /**
+     * Codifica las pujas de un lote con número de secuencia entre from + 1 y to.
+     *
+     * @param auctionId Identificador del lote
+     * @param history   Historial por columnas del lote
+     * @param from      Versión de partida
+     * @param to        Versión del lote; sólo deben leerse posiciones ya publicadas
+     * @return Datagramas de la respuesta, en orden
+     */
+    public static byte[][] encode(int auctionId, BidHistory history, int from, int to) {
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream((to - from) * 4);
+        // Posición en el diccionario más uno, por identificador de pujador
+        int[] dictionary = new int[64];
+        int dictionarySize = 0;
+        int previousPrice = 0;
+        long previousTime = 0;
+        for (int index = from; index < to; index++) {
+            int bidderId = history.getBidderId(index);
+            if (bidderId >= dictionary.length)
+                dictionary = Arrays.copyOf(dictionary, Math.max(bidderId + 1, dictionary.length * 2));
+            if (dictionary[bidderId] == 0) {
+                dictionary[bidderId] = ++dictionarySize;
+                byte[] name = history.nameOf(bidderId).getBytes(StandardCharsets.UTF_8);
+                writeVarLong(names, name.length);
+                names.write(name, 0, name.length);
+            }
+            int price = history.getPrice(index);
+            long time = history.getTime(index);
+            writeVarLong(entries, dictionary[bidderId] - 1);
+            writeVarLong(entries, zigZag(price - previousPrice));
+            writeVarLong(entries, zigZag(time - previousTime));
+            previousPrice = price;
+            previousTime = time;
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(names.size() + entries.size() + 10);
+        writeVarLong(body, dictionarySize);
+        body.write(names.toByteArray(), 0, names.size());
+        writeVarLong(body, to - from);
+        body.write(entries.toByteArray(), 0, entries.size());
+        byte[] payload = body.toByteArray();
+
+        byte flags = RAW;
+        int chunkSize = MAX_DATAGRAM_SIZE - HEADER_SIZE;
+        if (payload.length > chunkSize) {
+            byte[] deflated = deflate(payload);
+            if (deflated.length < payload.length) {
+                payload = deflated;
+                flags = DEFLATED;
+            }
+        }
+
+        int count = Math.max(1, (payload.length + chunkSize - 1) / chunkSize);
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * chunkSize;
+            int length = Math.min(chunkSize, payload.length - offset);
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + length);
+            out.put(CHUNK);
+            out.putInt(auctionId);
+            out.putInt(to);
+            out.putInt(from);
+            out.putShort((short) i);
+            out.putShort((short) count);
+            out.put(flags);
+            out.put(payload, offset, length);
+            chunks[i] = out.array();
+        }
+        return chunks;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Entero de longitud variable demasiado largo");
+    }
+
+    /**
+     * Reúne los trozos de una respuesta y la entrega decodificada al completarse. Sólo se reúne una
+     * respuesta a la vez: un trozo de otra respuesta descarta la que estaba a medias. No es seguro
+     * entre hilos; lo usa el bucle UDP del cliente.
+     */
+    public static final class Assembler {
+        private final Listener listener;
+        private int auctionId;
+        private int version;
+        private int from;
+        private byte flags;
+        private byte[][] parts;
+        private int received;
+
+        /**
+         * Constructor para Assembler.
+         *
+         * @param listener Receptor de las respuestas completas
+         */
+        public Assembler(Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Procesa un datagrama recibido.
+         *
+         * @param data   Datos recibidos
+         * @param length Longitud de los datos
+         * @return True si el datagrama es un trozo de historial, false si es otro tipo de mensaje
+         */
+        public boolean accept(byte[] data, int length) {
+            if (length < HEADER_SIZE || data[0] != CHUNK)
+                return false;
+            ByteBuffer in = ByteBuffer.wrap(data, 0, length);
+            in.get();
+            int auctionId = in.getInt();
+            int version = in.getInt();
+            int from = in.getInt();
+            int index = in.getShort() & 0xFFFF;
+            int count = in.getShort() & 0xFFFF;
+            byte flags = in.get();
+            if (count == 0 || index >= count)
+                return true;
+            if (parts == null || auctionId != this.auctionId || version != this.version || from != this.from
+                    || count != parts.length || flags != this.flags) {
+                this.auctionId = auctionId;
+                this.version = version;
+                this.from = from;
+                this.flags = flags;
+                this.parts = new byte[count][];
+                this.received = 0;
+            }
+            if (parts[index] == null) {
+                parts[index] = Arrays.copyOfRange(data, HEADER_SIZE, length);
+                received++;
+            }
+            if (received == parts.length) {
+                byte[][] complete = parts;
+                parts = null;
+                deliver(complete);
+            }
+            return true;
+        }
+
+        private void deliver(byte[][] complete) {
+            int total = 0;
+            for (byte[] part : complete)
+                total += part.length;
+            byte[] payload = new byte[total];
+            int offset = 0;
+            for (byte[] part : complete) {
+                System.arraycopy(part, 0, payload, offset, part.length);
+                offset += part.length;
+            }
+            List<AuctionItem> bids;
+            try {
+                bids = decode(auctionId, flags == DEFLATED ? inflate(payload) : payload);
+            } catch (DataFormatException | RuntimeException e) {
+                // Respuesta dañada: se descarta y el cliente la vuelve a pedir más adelante
+                return;
+            }
+            listener.onHistory(auctionId, from, version, bids);
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("Datos comprimidos incompletos");
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static List<AuctionItem> decode(int auctionId, byte[] payload) {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        int dictionarySize = (int) readVarLong(in);
+        String[] names = new String[dictionarySize];
+        for (int i = 0; i < dictionarySize; i++) {
+            int length = (int) readVarLong(in);
+            names[i] = new String(payload, in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        }
+        int count = (int) readVarLong(in);
+        List<AuctionItem> bids = new ArrayList<>(Math.min(count, MAX_BIDS));
+        int price = 0;
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            String username = names[(int) readVarLong(in)];
+            price += (int) unZigZag(readVarLong(in));
+            time += unZigZag(readVarLong(in));
+            AuctionItem bid = new AuctionItem(auctionId, username, price);
+            bid.setTime(time);
+            bids.add(bid);
+        }
+        return bids;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * BidderDirectory asigna un identificador numérico a cada nombre de usuario y guarda el nombre una sola vez.
+ *
+ * Los identificadores se asignan al conectar (una vez por conexión), mientras que la consulta del
+ * nombre a partir del identificador se hace en cada puja y no toma ningún cerrojo.
+ */
+public class BidderDirectory {
+
+    // Identificador que no corresponde a ningún pujador
+    public static final int UNKNOWN_BIDDER = 0;
+
+    // Identificadores asignados, por nombre de usuario
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Nombres de usuario, indexados por identificador
+    private volatile String[] names = new String[64];
+    // Siguiente identificador a asignar
+    private int nextId = 1;
+
+    /**
+     * Obtiene el identificador de un usuario, asignándole uno nuevo si es la primera vez que se ve.
+     *
+     * @param username Nombre del usuario
+     * @return Identificador del pujador
+     */
+    public int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = ids.get(username);
+            if (id != null)
+                return id;
+            String[] current = names;
+            if (nextId == current.length)
+                current = Arrays.copyOf(current, current.length * 2);
+            current[nextId] = username;
+            names = current;
+            ids.put(username, nextId);
+            return nextId++;
+        }
+    }
+
+    /**
+     * Obtiene el nombre de usuario de un pujador.
+     *
+     * @param bidderId Identificador del pujador
+     * @return Nombre del usuario, o null si el identificador no se ha asignado
+     */
+    public String nameOf(int bidderId) {
+        String[] current = names;
+        return bidderId > UNKNOWN_BIDDER && bidderId < current.length ? current[bidderId] : null;
+    }
+
+    /**
+     * Obtiene el número de pujadores registrados.
+     *
+     * @return Número de pujadores
+     */
+    public int size() {
+        return ids.size();
+    }
+}
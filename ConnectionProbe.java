@@ -0,0 +1,133 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * ConnectionProbe compara los modos de ejecución de AuctionServer (hilos de plataforma o virtuales).
+ *
+ * Abre N conexiones TCP inactivas con el protocolo de objetos, mide la memoria residente del
+ * servidor antes y después (leyendo /proc/<pid>/status en Linux) y, por último, envía pujas
+ * midiendo cuánto tardan en aparecer en la respuesta UDP "info" del lote.
+ *
+ * Uso: java ConnectionProbe <conexiones> <pujas> [pid del servidor]
+ */
+public class ConnectionProbe {
+
+    // Número de puerto para la comunicación UDP con el servidor
+    private static final int UDP_SERVER_PORT = 9876;
+    // Número de puerto para la comunicación TCP con el servidor
+    private static final int TCP_SERVER_PORT = 12345;
+    // Tamaño del búfer utilizado para recibir mensajes
+    private final static int BUFFER_SIZE = 65535;
+
+    /**
+     * Lee la memoria residente de un proceso.
+     *
+     * @param pid Identificador del proceso
+     * @return Memoria residente en KB, o -1 si no se puede leer
+     */
+    private static long residentKb(String pid) {
+        if (pid == null)
+            return -1;
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/" + pid + "/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        } catch (IOException e) {
+            System.out.println("No se puede leer la memoria del proceso " + pid);
+        }
+        return -1;
+    }
+
+    /**
+     * Solicita la información del lote por defecto y devuelve la respuesta.
+     */
+    private static String requestInfo(DatagramSocket udpSocket, InetAddress address, byte[] buffer) throws IOException {
+        byte[] request = "info".getBytes(StandardCharsets.UTF_8);
+        udpSocket.send(new DatagramPacket(request, request.length, address, UDP_SERVER_PORT));
+        DatagramPacket reply = new DatagramPacket(buffer, buffer.length);
+        udpSocket.receive(reply);
+        return new String(reply.getData(), 0, reply.getLength(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Método principal para la aplicación ConnectionProbe.
+     *
+     * @param args Número de conexiones, número de pujas y, opcionalmente, el pid del servidor
+     * @throws Exception Si ocurre un error durante la medición
+     */
+    public static void main(String[] args) throws Exception {
+        int connectionCount = Integer.parseInt(args[0]);
+        int bidCount = Integer.parseInt(args[1]);
+        String pid = args.length > 2 ? args[2] : null;
+
+        long rssBefore = residentKb(pid);
+        List<Socket> sockets = new ArrayList<>();
+        List<ObjectOutputStream> streams = new ArrayList<>();
+        try {
+            for (int i = 0; i < connectionCount; i++) {
+                Socket socket = new Socket("localhost", TCP_SERVER_PORT);
+                sockets.add(socket);
+                streams.add(new ObjectOutputStream(socket.getOutputStream()));
+            }
+        } catch (IOException e) {
+            System.out.println("Error al abrir la conexión " + (sockets.size() + 1) + ": " + e.getMessage());
+        }
+        // Da tiempo al servidor a crear los handlers de todas las conexiones
+        Thread.sleep(2000);
+        long rssAfter = residentKb(pid);
+
+        System.out.println("Conexiones mantenidas: " + sockets.size());
+        if (rssBefore >= 0 && rssAfter >= 0 && !sockets.isEmpty())
+            System.out.println("Memoria por conexión: " + ((rssAfter - rssBefore) * 1024 / sockets.size()) + " bytes");
+
+        // Latencia puja-visibilidad: desde el envío por TCP hasta que la puja aparece en la respuesta UDP
+        InetAddress address = InetAddress.getByName("localhost");
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long[] latencies = new long[bidCount];
+        int measured = 0;
+        try (DatagramSocket udpSocket = new DatagramSocket()) {
+            udpSocket.setSoTimeout(1000);
+            String info = requestInfo(udpSocket, address, buffer);
+            int price = Integer.parseInt(info.substring(info.lastIndexOf("Price: ") + 7, info.lastIndexOf(']'))) + 1;
+            for (int i = 0; i < bidCount && !streams.isEmpty(); i++, price++) {
+                ObjectOutputStream out = streams.get(i % streams.size());
+                String expected = "Price: " + price + "]";
+                long start = System.nanoTime();
+                out.writeObject(new AuctionItem("probe", price));
+                out.flush();
+                try {
+                    while (!requestInfo(udpSocket, address, buffer).endsWith(expected)) {
+                        // Repite la consulta hasta que la puja sea visible
+                    }
+                    latencies[measured++] = System.nanoTime() - start;
+                } catch (SocketTimeoutException e) {
+                    System.out.println("Sin respuesta UDP para la puja " + price);
+                }
+            }
+        }
+
+        if (measured > 0) {
+            Arrays.sort(latencies, 0, measured);
+            System.out.println("Latencia de puja (us): p50=" + latencies[measured / 2] / 1000
+                    + " p99=" + latencies[Math.min(measured - 1, measured * 99 / 100)] / 1000
+                    + " max=" + latencies[measured - 1] / 1000);
+        }
+
+        for (Socket socket : sockets)
+            socket.close();
+    }
+}
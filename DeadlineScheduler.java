@@ -0,0 +1,241 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * DeadlineScheduler ejecuta tareas en un instante dado con precisión de milisegundos.
+ *
+ * Las tareas se guardan en una rueda temporal jerárquica: el primer nivel tiene una casilla por
+ * milisegundo y cada nivel superior cubre la vuelta completa del anterior, de modo que programar o
+ * cancelar una tarea cuesta lo mismo con diez lotes que con un millón. Sólo las casillas con tareas
+ * entran en una cola de espera ordenada por su vencimiento; el hilo del planificador duerme hasta
+ * la más próxima y no consume CPU si no hay ninguna. Al vencer una casilla de un nivel superior sus
+ * tareas bajan a los niveles inferiores hasta llegar a su milisegundo.
+ */
+public class DeadlineScheduler {
+
+    // Duración de una casilla del primer nivel en milisegundos
+    private static final long TICK = 1;
+    // Número de casillas de cada nivel
+    private static final int WHEEL_SIZE = 64;
+
+    /**
+     * Tarea programada. Se puede cancelar mientras no se haya ejecutado.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    /**
+     * Casilla de la rueda: lista doblemente enlazada de tareas con el mismo vencimiento de casilla.
+     */
+    private static final class Bucket implements Delayed {
+        private final Timeout root = new Timeout(null, 0);
+        // Vencimiento de la casilla en milisegundos (-1 si está vacía)
+        private volatile long expiration = -1;
+
+        private Bucket() {
+            root.previous = root;
+            root.next = root;
+        }
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = root.previous;
+            timeout.next = root;
+            root.previous.next = timeout;
+            root.previous = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            timeout.previous.next = timeout.next;
+            timeout.next.previous = timeout.previous;
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        /**
+         * Fija el vencimiento de la casilla.
+         *
+         * @param expiration Vencimiento en milisegundos
+         * @return True si ha cambiado, es decir, si la casilla debe volver a la cola de espera
+         */
+        private boolean setExpiration(long expiration) {
+            long previous = this.expiration;
+            this.expiration = expiration;
+            return previous != expiration;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiration - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiration, ((Bucket) other).expiration);
+        }
+    }
+
+    /**
+     * Nivel de la rueda. El nivel superior se crea cuando hace falta.
+     */
+    private static final class Wheel {
+        private final long tick;
+        private final long interval;
+        private final Bucket[] buckets = new Bucket[WHEEL_SIZE];
+        private final DelayQueue<Bucket> queue;
+        // Inicio de la casilla actual, múltiplo de tick
+        private long currentTime;
+        private Wheel overflow;
+
+        private Wheel(long tick, long startTime, DelayQueue<Bucket> queue) {
+            this.tick = tick;
+            this.interval = tick * WHEEL_SIZE;
+            this.queue = queue;
+            this.currentTime = startTime - startTime % tick;
+            for (int i = 0; i < WHEEL_SIZE; i++)
+                buckets[i] = new Bucket();
+        }
+
+        /**
+         * Coloca una tarea en la casilla que le corresponde.
+         *
+         * @param timeout Tarea programada
+         * @return False si la tarea ya ha vencido y hay que ejecutarla
+         */
+        private boolean add(Timeout timeout) {
+            long deadline = timeout.deadline;
+            if (deadline < currentTime + tick)
+                return false;
+            if (deadline < currentTime + interval) {
+                long slot = deadline / tick;
+                Bucket bucket = buckets[(int) (slot % WHEEL_SIZE)];
+                bucket.add(timeout);
+                if (bucket.setExpiration(slot * tick))
+                    queue.offer(bucket);
+                return true;
+            }
+            if (overflow == null)
+                overflow = new Wheel(interval, currentTime, queue);
+            return overflow.add(timeout);
+        }
+
+        private void advanceClock(long time) {
+            if (time >= currentTime + tick) {
+                currentTime = time - time % tick;
+                if (overflow != null)
+                    overflow.advanceClock(currentTime);
+            }
+        }
+    }
+
+    private final DelayQueue<Bucket> queue = new DelayQueue<>();
+    private final Wheel wheel = new Wheel(TICK, System.currentTimeMillis(), queue);
+    // Tareas vencidas que el hilo del planificador ejecuta fuera del cerrojo
+    private final List<Timeout> expired = new ArrayList<>();
+
+    /**
+     * Arranca el hilo que ejecuta las tareas vencidas.
+     */
+    public void start() {
+        Thread thread = new Thread(this::run, "deadline-scheduler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Programa una tarea. Si el instante ya ha pasado, se ejecuta en la siguiente vuelta del planificador.
+     *
+     * @param deadline Instante de ejecución en milisegundos
+     * @param task     Tarea que se ejecuta
+     * @return Tarea programada, para poder cancelarla
+     */
+    public Timeout schedule(long deadline, Runnable task) {
+        Timeout timeout = new Timeout(task, deadline);
+        synchronized (this) {
+            if (!wheel.add(timeout)) {
+                // Ya ha vencido: se pone en la casilla actual, que vence de inmediato
+                Bucket bucket = wheel.buckets[(int) ((wheel.currentTime / TICK) % WHEEL_SIZE)];
+                bucket.add(timeout);
+                if (bucket.setExpiration(wheel.currentTime))
+                    queue.offer(bucket);
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Cancela una tarea programada.
+     *
+     * @param timeout Tarea programada
+     * @return True si la tarea no se había ejecutado todavía
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (timeout.bucket == null)
+            return false;
+        timeout.bucket.remove(timeout);
+        return true;
+    }
+
+    /**
+     * Bucle del planificador: espera a la siguiente casilla que vence, baja sus tareas de nivel y ejecuta las vencidas.
+     */
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Bucket bucket;
+            try {
+                bucket = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                do {
+                    wheel.advanceClock(bucket.expiration);
+                    flush(bucket);
+                    bucket = queue.poll();
+                } while (bucket != null);
+            }
+            for (int i = 0; i < expired.size(); i++) {
+                try {
+                    expired.get(i).task.run();
+                } catch (RuntimeException e) {
+                    System.out.println("Error en una tarea programada: " + e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Vacía una casilla: sus tareas bajan de nivel o, si ya han vencido, pasan a la lista de vencidas.
+     */
+    private void flush(Bucket bucket) {
+        bucket.setExpiration(-1);
+        Timeout timeout = bucket.root.next;
+        while (timeout != bucket.root) {
+            Timeout next = timeout.next;
+            bucket.remove(timeout);
+            if (!wheel.add(timeout))
+                expired.add(timeout);
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * DutchFormat es la subasta holandesa: el precio empieza alto y baja un escalón cada STEP
+ * milisegundos, sin llegar al precio de salida del lote, y gana la primera puja que acepta el precio
+ * del momento, que es lo que paga.
+ *
+ * El precio es una función del tiempo desde la apertura, así que no hay que actualizar ningún estado
+ * en cada bajada; el planificador sólo revisa el lote para anunciar el precio y cerrarlo en cuanto hay
+ * ganador. La venta es un único compare-and-set: las pujas que llegan después se rechazan.
+ */
+public class DutchFormat implements AuctionFormat {
+
+    // Intervalo entre bajadas del precio, en milisegundos
+    public static final long STEP = 1000;
+    // Intervalo de revisión del lote, en milisegundos
+    private static final long TICK = 100;
+
+    private final int startPrice;
+    private final int decrement;
+    private final AtomicBoolean sold = new AtomicBoolean();
+    private volatile long openedAt;
+    private volatile AuctionItem sale;
+
+    /**
+     * Constructor para DutchFormat.
+     *
+     * @param startPrice Precio al abrir el lote
+     * @param decrement  Bajada del precio en cada escalón
+     */
+    public DutchFormat(int startPrice, int decrement) {
+        this.startPrice = startPrice;
+        this.decrement = Math.max(1, decrement);
+    }
+
+    @Override
+    public String getName() {
+        return "holandesa";
+    }
+
+    @Override
+    public boolean isAscending() {
+        return false;
+    }
+
+    /**
+     * Empieza a bajar el precio. Sólo cuenta la primera apertura: un lote recuperado del diario o
+     * recibido del líder conserva la suya.
+     */
+    @Override
+    public void open(long now) {
+        if (openedAt == 0)
+            openedAt = now;
+    }
+
+    @Override
+    public int submit(BidEngine bids, AuctionItem bid) {
+        int price = getAskingPrice(bids, bid.getTime());
+        if (bid.getPrice() < price || !sold.compareAndSet(false, true))
+            return 0;
+        AuctionItem accepted = new AuctionItem(bid.getAuctionId(), bid.getUsername(), price);
+        accepted.setTime(bid.getTime());
+        accepted.setBidderId(bid.getBidderId());
+        // El precio nunca baja hasta el de salida, así que el motor sólo rechaza la venta si el lote
+        // se ha cerrado a la vez
+        int sequence = bids.submit(accepted);
+        if (sequence > 0)
+            sale = accepted;
+        return sequence;
+    }
+
+    @Override
+    public int restore(BidEngine bids, AuctionItem bid) {
+        sold.set(true);
+        sale = bid;
+        return bids.restore(bid);
+    }
+
+    /**
+     * Obtiene el precio del reloj: baja un escalón por cada STEP desde la apertura y se queda un
+     * euro por encima del precio de salida del lote.
+     */
+    @Override
+    public int getAskingPrice(BidEngine bids, long now) {
+        AuctionItem current = sale;
+        if (current != null)
+            return current.getPrice();
+        int floor = bids.getBest().getPrice() + 1;
+        long steps = Math.max(0, now - openedAt) / STEP;
+        return (int) Math.max(floor, startPrice - steps * decrement);
+    }
+
+    public int getStartPrice() {
+        return startPrice;
+    }
+
+    public int getDecrement() {
+        return decrement;
+    }
+
+    /**
+     * Obtiene el instante de apertura del lote, del que depende el precio del reloj.
+     *
+     * @return Instante en milisegundos, o 0 si el lote no se ha abierto
+     */
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    @Override
+    public boolean isSettled() {
+        return sold.get();
+    }
+
+    @Override
+    public long getTickInterval() {
+        return TICK;
+    }
+
+    @Override
+    public List<AuctionItem> close(BidEngine bids) {
+        // La venta se lee del motor, ya cerrado: sale puede no estar asignada aún si se vendió justo
+        // antes del cierre
+        return bids.size() > 1 ? Collections.singletonList(bids.getBest()) : Collections.<AuctionItem>emptyList();
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * EnglishFormat es la subasta inglesa ascendente: una puja se acepta si supera a la ganadora y
+ * gana la más alta al cerrar el lote. Es el formato por defecto.
+ */
+public class EnglishFormat implements AuctionFormat {
+
+    @Override
+    public String getName() {
+        return "inglesa";
+    }
+
+    @Override
+    public boolean isAscending() {
+        return true;
+    }
+
+    @Override
+    public void open(long now) {
+        // El formato no depende del tiempo
+    }
+
+    @Override
+    public int submit(BidEngine bids, AuctionItem bid) {
+        return bids.submit(bid);
+    }
+
+    @Override
+    public int restore(BidEngine bids, AuctionItem bid) {
+        return bids.restore(bid);
+    }
+
+    @Override
+    public int getAskingPrice(BidEngine bids, long now) {
+        return bids.getBest().getPrice();
+    }
+
+    @Override
+    public boolean isSettled() {
+        return false;
+    }
+
+    @Override
+    public long getTickInterval() {
+        return 0;
+    }
+
+    @Override
+    public List<AuctionItem> close(BidEngine bids) {
+        // La primera posición del historial es el precio de salida, que no gana
+        return bids.size() > 1 ? Collections.singletonList(bids.getBest()) : Collections.<AuctionItem>emptyList();
+    }
+}
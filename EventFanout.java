@@ -0,0 +1,554 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * EventFanout avisa a los clientes TCP conectados de los cambios de precio, de las pujas superadas
+ * y de los cierres de los lotes.
+ *
+ * La ruta de una puja sólo deja un aviso en una cola sin cerrojos. Un hilo aparte agrupa los avisos
+ * pendientes por lote, codifica cada mensaje una sola vez (trama BidFrame y texto para los clientes
+ * antiguos) y lo reparte a las suscripciones de las conexiones. Cada suscripción guarda como mucho
+ * un mensaje por lote y tipo: si un cliente lee despacio, el precio nuevo sustituye al anterior en
+ * lugar de acumularse, y ni las pujas ni el resto de clientes esperan por él.
+ *
+ * El mismo hilo publica las pujas en BidFeed, en orden de secuencia dentro de cada lote. Dos pujas
+ * del mismo lote aceptadas a la vez pueden dejar sus avisos en la cola en el orden contrario; la que
+ * llega antes de tiempo espera como mucho FEED_REORDER_WAIT a la que falta, y si no llega se publica
+ * igualmente y el cliente pide el hueco como si se hubiera perdido el datagrama.
+ */
+public class EventFanout {
+
+    // Número máximo de mensajes pendientes por suscripción; al superarlo se descarta el más antiguo
+    private static final int MAX_PENDING_EVENTS = 256;
+    // Intervalo mínimo entre dos repartos en nanosegundos: las pujas de ese intervalo dan un solo precio por lote
+    private static final long PUBLISH_INTERVAL = 5_000_000;
+    // Espera máxima de una puja publicada antes de tiempo a la anterior, en nanosegundos
+    private static final long FEED_REORDER_WAIT = 5_000_000;
+
+    /**
+     * Mensaje codificado una vez y compartido por todos sus destinatarios.
+     */
+    public static final class Event {
+        private final long key;
+        private final byte kind;
+        private final int auctionId;
+        private final byte[] frame;
+        private final String text;
+
+        private Event(byte kind, int auctionId, int sequence, int price, int leaderId, String text) {
+            ByteBuffer out = ByteBuffer.allocate(BidFrame.EVENT_FRAME_SIZE);
+            BidFrame.encodeEvent(out, kind, auctionId, sequence, price, leaderId);
+            this.key = key(kind, auctionId);
+            this.kind = kind;
+            this.auctionId = auctionId;
+            this.frame = out.array();
+            this.text = text;
+        }
+
+        /**
+         * Obtiene la trama EVENT completa. No se debe modificar.
+         *
+         * @return Bytes de la trama
+         */
+        public byte[] getFrame() {
+            return frame;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * Suscripción de una conexión: cola acotada de los mensajes pendientes de envío.
+     * Se puede vaciar con poll() desde un bucle de eventos, que recibe el aviso onReady cuando la
+     * cola deja de estar vacía, o con take() desde un hilo que escribe en un socket bloqueante.
+     * La cola se protege con un ReentrantLock en lugar de un monitor: un hilo virtual que espera en
+     * take() libera su hilo portador, mientras que con wait() lo dejaría bloqueado.
+     */
+    public static final class Subscription {
+        private final boolean text;
+        private final Runnable onReady;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private volatile String username;
+        private boolean closed;
+        private long dropped;
+        // Mensajes pendientes por lote y tipo, del más antiguo al más reciente
+        private final LinkedHashMap<Long, Event> pending = new LinkedHashMap<Long, Event>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Event> eldest) {
+                if (size() <= MAX_PENDING_EVENTS)
+                    return false;
+                dropped++;
+                return true;
+            }
+        };
+
+        private Subscription(String username, boolean text, Runnable onReady) {
+            this.username = username;
+            this.text = text;
+            this.onReady = onReady;
+        }
+
+        /**
+         * Indica si la conexión recibe los mensajes como texto (clientes antiguos) en lugar de como tramas.
+         *
+         * @return True para mensajes de texto
+         */
+        public boolean isText() {
+            return text;
+        }
+
+        /**
+         * Fija el usuario de la conexión, al que se avisa cuando se superan sus pujas.
+         *
+         * @param username Nombre del usuario
+         */
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        private void offer(List<Event> events) {
+            boolean ready;
+            lock.lock();
+            try {
+                if (closed)
+                    return;
+                ready = pending.isEmpty();
+                for (int i = 0; i < events.size(); i++) {
+                    Event event = events.get(i);
+                    if (event.kind == BidFrame.AUCTION_CLOSED)
+                        pending.remove(key(BidFrame.PRICE_CHANGED, event.auctionId));
+                    // Un mensaje nuevo del mismo lote y tipo sustituye al pendiente y pasa al final
+                    pending.remove(event.key);
+                    pending.put(event.key, event);
+                }
+                if (ready)
+                    notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (ready && onReady != null)
+                onReady.run();
+        }
+
+        /**
+         * Saca el mensaje pendiente más antiguo.
+         *
+         * @return Mensaje, o null si no hay ninguno
+         */
+        public Event poll() {
+            lock.lock();
+            try {
+                Iterator<Event> events = pending.values().iterator();
+                if (!events.hasNext())
+                    return null;
+                Event event = events.next();
+                events.remove();
+                return event;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Espera al siguiente mensaje pendiente.
+         *
+         * @return Mensaje, o null si la suscripción se ha cancelado
+         * @throws InterruptedException Si se interrumpe la espera
+         */
+        public Event take() throws InterruptedException {
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed)
+                    notEmpty.await();
+                return closed ? null : poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isEmpty() {
+            lock.lock();
+            try {
+                return pending.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Obtiene el número de mensajes pendientes de envío.
+         *
+         * @return Mensajes pendientes
+         */
+        public int getDepth() {
+            lock.lock();
+            try {
+                return pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Obtiene el número de mensajes descartados porque la conexión no los leía a tiempo.
+         *
+         * @return Mensajes descartados
+         */
+        public long getDropped() {
+            lock.lock();
+            try {
+                return dropped;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                pending.clear();
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Aviso de la ruta de pujas: una puja aceptada o el cierre de un lote.
+     */
+    private static final class Notice {
+        private final AuctionItem bid;
+        private final int sequence;
+        private final Auction closed;
+
+        private Notice(AuctionItem bid, int sequence, Auction closed) {
+            this.bid = bid;
+            this.sequence = sequence;
+            this.closed = closed;
+        }
+    }
+
+    /**
+     * Estado de un lote visto por el hilo de reparto.
+     */
+    private static final class Lot {
+        private final int auctionId;
+        private int sequence;
+        private int price;
+        private String leader;
+        private boolean dirty;
+        private boolean changed;
+        private boolean closed;
+        // Usuarios cuya puja se ha superado desde el último reparto
+        private final Set<String> outbid = new LinkedHashSet<>();
+        // Secuencia de la última puja publicada en BidFeed (0 si aún no se ha publicado ninguna)
+        private int fed;
+        // Pujas que esperan a la anterior para publicarse en BidFeed, e instante en que empezó la espera
+        private final TreeMap<Integer, AuctionItem> early = new TreeMap<>();
+        private long earlySince;
+
+        private Lot(int auctionId) {
+            this.auctionId = auctionId;
+        }
+    }
+
+    private final BidderDirectory bidders;
+    private final ConcurrentLinkedQueue<Notice> notices = new ConcurrentLinkedQueue<>();
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean signalled = new AtomicBoolean();
+    private volatile Thread thread;
+    // Estado de los lotes y lotes con cambios; sólo los usa el hilo de reparto
+    private final Map<Integer, Lot> lots = new HashMap<>();
+    private final List<Lot> dirty = new ArrayList<>();
+    private final List<Event> broadcast = new ArrayList<>();
+    private final Map<String, List<Event>> targeted = new HashMap<>();
+    // Lotes con pujas que esperan para publicarse en BidFeed
+    private final List<Lot> waiting = new ArrayList<>();
+    private volatile BidFeed feed;
+
+    /**
+     * Constructor para EventFanout.
+     *
+     * @param bidders Directorio de pujadores, para indicar en las tramas quién va ganando
+     */
+    public EventFanout(BidderDirectory bidders) {
+        this.bidders = bidders;
+    }
+
+    /**
+     * Arranca el hilo que reparte los mensajes.
+     */
+    public void start() {
+        Thread fanout = new Thread(this::run, "event-fanout");
+        fanout.setDaemon(true);
+        thread = fanout;
+        fanout.start();
+    }
+
+    /**
+     * Publica desde el hilo de reparto las pujas aceptadas en BidFeed, en orden de secuencia.
+     *
+     * @param feed Publicación multicast (null para no publicar)
+     */
+    public void setFeed(BidFeed feed) {
+        this.feed = feed;
+    }
+
+    /**
+     * Suscribe una conexión a los mensajes.
+     *
+     * @param username Usuario de la conexión (null si aún no se conoce)
+     * @param text     True si la conexión recibe los mensajes como texto
+     * @param onReady  Aviso cuando hay mensajes pendientes (null si se usa take())
+     * @return Suscripción de la conexión
+     */
+    public Subscription subscribe(String username, boolean text, Runnable onReady) {
+        Subscription subscription = new Subscription(username, text, onReady);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Cancela una suscripción y descarta sus mensajes pendientes.
+     *
+     * @param subscription Suscripción de la conexión
+     */
+    public void unsubscribe(Subscription subscription) {
+        if (subscription != null && subscriptions.remove(subscription))
+            subscription.close();
+    }
+
+    /**
+     * Obtiene las suscripciones activas.
+     *
+     * @return Vista no modificable de las suscripciones
+     */
+    public Collection<Subscription> getSubscriptions() {
+        return Collections.unmodifiableSet(subscriptions);
+    }
+
+    /**
+     * Avisa de una puja aceptada. No bloquea.
+     *
+     * @param bid      Puja aceptada
+     * @param sequence Número de secuencia de la puja en su lote
+     */
+    public void bidAccepted(AuctionItem bid, int sequence) {
+        notices.add(new Notice(bid, sequence, null));
+        signal();
+    }
+
+    /**
+     * Avisa del cierre de un lote. No bloquea.
+     *
+     * @param auction Lote cerrado
+     */
+    public void auctionClosed(Auction auction) {
+        notices.add(new Notice(null, 0, auction));
+        signal();
+    }
+
+    private void signal() {
+        Thread fanout = thread;
+        if (fanout != null && !signalled.get() && signalled.compareAndSet(false, true))
+            LockSupport.unpark(fanout);
+    }
+
+    /**
+     * Bucle del hilo de reparto: agrupa los avisos pendientes y reparte los mensajes resultantes.
+     */
+    private void run() {
+        long next = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(this, wait);
+            Notice notice;
+            while ((notice = notices.poll()) != null)
+                apply(notice);
+            if (!waiting.isEmpty())
+                feedOverdue(System.nanoTime());
+            if (!dirty.isEmpty()) {
+                publish();
+                next = System.nanoTime() + PUBLISH_INTERVAL;
+            }
+            signalled.set(false);
+            if (notices.isEmpty() && waiting.isEmpty())
+                LockSupport.park(this);
+            else if (notices.isEmpty())
+                LockSupport.parkNanos(this, FEED_REORDER_WAIT);
+        }
+    }
+
+    private void apply(Notice notice) {
+        int auctionId = notice.bid != null ? notice.bid.getAuctionId() : notice.closed.getId();
+        Lot lot = lots.get(auctionId);
+        if (lot == null) {
+            lot = new Lot(auctionId);
+            lots.put(auctionId, lot);
+        }
+        if (lot.closed)
+            return;
+        if (notice.bid != null)
+            feed(lot, notice.bid, notice.sequence);
+        if (notice.closed != null) {
+            // Los ganadores del cierre se avisan antes que el cierre: no falta ninguna puja por llegar
+            flushFeed(lot);
+            AuctionItem best = notice.closed.getBest();
+            lot.sequence = notice.closed.getSequence();
+            lot.price = best.getPrice();
+            lot.leader = best.getUsername();
+            lot.closed = true;
+        } else if (notice.sequence > lot.sequence) {
+            String username = notice.bid.getUsername();
+            if (lot.leader != null && !lot.leader.equals(username))
+                lot.outbid.add(lot.leader);
+            lot.sequence = notice.sequence;
+            lot.price = notice.bid.getPrice();
+            lot.leader = username;
+            lot.changed = true;
+        } else if (!notice.bid.getUsername().equals(lot.leader)) {
+            // Puja que llega después de otra que ya la ha superado
+            lot.outbid.add(notice.bid.getUsername());
+        }
+        if (!lot.dirty) {
+            lot.dirty = true;
+            dirty.add(lot);
+        }
+    }
+
+    /**
+     * Publica una puja en BidFeed si es la siguiente del lote, seguida de las que la esperaban, o la
+     * guarda hasta que llegue la anterior. Una puja anterior a la última publicada ya se ha dado por
+     * perdida y no se publica.
+     */
+    private void feed(Lot lot, AuctionItem bid, int sequence) {
+        BidFeed current = feed;
+        if (current == null || (lot.fed > 0 && sequence <= lot.fed))
+            return;
+        if (lot.fed > 0 && sequence > lot.fed + 1) {
+            if (lot.early.isEmpty()) {
+                lot.earlySince = System.nanoTime();
+                waiting.add(lot);
+            }
+            lot.early.put(sequence, bid);
+            return;
+        }
+        current.publish(bid, sequence);
+        lot.fed = sequence;
+        Map.Entry<Integer, AuctionItem> first;
+        while ((first = lot.early.firstEntry()) != null && first.getKey() == lot.fed + 1) {
+            lot.early.pollFirstEntry();
+            current.publish(first.getValue(), first.getKey());
+            lot.fed = first.getKey();
+        }
+        if (lot.early.isEmpty())
+            waiting.remove(lot);
+        else
+            lot.earlySince = System.nanoTime();
+    }
+
+    /**
+     * Publica en orden las pujas que esperan a una anterior que no ha llegado a tiempo.
+     */
+    private void feedOverdue(long now) {
+        for (int i = waiting.size() - 1; i >= 0; i--) {
+            Lot lot = waiting.get(i);
+            if (now - lot.earlySince >= FEED_REORDER_WAIT)
+                flushFeed(lot);
+        }
+    }
+
+    private void flushFeed(Lot lot) {
+        BidFeed current = feed;
+        if (lot.early.isEmpty())
+            return;
+        for (Map.Entry<Integer, AuctionItem> bid : lot.early.entrySet()) {
+            if (current != null)
+                current.publish(bid.getValue(), bid.getKey());
+            lot.fed = bid.getKey();
+        }
+        lot.early.clear();
+        waiting.remove(lot);
+    }
+
+    /**
+     * Codifica un mensaje por lote con cambios y lo entrega a las suscripciones.
+     */
+    private void publish() {
+        for (int i = 0; i < dirty.size(); i++) {
+            Lot lot = dirty.get(i);
+            lot.outbid.remove(lot.leader);
+            boolean noBids = lot.leader == null || lot.sequence <= 1;
+            int leaderId = noBids ? BidderDirectory.UNKNOWN_BIDDER : bidders.intern(lot.leader);
+            if (lot.closed) {
+                String text = noBids ? "La subasta del lote " + lot.auctionId + " ha finalizado sin pujas."
+                        : "La subasta del lote " + lot.auctionId + " ha finalizado. Ganador: " + lot.leader + " con " + lot.price + "€.";
+                broadcast.add(new Event(BidFrame.AUCTION_CLOSED, lot.auctionId, lot.sequence, lot.price, leaderId, text));
+            } else if (lot.changed) {
+                broadcast.add(new Event(BidFrame.PRICE_CHANGED, lot.auctionId, lot.sequence, lot.price, leaderId,
+                        "Nueva puja en el lote " + lot.auctionId + ": " + lot.price + "€ (" + lot.leader + ")."));
+            }
+            if (!lot.outbid.isEmpty()) {
+                // El mismo mensaje sirve para todos los usuarios superados en el lote
+                Event event = new Event(BidFrame.BID_OUTBID, lot.auctionId, lot.sequence, lot.price, leaderId,
+                        "Tu puja en el lote " + lot.auctionId + " ha sido superada: la puja actual es " + lot.price + "€.");
+                for (String username : lot.outbid) {
+                    List<Event> events = targeted.get(username);
+                    if (events == null) {
+                        events = new ArrayList<>(1);
+                        targeted.put(username, events);
+                    }
+                    events.add(event);
+                }
+                lot.outbid.clear();
+            }
+            lot.changed = false;
+            lot.dirty = false;
+        }
+        dirty.clear();
+
+        for (Subscription subscription : subscriptions) {
+            if (!broadcast.isEmpty())
+                subscription.offer(broadcast);
+            String username = subscription.username;
+            if (!targeted.isEmpty() && username != null) {
+                List<Event> events = targeted.get(username);
+                if (events != null)
+                    subscription.offer(events);
+            }
+        }
+        broadcast.clear();
+        targeted.clear();
+    }
+
+    private static long key(byte kind, int auctionId) {
+        return ((long) kind << 32) | (auctionId & 0xFFFFFFFFL);
+    }
+}
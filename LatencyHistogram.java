@@ -0,0 +1,163 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * LatencyHistogram registra latencias en casillas logarítmico-lineales, al estilo de HdrHistogram.
+ *
+ * Los valores menores que 128 tienen una casilla cada uno; por encima, cada potencia de dos se
+ * divide en 64 casillas, de modo que el error relativo de cualquier percentil es menor del 1,6 %
+ * y el histograma ocupa lo mismo sea cual sea el número de muestras. Registrar un valor es un
+ * incremento atómico, sin cerrojos ni objetos nuevos, y se puede hacer desde varios hilos.
+ *
+ * Como LongAdder, reparte los contadores en franjas: cada hilo incrementa la copia de las casillas
+ * que le corresponde, de modo que los hilos que registran a la vez no se disputan la misma línea de
+ * caché. Cada franja se crea la primera vez que la usa un hilo, y las lecturas suman todas las
+ * franjas.
+ */
+public class LatencyHistogram {
+
+    // Bits de la parte lineal de cada potencia de dos
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    // Número de casillas para cubrir todos los valores positivos de un long
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    // Número de franjas: la potencia de dos mayor o igual que el número de procesadores, hasta 64
+    private static final int STRIPES = Integer.highestOneBit(Math.min(64, Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    // Casillas de cada franja (null mientras ningún hilo la ha usado)
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    /**
+     * Registra un valor. Los valores negativos se registran como 0.
+     *
+     * @param value Valor medido (por ejemplo, microsegundos)
+     */
+    public void record(long value) {
+        stripe().incrementAndGet(indexOf(Math.max(0, value)));
+    }
+
+    /**
+     * Obtiene las casillas de la franja del hilo actual, creándolas si es la primera vez que se usan.
+     */
+    private AtomicLongArray stripe() {
+        int hash = System.identityHashCode(Thread.currentThread());
+        int index = (hash ^ (hash >>> 16)) & (STRIPES - 1);
+        AtomicLongArray counts = stripes.get(index);
+        if (counts == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKET_COUNT));
+            counts = stripes.get(index);
+        }
+        return counts;
+    }
+
+    /**
+     * Suma las casillas de todas las franjas.
+     */
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts == null)
+                continue;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                snapshot[i] += counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Obtiene el número de valores registrados.
+     *
+     * @return Número de valores
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : snapshot())
+            total += count;
+        return total;
+    }
+
+    /**
+     * Obtiene el valor por debajo del cual queda un porcentaje de los valores registrados.
+     * Se devuelve el límite superior de la casilla, como hace HdrHistogram.
+     *
+     * @param percentile Percentil entre 0 y 100
+     * @return Valor del percentil, o 0 si no hay valores
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long count : snapshot)
+            total += count;
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= target)
+                return highestValueOf(i);
+        }
+        return highestValueOf(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Obtiene el mayor valor registrado, con la precisión de su casilla.
+     *
+     * @return Valor máximo, o 0 si no hay valores
+     */
+    public long getMaxValue() {
+        long[] snapshot = snapshot();
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (snapshot[i] > 0)
+                return highestValueOf(i);
+        }
+        return 0;
+    }
+
+    /**
+     * Añade a este histograma los valores de otro.
+     *
+     * @param other Histograma que se suma
+     */
+    public void add(LatencyHistogram other) {
+        long[] snapshot = other.snapshot();
+        AtomicLongArray counts = stripe();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (snapshot[i] > 0)
+                counts.addAndGet(i, snapshot[i]);
+        }
+    }
+
+    /**
+     * Borra todos los valores registrados.
+     */
+    public void reset() {
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray counts = stripes.get(s);
+            if (counts == null)
+                continue;
+            for (int i = 0; i < BUCKET_COUNT; i++)
+                counts.set(i, 0);
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        long highest = ((sub + 1) << shift) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * LoadGenerator simula miles de pujadores contra AuctionServer sin interfaz gráfica.
+ *
+ * Cada pujador abre su propia conexión TCP y envía sus pujas con el mismo BidWriter que AuctionClient;
+ * el estado del lote se sigue con MessageSender y MessageReceiver, a partir de la publicación
+ * multicast y de las instantáneas. Las pujas llegan como un proceso de Poisson con la tasa indicada y,
+ * en los últimos segundos de la prueba, con una ráfaga de pujas de último momento (sniping).
+ *
+ * Con el protocolo binario cada puja lleva un identificador de correlación y el servidor contesta con
+ * su resultado, así que cada pujador mantiene muchas pujas en vuelo sin esperar a las respuestas. Con
+ * el protocolo antiguo (--legacy) una puja se da por aceptada cuando su actualización aparece en la
+ * publicación (o en una instantánea). En ambos casos una puja sin respuesta en ACK_TIMEOUT milisegundos
+ * cuenta como rechazada. La latencia se mide desde el instante en que la puja debía enviarse según la
+ * tasa, de modo que los retrasos del propio generador también cuentan, y se registra en un LatencyHistogram.
+ *
+ * Uso: java LoadGenerator <pujadores> <segundos> [--rate pujas/s] [--lot id] [--strategy increment|jump|random|mixed]
+ *                         [--snipe segundos] [--snipe-factor n] [--senders hilos] [--legacy] [--no-events] [--host servidor]
+ */
+public class LoadGenerator {
+
+    // Número de puerto para la comunicación TCP con el servidor
+    private static final int TCP_SERVER_PORT = 12345;
+    // Intervalo de resincronización con el servidor en milisegundos
+    private static final long RESYNC_PERIOD = 5000;
+    // Tiempo sin confirmación tras el que una puja se considera rechazada, en milisegundos
+    private static final long ACK_TIMEOUT = 2000;
+    // Intervalo entre informes en milisegundos
+    private static final long REPORT_PERIOD = 1000;
+    // Prefijo del nombre de los pujadores simulados
+    private static final String USER_PREFIX = "bot-";
+    // Tamaño de pila de los hilos que leen las respuestas de cada pujador
+    private static final long READER_STACK_SIZE = 256 * 1024;
+
+    /**
+     * Estrategia de un pujador: cuánto ofrece a partir de la puja ganadora que conoce.
+     */
+    enum Strategy {
+        // Supera la puja ganadora por el mínimo
+        INCREMENT,
+        // Supera la puja ganadora con un salto de entre 5 y 24
+        JUMP,
+        // Ofrece alrededor de la puja ganadora; parte de sus pujas no la superan
+        RANDOM;
+
+        int nextPrice(int current, Random random) {
+            switch (this) {
+                case JUMP:
+                    return current + 5 + random.nextInt(20);
+                case RANDOM:
+                    return current + random.nextInt(21) - 10;
+                default:
+                    return current + 1;
+            }
+        }
+    }
+
+    /**
+     * Pujador simulado con su conexión TCP. Con respuestas por puja, recibe en onBidAck las de sus pujas.
+     */
+    private static final class Bidder implements BidFrame.Handler {
+        private final int index;
+        private final String username;
+        private final Strategy strategy;
+        private final Tracker tracker;
+        private final AuctionClient.BidWriter writer;
+        private final boolean acknowledged;
+        private int correlationId;
+
+        private Bidder(int index, Strategy strategy, Tracker tracker, Socket socket, boolean legacy, int capabilities) throws IOException {
+            this.index = index;
+            this.username = USER_PREFIX + index;
+            this.strategy = strategy;
+            this.tracker = tracker;
+            if (legacy) {
+                this.writer = new AuctionClient.ObjectBidWriter(new ObjectOutputStream(socket.getOutputStream()));
+                this.acknowledged = false;
+                // Las respuestas en texto no se usan, pero hay que leerlas para que el servidor no se bloquee
+                InputStream in = socket.getInputStream();
+                Thread reader = new Thread(null, () -> discard(in), "reply-reader-" + index, READER_STACK_SIZE);
+                reader.setDaemon(true);
+                reader.start();
+            } else {
+                AuctionClient.BinaryBidWriter binaryBidWriter =
+                        new AuctionClient.BinaryBidWriter(socket.getInputStream(), socket.getOutputStream(), username, this, capabilities);
+                this.writer = binaryBidWriter;
+                this.acknowledged = binaryBidWriter.isAcknowledged();
+                if (acknowledged) {
+                    Thread reader = new Thread(null, binaryBidWriter, "ack-reader-" + index, READER_STACK_SIZE);
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            }
+        }
+
+        /**
+         * Envía una puja y la deja pendiente de confirmación.
+         *
+         * @param auctionId Identificador del lote
+         * @param price     Precio ofrecido
+         * @param start     Instante previsto de envío en nanosegundos
+         * @throws IOException Si falla el envío
+         */
+        private synchronized void bid(int auctionId, int price, long start) throws IOException {
+            // Con respuestas por puja se espera su identificador; sin ellas, su precio en la publicación
+            long key = key(index, acknowledged ? ++correlationId : price);
+            if (tracker.pending.put(key, start) != null) {
+                // El mismo pujador ya tenía pendiente una puja por ese precio: la nueva no puede superarla
+                tracker.rejected.increment();
+            }
+            try {
+                writer.sendBid(correlationId, auctionId, username, price);
+            } catch (IOException e) {
+                tracker.pending.remove(key);
+                throw e;
+            }
+        }
+
+        @Override
+        public void onBidAck(int correlationId, int auctionId, byte result, int sequence, int price) {
+            Long start = tracker.pending.remove(key(index, correlationId));
+            if (start == null)
+                return;
+            if (result == BidFrame.ACCEPTED)
+                tracker.record(start);
+            else if (result == BidFrame.SLOW_DOWN)
+                tracker.throttled.increment();
+            else
+                tracker.rejected.increment();
+            tracker.observe(price);
+        }
+
+        @Override
+        public void onEvent(byte kind, int auctionId, int sequence, int price, int leaderId) {
+            if (kind == BidFrame.PRICE_CHANGED) {
+                tracker.events.increment();
+                tracker.observe(price);
+            }
+        }
+    }
+
+    /**
+     * Sigue el lote con la publicación y las instantáneas, y confirma las pujas pendientes.
+     */
+    private static final class Tracker implements BidFeed.Listener {
+        private final AuctionClient.MessageSender sender;
+        // Pujas enviadas sin confirmar: pujador y precio, con el instante previsto de envío en nanosegundos
+        private final ConcurrentHashMap<Long, Long> pending = new ConcurrentHashMap<>();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        // Pujas frenadas por los límites de ritmo del servidor
+        private final LongAdder throttled = new LongAdder();
+        // Avisos de cambio de precio recibidos por todos los pujadores
+        private final LongAdder events = new LongAdder();
+        private final LatencyHistogram interval = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+        private int auctionId;
+        private int sequence = -1;
+        private boolean resyncing;
+        private volatile int price;
+        // Indica si las pujas se confirman con la publicación en lugar de con respuestas por puja
+        private volatile boolean confirmFromFeed = true;
+
+        private Tracker(AuctionClient.MessageSender sender, int auctionId) {
+            this.sender = sender;
+            this.auctionId = auctionId;
+        }
+
+        @Override
+        public synchronized void onUpdate(byte type, int auctionId, int sequence, int price, long time, String username) {
+            if (type == BidFeed.SNAPSHOT && this.auctionId == 0)
+                this.auctionId = auctionId;
+            if (auctionId != this.auctionId)
+                return;
+            if (confirmFromFeed)
+                confirm(username, price);
+            if (type == BidFeed.DELTA && this.sequence >= 0 && sequence > this.sequence + 1 && !resyncing) {
+                // Se han perdido datagramas: se recupera el estado con una instantánea
+                resyncing = true;
+                sender.requestSnapshot();
+            }
+            if (sequence > this.sequence) {
+                if (type == BidFeed.SNAPSHOT)
+                    resyncing = false;
+                this.sequence = sequence;
+                this.price = price;
+            }
+        }
+
+        private void confirm(String username, int price) {
+            if (!username.startsWith(USER_PREFIX))
+                return;
+            int index;
+            try {
+                index = Integer.parseInt(username.substring(USER_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            Long start = pending.remove(key(index, price));
+            if (start != null)
+                record(start);
+        }
+
+        private void record(long start) {
+            long micros = (System.nanoTime() - start) / 1000;
+            interval.record(micros);
+            total.record(micros);
+            accepted.increment();
+        }
+
+        /**
+         * Actualiza la puja ganadora con el precio de una respuesta del servidor.
+         *
+         * @param price Precio de la puja ganadora según el servidor
+         */
+        private synchronized void observe(int price) {
+            if (price > this.price)
+                this.price = price;
+        }
+
+        /**
+         * Da por rechazadas las pujas pendientes desde hace más de un tiempo dado.
+         *
+         * @param timeoutNanos Tiempo máximo sin confirmación (0 para todas)
+         */
+        private void expire(long timeoutNanos) {
+            long now = System.nanoTime();
+            Iterator<Map.Entry<Long, Long>> entries = pending.entrySet().iterator();
+            while (entries.hasNext()) {
+                if (now - entries.next().getValue() >= timeoutNanos) {
+                    entries.remove();
+                    rejected.increment();
+                }
+            }
+        }
+    }
+
+    private static void discard(InputStream in) {
+        byte[] buffer = new byte[1024];
+        try {
+            while (in.read(buffer) >= 0) {
+                // Se descartan las respuestas
+            }
+        } catch (IOException e) {
+            // La conexión se ha cerrado
+        }
+    }
+
+    private static long key(int bidderIndex, int value) {
+        return ((long) bidderIndex << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Envía pujas de pujadores elegidos al azar con llegadas de Poisson, hasta el final de la prueba.
+     */
+    private static void sendBids(Bidder[] bidders, Tracker tracker, int auctionId, double rate, long end,
+                                 long burstStart, double burstFactor) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long next = System.nanoTime();
+        while (next < end) {
+            double currentRate = next >= burstStart ? rate * burstFactor : rate;
+            next += (long) (-Math.log(1 - random.nextDouble()) * 1e9 / currentRate);
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+
+            Bidder bidder = bidders[random.nextInt(bidders.length)];
+            int price = bidder.strategy.nextPrice(tracker.price, random);
+            try {
+                bidder.bid(auctionId, price, next);
+                tracker.sent.increment();
+            } catch (IOException e) {
+                System.out.println("Error de envío de " + bidder.username + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static String latencies(LatencyHistogram histogram) {
+        return String.format("p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+
+    /**
+     * Método principal para la aplicación LoadGenerator.
+     *
+     * @param args Número de pujadores, duración en segundos y opciones
+     * @throws Exception Si ocurre un error durante la prueba
+     */
+    public static void main(String[] args) throws Exception {
+        int bidderCount = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        double rate = 1000;
+        int auctionId = AuctionRegistry.DEFAULT_AUCTION_ID;
+        String strategy = "mixed";
+        int snipeSeconds = 0;
+        double snipeFactor = 10;
+        int senders = 2;
+        boolean legacy = false;
+        int capabilities = BidFrame.SUPPORTED_CAPABILITIES;
+        String host = "localhost";
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--rate"))
+                rate = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--lot"))
+                auctionId = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--strategy"))
+                strategy = args[++i];
+            else if (args[i].equals("--snipe"))
+                snipeSeconds = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--snipe-factor"))
+                snipeFactor = Double.parseDouble(args[++i]);
+            else if (args[i].equals("--senders"))
+                senders = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--legacy"))
+                legacy = true;
+            else if (args[i].equals("--no-events"))
+                capabilities &= ~BidFrame.CAPABILITY_EVENTS;
+            else if (args[i].equals("--host"))
+                host = args[++i];
+            else
+                System.out.println("Opción desconocida: " + args[i]);
+        }
+
+        // Sigue el lote con instantáneas por UDP y con la publicación multicast, como AuctionClient
+        DatagramChannel channel = AuctionClient.MessageSender.connect(host);
+        AuctionClient.MessageSender sender = new AuctionClient.MessageSender(channel, RESYNC_PERIOD);
+        Tracker tracker = new Tracker(sender, auctionId);
+        AuctionClient.MessageReceiver receiver = new AuctionClient.MessageReceiver(sender, tracker);
+        receiver.register(channel);
+        try {
+            receiver.register(BidFeed.openReceiver());
+        } catch (IOException e) {
+            System.out.println("Publicación multicast no disponible; sólo se confirmarán las pujas ganadoras de las instantáneas.");
+        }
+        sender.setAuctionId(auctionId);
+        startDaemon(receiver, "udp-loop");
+
+        // Abre una conexión por pujador
+        Bidder[] bidders = new Bidder[bidderCount];
+        Strategy[] strategies = Strategy.values();
+        for (int i = 0; i < bidderCount; i++) {
+            Strategy bidderStrategy = strategy.equals("mixed") ? strategies[i % strategies.length]
+                    : Strategy.valueOf(strategy.toUpperCase());
+            bidders[i] = new Bidder(i, bidderStrategy, tracker, new Socket(host, TCP_SERVER_PORT), legacy, capabilities);
+        }
+        tracker.confirmFromFeed = bidderCount == 0 || !bidders[0].acknowledged;
+        System.out.println("Pujadores conectados: " + bidderCount);
+        Thread.sleep(500);
+
+        // Lanza los hilos que envían las pujas
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        long burstStart = end - snipeSeconds * 1_000_000_000L;
+        final int lot = auctionId;
+        final double senderRate = rate / senders;
+        final double factor = snipeFactor;
+        Thread[] threads = new Thread[senders];
+        for (int i = 0; i < senders; i++) {
+            threads[i] = new Thread(() -> sendBids(bidders, tracker, lot, senderRate, end, burstStart, factor), "bid-sender-" + i);
+            threads[i].start();
+        }
+
+        // Informa cada segundo de las pujas enviadas, aceptadas y rechazadas
+        long lastSent = 0, lastAccepted = 0, lastRejected = 0;
+        for (int second = 1; System.nanoTime() < end + ACK_TIMEOUT * 1_000_000L; second++) {
+            Thread.sleep(REPORT_PERIOD);
+            tracker.expire(ACK_TIMEOUT * 1_000_000L);
+            long sent = tracker.sent.sum(), accepted = tracker.accepted.sum(), rejected = tracker.rejected.sum();
+            System.out.println(String.format("%3ds enviadas/s=%d aceptadas/s=%d rechazadas/s=%d precio=%d latencia(us) %s",
+                    second, sent - lastSent, accepted - lastAccepted, rejected - lastRejected, tracker.price,
+                    latencies(tracker.interval)));
+            tracker.interval.reset();
+            lastSent = sent;
+            lastAccepted = accepted;
+            lastRejected = rejected;
+        }
+        tracker.expire(0);
+
+        System.out.println("Pujas enviadas: " + tracker.sent.sum());
+        System.out.println("Pujas aceptadas: " + tracker.accepted.sum());
+        System.out.println("Pujas rechazadas: " + tracker.rejected.sum());
+        System.out.println("Pujas frenadas por el servidor: " + tracker.throttled.sum());
+        System.out.println("Avisos de precio recibidos: " + tracker.events.sum());
+        System.out.println("Latencia de puja a confirmación (us): " + latencies(tracker.total));
+        System.exit(0);
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,539 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * NioBidServer es un front end TCP no bloqueante para recibir pujas.
+ *
+ * Un hilo acepta conexiones con un ServerSocketChannel y las reparte entre un número fijo de
+ * bucles de eventos, cada uno con su propio Selector. Los bucles decodifican tramas BidFrame y
+ * entregan las pujas directamente a AuctionServer, que no bloquea. Las respuestas a las pujas de
+ * una misma lectura se acumulan y se escriben en el canal de una vez. Los avisos de EventFanout
+ * los escribe el bucle de cada conexión cuando el canal admite más datos; mientras no, quedan en la
+ * suscripción, donde un precio nuevo sustituye al anterior.
+ * Con los secuenciadores de pujas activados, los bucles sólo publican las pujas; las respuestas las
+ * codifica el secuenciador y las escribe el bucle de la conexión, agrupadas por conexión.
+ * Las conexiones inactivas no ocupan ningún hilo ni búfer propio.
+ *
+ * Si una conexión empieza con un stream de serialización de Java (cliente antiguo), se saca del
+ * Selector y se entrega a un ClientHandler bloqueante junto con los bytes ya leídos.
+ */
+public class NioBidServer implements Runnable {
+
+    // Tamaño del búfer de lectura compartido por las conexiones de un bucle
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    // Tamaño del búfer en el que se acumulan las respuestas a una lectura
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    // Máximo de bytes pendientes de envío por conexión antes de cerrarla
+    private static final int MAX_OUTBOUND_SIZE = 64 * 1024;
+    // Respuestas de los secuenciadores que caben en el búfer inicial de cada conexión
+    private static final int INITIAL_ACKS = 64;
+
+    private final int port;
+    private final EventLoop[] loops;
+    // Número de conexiones abiertas
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /**
+     * Constructor para NioBidServer.
+     *
+     * @param port      Puerto TCP en el que se aceptan conexiones
+     * @param loopCount Número de bucles de eventos
+     */
+    public NioBidServer(int port, int loopCount) {
+        this.port = port;
+        this.loops = new EventLoop[loopCount];
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Método principal ejecutado cuando comienza el hilo.
+     * Arranca los bucles de eventos y acepta conexiones, repartiéndolas por turnos.
+     */
+    public void run() {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+                Thread loopThread = new Thread(loops[i], "nio-loop-" + i);
+                loopThread.setDaemon(true);
+                loopThread.start();
+            }
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                connections.incrementAndGet();
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Estado de una conexión: el pujador identificado en el saludo, los bytes de una trama
+     * incompleta, los bytes pendientes de envío y la suscripción a los avisos, si los hay.
+     */
+    private final class Connection implements BidFrame.Handler, BidSequencer.Completion {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private int bidderId = BidderDirectory.UNKNOWN_BIDDER;
+        private SessionRegistry.Session session;
+        private ByteBuffer pending;
+        private ByteBuffer outbound;
+        private EventFanout.Subscription subscription;
+        private final AdmissionControl.Bucket bucket = AuctionServer.newConnectionBucket();
+        // Respuestas de los secuenciadores pendientes de escribir, codificadas en un búfer que se
+        // reutiliza; se protege con su propio cerrojo porque lo escriben los hilos de los secuenciadores
+        private final Object acksLock = new Object();
+        private ByteBuffer acks = ByteBuffer.allocate(INITIAL_ACKS * BidFrame.BID_ACK_FRAME_SIZE);
+
+        private Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        @Override
+        public void onHello(String username, int capabilities) throws IOException {
+            if (bidderId != BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Saludo repetido");
+            welcome(AuctionServer.openSession(username), capabilities, false);
+        }
+
+        @Override
+        public void onResume(int bidderId, long token, int capabilities) throws IOException {
+            if (this.bidderId != BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Saludo repetido");
+            SessionRegistry.Session resumed = AuctionServer.resumeSession(bidderId, token);
+            if (resumed != null)
+                welcome(resumed, capabilities, true);
+            else
+                // Sesión desconocida: el cliente debe saludar con HELLO en esta misma conexión
+                BidFrame.encodeWelcome(replies(BidFrame.MAX_FRAME_SIZE), BidderDirectory.UNKNOWN_BIDDER, 0);
+        }
+
+        private void welcome(SessionRegistry.Session session, int capabilities, boolean resumed) throws IOException {
+            this.session = session;
+            this.bidderId = session.getBidderId();
+            AuctionServer.encodeWelcome(replies(AuctionServer.MAX_WELCOME_SIZE), session, capabilities, resumed);
+            if ((capabilities & BidFrame.CAPABILITY_EVENTS) != 0)
+                subscription = AuctionServer.subscribe(session.getUsername(), false, () -> loop.ready(this));
+        }
+
+        @Override
+        public void onBid(int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            // Sin respuesta por puja, las pujas que superan el límite se descartan
+            if (AuctionServer.admit(bucket, bidderId) && !AuctionServer.sequence(BidSequencer.BID, 0, auctionId, bidderId, price, null))
+                AuctionServer.placeBid(auctionId, bidderId, price);
+        }
+
+        @Override
+        public void onBidRequest(int correlationId, int auctionId, int bidderId, int price, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            byte result;
+            if (!AuctionServer.admit(bucket, bidderId))
+                result = BidFrame.SLOW_DOWN;
+            else if (AuctionServer.sequence(BidSequencer.BID, correlationId, auctionId, bidderId, price, this))
+                return;
+            else
+                result = AuctionServer.placeBid(auctionId, bidderId, price);
+            AuctionServer.encodeBidAck(replies(BidFrame.BID_ACK_FRAME_SIZE), correlationId, auctionId, result);
+        }
+
+        @Override
+        public void onProxyRequest(int correlationId, int auctionId, int bidderId, int maxPrice, long clientTime) throws IOException {
+            if (bidderId != this.bidderId || bidderId == BidderDirectory.UNKNOWN_BIDDER)
+                throw new IOException("Identificador de pujador incorrecto: " + bidderId);
+            byte result;
+            if (!AuctionServer.admit(bucket, bidderId))
+                result = BidFrame.SLOW_DOWN;
+            else if (AuctionServer.sequence(BidSequencer.PROXY, correlationId, auctionId, bidderId, maxPrice, this))
+                return;
+            else
+                result = AuctionServer.placeProxyBid(auctionId, bidderId, maxPrice);
+            AuctionServer.encodeBidAck(replies(BidFrame.BID_ACK_FRAME_SIZE), correlationId, auctionId, result);
+        }
+
+        /**
+         * Recibe el resultado de una puja desde el hilo de su secuenciador. La respuesta se codifica
+         * con el precio ganador justo después de aplicarla, en el búfer de respuestas de la conexión,
+         * y la conexión se entrega al bucle sólo si el búfer estaba vacío.
+         */
+        @Override
+        public void complete(int correlationId, int auctionId, byte result) {
+            boolean first;
+            synchronized (acksLock) {
+                first = acks.position() == 0;
+                if (acks.remaining() < BidFrame.BID_ACK_FRAME_SIZE) {
+                    // Más respuestas en vuelo de las previstas: el búfer crece y se conserva
+                    ByteBuffer larger = ByteBuffer.allocate(acks.capacity() * 2);
+                    acks.flip();
+                    larger.put(acks);
+                    acks = larger;
+                }
+                AuctionServer.encodeBidAck(acks, correlationId, auctionId, result);
+            }
+            if (first)
+                loop.acknowledge(this);
+        }
+
+        /**
+         * Copia las respuestas de los secuenciadores en el búfer de escritura del bucle y las envía.
+         *
+         * @throws IOException Si el canal falla
+         */
+        private void sendAcks() throws IOException {
+            synchronized (acksLock) {
+                acks.flip();
+                while (acks.hasRemaining()) {
+                    ByteBuffer out = replies(BidFrame.BID_ACK_FRAME_SIZE);
+                    int length = Math.min(acks.remaining(), out.remaining() - out.remaining() % BidFrame.BID_ACK_FRAME_SIZE);
+                    int limit = acks.limit();
+                    acks.limit(acks.position() + length);
+                    out.put(acks);
+                    acks.limit(limit);
+                }
+                acks.clear();
+            }
+            sendReplies();
+        }
+
+        /**
+         * Obtiene el búfer de respuestas del bucle con sitio para una trama más. Las respuestas a
+         * todas las tramas de una lectura se acumulan y se envían juntas al terminar la lectura.
+         *
+         * @param size Tamaño máximo de la trama que se va a añadir
+         * @return Búfer de respuestas
+         * @throws IOException Si el canal falla
+         */
+        private ByteBuffer replies(int size) throws IOException {
+            if (loop.writeBuffer.remaining() < size)
+                sendReplies();
+            return loop.writeBuffer;
+        }
+
+        /**
+         * Envía las respuestas acumuladas en el búfer del bucle.
+         *
+         * @throws IOException Si el canal falla o el cliente acumula demasiados datos sin leer
+         */
+        private void sendReplies() throws IOException {
+            ByteBuffer replies = loop.writeBuffer;
+            if (replies.position() > 0) {
+                replies.flip();
+                send(replies);
+                replies.clear();
+            }
+        }
+
+        /**
+         * Envía los avisos pendientes mientras el canal los admita. Si quedan bytes sin enviar, el
+         * resto de avisos espera en la suscripción hasta que el canal vuelve a admitir escritura.
+         *
+         * @throws IOException Si el canal falla
+         */
+        private void sendEvents() throws IOException {
+            ByteBuffer out = loop.writeBuffer;
+            out.clear();
+            EventFanout.Event event;
+            while (outbound == null && (event = subscription.poll()) != null) {
+                byte[] frame = event.getFrame();
+                if (out.remaining() < frame.length)
+                    sendReplies();
+                out.put(frame);
+            }
+            sendReplies();
+        }
+
+        @Override
+        public void onExit() {
+            System.out.println("Cliente desconectado");
+            close();
+        }
+
+        /**
+         * Envía una trama; lo que no se pueda escribir ahora se guarda hasta que el canal admita escritura.
+         *
+         * @param frame Trama en modo lectura
+         * @throws IOException Si el canal falla o el cliente acumula demasiados datos sin leer
+         */
+        private void send(ByteBuffer frame) throws IOException {
+            if (outbound == null) {
+                channel.write(frame);
+                if (!frame.hasRemaining())
+                    return;
+                outbound = ByteBuffer.allocate(Math.max(BidFrame.MAX_FRAME_SIZE, frame.remaining()));
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            if (outbound.remaining() < frame.remaining()) {
+                int required = outbound.position() + frame.remaining();
+                if (required > MAX_OUTBOUND_SIZE)
+                    throw new IOException("Cliente demasiado lento");
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(MAX_OUTBOUND_SIZE, Math.max(required, outbound.capacity() * 2)));
+                outbound.flip();
+                larger.put(outbound);
+                outbound = larger;
+            }
+            outbound.put(frame);
+        }
+
+        /**
+         * Envía los bytes pendientes cuando el canal vuelve a admitir escritura.
+         *
+         * @throws IOException Si el canal falla
+         */
+        private void flush() throws IOException {
+            outbound.flip();
+            channel.write(outbound);
+            if (outbound.hasRemaining()) {
+                outbound.compact();
+            } else {
+                outbound = null;
+                key.interestOps(SelectionKey.OP_READ);
+                if (subscription != null && !subscription.isEmpty())
+                    sendEvents();
+            }
+        }
+
+        private void close() {
+            AuctionServer.unsubscribe(subscription);
+            AuctionServer.closeSession(session);
+            session = null;
+            if (channel.isOpen()) {
+                connections.decrementAndGet();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Conexión antigua que se entrega a un ClientHandler bloqueante con los bytes ya leídos.
+     */
+    private static final class Handoff {
+        private final SocketChannel channel;
+        private final byte[] prefix;
+
+        private Handoff(SocketChannel channel, byte[] prefix) {
+            this.channel = channel;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * Bucle de eventos: atiende las lecturas y escrituras de las conexiones registradas en su Selector.
+     */
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        private final Queue<Handoff> handoffs = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+        // Conexiones con respuestas de los secuenciadores pendientes de escribir
+        private final Queue<Connection> acks = new ConcurrentLinkedQueue<>();
+        // Indica que ya se ha despertado al Selector por respuestas que aún no se han escrito
+        private final AtomicBoolean acksPending = new AtomicBoolean();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+        private EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Entrega una conexión aceptada a este bucle.
+         *
+         * @param channel Canal de la conexión en modo no bloqueante
+         */
+        private void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Avisa al bucle de que una conexión tiene avisos pendientes. Se llama desde el hilo de EventFanout.
+         *
+         * @param connection Conexión con avisos pendientes
+         */
+        private void ready(Connection connection) {
+            ready.add(connection);
+            selector.wakeup();
+        }
+
+        /**
+         * Avisa al bucle de que una conexión tiene respuestas de un secuenciador. Se llama desde el
+         * hilo del secuenciador con la primera respuesta pendiente de la conexión; una tanda de
+         * respuestas despierta al Selector una sola vez.
+         *
+         * @param connection Conexión con respuestas pendientes
+         */
+        private void acknowledge(Connection connection) {
+            acks.add(connection);
+            if (acksPending.compareAndSet(false, true))
+                selector.wakeup();
+        }
+
+        /**
+         * Escribe las respuestas de los secuenciadores, juntas por conexión. Las de una conexión
+         * cerrada se descartan.
+         */
+        private void sendAcks() {
+            acksPending.set(false);
+            Connection connection;
+            while ((connection = acks.poll()) != null) {
+                writeBuffer.clear();
+                try {
+                    if (connection.channel.isOpen())
+                        connection.sendAcks();
+                } catch (IOException e) {
+                    System.out.println("Cliente desconectado: " + e.getMessage());
+                    connection.close();
+                } finally {
+                    writeBuffer.clear();
+                }
+            }
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    if (!acks.isEmpty())
+                        sendAcks();
+                    Connection notified;
+                    while ((notified = ready.poll()) != null) {
+                        try {
+                            if (notified.channel.isOpen() && notified.key.isValid())
+                                notified.sendEvents();
+                        } catch (IOException e) {
+                            System.out.println("Cliente desconectado: " + e.getMessage());
+                            notified.close();
+                        }
+                    }
+                    SocketChannel channel;
+                    while ((channel = registrations.poll()) != null) {
+                        try {
+                            Connection connection = new Connection(this, channel);
+                            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        } catch (ClosedChannelException e) {
+                            connections.decrementAndGet();
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable())
+                                connection.flush();
+                            if (key.isValid() && key.isReadable())
+                                read(connection);
+                        } catch (IOException e) {
+                            System.out.println("Cliente desconectado: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+
+                    if (!handoffs.isEmpty())
+                        completeHandoffs();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Lee los datos disponibles de una conexión y procesa todas las tramas completas.
+         * Los bytes de una trama incompleta se guardan en la conexión hasta la siguiente lectura.
+         *
+         * @param connection Conexión con datos pendientes de lectura
+         * @throws IOException Si el canal falla o el cliente envía una trama no válida
+         */
+        private void read(Connection connection) throws IOException {
+            readBuffer.clear();
+            writeBuffer.clear();
+            if (connection.pending != null) {
+                readBuffer.put(connection.pending);
+                connection.pending = null;
+            }
+            int read = connection.channel.read(readBuffer);
+            readBuffer.flip();
+
+            if (connection.bidderId == BidderDirectory.UNKNOWN_BIDDER && readBuffer.hasRemaining()
+                    && (readBuffer.get(0) & 0xFF) == BidFrame.LEGACY_STREAM_MAGIC) {
+                handOff(connection);
+                return;
+            }
+
+            while (connection.channel.isOpen() && BidFrame.decode(readBuffer, connection)) {
+                // Cada trama completa se entrega al motor de pujas desde decode
+            }
+            if (connection.channel.isOpen())
+                connection.sendReplies();
+            if (read < 0) {
+                System.out.println("Cliente desconectado");
+                connection.close();
+            } else if (readBuffer.hasRemaining() && connection.channel.isOpen()) {
+                connection.pending = ByteBuffer.allocate(readBuffer.remaining());
+                connection.pending.put(readBuffer).flip();
+            }
+        }
+
+        /**
+         * Saca una conexión antigua del Selector. El canal sólo puede volver a modo bloqueante
+         * cuando la cancelación de su clave se ha hecho efectiva, al final de la iteración.
+         *
+         * @param connection Conexión que empieza con un stream de serialización de Java
+         */
+        private void handOff(Connection connection) {
+            byte[] prefix = new byte[readBuffer.remaining()];
+            readBuffer.get(prefix);
+            connection.key.cancel();
+            connections.decrementAndGet();
+            handoffs.add(new Handoff(connection.channel, prefix));
+        }
+
+        private void completeHandoffs() throws IOException {
+            selector.selectNow();
+            Handoff handoff;
+            while ((handoff = handoffs.poll()) != null) {
+                try {
+                    handoff.channel.configureBlocking(true);
+                    AuctionServer.handOffLegacyConnection(handoff.channel.socket(), new SequenceInputStream(
+                            new ByteArrayInputStream(handoff.prefix), handoff.channel.socket().getInputStream()));
+                } catch (IOException e) {
+                    System.out.println("Cliente desconectado: " + e.getMessage());
+                    handoff.channel.close();
+                }
+            }
+        }
+    }
+}
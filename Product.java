@@ -1,21 +1,57 @@
-import java.util.SortedSet;
-import java.util.TreeSet;
-
 import java.io.Serializable;
+import java.util.List;
 
 public class Product implements Serializable{
 	private static final long serialVersionUID = 1L;
+	
+	// Incremento de las pujas automáticas sobre la puja que superan
+	public static final int PROXY_INCREMENT = 1;
 
+	private int id;
 	private String name;
 	private String description;
 	private int initialPrice;
-	private SortedSet<AuctionItem> bids;
+	// Pujas aceptadas, empezando por el precio de salida (no se serializan)
+	private transient BidEngine bids;
+	// Pujas máximas de los pujadores (no se serializan)
+	private transient ProxyBids proxies;
+	// Directorio de los pujadores del historial y de las pujas máximas (no se serializa)
+	private transient BidderDirectory bidders;
 	
 	public Product(String name, String description, int initialPrice) {
+		this(0, name, description, initialPrice);
+	}
+	
+	public Product(int id, String name, String description, int initialPrice) {
+		this(id, name, description, initialPrice, new BidderDirectory(), false);
+	}
+	
+	/**
+	 * Constructor para Product.
+	 *
+	 * @param id             Identificador del producto
+	 * @param name           Nombre del producto
+	 * @param description    Descripción del producto
+	 * @param initialPrice   Precio de salida
+	 * @param bidders        Directorio de pujadores con el que se guarda el historial
+	 * @param offHeapHistory True para guardar el historial de pujas fuera del heap
+	 */
+	public Product(int id, String name, String description, int initialPrice, BidderDirectory bidders, boolean offHeapHistory) {
+		this.id = id;
 		this.name = name;
 		this.description = description;
 		this.initialPrice = initialPrice;
-		this.bids = new TreeSet<AuctionItem>();
+		this.bids = new BidEngine(new AuctionItem(id, "Precio de salida", initialPrice), bidders, offHeapHistory);
+		this.proxies = new ProxyBids(PROXY_INCREMENT);
+		this.bidders = bidders;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
 	}
 
 	public String getName() {
@@ -42,16 +78,70 @@ public class Product implements Serializable{
 		this.initialPrice = initialPrice;
 	}
 	
-	public SortedSet<AuctionItem> getAuctions() {
+	/**
+	 * Obtiene el motor de pujas del producto. Las pujas se guardan en orden de aceptación, que es
+	 * también el de precio porque cada puja aceptada supera estrictamente a la anterior.
+	 *
+	 * @return Motor de pujas
+	 */
+	public BidEngine getBids() {
 		return bids;
 	}
-
-	public void setAuctions(SortedSet<AuctionItem> auctions) {
-		this.bids = auctions;
-	}
 	
+	/**
+	 * Intenta añadir una puja al producto, sin cerrojos.
+	 *
+	 * @param username Nombre del ofertante
+	 * @param price    Precio de la oferta
+	 * @return True si la puja supera a la ganadora y se ha aceptado
+	 */
 	public boolean addBid(String username, int price) {
-		return this.bids.add(new AuctionItem(username, price));
+		AuctionItem bid = new AuctionItem(id, username, price);
+		if (bids.submit(bid) == 0)
+			return false;
+		// El motor deja en la puja aceptada el identificador de su pujador
+		if (proxies.hasCompetitor(bid.getBidderId()))
+			proxies.resolve(bids, this::placeProxyBid);
+		return true;
+	}
+	
+	/**
+	 * Fija la puja máxima de un pujador y hace en su nombre las pujas necesarias.
+	 *
+	 * @param username Nombre del ofertante
+	 * @param max      Precio máximo que está dispuesto a pagar
+	 * @return True si el pujador va ganando tras resolver las pujas máximas
+	 */
+	public boolean addProxyBid(String username, int max) {
+		int bidderId = bidders.intern(username);
+		proxies.register(bidderId, max);
+		proxies.resolve(bids, this::placeProxyBid);
+		return bids.getBest().getBidderId() == bidderId;
+	}
+	
+	private boolean placeProxyBid(int bidderId, int price) {
+		AuctionItem bid = new AuctionItem(id, bidders.nameOf(bidderId), price);
+		bid.setBidderId(bidderId);
+		bids.submit(bid);
+		return true;
+	}
+	
+	/**
+	 * Obtiene las pujas máximas del producto, para resolverlas con otra forma de aceptar las pujas.
+	 *
+	 * @return Pujas máximas
+	 */
+	public ProxyBids getProxyBids() {
+		return proxies;
+	}
+	
+	/**
+	 * Obtiene la puja ganadora en O(1).
+	 *
+	 * @return AuctionItem con la oferta máxima, o null si sólo está el precio de salida
+	 */
+	public AuctionItem getMaxBid() {
+		return bids.size() > 1 ? bids.getBest() : null;
 	}
 	
 	@Override
@@ -72,12 +162,14 @@ public class Product implements Serializable{
 	@Override
 	public String toString() {
 		StringBuilder str = new StringBuilder();
+		str.append("Product id: " + this.id + "\n");
 		str.append("Product name: " + this.name + "\n");
 		str.append("Description: " + this.description + "\n");
 		str.append("Initial price: " + this.initialPrice + "€\n");
 		str.append("Bids:\n");
 		
-		for(AuctionItem item : bids) {
+		List<AuctionItem> history = bids.getHistory();
+		for(AuctionItem item : history.subList(1, history.size())) {
 			str.append("\t" + item.toString() + "\n");
 		}
 		
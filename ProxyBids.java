@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * ProxyBids guarda las pujas máximas (pujas automáticas) de un lote y calcula la puja que debe hacer
+ * el servidor en nombre del pujador con el máximo más alto.
+ *
+ * Como en las subastas con puja automática, sólo hace falta recordar el máximo más alto y el segundo:
+ * el pujador del máximo más alto va ganando con el segundo máximo más un incremento (sin pasar de su
+ * máximo), y si otra puja supera su precio se le sube automáticamente. Una guerra de pujas entre dos
+ * máximos se resuelve así con una sola puja, en lugar de una por incremento. A igual máximo gana el
+ * que lo fijó primero.
+ *
+ * Los pujadores se identifican por su identificador en el directorio de pujadores, el mismo que
+ * llevan las pujas del protocolo binario y las del historial, así que ni registrar un máximo ni hacer
+ * una puja automática buscan o registran nombres.
+ *
+ * El estado es inmutable y se sustituye con compare-and-set; las pujas calculadas se aceptan con la
+ * regla habitual del motor de pujas, de modo que una puja manual simultánea nunca se pierde.
+ */
+public class ProxyBids {
+
+    /**
+     * Máximo más alto del lote, con su pujador, y segundo máximo más alto.
+     */
+    private static final class Ceiling {
+        private final int bidderId;
+        private final int max;
+        private final int second;
+
+        private Ceiling(int bidderId, int max, int second) {
+            this.bidderId = bidderId;
+            this.max = max;
+            this.second = second;
+        }
+    }
+
+    /**
+     * Hace una puja en nombre del pujador del máximo más alto.
+     */
+    public interface Placement {
+        /**
+         * @param bidderId Identificador del pujador del máximo más alto
+         * @param price    Precio de la puja
+         * @return False si el lote ya no admite pujas
+         */
+        boolean place(int bidderId, int price);
+    }
+
+    private final int increment;
+    private final AtomicReference<Ceiling> top = new AtomicReference<>();
+
+    /**
+     * Constructor para ProxyBids.
+     *
+     * @param increment Incremento mínimo sobre la puja que se supera
+     */
+    public ProxyBids(int increment) {
+        this.increment = increment;
+    }
+
+    /**
+     * Fija la puja máxima de un pujador. Un pujador sólo puede subir su máximo.
+     *
+     * @param bidderId Identificador del pujador
+     * @param max      Precio máximo que está dispuesto a pagar
+     * @return True si el pujador tiene el máximo más alto del lote
+     */
+    public boolean register(int bidderId, int max) {
+        while (true) {
+            Ceiling current = top.get();
+            Ceiling next;
+            if (current == null)
+                next = new Ceiling(bidderId, max, 0);
+            else if (current.bidderId == bidderId)
+                next = max > current.max ? new Ceiling(bidderId, max, current.second) : current;
+            else if (max > current.max)
+                next = new Ceiling(bidderId, max, current.max);
+            else
+                next = max > current.second ? new Ceiling(current.bidderId, current.max, max) : current;
+            if (next == current || top.compareAndSet(current, next))
+                return next.bidderId == bidderId;
+        }
+    }
+
+    /**
+     * Indica si hay un máximo de otro pujador que podría responder a una puja.
+     *
+     * @param bidderId Identificador del pujador de la puja
+     * @return True si el máximo más alto es de otro pujador
+     */
+    public boolean hasCompetitor(int bidderId) {
+        Ceiling current = top.get();
+        return current != null && current.bidderId != bidderId;
+    }
+
+    /**
+     * Obtiene el pujador con el máximo más alto.
+     *
+     * @return Identificador del pujador, o BidderDirectory.UNKNOWN_BIDDER si no hay pujas máximas
+     */
+    public int getLeader() {
+        Ceiling current = top.get();
+        return current != null ? current.bidderId : BidderDirectory.UNKNOWN_BIDDER;
+    }
+
+    /**
+     * Hace las pujas automáticas necesarias hasta que el máximo más alto va ganando con el precio que
+     * le corresponde, o queda superado. Si otra puja se acepta a la vez, se vuelve a calcular.
+     *
+     * @param bids      Motor de pujas del lote
+     * @param placement Acepta cada puja calculada
+     */
+    public void resolve(BidEngine bids, Placement placement) {
+        while (true) {
+            Ceiling current = top.get();
+            if (current == null)
+                return;
+            AuctionItem best = bids.getBest();
+            int price = nextPrice(current, best);
+            if (price == 0 || !placement.place(current.bidderId, price))
+                return;
+        }
+    }
+
+    /**
+     * Calcula la puja del máximo más alto frente a la puja ganadora.
+     *
+     * @return Precio de la puja, o 0 si no hace falta pujar
+     */
+    private int nextPrice(Ceiling ceiling, AuctionItem best) {
+        int floor = ceiling.bidderId == best.getBidderId() ? ceiling.second : Math.max(best.getPrice(), ceiling.second);
+        int price = (int) Math.min(ceiling.max, (long) floor + increment);
+        return price > best.getPrice() ? price : 0;
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * SealedBidFormat es la subasta en sobre cerrado: cada pujador hace una sola puja, que nadie más ve,
+ * y al cerrar el lote ganan las WINNERS pujas más altas, cada una por su precio.
+ *
+ * Una puja sólo se guarda en un mapa por pujador: no pasa por el motor de pujas ni genera avisos,
+ * publicación multicast ni entradas del diario, y no amplía el cierre. Para un lote muy disputado el
+ * servidor hace una inserción por pujador en lugar de repartir cada subida a todos los clientes, y
+ * los pujadores no tienen motivo para pujar en incrementos mínimos. Al cerrar, los ganadores se eligen
+ * con un montículo de tamaño WINNERS y sólo ellos entran en el motor de pujas.
+ *
+ * A igual precio gana la puja más antigua y, si también coinciden en el milisegundo, la que se guardó
+ * antes. Todas las pujas elegidas ganan aunque empaten en precio: entran en el motor con
+ * BidEngine.award, sin la regla de la puja estrictamente mayor, de peor a mejor, cada una con su
+ * propio número de secuencia.
+ */
+public class SealedBidFormat implements AuctionFormat {
+
+    // Orden de las pujas guardadas: por precio e instante y, si coinciden, la guardada antes es mayor
+    private static final Comparator<Sealed> BY_RANK = new Comparator<Sealed>() {
+        @Override
+        public int compare(Sealed a, Sealed b) {
+            int byPriceAndTime = AuctionItem.BY_PRICE_THEN_TIME.compare(a.bid, b.bid);
+            return byPriceAndTime != 0 ? byPriceAndTime : Long.compare(b.order, a.order);
+        }
+    };
+    /**
+     * Puja guardada junto con su orden de llegada.
+     */
+    private static final class Sealed {
+        private final AuctionItem bid;
+        private final long order;
+
+        private Sealed(AuctionItem bid, long order) {
+            this.bid = bid;
+            this.order = order;
+        }
+    }
+
+    private final int winners;
+    // Pujas guardadas, por pujador
+    private final ConcurrentHashMap<String, Sealed> sealed = new ConcurrentHashMap<>();
+    // Orden de llegada de la siguiente puja guardada
+    private final AtomicLong arrivals = new AtomicLong();
+    // Las pujas se guardan con el cerrojo de lectura; el cierre toma el de escritura para no perder
+    // ninguna puja que ya se haya dado por guardada
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Constructor para SealedBidFormat.
+     *
+     * @param winners Número de pujas ganadoras (unidades del lote)
+     */
+    public SealedBidFormat(int winners) {
+        this.winners = Math.max(1, winners);
+    }
+
+    @Override
+    public String getName() {
+        return winners == 1 ? "sobre cerrado" : "sobre cerrado, " + winners + " ganadores";
+    }
+
+    @Override
+    public boolean isAscending() {
+        return false;
+    }
+
+    @Override
+    public void open(long now) {
+        // El formato no depende del tiempo
+    }
+
+    @Override
+    public int submit(BidEngine bids, AuctionItem bid) {
+        // Como en la subasta inglesa, la puja debe superar el precio de salida
+        if (bid.getPrice() <= bids.getBest().getPrice())
+            return 0;
+        lock.readLock().lock();
+        try {
+            if (closed)
+                return 0;
+            if (sealed.containsKey(bid.getUsername()))
+                return ALREADY_BID;
+            return sealed.putIfAbsent(bid.getUsername(), new Sealed(bid, arrivals.incrementAndGet())) == null ? SEALED : ALREADY_BID;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int restore(BidEngine bids, AuctionItem bid) {
+        // Sólo los ganadores se hacen públicos, al cerrar, y pueden empatar en precio
+        return bids.award(bid);
+    }
+
+    @Override
+    public int getAskingPrice(BidEngine bids, long now) {
+        return bids.getBest().getPrice();
+    }
+
+    @Override
+    public boolean isSettled() {
+        return false;
+    }
+
+    @Override
+    public long getTickInterval() {
+        return 0;
+    }
+
+    /**
+     * Obtiene el número de pujas ganadoras.
+     *
+     * @return Unidades del lote
+     */
+    public int getWinners() {
+        return winners;
+    }
+
+    /**
+     * Obtiene el número de pujas guardadas.
+     *
+     * @return Número de pujadores que han pujado
+     */
+    public int getBidCount() {
+        return sealed.size();
+    }
+
+    /**
+     * Copia las pujas guardadas en el orden en que llegaron, para la instantánea de un seguidor.
+     *
+     * @return Pujas guardadas, de la primera a la última
+     */
+    public List<AuctionItem> getSealedBids() {
+        List<Sealed> arrived = new ArrayList<>(sealed.values());
+        Collections.sort(arrived, new Comparator<Sealed>() {
+            @Override
+            public int compare(Sealed a, Sealed b) {
+                return Long.compare(a.order, b.order);
+            }
+        });
+        List<AuctionItem> result = new ArrayList<>(arrived.size());
+        for (Sealed bid : arrived)
+            result.add(bid.bid);
+        return result;
+    }
+
+    @Override
+    public List<AuctionItem> close(BidEngine bids) {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Montículo con las mejores pujas vistas; la cima es la peor de ellas
+        PriorityQueue<Sealed> top = new PriorityQueue<>(winners + 1, BY_RANK);
+        for (Sealed bid : sealed.values()) {
+            top.add(bid);
+            if (top.size() > winners)
+                top.poll();
+        }
+        // Se vacía de peor a mejor, el orden en que los ganadores entran en el motor
+        List<AuctionItem> result = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            AuctionItem winner = top.poll().bid;
+            bids.award(winner);
+            result.add(winner);
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + ", " + sealed.size() + " pujas";
+    }
+}
@@ -0,0 +1,425 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * ServerMetrics reúne las métricas del servidor: pujas recibidas, aceptadas y rechazadas por lote,
+ * pujas frenadas por los límites de ritmo, latencia de la ruta de aceptación, reintentos de
+ * compare-and-set, solicitudes UDP, clientes conectados y mensajes pendientes de cada conexión.
+ *
+ * Los contadores son LongAdder, que reparten los incrementos entre celdas para que varios hilos no
+ * compitan por la misma línea de caché; la suma sólo se calcula al consultar. Las métricas se
+ * publican por JMX y como texto, en el formato de Prometheus, en un puerto local.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+
+    // Nombre JMX de las métricas
+    private static final String OBJECT_NAME = "distributed-auction:type=ServerMetrics";
+    // Tiempo máximo de espera de la solicitud de una consulta en milisegundos
+    private static final int SCRAPE_TIMEOUT = 1000;
+
+    /**
+     * Contadores de un lote.
+     */
+    private static final class LotCounters {
+        private final LongAdder received = new LongAdder();
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+    }
+
+    private final AuctionRegistry registry;
+    private final EventFanout events;
+    private final AsyncLogger log;
+    private final AdmissionControl admission;
+    private final SessionRegistry sessions;
+    private final IntSupplier connections;
+    private final ConcurrentHashMap<Integer, LotCounters> lots = new ConcurrentHashMap<>();
+    // Secuenciadores de pujas (vacío si no están activados)
+    private volatile BidSequencer[] sequencers = new BidSequencer[0];
+    // Pujas para lotes inexistentes, que no tienen contadores propios
+    private final LongAdder unknownLot = new LongAdder();
+    private final LongAdder udpRequests = new LongAdder();
+    // Latencia de la ruta de aceptación en nanosegundos
+    private final LatencyHistogram acceptLatency = new LatencyHistogram();
+    // Tasas calculadas en cada muestreo
+    private volatile double bidsPerSecond;
+    private volatile double udpRequestsPerSecond;
+    private long lastBids;
+    private long lastUdpRequests;
+    private long lastSample = System.nanoTime();
+
+    /**
+     * Constructor para ServerMetrics.
+     *
+     * @param registry    Registro de lotes
+     * @param events      Reparto de avisos, para la profundidad de las colas de cada conexión
+     * @param log         Registro asíncrono, para los mensajes descartados
+     * @param admission   Límites de ritmo, para las pujas frenadas
+     * @param sessions    Sesiones de los pujadores
+     * @param connections Número de clientes TCP conectados
+     */
+    public ServerMetrics(AuctionRegistry registry, EventFanout events, AsyncLogger log, AdmissionControl admission,
+                         SessionRegistry sessions, IntSupplier connections) {
+        this.registry = registry;
+        this.events = events;
+        this.log = log;
+        this.admission = admission;
+        this.sessions = sessions;
+        this.connections = connections;
+    }
+
+    /**
+     * Indica los secuenciadores de pujas cuyas tandas se publican.
+     *
+     * @param sequencers Secuenciadores en marcha
+     */
+    public void setSequencers(BidSequencer[] sequencers) {
+        this.sequencers = sequencers.clone();
+    }
+
+    /**
+     * Registra una puja recibida y su resultado.
+     *
+     * @param auctionId    Identificador del lote
+     * @param result       Resultado de la puja
+     * @param elapsedNanos Duración de la ruta de aceptación en nanosegundos
+     */
+    public void bid(int auctionId, byte result, long elapsedNanos) {
+        if (result == BidFrame.UNKNOWN_AUCTION) {
+            unknownLot.increment();
+            return;
+        }
+        LotCounters lot = lots.get(auctionId);
+        if (lot == null) {
+            lot = new LotCounters();
+            LotCounters previous = lots.putIfAbsent(auctionId, lot);
+            if (previous != null)
+                lot = previous;
+        }
+        lot.received.increment();
+        if (result == BidFrame.ACCEPTED) {
+            lot.accepted.increment();
+            acceptLatency.record(elapsedNanos);
+        } else {
+            lot.rejected.increment();
+        }
+    }
+
+    /**
+     * Registra una solicitud UDP atendida.
+     */
+    public void udpRequest() {
+        udpRequests.increment();
+    }
+
+    /**
+     * Calcula las tasas por segundo desde el muestreo anterior y programa el siguiente.
+     *
+     * @param scheduler Planificador en el que se programa el muestreo
+     */
+    public void sample(DeadlineScheduler scheduler) {
+        long now = System.nanoTime();
+        long bids = getBidsReceived();
+        long udp = udpRequests.sum();
+        double seconds = (now - lastSample) / 1e9;
+        if (seconds > 0) {
+            bidsPerSecond = (bids - lastBids) / seconds;
+            udpRequestsPerSecond = (udp - lastUdpRequests) / seconds;
+        }
+        lastBids = bids;
+        lastUdpRequests = udp;
+        lastSample = now;
+        scheduler.schedule(System.currentTimeMillis() + 1000, () -> sample(scheduler));
+    }
+
+    /**
+     * Publica las métricas en el servidor JMX de la plataforma.
+     *
+     * @throws JMException Si no se pueden registrar
+     */
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Atiende las consultas de texto en un puerto local con un hilo propio. Cada conexión recibe una
+     * respuesta HTTP/1.0 con las métricas, de modo que sirve igual con curl o con Prometheus.
+     *
+     * @param port Puerto TCP en la interfaz de loopback
+     * @throws IOException Si no se puede abrir el puerto
+     */
+    public void startScrapeServer(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(SCRAPE_TIMEOUT);
+                    skipRequest(socket.getInputStream());
+                    byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\nContent-Length: "
+                            + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.flush();
+                } catch (IOException e) {
+                    System.out.println("Error en la consulta de métricas: " + e.getMessage());
+                }
+            }
+        }, "metrics-scrape");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Lee la solicitud hasta la línea en blanco que cierra las cabeceras, o hasta que se agota la espera.
+     */
+    private static void skipRequest(InputStream in) throws IOException {
+        int last = 0;
+        try {
+            int b;
+            while ((b = in.read()) >= 0) {
+                last = (last << 8) | b;
+                if (last == 0x0D0A0D0A || (last & 0xFFFF) == 0x0A0A)
+                    break;
+            }
+        } catch (SocketTimeoutException e) {
+            // Cliente sin solicitud HTTP (por ejemplo, nc): se contesta igualmente
+        }
+    }
+
+    @Override
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        type(out, "auction_bids_received_total", "counter", "Pujas recibidas por lote");
+        for (Auction auction : registry.getAuctions())
+            lot(out, "auction_bids_received_total", auction.getId(), counters(auction.getId()).received.sum());
+        type(out, "auction_bids_accepted_total", "counter", "Pujas aceptadas por lote");
+        for (Auction auction : registry.getAuctions())
+            lot(out, "auction_bids_accepted_total", auction.getId(), counters(auction.getId()).accepted.sum());
+        type(out, "auction_bids_rejected_total", "counter", "Pujas rechazadas por lote");
+        for (Auction auction : registry.getAuctions())
+            lot(out, "auction_bids_rejected_total", auction.getId(), counters(auction.getId()).rejected.sum());
+        type(out, "auction_bids_unknown_lot_total", "counter", "Pujas para lotes inexistentes");
+        value(out, "auction_bids_unknown_lot_total", unknownLot.sum());
+        type(out, "auction_bids_throttled_total", "counter", "Pujas frenadas por los límites de ritmo, según el límite superado");
+        out.append("auction_bids_throttled_total{limit=\"connection\"} ").append(admission.getThrottledByConnection()).append('\n');
+        out.append("auction_bids_throttled_total{limit=\"bidder\"} ").append(admission.getThrottledByBidder()).append('\n');
+        out.append("auction_bids_throttled_total{limit=\"server\"} ").append(admission.getThrottledByServer()).append('\n');
+        type(out, "auction_bids_per_second", "gauge", "Pujas recibidas por segundo");
+        value(out, "auction_bids_per_second", bidsPerSecond);
+
+        type(out, "auction_bid_accept_latency_nanoseconds", "summary", "Latencia de la ruta de aceptación");
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999})
+            out.append("auction_bid_accept_latency_nanoseconds{quantile=\"").append(quantile).append("\"} ")
+                    .append(acceptLatency.getValueAtPercentile(quantile * 100)).append('\n');
+        value(out, "auction_bid_accept_latency_nanoseconds_count", acceptLatency.getTotalCount());
+
+        type(out, "auction_bid_cas_retries_total", "counter", "Compare-and-set fallidos por pujas simultáneas");
+        value(out, "auction_bid_cas_retries_total", getCasRetries());
+        type(out, "auction_monitor_blocked_total", "counter", "Esperas por cerrojos de los hilos vivos");
+        value(out, "auction_monitor_blocked_total", getMonitorBlockedCount());
+
+        BidSequencer[] current = sequencers;
+        if (current.length > 0) {
+            type(out, "auction_sequencer_applied_total", "counter", "Solicitudes aplicadas por cada secuenciador de pujas");
+            for (int i = 0; i < current.length; i++)
+                sequencer(out, "auction_sequencer_applied_total", i, current[i].getApplied());
+            type(out, "auction_sequencer_batches_total", "counter", "Tandas de solicitudes aplicadas por cada secuenciador");
+            for (int i = 0; i < current.length; i++)
+                sequencer(out, "auction_sequencer_batches_total", i, current[i].getBatches());
+            type(out, "auction_sequencer_failures_total", "counter", "Solicitudes que han fallado con una excepción en cada secuenciador");
+            for (int i = 0; i < current.length; i++)
+                sequencer(out, "auction_sequencer_failures_total", i, current[i].getFailures());
+            type(out, "auction_sequencer_backlog", "gauge", "Solicitudes publicadas pendientes de aplicar");
+            for (int i = 0; i < current.length; i++)
+                sequencer(out, "auction_sequencer_backlog", i, current[i].getBacklog());
+        }
+
+        type(out, "auction_udp_requests_total", "counter", "Solicitudes UDP atendidas");
+        value(out, "auction_udp_requests_total", udpRequests.sum());
+        type(out, "auction_udp_requests_per_second", "gauge", "Solicitudes UDP por segundo");
+        value(out, "auction_udp_requests_per_second", udpRequestsPerSecond);
+        type(out, "auction_connected_clients", "gauge", "Clientes TCP conectados");
+        value(out, "auction_connected_clients", connections.getAsInt());
+        type(out, "auction_connected_sessions", "gauge", "Pujadores con alguna conexión abierta");
+        value(out, "auction_connected_sessions", sessions.getConnectedSessions());
+        type(out, "auction_sessions_resumed_total", "counter", "Sesiones reanudadas en una conexión nueva");
+        value(out, "auction_sessions_resumed_total", sessions.getResumed());
+
+        type(out, "auction_event_queue_depth", "gauge", "Avisos pendientes de envío por conexión");
+        for (EventFanout.Subscription subscription : events.getSubscriptions()) {
+            String username = subscription.getUsername();
+            out.append("auction_event_queue_depth{client=\"").append(username == null ? "" : escape(username))
+                    .append("\"} ").append(subscription.getDepth()).append('\n');
+        }
+        type(out, "auction_events_dropped_total", "counter", "Avisos descartados por conexiones lentas");
+        long dropped = 0;
+        for (EventFanout.Subscription subscription : events.getSubscriptions())
+            dropped += subscription.getDropped();
+        value(out, "auction_events_dropped_total", dropped);
+        type(out, "auction_log_dropped_total", "counter", "Mensajes de registro descartados");
+        value(out, "auction_log_dropped_total", log.getDropped());
+        return out.toString();
+    }
+
+    private LotCounters counters(int auctionId) {
+        LotCounters lot = lots.get(auctionId);
+        return lot != null ? lot : new LotCounters();
+    }
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void lot(StringBuilder out, String name, int auctionId, long value) {
+        out.append(name).append("{auction=\"").append(auctionId).append("\"} ").append(value).append('\n');
+    }
+
+    private static void sequencer(StringBuilder out, String name, int index, long value) {
+        out.append(name).append("{sequencer=\"").append(index).append("\"} ").append(value).append('\n');
+    }
+
+    private static void value(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void value(StringBuilder out, String name, double value) {
+        out.append(name).append(' ').append(String.format(Locale.ROOT, "%.1f", value)).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public long getBidsReceived() {
+        long total = unknownLot.sum();
+        for (LotCounters lot : lots.values())
+            total += lot.received.sum();
+        return total;
+    }
+
+    @Override
+    public long getBidsAccepted() {
+        long total = 0;
+        for (LotCounters lot : lots.values())
+            total += lot.accepted.sum();
+        return total;
+    }
+
+    @Override
+    public long getBidsRejected() {
+        long total = unknownLot.sum();
+        for (LotCounters lot : lots.values())
+            total += lot.rejected.sum();
+        return total;
+    }
+
+    @Override
+    public long getBidsThrottled() {
+        return admission.getThrottledByConnection() + admission.getThrottledByBidder() + admission.getThrottledByServer();
+    }
+
+    @Override
+    public double getBidsPerSecond() {
+        return bidsPerSecond;
+    }
+
+    @Override
+    public long getAcceptLatencyP50Nanos() {
+        return acceptLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getAcceptLatencyP99Nanos() {
+        return acceptLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getAcceptLatencyMaxNanos() {
+        return acceptLatency.getMaxValue();
+    }
+
+    @Override
+    public long getCasRetries() {
+        long total = 0;
+        for (Auction auction : registry.getAuctions())
+            total += auction.getContention();
+        return total;
+    }
+
+    /**
+     * Suma las veces que los hilos vivos se han bloqueado esperando un cerrojo (monitor).
+     * Los hilos que ya han terminado no cuentan.
+     */
+    @Override
+    public long getMonitorBlockedCount() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null)
+                total += info.getBlockedCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getUdpRequests() {
+        return udpRequests.sum();
+    }
+
+    @Override
+    public double getUdpRequestsPerSecond() {
+        return udpRequestsPerSecond;
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return connections.getAsInt();
+    }
+
+    @Override
+    public int getMaxEventQueueDepth() {
+        int max = 0;
+        for (EventFanout.Subscription subscription : events.getSubscriptions())
+            max = Math.max(max, subscription.getDepth());
+        return max;
+    }
+
+    @Override
+    public long getDroppedLogMessages() {
+        return log.getDropped();
+    }
+
+    /**
+     * Obtiene el tamaño medio de las tandas de los secuenciadores de pujas.
+     *
+     * @return Solicitudes por tanda, o 0 si no hay secuenciadores o aún no han aplicado nada
+     */
+    @Override
+    public double getSequencerBatchSize() {
+        long applied = 0;
+        long batches = 0;
+        for (BidSequencer sequencer : sequencers) {
+            applied += sequencer.getApplied();
+            batches += sequencer.getBatches();
+        }
+        return batches == 0 ? 0 : (double) applied / batches;
+    }
+}
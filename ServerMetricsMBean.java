@@ -0,0 +1,44 @@
+/**
+ * ServerMetricsMBean define los atributos de ServerMetrics que se publican por JMX.
+ */
+public interface ServerMetricsMBean {
+
+    long getBidsReceived();
+
+    long getBidsAccepted();
+
+    long getBidsRejected();
+
+    long getBidsThrottled();
+
+    double getBidsPerSecond();
+
+    long getAcceptLatencyP50Nanos();
+
+    long getAcceptLatencyP99Nanos();
+
+    long getAcceptLatencyMaxNanos();
+
+    long getCasRetries();
+
+    long getMonitorBlockedCount();
+
+    long getUdpRequests();
+
+    double getUdpRequestsPerSecond();
+
+    int getConnectedClients();
+
+    int getMaxEventQueueDepth();
+
+    long getDroppedLogMessages();
+
+    double getSequencerBatchSize();
+
+    /**
+     * Obtiene todas las métricas en el formato de texto del puerto de consulta.
+     *
+     * @return Métricas, una por línea
+     */
+    String scrape();
+}
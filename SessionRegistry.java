@@ -0,0 +1,232 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * SessionRegistry guarda una sesión por pujador: su identificador de BidderDirectory, su nombre, una
+ * clave de reanudación y sus pujas por lote.
+ *
+ * Una conexión abre la sesión en el saludo (HELLO) o la reanuda con RESUME, presentando el
+ * identificador y la clave que recibió en la trama SESSION, sin volver a enviar el nombre. Al
+ * reanudar, el servidor envía el estado de los lotes en los que el pujador ha pujado, así que un
+ * cliente que pierde la conexión sabe al volver si sigue ganando. La clave sólo identifica la sesión:
+ * como el saludo no lleva autenticación, no protege de quien use el mismo nombre.
+ *
+ * Las sesiones están en un array indexado por el identificador del pujador, como los cubos de
+ * AdmissionControl, de modo que obtener la sesión de una puja es un acceso a un array sin cerrojos.
+ * Cada sesión guarda su puja más alta en cada lote en dos arrays de enteros; "mi puja más alta" y
+ * "voy ganando" se responden sin recorrer el historial del lote.
+ */
+public class SessionRegistry {
+
+    // Número máximo de lotes cuyo estado se envía al reanudar una sesión
+    public static final int MAX_RESUMED_LOTS = 64;
+
+    /**
+     * Sesión de un pujador. Puede tener varias conexiones a la vez.
+     */
+    public static final class Session {
+        private final int bidderId;
+        private final String username;
+        private final long token;
+        // Conexiones abiertas con esta sesión
+        private final AtomicInteger connections = new AtomicInteger();
+        // Lotes en los que ha pujado, por orden de primera puja, y su puja más alta en cada uno
+        private int[] lots = new int[4];
+        private int[] highest = new int[4];
+        private int lotCount;
+
+        private Session(int bidderId, String username, long token) {
+            this.bidderId = bidderId;
+            this.username = username;
+            this.token = token;
+        }
+
+        public int getBidderId() {
+            return bidderId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getToken() {
+            return token;
+        }
+
+        public boolean isConnected() {
+            return connections.get() > 0;
+        }
+
+        /**
+         * Anota una puja aceptada del pujador.
+         *
+         * @param auctionId Identificador del lote
+         * @param price     Precio de la puja
+         */
+        public synchronized void recordBid(int auctionId, int price) {
+            int index = indexOf(auctionId);
+            if (index < 0) {
+                if (lotCount == lots.length) {
+                    lots = Arrays.copyOf(lots, lotCount * 2);
+                    highest = Arrays.copyOf(highest, lotCount * 2);
+                }
+                index = lotCount++;
+                lots[index] = auctionId;
+            }
+            if (price > highest[index])
+                highest[index] = price;
+        }
+
+        /**
+         * Obtiene la puja más alta del pujador en un lote.
+         *
+         * @param auctionId Identificador del lote
+         * @return Precio de la puja, o 0 si no ha pujado en el lote
+         */
+        public synchronized int getHighestBid(int auctionId) {
+            int index = indexOf(auctionId);
+            return index < 0 ? 0 : highest[index];
+        }
+
+        /**
+         * Copia los lotes más recientes en los que ha pujado.
+         *
+         * @param limit Número máximo de lotes
+         * @return Identificadores de los lotes, por orden de primera puja
+         */
+        public synchronized int[] getLots(int limit) {
+            return Arrays.copyOfRange(lots, Math.max(0, lotCount - limit), lotCount);
+        }
+
+        private int indexOf(int auctionId) {
+            // Se busca desde el final: las pujas suelen ser para el último lote en el que se ha pujado
+            for (int i = lotCount - 1; i >= 0; i--) {
+                if (lots[i] == auctionId)
+                    return i;
+            }
+            return -1;
+        }
+    }
+
+    private final BidderDirectory bidders;
+    private final SecureRandom random = new SecureRandom();
+    // Sesiones, indexadas por identificador de pujador
+    private volatile Session[] sessions = new Session[64];
+    private final AtomicInteger connected = new AtomicInteger();
+    private final LongAdder resumed = new LongAdder();
+
+    /**
+     * Constructor para SessionRegistry.
+     *
+     * @param bidders Directorio que asigna los identificadores de los pujadores
+     */
+    public SessionRegistry(BidderDirectory bidders) {
+        this.bidders = bidders;
+    }
+
+    /**
+     * Abre una conexión con la sesión de un usuario, creándola si es la primera vez que se ve.
+     *
+     * @param username Nombre del usuario
+     * @return Sesión del pujador
+     */
+    public Session open(String username) {
+        Session session = sessionOf(bidders.intern(username));
+        attach(session);
+        return session;
+    }
+
+    /**
+     * Reanuda una sesión existente en una conexión nueva.
+     *
+     * @param bidderId Identificador del pujador
+     * @param token    Clave de reanudación recibida en la trama SESSION
+     * @return Sesión reanudada, o null si el identificador o la clave no son válidos
+     */
+    public Session resume(int bidderId, long token) {
+        Session[] current = sessions;
+        Session session = bidderId > BidderDirectory.UNKNOWN_BIDDER && bidderId < current.length ? current[bidderId] : null;
+        if (session == null || session.token != token)
+            return null;
+        attach(session);
+        resumed.increment();
+        return session;
+    }
+
+    /**
+     * Cierra una conexión de una sesión. La sesión se conserva para reanudarla después.
+     *
+     * @param session Sesión de la conexión (puede ser null)
+     */
+    public void close(Session session) {
+        if (session != null && session.connections.decrementAndGet() == 0)
+            connected.decrementAndGet();
+    }
+
+    private void attach(Session session) {
+        if (session.connections.getAndIncrement() == 0)
+            connected.incrementAndGet();
+    }
+
+    /**
+     * Anota una puja aceptada en la sesión de su pujador.
+     *
+     * @param bidderId  Identificador del pujador
+     * @param auctionId Identificador del lote
+     * @param price     Precio de la puja
+     */
+    public void recordBid(int bidderId, int auctionId, int price) {
+        if (bidderId != BidderDirectory.UNKNOWN_BIDDER)
+            sessionOf(bidderId).recordBid(auctionId, price);
+    }
+
+    /**
+     * Obtiene la sesión de un pujador, creándola si aún no tiene (pujas de clientes antiguos o
+     * pujas automáticas de un pujador que no se ha conectado con el protocolo binario).
+     *
+     * @param bidderId Identificador del pujador en BidderDirectory
+     * @return Sesión del pujador
+     */
+    public Session sessionOf(int bidderId) {
+        Session[] current = sessions;
+        if (bidderId < current.length && current[bidderId] != null)
+            return current[bidderId];
+        synchronized (this) {
+            current = sessions;
+            if (bidderId >= current.length)
+                current = Arrays.copyOf(current, Math.max(bidderId + 1, current.length * 2));
+            else if (current[bidderId] != null)
+                return current[bidderId];
+            long token;
+            do {
+                token = random.nextLong();
+            } while (token == 0);
+            // Los campos de la sesión que se leen sin cerrojo son final
+            Session session = new Session(bidderId, bidders.nameOf(bidderId), token);
+            current[bidderId] = session;
+            sessions = current;
+            return session;
+        }
+    }
+
+    /**
+     * Obtiene el número de sesiones con alguna conexión abierta.
+     *
+     * @return Sesiones conectadas
+     */
+    public int getConnectedSessions() {
+        return connected.get();
+    }
+
+    /**
+     * Obtiene el número de sesiones reanudadas con RESUME.
+     *
+     * @return Reanudaciones
+     */
+    public long getResumed() {
+        return resumed.sum();
+    }
+}
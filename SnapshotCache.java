@@ -0,0 +1,146 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * SnapshotCache guarda ya codificadas las respuestas UDP de un lote.
+ *
+ * La versión de un lote es el número de secuencia de su puja ganadora. Las respuestas se vuelven a
+ * codificar sólo cuando la versión ha cambiado, es decir, cuando se ha aceptado alguna puja; mientras
+ * tanto todas las solicitudes reciben los mismos bytes. La respuesta "info" contiene el número total de
+ * pujas y las más recientes, de modo que su tamaño no crece con el historial.
+ *
+ * La respuesta binaria "history" (BidSnapshot) se guarda aparte y sólo se codifica cuando se pide,
+ * porque recorre hasta BidSnapshot.MAX_BIDS pujas.
+ */
+public class SnapshotCache {
+
+    // Número de pujas recientes incluidas en la respuesta "info"
+    public static final int TOP_BIDS = 20;
+    // Número máximo de pujas devueltas en una respuesta "since"
+    public static final int MAX_TAIL_BIDS = 200;
+
+    /**
+     * Respuestas codificadas para una versión del lote.
+     */
+    private static final class Encoded {
+        private final int version;
+        private final byte[] info;
+        private final byte[] leader;
+
+        private Encoded(int version, byte[] info, byte[] leader) {
+            this.version = version;
+            this.info = info;
+            this.leader = leader;
+        }
+    }
+
+    private final Auction auction;
+    /**
+     * Respuesta "history" codificada para una versión del lote.
+     */
+    private static final class History {
+        private final int version;
+        private final byte[][] chunks;
+
+        private History(int version, byte[][] chunks) {
+            this.version = version;
+            this.chunks = chunks;
+        }
+    }
+
+    private volatile Encoded encoded = new Encoded(0, null, null);
+    private volatile History history = new History(0, null);
+
+    /**
+     * Constructor para SnapshotCache.
+     *
+     * @param auction Lote cuyas respuestas se guardan
+     */
+    public SnapshotCache(Auction auction) {
+        this.auction = auction;
+    }
+
+    /**
+     * Obtiene la respuesta de texto a "info": versión, total de pujas y las pujas más recientes.
+     *
+     * @return Respuesta codificada
+     */
+    public byte[] getInfo() {
+        return current().info;
+    }
+
+    /**
+     * Obtiene la instantánea binaria de la puja ganadora, con el formato de BidFeed.
+     *
+     * @return Datagrama de instantánea
+     */
+    public byte[] getLeader() {
+        return current().leader;
+    }
+
+    /**
+     * Construye la respuesta de texto a "since": las pujas aceptadas después de una versión.
+     * Depende de la versión del cliente, por lo que no se guarda.
+     *
+     * @param version Versión que ya conoce el cliente
+     * @return Respuesta codificada
+     */
+    public byte[] getSince(int version) {
+        List<AuctionItem> tail = new ArrayList<>();
+        int current = auction.getSince(version, MAX_TAIL_BIDS, tail);
+        int last = version + tail.size();
+        return (header() + "Versión: " + last + " de " + current + " - Pujas desde la versión " + version + ":\n"
+                + tail.toString()).getBytes();
+    }
+
+    /**
+     * Obtiene la respuesta binaria a "history": las pujas aceptadas después de una versión, en trozos
+     * de un datagrama. Sin versión (0) se devuelven las BidSnapshot.MAX_BIDS pujas más recientes, y
+     * esa respuesta se guarda hasta que cambia la versión del lote.
+     *
+     * @param version Versión que ya conoce el cliente, o 0
+     * @return Datagramas de la respuesta
+     */
+    public byte[][] getHistory(int version) {
+        BidEngine bids = auction.getProduct().getBids();
+        int current = bids.size();
+        if (version > 0)
+            return BidSnapshot.encode(auction.getId(), bids.getColumns(), Math.min(version, current),
+                    Math.min(current, version + BidSnapshot.MAX_BIDS));
+        History cached = history;
+        if (cached.version == current)
+            return cached.chunks;
+        cached = new History(current, BidSnapshot.encode(auction.getId(), bids.getColumns(), Math.max(0, current - BidSnapshot.MAX_BIDS), current));
+        history = cached;
+        return cached.chunks;
+    }
+
+    /**
+     * Devuelve las respuestas de la versión actual, codificándolas de nuevo si se ha aceptado alguna puja.
+     */
+    private Encoded current() {
+        Encoded current = encoded;
+        if (current.version == auction.getSequence())
+            return current;
+
+        List<AuctionItem> recent = new ArrayList<>(TOP_BIDS);
+        int version = auction.getRecent(TOP_BIDS, recent);
+        byte[] info = (header() + "Versión: " + version + " - Total de pujas: " + version + "\n"
+                + "Últimas pujas:\n" + recent.toString()).getBytes();
+
+        ByteBuffer buffer = ByteBuffer.allocate(BidFeed.MAX_DATAGRAM_SIZE);
+        BidFeed.encode(buffer, BidFeed.SNAPSHOT, recent.get(recent.size() - 1), version);
+        byte[] leader = Arrays.copyOf(buffer.array(), buffer.position());
+
+        current = new Encoded(version, info, leader);
+        encoded = current;
+        return current;
+    }
+
+    private String header() {
+        return "\n--------- INFORMACIÓN DE LA SUBASTA (lote " + auction.getId() + ": " + auction.getProduct().getName() + ") ---------\n";
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+
+/**
+ * UdpInfoServer atiende las solicitudes UDP de información con un número fijo de hilos.
+ *
+ * Todos los hilos comparten un DatagramChannel y cada uno reutiliza sus propios búferes directos
+ * de recepción y respuesta, de modo que recibir una solicitud y contestar con una respuesta ya
+ * codificada ("info", "snapshot") no crea ningún objeto ni ningún hilo por paquete. La respuesta
+ * "history" ocupa varios datagramas de BidSnapshot, que se envían uno detrás de otro.
+ *
+ * Un error al atender una solicitud, de E/S o de cualquier otro tipo, se registra y el hilo sigue con
+ * la siguiente: los hilos son pocos y no se reponen, así que cada uno que terminase dejaría al
+ * servidor con menos capacidad hasta no contestar ninguna consulta.
+ */
+public class UdpInfoServer {
+
+    // Tamaño máximo de una solicitud; el resto de un datagrama más largo se descarta
+    private static final int MAX_REQUEST_SIZE = 512;
+    // Tamaño máximo de la carga útil de un datagrama UDP
+    public static final int MAX_REPLY_SIZE = 65507;
+
+    // Comandos reconocidos
+    private static final byte[] LIST = "list".getBytes();
+    private static final byte[] SNAPSHOT = "snapshot".getBytes();
+    private static final byte[] SINCE = "since".getBytes();
+    private static final byte[] HISTORY = "history".getBytes();
+
+    private final DatagramChannel channel;
+    private final int workerCount;
+    private final AsyncLogger log;
+
+    /**
+     * Constructor para UdpInfoServer.
+     *
+     * @param port        Puerto UDP en el que se reciben las solicitudes
+     * @param workerCount Número de hilos que atienden solicitudes
+     * @param log         Registro de las solicitudes que fallan
+     * @throws IOException Si no se puede abrir el puerto
+     */
+    public UdpInfoServer(int port, int workerCount, AsyncLogger log) throws IOException {
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(port));
+        this.workerCount = workerCount;
+        this.log = log;
+    }
+
+    /**
+     * Arranca los hilos que atienden las solicitudes.
+     */
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Worker(), "udp-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Hilo que recibe solicitudes y envía las respuestas con sus propios búferes.
+     */
+    private final class Worker implements Runnable {
+        private final ByteBuffer request = ByteBuffer.allocateDirect(MAX_REQUEST_SIZE);
+        private final ByteBuffer reply = ByteBuffer.allocateDirect(MAX_REPLY_SIZE);
+        private final RequestParser parser = new RequestParser();
+
+        public void run() {
+            while (!AuctionServer.isFinished()) {
+                try {
+                    request.clear();
+                    SocketAddress client = channel.receive(request);
+                    request.flip();
+                    parser.load(request);
+
+                    reply.clear();
+                    byte[][] chunks = writeReply(parser, reply);
+                    if (chunks == null) {
+                        reply.flip();
+                        channel.send(reply, client);
+                    } else {
+                        for (byte[] chunk : chunks) {
+                            reply.clear();
+                            reply.put(chunk);
+                            reply.flip();
+                            channel.send(reply, client);
+                        }
+                    }
+                    AuctionServer.getMetrics().udpRequest();
+                } catch (IOException e) {
+                    System.out.println("Error en el paquete UDP: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    log.log("Error al atender una solicitud UDP: %s", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Analiza una solicitud de texto directamente sobre sus bytes, sin crear cadenas.
+     */
+    static final class RequestParser {
+        private final byte[] data = new byte[MAX_REQUEST_SIZE];
+        private int length;
+        private int position;
+        private int tokenStart;
+        private int tokenEnd;
+
+        /**
+         * Carga en el analizador una solicitud recibida en un array.
+         *
+         * @param request Datos de la solicitud
+         * @param length  Longitud de la solicitud
+         * @return El propio analizador
+         */
+        RequestParser load(byte[] request, int length) {
+            this.length = Math.min(length, MAX_REQUEST_SIZE);
+            this.position = 0;
+            System.arraycopy(request, 0, data, 0, this.length);
+            return this;
+        }
+
+        /**
+         * Carga en el analizador una solicitud recibida en un búfer.
+         *
+         * @param request Búfer en modo lectura con la solicitud
+         * @return El propio analizador
+         */
+        RequestParser load(ByteBuffer request) {
+            this.length = Math.min(request.remaining(), MAX_REQUEST_SIZE);
+            this.position = 0;
+            request.get(data, 0, this.length);
+            return this;
+        }
+
+        /**
+         * Avanza hasta el siguiente token separado por espacios.
+         *
+         * @return True si hay token
+         */
+        private boolean next() {
+            while (position < length && data[position] <= ' ')
+                position++;
+            tokenStart = position;
+            while (position < length && data[position] > ' ')
+                position++;
+            tokenEnd = position;
+            return tokenEnd > tokenStart;
+        }
+
+        private boolean tokenEquals(byte[] word) {
+            if (tokenEnd - tokenStart != word.length)
+                return false;
+            for (int i = 0; i < word.length; i++) {
+                if ((data[tokenStart + i] | 0x20) != word[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Lee el siguiente token como entero no negativo.
+         *
+         * @param missing Valor si no hay más tokens
+         * @return Valor leído, el valor por defecto, o -1 si el token no es un número válido
+         */
+        private int nextInt(int missing) {
+            if (!next())
+                return missing;
+            if (tokenEnd - tokenStart > 9)
+                return -1;
+            int value = 0;
+            for (int i = tokenStart; i < tokenEnd; i++) {
+                if (data[i] < '0' || data[i] > '9')
+                    return -1;
+                value = value * 10 + (data[i] - '0');
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Escribe la respuesta a una solicitud:
+     * "info [id]" devuelve la versión, el total y las últimas pujas de un lote (0 o sin id para el lote por defecto),
+     * "since <id> <versión>" las pujas aceptadas después de esa versión,
+     * "snapshot [id]" la instantánea binaria de la puja ganadora, "history [id] [versión]" el historial
+     * binario compacto (BidSnapshot) y "list" el resumen de lotes.
+     * Las respuestas de "info" y "snapshot" salen de la caché del lote y se copian sin crear objetos.
+     *
+     * @param parser Analizador cargado con la solicitud
+     * @param out    Búfer en el que se escribe la respuesta de un solo datagrama
+     * @return Datagramas de la respuesta "history", que se envían en lugar de out; null para el resto
+     */
+    static byte[][] writeReply(RequestParser parser, ByteBuffer out) {
+        parser.next();
+        if (parser.tokenEquals(LIST)) {
+            put(out, AuctionServer.buildAuctionList().getBytes());
+            return null;
+        }
+        boolean snapshot = parser.tokenEquals(SNAPSHOT);
+        boolean since = parser.tokenEquals(SINCE);
+        boolean history = parser.tokenEquals(HISTORY);
+
+        int id = parser.nextInt(AuctionRegistry.DEFAULT_AUCTION_ID);
+        int version = parser.nextInt(0);
+        if (id < 0 || version < 0) {
+            put(out, ("Solicitud no válida: " + new String(parser.data, 0, parser.length).trim()).getBytes());
+            return null;
+        }
+        Auction auction = AuctionServer.findAuction(id);
+        if (auction == null) {
+            put(out, ("Lote no encontrado: " + id).getBytes());
+            return null;
+        }
+
+        SnapshotCache cache = auction.getSnapshotCache();
+        if (history)
+            return cache.getHistory(version);
+        if (snapshot)
+            put(out, cache.getLeader());
+        else if (since)
+            put(out, cache.getSince(version));
+        else
+            put(out, cache.getInfo());
+        return null;
+    }
+
+    private static void put(ByteBuffer out, byte[] data) {
+        out.put(data, 0, Math.min(data.length, out.remaining()));
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.ByteArrayInputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * UdpLoadTest mide el servicio UDP de información de AuctionServer bajo carga sostenida.
+ *
+ * Arranca el servidor en el mismo proceso (con un lote de ejemplo) y lanza varios hilos que envían
+ * solicitudes "info" sin pausa, reutilizando sus paquetes. Al terminar muestra las respuestas por
+ * segundo y las recolecciones de basura que ha provocado la prueba. Los argumentos que siguen a la
+ * duración y al número de hilos se pasan al servidor, por ejemplo "--udp-threads" para medir el
+ * modo de un hilo por datagrama.
+ *
+ * Uso: java UdpLoadTest <segundos> <hilos> [argumentos del servidor]
+ */
+public class UdpLoadTest {
+
+    // Número de puerto para la comunicación UDP con el servidor
+    private static final int UDP_SERVER_PORT = 9876;
+    // Tamaño del búfer utilizado para recibir mensajes
+    private final static int BUFFER_SIZE = 65535;
+
+    /**
+     * Suma las recolecciones y el tiempo de recolección de todos los colectores.
+     *
+     * @return Número de recolecciones y tiempo en milisegundos
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * Método principal para la aplicación UdpLoadTest.
+     *
+     * @param args Duración en segundos, número de hilos y argumentos del servidor
+     * @throws Exception Si ocurre un error durante la prueba
+     */
+    public static void main(String[] args) throws Exception {
+        int seconds = Integer.parseInt(args[0]);
+        int threads = Integer.parseInt(args[1]);
+        String[] serverArgs = new String[args.length - 2];
+        System.arraycopy(args, 2, serverArgs, 0, serverArgs.length);
+
+        // Arranca el servidor con un lote de ejemplo introducido por la entrada estándar
+        System.setIn(new ByteArrayInputStream("Lote de prueba\nCarga UDP\n10\nn\n".getBytes()));
+        Thread server = new Thread(() -> AuctionServer.main(serverArgs));
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(2000);
+
+        InetAddress address = InetAddress.getByName("localhost");
+        LongAdder replies = new LongAdder();
+        LongAdder timeouts = new LongAdder();
+        long[] gcBefore = gcTotals();
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+
+        Thread[] clients = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            clients[i] = new Thread(() -> {
+                byte[] request = "info".getBytes();
+                try (DatagramSocket socket = new DatagramSocket()) {
+                    socket.setSoTimeout(200);
+                    DatagramPacket requestPacket = new DatagramPacket(request, request.length, address, UDP_SERVER_PORT);
+                    DatagramPacket replyPacket = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
+                    while (System.currentTimeMillis() < deadline) {
+                        socket.send(requestPacket);
+                        try {
+                            replyPacket.setLength(BUFFER_SIZE);
+                            socket.receive(replyPacket);
+                            replies.increment();
+                        } catch (SocketTimeoutException e) {
+                            timeouts.increment();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients)
+            client.join();
+
+        long[] gcAfter = gcTotals();
+        System.out.println("Respuestas por segundo: " + replies.sum() / seconds);
+        System.out.println("Solicitudes sin respuesta: " + timeouts.sum());
+        System.out.println("Recolecciones de basura: " + (gcAfter[0] - gcBefore[0]) + " (" + (gcAfter[1] - gcBefore[1]) + " ms)");
+        System.exit(0);
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Pruebas de AdmissionControl: ráfaga y ritmo de los cubos GCRA, devolución de fichas y que un
+ * cliente frenado por el servidor no gaste las fichas de su conexión.
+ */
+public class AdmissionControlTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) {
+        burstThenSustainedRate();
+        hasTokenDoesNotSpend();
+        releaseReturnsToken();
+        serverLimitKeepsConnectionTokens();
+        System.out.println("AdmissionControlTest: pruebas correctas");
+    }
+
+    /**
+     * Un cubo de 1000 fichas por segundo y ráfaga 10 admite 10 pujas de golpe y después una por
+     * milisegundo; tras un rato sin pujas vuelve a admitir la ráfaga, nunca más.
+     */
+    private static void burstThenSustainedRate() {
+        AdmissionControl.Bucket bucket = new AdmissionControl.Bucket(1000, 10);
+        long now = System.nanoTime();
+        Checks.equal(10, acquireAll(bucket, now), "ráfaga inicial");
+        Checks.equal(0, acquireAll(bucket, now + MILLISECOND / 2), "fichas a medio intervalo");
+        Checks.equal(1, acquireAll(bucket, now + MILLISECOND), "fichas tras un intervalo");
+        Checks.equal(3, acquireAll(bucket, now + 4 * MILLISECOND), "fichas tras cuatro intervalos");
+        Checks.equal(10, acquireAll(bucket, now + 1000 * MILLISECOND), "fichas tras un segundo sin pujas");
+    }
+
+    private static void hasTokenDoesNotSpend() {
+        AdmissionControl.Bucket bucket = new AdmissionControl.Bucket(1000, 3);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            Checks.check(bucket.hasToken(now), "hasToken no debería gastar fichas");
+        Checks.equal(3, acquireAll(bucket, now), "ráfaga tras consultar");
+        Checks.check(!bucket.hasToken(now), "hasToken con el cubo vacío");
+    }
+
+    private static void releaseReturnsToken() {
+        AdmissionControl.Bucket bucket = new AdmissionControl.Bucket(1000, 2);
+        long now = System.nanoTime();
+        Checks.equal(2, acquireAll(bucket, now), "ráfaga");
+        bucket.release();
+        Checks.check(bucket.tryAcquire(now), "la ficha devuelta debería poder gastarse");
+        Checks.check(!bucket.tryAcquire(now), "release sólo devuelve una ficha");
+    }
+
+    /**
+     * Con el servidor sin fichas, las pujas se rechazan por el servidor y la conexión conserva las
+     * suyas.
+     */
+    private static void serverLimitKeepsConnectionTokens() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+        // Una ficha por cubo del servidor y un ritmo despreciable durante la prueba
+        AdmissionControl admission = new AdmissionControl(1, 50, 1, 1000, stripes, stripes);
+        AdmissionControl.Bucket connection = admission.newConnectionBucket();
+        int admitted = 0;
+        for (int i = 0; i < 200; i++) {
+            if (admission.admit(connection, BidderDirectory.UNKNOWN_BIDDER))
+                admitted++;
+        }
+        Checks.equal(stripes, admitted, "pujas admitidas con " + stripes + " fichas en el servidor");
+        Checks.equal(200L - stripes, admission.getThrottledByServer(), "pujas frenadas por el servidor");
+        Checks.equal(0L, admission.getThrottledByConnection(), "pujas frenadas por la conexión");
+        Checks.equal(50 - stripes, acquireAll(connection, System.nanoTime()), "fichas que le quedan a la conexión");
+    }
+
+    /**
+     * Gasta todas las fichas disponibles en un instante.
+     */
+    private static int acquireAll(AdmissionControl.Bucket bucket, long now) {
+        int acquired = 0;
+        while (bucket.tryAcquire(now))
+            acquired++;
+        return acquired;
+    }
+}
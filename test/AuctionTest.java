@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Pruebas de Auction: el cierre y la aceptación de pujas no se solapan. Ninguna puja se acepta
+ * después de cerrar el lote, así que la ganadora anunciada al cerrar es la misma que se reconstruye
+ * con las pujas aceptadas.
+ */
+public class AuctionTest {
+
+    private static final int BIDDERS = 4;
+    private static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++)
+            closeRacesWithBids(round);
+        closedLotRejectsBidsButRestoresAccepted();
+        System.out.println("AuctionTest: pruebas correctas");
+    }
+
+    /**
+     * Varios hilos pujan sin parar mientras otro cierra el lote.
+     */
+    private static void closeRacesWithBids(int round) throws InterruptedException {
+        Auction auction = newAuction();
+        AtomicInteger price = new AtomicInteger(10);
+        // Precio de cada puja aceptada, por número de secuencia
+        AtomicIntegerArray accepted = new AtomicIntegerArray(1 << 20);
+        CountDownLatch ready = new CountDownLatch(BIDDERS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < BIDDERS; i++) {
+            String username = "pujador" + i;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                // Sigue pujando un rato después del cierre
+                for (int rejected = 0; rejected < 1000; ) {
+                    int next = price.incrementAndGet();
+                    int sequence = auction.submit(new AuctionItem(1, username, next));
+                    if (sequence > 0)
+                        accepted.set(sequence, next);
+                    else if (!auction.isOpen())
+                        rejected++;
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        ready.await();
+        Thread.sleep(round % 3);
+        Checks.check(auction.close(), "el primer cierre debería tener efecto");
+        AuctionItem announced = auction.settle().get(0);
+        int announcedSequence = auction.getSequence();
+        for (Thread thread : threads)
+            thread.join();
+
+        Checks.equal(announcedSequence, auction.getSequence(), "pujas aceptadas después del cierre");
+        Checks.equal(announced.getPrice(), auction.getBest().getPrice(), "ganadora tras el cierre");
+        for (int sequence = announcedSequence + 1; sequence < accepted.length(); sequence++)
+            Checks.equal(0, accepted.get(sequence), "puja " + sequence + " aceptada después del cierre");
+
+        // Reconstruye el lote con las pujas aceptadas, como el diario o un seguidor
+        Auction replay = newAuction();
+        for (int sequence = 2; sequence <= announcedSequence; sequence++)
+            Checks.equal(sequence, replay.restore(new AuctionItem(1, "x", accepted.get(sequence))), "secuencia reproducida");
+        Checks.equal(announced.getPrice(), replay.getBest().getPrice(), "ganadora reproducida");
+    }
+
+    private static void closedLotRejectsBidsButRestoresAccepted() {
+        Auction auction = newAuction();
+        Checks.equal(2, auction.submit(new AuctionItem(1, "ana", 20)), "puja con el lote abierto");
+        Checks.check(auction.close(), "cierre");
+        Checks.check(!auction.close(), "el segundo cierre no tiene efecto");
+        Checks.equal(0, auction.submit(new AuctionItem(1, "bea", 30)), "puja con el lote cerrado");
+        Checks.equal(0, auction.getProduct().getBids().submit(new AuctionItem(1, "bea", 30)), "puja directa al motor cerrado");
+        // Una puja que el líder aceptó antes del cierre puede llegar después del registro de cierre
+        Checks.equal(3, auction.restore(new AuctionItem(1, "carla", 40)), "puja restaurada con el lote cerrado");
+        Checks.equal("carla", auction.settle().get(0).getUsername(), "ganadora");
+    }
+
+    private static Auction newAuction() {
+        Auction auction = new Auction(new Product(1, "Lote", "Descripción", 10, new BidderDirectory(), false));
+        auction.start(System.currentTimeMillis(), 60000);
+        return auction;
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Pruebas de BidEngine: con varios hilos pujando a la vez por el mismo lote, cada puja aceptada
+ * recibe un número de secuencia propio, el historial queda en orden estrictamente creciente y la
+ * ganadora es la última puja del historial.
+ */
+public class BidEngineTest {
+
+    public static void main(String[] args) throws Exception {
+        strictlyHigherRule();
+        concurrentBidsGetDistinctSequences();
+        recentAndSinceReadTheRightRange();
+        System.out.println("BidEngineTest: pruebas correctas");
+    }
+
+    /**
+     * Sólo se acepta una puja estrictamente mayor; a igual precio se queda la ganadora.
+     */
+    private static void strictlyHigherRule() {
+        BidEngine engine = new BidEngine(new AuctionItem(1, "salida", 10));
+        Checks.equal(0, engine.submit(bid("ana", 10)), "puja igual al precio de salida");
+        Checks.equal(2, engine.submit(bid("ana", 20)), "primera puja");
+        Checks.equal(0, engine.submit(bid("bea", 20)), "puja del mismo precio");
+        Checks.equal(0, engine.submit(bid("bea", 15)), "puja menor");
+        Checks.equal(3, engine.submit(bid("bea", 21)), "puja mayor");
+        Checks.equal("bea", engine.getBest().getUsername(), "ganadora");
+        Checks.equal(3, engine.size(), "pujas del historial");
+    }
+
+    /**
+     * Cuatro hilos pujan precios intercalados; unas pujas se aceptan y otras pierden la carrera.
+     */
+    private static void concurrentBidsGetDistinctSequences() throws InterruptedException {
+        BidEngine engine = new BidEngine(new AuctionItem(1, "salida", 0));
+        int threads = 4;
+        int perThread = 100000;
+        // Precio de la puja aceptada con cada número de secuencia
+        AtomicIntegerArray accepted = new AtomicIntegerArray(threads * perThread + 2);
+        AtomicInteger duplicates = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> bidders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread bidder = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 1; i <= perThread; i++) {
+                    int price = i * threads + first;
+                    int sequence = engine.submit(bid("h" + first, price));
+                    if (sequence > 0 && !accepted.compareAndSet(sequence, 0, price))
+                        duplicates.incrementAndGet();
+                }
+            });
+            bidder.start();
+            bidders.add(bidder);
+        }
+        start.countDown();
+        for (Thread bidder : bidders)
+            bidder.join();
+
+        Checks.equal(0, duplicates.get(), "secuencias asignadas a más de una puja");
+        int size = engine.size();
+        List<AuctionItem> history = engine.getHistory();
+        Checks.equal(size, history.size(), "pujas del historial");
+        for (int sequence = 2; sequence <= size; sequence++) {
+            Checks.equal(accepted.get(sequence), history.get(sequence - 1).getPrice(), "precio de la puja " + sequence);
+            Checks.check(history.get(sequence - 1).getPrice() > history.get(sequence - 2).getPrice(),
+                    "el historial no crece estrictamente en la puja " + sequence);
+        }
+        Checks.equal(0, accepted.get(size + 1), "secuencia aceptada fuera del historial");
+        Checks.equal(history.get(size - 1).getPrice(), engine.getBest().getPrice(), "ganadora");
+        Checks.equal(perThread * threads + threads - 1, engine.getBest().getPrice(), "precio más alto");
+    }
+
+    private static void recentAndSinceReadTheRightRange() {
+        BidEngine engine = new BidEngine(new AuctionItem(1, "salida", 0));
+        for (int price = 1; price <= 3000; price++)
+            engine.submit(bid("ana", price));
+        List<AuctionItem> recent = new ArrayList<>();
+        Checks.equal(3001, engine.getRecent(5, recent), "versión de las pujas recientes");
+        Checks.equal(5, recent.size(), "pujas recientes");
+        Checks.equal(2996, recent.get(0).getPrice(), "primera puja reciente");
+        Checks.equal(3000, recent.get(4).getPrice(), "última puja reciente");
+
+        List<AuctionItem> since = new ArrayList<>();
+        Checks.equal(3001, engine.getSince(1020, 10, since), "versión de las pujas posteriores");
+        Checks.equal(10, since.size(), "pujas posteriores con límite");
+        Checks.equal(1020, since.get(0).getPrice(), "primera puja posterior a la versión");
+        since.clear();
+        engine.getSince(2998, Integer.MAX_VALUE, since);
+        Checks.equal(3, since.size(), "pujas posteriores sin límite");
+    }
+
+    private static AuctionItem bid(String username, int price) {
+        return new AuctionItem(1, username, price);
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Pruebas de BidFeed: codificación de los datagramas, recorte de los nombres largos en un carácter
+ * completo y publicación en orden de secuencia desde el hilo de reparto de EventFanout.
+ */
+public class BidFeedTest {
+
+    /**
+     * Publicación que anota las secuencias en lugar de enviarlas al grupo multicast.
+     */
+    private static class Recorder extends BidFeed {
+        private final List<Integer> published = new ArrayList<>();
+
+        Recorder() throws IOException {
+        }
+
+        @Override
+        public void publish(AuctionItem bid, int sequence) {
+            synchronized (published) {
+                published.add(sequence);
+            }
+        }
+
+        List<Integer> published() {
+            synchronized (published) {
+                return new ArrayList<>(published);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        roundTrip();
+        longNameIsCutOnCharacterBoundary();
+        fanoutPublishesInSequenceOrder();
+        missingBidIsSkippedAfterTheWait();
+        System.out.println("BidFeedTest: pruebas correctas");
+    }
+
+    private static void roundTrip() {
+        AuctionItem bid = new AuctionItem(7, "ana", 120);
+        bid.setTime(123456789L);
+        ByteBuffer out = ByteBuffer.allocate(BidFeed.MAX_DATAGRAM_SIZE);
+        BidFeed.encode(out, BidFeed.DELTA, bid, 42);
+        List<String> decoded = new ArrayList<>();
+        Checks.check(BidFeed.decode(out.array(), out.position(), (type, auctionId, sequence, price, time, username) ->
+                decoded.add(type + " " + auctionId + " " + sequence + " " + price + " " + time + " " + username)), "datagrama de la publicación");
+        Checks.equal("[1 7 42 120 123456789 ana]", decoded.toString(), "datagrama decodificado");
+    }
+
+    /**
+     * Un nombre que no cabe en el datagrama se recorta antes del carácter que quedaría partido.
+     */
+    private static void longNameIsCutOnCharacterBoundary() {
+        int room = BidFeed.MAX_DATAGRAM_SIZE - BidFeed.HEADER_SIZE;
+        // Con caracteres de dos bytes y un espacio impar, el límite cae a mitad de uno
+        Checks.check(room % 2 == 1, "el espacio para el nombre debería ser impar");
+        StringBuilder name = new StringBuilder();
+        while (name.length() < room)
+            name.append('\u00f1');
+        ByteBuffer out = ByteBuffer.allocate(BidFeed.MAX_DATAGRAM_SIZE);
+        BidFeed.encode(out, BidFeed.DELTA, new AuctionItem(1, name.toString(), 10), 2);
+        Checks.check(out.position() <= BidFeed.MAX_DATAGRAM_SIZE, "el datagrama no cabe");
+        String[] decoded = new String[1];
+        BidFeed.decode(out.array(), out.position(), (type, auctionId, sequence, price, time, username) -> decoded[0] = username);
+        Checks.equal(room - 1, decoded[0].getBytes(StandardCharsets.UTF_8).length, "bytes del nombre recortado");
+        Checks.check(decoded[0].indexOf('\ufffd') < 0, "el nombre recortado termina en un carácter partido");
+        Checks.check(name.toString().startsWith(decoded[0]), "el nombre recortado no es un prefijo del original");
+    }
+
+    /**
+     * Dos pujas del mismo lote avisadas en el orden contrario se publican en orden de secuencia.
+     */
+    private static void fanoutPublishesInSequenceOrder() throws Exception {
+        Recorder feed = new Recorder();
+        EventFanout events = new EventFanout(new BidderDirectory());
+        events.setFeed(feed);
+        events.start();
+        events.bidAccepted(new AuctionItem(1, "ana", 20), 2);
+        events.bidAccepted(new AuctionItem(1, "carla", 40), 4);
+        events.bidAccepted(new AuctionItem(1, "bea", 30), 3);
+        events.bidAccepted(new AuctionItem(2, "dani", 50), 9);
+        events.bidAccepted(new AuctionItem(1, "eva", 50), 5);
+        await(() -> feed.published().size() == 5, "pujas publicadas");
+        List<Integer> lot1 = new ArrayList<>(feed.published());
+        lot1.remove(Integer.valueOf(9));
+        Checks.equal("[2, 3, 4, 5]", lot1.toString(), "orden de publicación del lote 1");
+    }
+
+    /**
+     * Si la puja anterior no llega, las siguientes se publican tras la espera, y la que llega tarde ya
+     * no se publica.
+     */
+    private static void missingBidIsSkippedAfterTheWait() throws Exception {
+        Recorder feed = new Recorder();
+        EventFanout events = new EventFanout(new BidderDirectory());
+        events.setFeed(feed);
+        events.start();
+        events.bidAccepted(new AuctionItem(1, "ana", 20), 2);
+        events.bidAccepted(new AuctionItem(1, "carla", 40), 4);
+        events.bidAccepted(new AuctionItem(1, "dani", 50), 5);
+        await(() -> feed.published().size() == 3, "pujas publicadas tras la espera");
+        Checks.equal("[2, 4, 5]", feed.published().toString(), "publicación con un hueco");
+        events.bidAccepted(new AuctionItem(1, "bea", 30), 3);
+        events.bidAccepted(new AuctionItem(1, "eva", 60), 6);
+        await(() -> feed.published().size() == 4, "puja siguiente publicada");
+        Checks.equal("[2, 4, 5, 6]", feed.published().toString(), "la puja que llega tarde no se publica");
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("tiempo agotado: " + what);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pruebas de BidFrame: tramas que llegan partidas en varias lecturas, varias tramas en una misma
+ * lectura y longitudes no válidas.
+ */
+public class BidFrameTest {
+
+    /**
+     * Anota en una lista cada trama decodificada, en texto.
+     */
+    private static final class Recorder implements BidFrame.Handler {
+        private final List<String> frames = new ArrayList<>();
+
+        @Override
+        public void onBid(int auctionId, int bidderId, int price, long clientTime) {
+            frames.add("bid " + auctionId + " " + bidderId + " " + price + " " + clientTime);
+        }
+
+        @Override
+        public void onBidRequest(int correlationId, int auctionId, int bidderId, int price, long clientTime) {
+            frames.add("request " + correlationId + " " + auctionId + " " + bidderId + " " + price + " " + clientTime);
+        }
+
+        @Override
+        public void onBidAck(int correlationId, int auctionId, byte result, int sequence, int price) {
+            frames.add("ack " + correlationId + " " + auctionId + " " + result + " " + sequence + " " + price);
+        }
+
+        @Override
+        public void onExit() {
+            frames.add("exit");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        partialFramesWaitForTheRest();
+        framesSplitAtEveryPosition();
+        invalidLengthsAreRejected();
+        System.out.println("BidFrameTest: pruebas correctas");
+    }
+
+    /**
+     * Entrega las tramas byte a byte: decode no consume nada hasta que la trama está completa.
+     */
+    private static void partialFramesWaitForTheRest() throws IOException {
+        ByteBuffer frames = encodeFrames();
+        int[] ends = frameEnds(frames);
+        ByteBuffer in = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+        Recorder recorder = new Recorder();
+        int fed = 0;
+        while (frames.hasRemaining()) {
+            in.put(frames.get());
+            fed++;
+            in.flip();
+            while (BidFrame.decode(in, recorder)) {
+                // Consume todas las tramas completas
+            }
+            in.compact();
+            int complete = 0;
+            while (complete < ends.length && ends[complete] <= fed)
+                complete++;
+            Checks.equal(complete, recorder.frames.size(), "tramas decodificadas tras " + fed + " bytes");
+        }
+        checkFrames(recorder);
+    }
+
+    /**
+     * Parte las tramas en dos lecturas por cada posición posible.
+     */
+    private static void framesSplitAtEveryPosition() throws IOException {
+        ByteBuffer frames = encodeFrames();
+        for (int split = 0; split <= frames.limit(); split++) {
+            ByteBuffer in = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+            Recorder recorder = new Recorder();
+            ByteBuffer first = frames.duplicate();
+            first.limit(split);
+            ByteBuffer second = frames.duplicate();
+            second.position(split);
+            for (ByteBuffer read : new ByteBuffer[] {first, second}) {
+                in.put(read);
+                in.flip();
+                while (BidFrame.decode(in, recorder)) {
+                    // Consume todas las tramas completas
+                }
+                in.compact();
+            }
+            Checks.equal(0, in.position(), "bytes sin consumir con el corte en " + split);
+            checkFrames(recorder);
+        }
+    }
+
+    /**
+     * Una longitud demasiado corta o mayor que MAX_FRAME_SIZE cierra la conexión con IOException.
+     */
+    private static void invalidLengthsAreRejected() {
+        for (int length : new int[] {0, 1, -5, BidFrame.MAX_FRAME_SIZE}) {
+            ByteBuffer in = ByteBuffer.allocate(8);
+            in.putInt(length).putInt(0);
+            in.flip();
+            try {
+                BidFrame.decode(in, new Recorder());
+                throw new AssertionError("la longitud " + length + " debería rechazarse");
+            } catch (IOException e) {
+                // Esperado
+            }
+        }
+    }
+
+    private static ByteBuffer encodeFrames() {
+        ByteBuffer out = ByteBuffer.allocate(BidFrame.MAX_FRAME_SIZE);
+        BidFrame.encodeBid(out, 3, 42, 120, 1234567890000L);
+        BidFrame.encodeBidRequest(out, 7, 1, 42, 150, 1234567890123L);
+        BidFrame.encodeBidAck(out, 7, 1, BidFrame.OUTBID, 9, 160);
+        BidFrame.encodeExit(out);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Calcula dónde termina cada trama del búfer.
+     */
+    private static int[] frameEnds(ByteBuffer frames) throws IOException {
+        ByteBuffer in = frames.duplicate();
+        List<Integer> ends = new ArrayList<>();
+        while (in.hasRemaining()) {
+            in.position(in.position() + BidFrame.frameSize(in));
+            ends.add(in.position());
+        }
+        int[] result = new int[ends.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ends.get(i);
+        return result;
+    }
+
+    private static void checkFrames(Recorder recorder) {
+        Checks.equal(4, recorder.frames.size(), "tramas decodificadas");
+        Checks.equal("bid 3 42 120 1234567890000", recorder.frames.get(0), "puja");
+        Checks.equal("request 7 1 42 150 1234567890123", recorder.frames.get(1), "petición de puja");
+        Checks.equal("ack 7 1 " + BidFrame.OUTBID + " 9 160", recorder.frames.get(2), "confirmación de puja");
+        Checks.equal("exit", recorder.frames.get(3), "salida");
+    }
+}
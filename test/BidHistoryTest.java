@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Pruebas de BidHistory: lectura de lo escrito en el heap y fuera de él a través de varios bloques,
+ * escritura concurrente en posiciones distintas y que una puja que falla antes de publicarse no deje
+ * una posición asignada sin escribir.
+ */
+public class BidHistoryTest {
+
+    public static void main(String[] args) throws Exception {
+        roundTripAcrossChunks(false);
+        roundTripAcrossChunks(true);
+        concurrentWritersAtDistinctPositions();
+        failedBidLeavesNoHole();
+        System.out.println("BidHistoryTest: pruebas correctas");
+    }
+
+    private static void roundTripAcrossChunks(boolean offHeap) {
+        BidderDirectory bidders = new BidderDirectory();
+        BidHistory history = new BidHistory(7, bidders, offHeap);
+        int count = 5000;
+        for (int i = 0; i < count; i++)
+            history.set(i, bid("pujador" + (i % 13), 10 + i, 1000L * i));
+        Checks.equal(offHeap, history.isOffHeap(), "historial fuera del heap");
+        Checks.equal(13, bidders.size(), "pujadores registrados");
+        List<AuctionItem> out = new ArrayList<>();
+        history.copy(0, count, out);
+        for (int i = 0; i < count; i++) {
+            AuctionItem bid = out.get(i);
+            Checks.equal("pujador" + (i % 13), bid.getUsername(), "pujador de la posición " + i);
+            Checks.equal(10 + i, bid.getPrice(), "precio de la posición " + i);
+            Checks.equal(1000L * i, bid.getTime(), "instante de la posición " + i);
+            Checks.equal(7, bid.getAuctionId(), "lote de la posición " + i);
+        }
+    }
+
+    /**
+     * Varios hilos escriben posiciones intercaladas, creando los bloques a la vez.
+     */
+    private static void concurrentWritersAtDistinctPositions() throws InterruptedException {
+        BidHistory history = new BidHistory(1, new BidderDirectory(), false);
+        int threads = 4;
+        int perThread = 20000;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread writer = new Thread(() -> {
+                for (int i = first; i < threads * perThread; i += threads)
+                    history.set(i, bid("h" + first, i, i));
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers)
+            writer.join();
+        for (int i = 0; i < threads * perThread; i++) {
+            Checks.equal(i, history.getPrice(i), "precio de la posición " + i);
+            Checks.equal("h" + (i % threads), history.nameOf(history.getBidderId(i)), "pujador de la posición " + i);
+        }
+    }
+
+    /**
+     * Una puja sin nombre ni identificador falla al registrar al pujador. El fallo debe llegar antes
+     * del compare-and-set: el motor sigue igual y leer el historial no se queda esperando una posición
+     * que nadie va a escribir.
+     */
+    private static void failedBidLeavesNoHole() throws InterruptedException {
+        BidEngine engine = new BidEngine(new AuctionItem(1, "salida", 10));
+        Checks.equal(2, engine.submit(bid("ana", 20, 1)), "primera puja");
+        try {
+            engine.submit(new AuctionItem(1, null, 30));
+            throw new AssertionError("una puja sin pujador debería fallar");
+        } catch (NullPointerException e) {
+            // Esperado
+        }
+        Checks.equal(2, engine.size(), "pujas tras el fallo");
+        Checks.equal("ana", engine.getBest().getUsername(), "ganadora tras el fallo");
+
+        AtomicReference<List<AuctionItem>> read = new AtomicReference<>();
+        Thread reader = new Thread(() -> read.set(engine.getHistory()));
+        reader.setDaemon(true);
+        reader.start();
+        reader.join(2000);
+        Checks.check(read.get() != null, "la lectura del historial se ha quedado esperando una posición sin escribir");
+        Checks.equal(2, read.get().size(), "pujas leídas");
+
+        Checks.equal(3, engine.submit(bid("bea", 30, 2)), "puja tras el fallo");
+        Checks.equal(3, engine.getHistory().size(), "historial tras el fallo");
+    }
+
+    private static AuctionItem bid(String username, int price, long time) {
+        AuctionItem bid = new AuctionItem(1, username, price);
+        bid.setTime(time);
+        return bid;
+    }
+}
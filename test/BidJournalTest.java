@@ -0,0 +1,204 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pruebas de BidJournal: reproducción con registros escritos a medias o dañados, checkpoint al
+ * arrancar y corte de los textos largos.
+ */
+public class BidJournalTest {
+
+    /**
+     * Anota en una lista cada registro reproducido, en texto.
+     */
+    private static final class Recorder implements BidJournal.Listener {
+        private final List<String> records = new ArrayList<>();
+
+        public void onLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+            records.add("lot " + auctionId + " " + name + " " + format.getName());
+        }
+
+        public void onBid(int auctionId, int sequence, int price, long time, String username) {
+            records.add("bid " + auctionId + " " + sequence + " " + price + " " + username);
+        }
+
+        public void onSealed(int auctionId, int price, long time, String username) {
+            records.add("sealed " + auctionId + " " + price + " " + username);
+        }
+
+        public void onDeadline(int auctionId, long deadline) {
+            records.add("deadline " + auctionId);
+        }
+
+        public void onClose(int auctionId) {
+            records.add("close " + auctionId);
+        }
+
+        public void onLastLot(int auctionId) {
+            records.add("last " + auctionId);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        tornRecordEndsReplay();
+        corruptRecordDiscardsRestOfSegment();
+        checkpointReplacesOldSegments();
+        longNamesAreCutOnCharacterBoundary();
+        System.out.println("BidJournalTest: pruebas correctas");
+    }
+
+    /**
+     * Un registro cuya cabecera llegó al disco pero su contenido no, como tras una caída a mitad de
+     * escritura, se descarta sin perder los anteriores.
+     */
+    private static void tornRecordEndsReplay() throws IOException {
+        File directory = Files.createTempDirectory("journal-test").toFile();
+        try {
+            writeLotWithBids(directory, 3);
+            File segment = onlySegment(directory);
+            try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+                long end = endOfRecords(raf);
+                raf.seek(end);
+                raf.writeInt(40);
+                raf.writeInt(0x12345678);
+                raf.write(new byte[] {2, 0, 0});
+            }
+            Recorder recorder = new Recorder();
+            long records = new BidJournal(directory).replay(recorder);
+            Checks.equal(5L, records, "registros reproducidos");
+            Checks.equal("bid 1 4 40 ana", recorder.records.get(4), "último registro reproducido");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Un byte cambiado en medio del segmento hace que se descarte ese registro y los siguientes del
+     * segmento, nunca que se reproduzca un registro distinto del escrito.
+     */
+    private static void corruptRecordDiscardsRestOfSegment() throws IOException {
+        File directory = Files.createTempDirectory("journal-test").toFile();
+        try {
+            writeLotWithBids(directory, 3);
+            File segment = onlySegment(directory);
+            try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+                // Salta el registro LAST_LOT, el del lote y la primera puja, y cambia el precio de la segunda
+                long offset = 0;
+                for (int i = 0; i < 3; i++) {
+                    raf.seek(offset);
+                    offset += 8 + raf.readInt();
+                }
+                raf.seek(offset + 8 + 1 + 4 + 4);
+                raf.writeInt(999);
+            }
+            Recorder recorder = new Recorder();
+            long records = new BidJournal(directory).replay(recorder);
+            Checks.equal(3L, records, "registros reproducidos");
+            Checks.equal("bid 1 2 20 ana", recorder.records.get(2), "último registro reproducido");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Al arrancar, el checkpoint deja un solo segmento con lo que escribe y conserva el mayor
+     * identificador de lote, aunque ese lote no esté en el checkpoint.
+     */
+    private static void checkpointReplacesOldSegments() throws IOException {
+        File directory = Files.createTempDirectory("journal-test").toFile();
+        try {
+            writeLotWithBids(directory, 2);
+            BidJournal journal = new BidJournal(directory);
+            journal.replay(new Recorder());
+            Auction second = newAuction(2, new SealedBidFormat(2));
+            journal.start(checkpoint -> {
+                checkpoint.appendLot(second);
+                checkpoint.appendSealed(new AuctionItem(2, "bea", 15));
+            });
+            journal.flush();
+            String[] files = directory.list();
+            Checks.equal(1, files.length, "segmentos tras el checkpoint");
+
+            Recorder recorder = new Recorder();
+            new BidJournal(directory).replay(recorder);
+            Checks.equal("last 1", recorder.records.get(0), "mayor lote anotado antes del checkpoint");
+            Checks.equal("lot 2 Lote 2 sobre cerrado, 2 ganadores", recorder.records.get(1), "lote del checkpoint");
+            Checks.equal("sealed 2 15 bea", recorder.records.get(2), "puja en sobre cerrado del checkpoint");
+            Checks.equal(3, recorder.records.size(), "registros del checkpoint");
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Un nombre de más de 512 bytes se corta sin partir un carácter de dos bytes.
+     */
+    private static void longNamesAreCutOnCharacterBoundary() throws IOException {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            name.append('x').append('é');
+        ByteBuffer out = ByteBuffer.allocate(BidJournal.MAX_RECORD_SIZE);
+        BidJournal.encodeBid(out, 1, 2, 10, 0, name.toString());
+        out.flip();
+        Recorder recorder = new Recorder();
+        BidJournal.decode(out, recorder);
+        String decoded = recorder.records.get(0).substring("bid 1 2 10 ".length());
+        Checks.equal(511, decoded.getBytes(StandardCharsets.UTF_8).length, "bytes del nombre cortado");
+        Checks.check(name.toString().startsWith(decoded), "el nombre cortado debe ser un prefijo del original");
+    }
+
+    /**
+     * Escribe un lote inglés con pujas de ana a 20, 30, 40... y vuelca el diario.
+     */
+    private static void writeLotWithBids(File directory, int bids) throws IOException {
+        BidJournal journal = new BidJournal(directory);
+        journal.replay(new Recorder());
+        journal.start(checkpoint -> { });
+        journal.appendLot(newAuction(1, new EnglishFormat()));
+        for (int i = 0; i < bids; i++)
+            journal.appendBid(new AuctionItem(1, "ana", 20 + 10 * i), i + 2);
+        journal.flush();
+    }
+
+    private static Auction newAuction(int id, AuctionFormat format) {
+        Auction auction = new Auction(new Product(id, "Lote " + id, "Descripción", 10, new BidderDirectory(), false));
+        auction.setFormat(format);
+        auction.start(System.currentTimeMillis(), 60000);
+        return auction;
+    }
+
+    private static File onlySegment(File directory) {
+        File[] files = directory.listFiles();
+        Checks.equal(1, files.length, "segmentos");
+        return files[0];
+    }
+
+    /**
+     * Busca el final de los registros del segmento: la primera cabecera con longitud 0.
+     */
+    private static long endOfRecords(RandomAccessFile raf) throws IOException {
+        long offset = 0;
+        while (true) {
+            raf.seek(offset);
+            int length = raf.readInt();
+            if (length == 0)
+                return offset;
+            offset += 8 + length;
+        }
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                file.delete();
+        }
+        directory.delete();
+    }
+}
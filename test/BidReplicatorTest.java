@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Pruebas de BidReplicator: instantánea y después los registros en orden, nueva instantánea cuando el
+ * seguidor la pide, y desconexión de los seguidores que se quedan atrás para que el líder no retenga
+ * memoria sin límite.
+ */
+public class BidReplicatorTest {
+
+    /**
+     * Seguidor que anota en texto los registros recibidos.
+     */
+    private static class Recorder implements BidReplicator.Follower {
+        final List<String> records = new ArrayList<>();
+        volatile int resyncAfter = -1;
+
+        public synchronized boolean takeResync() {
+            if (records.size() != resyncAfter)
+                return false;
+            resyncAfter = -1;
+            return true;
+        }
+
+        public void onLot(int auctionId, String name, String description, int initialPrice, long deadline, AuctionFormat format) {
+            add("lot " + auctionId);
+        }
+
+        public void onBid(int auctionId, int sequence, int price, long time, String username) {
+            add("bid " + auctionId + " " + sequence);
+        }
+
+        public void onSealed(int auctionId, int price, long time, String username) {
+            add("sealed " + auctionId + " " + username);
+        }
+
+        public void onDeadline(int auctionId, long deadline) {
+            add("deadline " + auctionId);
+        }
+
+        public void onClose(int auctionId) {
+            add("close " + auctionId);
+        }
+
+        public void onLastLot(int auctionId) {
+            add("last " + auctionId);
+        }
+
+        synchronized void add(String record) {
+            records.add(record);
+        }
+
+        synchronized int size() {
+            return records.size();
+        }
+
+        synchronized String get(int index) {
+            return records.get(index);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        snapshotThenRecordsInOrder();
+        resyncRequestsNewSnapshot();
+        followerThatStopsReadingIsDropped();
+        slowFollowerCatchesUpWithSnapshot();
+        System.out.println("BidReplicatorTest: pruebas correctas");
+    }
+
+    /**
+     * La instantánea llega primero y después todo lo anotado desde la conexión, en el orden en que se
+     * anotó.
+     */
+    private static void snapshotThenRecordsInOrder() throws Exception {
+        AtomicInteger snapshots = new AtomicInteger();
+        BidReplicator replicator = new BidReplicator(out -> {
+            snapshots.incrementAndGet();
+            out.bid(new AuctionItem(1, "ana", 20), 2);
+            out.close(99);
+        });
+        int port = listen(replicator);
+        Recorder recorder = new Recorder();
+        follow(port, recorder);
+        await(() -> recorder.size() == 2, "instantánea recibida");
+        Checks.equal("bid 1 2", recorder.get(0), "primer registro de la instantánea");
+        Checks.equal("close 99", recorder.get(1), "último registro de la instantánea");
+
+        for (int sequence = 3; sequence < 20000; sequence++)
+            replicator.appendBid(new AuctionItem(1, "ana", sequence * 10), sequence);
+        replicator.appendClose(1);
+        await(() -> recorder.size() == 2 + 19997 + 1, "registros del flujo recibidos");
+        for (int i = 2; i < recorder.size() - 1; i++)
+            Checks.equal("bid 1 " + (i + 1), recorder.get(i), "registro " + i + " del flujo");
+        Checks.equal("close 1", recorder.get(recorder.size() - 1), "último registro del flujo");
+        Checks.equal(1, snapshots.get(), "instantáneas enviadas");
+    }
+
+    /**
+     * Un seguidor que pide una instantánea nueva se vuelve a conectar y la recibe antes que los
+     * registros siguientes.
+     */
+    private static void resyncRequestsNewSnapshot() throws Exception {
+        AtomicInteger snapshots = new AtomicInteger();
+        BidReplicator replicator = new BidReplicator(out -> {
+            snapshots.incrementAndGet();
+            out.close(99);
+        });
+        int port = listen(replicator);
+        Recorder recorder = new Recorder();
+        recorder.resyncAfter = 3;
+        follow(port, recorder);
+        await(() -> recorder.size() == 1, "primera instantánea");
+        replicator.appendBid(new AuctionItem(1, "ana", 20), 2);
+        replicator.appendBid(new AuctionItem(1, "ana", 30), 3);
+        await(() -> snapshots.get() == 2 && recorder.size() == 4, "segunda instantánea");
+        Checks.equal("close 99", recorder.get(3), "la instantánea nueva llega tras la petición");
+        replicator.appendBid(new AuctionItem(1, "ana", 40), 4);
+        await(() -> recorder.size() == 5, "registro tras la instantánea nueva");
+        Checks.equal("bid 1 4", recorder.get(4), "registro tras la instantánea nueva");
+    }
+
+    /**
+     * Un seguidor que deja de leer sin cerrar la conexión bloquea la escritura de su hilo de envío;
+     * cuando se queda más de MAX_LAG_CHUNKS bloques atrás, el líder cierra la conexión.
+     */
+    private static void followerThatStopsReadingIsDropped() throws Exception {
+        BidReplicator replicator = new BidReplicator(out -> { });
+        int port = listen(replicator);
+        try (Socket stalled = new Socket("localhost", port)) {
+            stalled.setReceiveBufferSize(4096);
+            await(() -> replicator.getFollowerCount() == 1, "seguidor conectado");
+            long appended = appendUntilDropped(replicator);
+            Checks.check(appended < (BidReplicator.MAX_LAG_CHUNKS + 16) << 20,
+                    "el seguidor debería desconectarse tras unos " + BidReplicator.MAX_LAG_CHUNKS + " MiB, no " + (appended >> 20) + " MiB");
+        }
+    }
+
+    /**
+     * Un seguidor que se queda atrás y se desconecta vuelve a conectarse y se pone al día con una
+     * instantánea nueva en lugar de dar por caído al líder.
+     */
+    private static void slowFollowerCatchesUpWithSnapshot() throws Exception {
+        AtomicInteger snapshots = new AtomicInteger();
+        BidReplicator replicator = new BidReplicator(out -> {
+            snapshots.incrementAndGet();
+            out.close(99);
+        });
+        int port = listen(replicator);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void onBid(int auctionId, int sequence, int price, long time, String username) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        follow(port, recorder);
+        await(() -> recorder.size() == 1, "primera instantánea");
+        appendUntilDropped(replicator);
+        release.countDown();
+        await(() -> snapshots.get() == 2 && replicator.getFollowerCount() == 1, "el seguidor debería volver a conectarse");
+        await(() -> recorder.size() >= 2 && "close 99".equals(recorder.get(recorder.size() - 1)), "instantánea nueva recibida");
+    }
+
+    /**
+     * Anota pujas hasta que el replicador desconecta a todos sus seguidores.
+     *
+     * @return Bytes anotados
+     */
+    private static long appendUntilDropped(BidReplicator replicator) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            name.append('x');
+        AuctionItem bid = new AuctionItem(1, name.toString(), 10);
+        long appended = 0;
+        int sequence = 2;
+        while (replicator.getFollowerCount() > 0) {
+            Checks.check(appended < 256L << 20, "el seguidor retrasado no se ha desconectado");
+            replicator.appendBid(bid, sequence++);
+            appended += 230;
+        }
+        return appended;
+    }
+
+    private static int listen(BidReplicator replicator) throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        replicator.listen(port);
+        return port;
+    }
+
+    private static void follow(int port, BidReplicator.Follower follower) {
+        Thread thread = new Thread(() -> BidReplicator.follow("localhost", port, follower), "follower-" + port);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("tiempo agotado: " + what);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Pruebas de BidSequencer: las solicitudes de cada productor se aplican en el orden en que se
+ * publicaron aunque el anillo se llene, y una excepción al aplicar o al contestar una solicitud se
+ * contesta con ERROR sin detener el hilo.
+ */
+public class BidSequencerTest {
+
+    public static void main(String[] args) throws Exception {
+        producersKeepTheirOrder();
+        failureAnswersErrorAndKeepsRunning();
+        failingCompletionDoesNotStopTheThread();
+        System.out.println("BidSequencerTest: pruebas correctas");
+    }
+
+    /**
+     * Cuatro productores publican en un anillo pequeño; cada uno ve aplicadas sus solicitudes en orden
+     * y todas reciben su resultado.
+     */
+    private static void producersKeepTheirOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 50000;
+        // Sólo el hilo del secuenciador escribe aquí
+        int[] lastPrice = new int[producers];
+        AtomicInteger outOfOrder = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        BidSequencer sequencer = new BidSequencer(64, (kind, auctionId, bidderId, price) -> {
+            if (price != lastPrice[bidderId] + 1)
+                outOfOrder.incrementAndGet();
+            lastPrice[bidderId] = price;
+            return BidFrame.ACCEPTED;
+        }, new AsyncLogger(100));
+        sequencer.start("sequencer-test");
+        BidSequencer.Completion completion = (correlationId, auctionId, result) -> {
+            if (result == BidFrame.ACCEPTED)
+                completed.incrementAndGet();
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int bidderId = p;
+            Thread producer = new Thread(() -> {
+                for (int price = 1; price <= perProducer; price++)
+                    sequencer.publish(BidSequencer.BID, price, 1, bidderId, price, completion);
+            });
+            producer.start();
+            threads.add(producer);
+        }
+        for (Thread producer : threads)
+            producer.join();
+        await(() -> completed.get() == producers * perProducer, "todas las solicitudes contestadas");
+        await(() -> sequencer.getApplied() == producers * perProducer, "todas las solicitudes aplicadas");
+        Checks.equal(0, outOfOrder.get(), "solicitudes aplicadas fuera del orden de su productor");
+        Checks.equal(0, sequencer.getBacklog(), "solicitudes pendientes");
+        Checks.equal(0L, sequencer.getFailures(), "solicitudes fallidas");
+    }
+
+    /**
+     * Una solicitud cuyo Processor lanza una excepción se contesta con ERROR, se cuenta como fallida y
+     * las siguientes se aplican con normalidad.
+     */
+    private static void failureAnswersErrorAndKeepsRunning() {
+        BidSequencer sequencer = new BidSequencer(8, (kind, auctionId, bidderId, price) -> {
+            if (price == 13)
+                throw new IllegalStateException("fallo antes de aceptar la puja");
+            return kind == BidSequencer.PROXY ? BidFrame.OUTBID : BidFrame.ACCEPTED;
+        }, new AsyncLogger(100));
+        sequencer.start("sequencer-test");
+        BidSequencer.Waiter waiter = new BidSequencer.Waiter();
+
+        Checks.equal(BidFrame.ACCEPTED, request(sequencer, waiter, BidSequencer.BID, 12), "puja antes del fallo");
+        Checks.equal(BidFrame.ERROR, request(sequencer, waiter, BidSequencer.BID, 13), "puja que falla");
+        Checks.equal(1L, sequencer.getFailures(), "solicitudes fallidas");
+        Checks.equal(BidFrame.ACCEPTED, request(sequencer, waiter, BidSequencer.BID, 14), "puja tras el fallo");
+        Checks.equal(BidFrame.OUTBID, request(sequencer, waiter, BidSequencer.PROXY, 15), "puja máxima tras el fallo");
+        Checks.equal(1L, sequencer.getFailures(), "solicitudes fallidas al final");
+    }
+
+    /**
+     * Una Completion que lanza una excepción se cuenta como fallo, pero no impide contestar las demás.
+     */
+    private static void failingCompletionDoesNotStopTheThread() {
+        BidSequencer sequencer = new BidSequencer(8, (kind, auctionId, bidderId, price) -> BidFrame.ACCEPTED, new AsyncLogger(100));
+        sequencer.start("sequencer-test");
+        sequencer.publish(BidSequencer.BID, 1, 1, 1, 10, (correlationId, auctionId, result) -> {
+            throw new IllegalStateException("conexión cerrada");
+        });
+        BidSequencer.Waiter waiter = new BidSequencer.Waiter();
+        Checks.equal(BidFrame.ACCEPTED, request(sequencer, waiter, BidSequencer.BID, 20), "puja tras la respuesta fallida");
+        Checks.equal(1L, sequencer.getFailures(), "respuestas fallidas");
+    }
+
+    private static byte request(BidSequencer sequencer, BidSequencer.Waiter waiter, int kind, int price) {
+        waiter.reset();
+        sequencer.publish(kind, price, 1, 1, price, waiter);
+        return waiter.await();
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("tiempo agotado: " + what);
+            Thread.sleep(5);
+        }
+    }
+}
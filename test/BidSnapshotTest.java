@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Pruebas de BidSnapshot: una respuesta de varios trozos comprimidos se reúne igual aunque los
+ * trozos lleguen desordenados o repetidos.
+ */
+public class BidSnapshotTest {
+
+    /**
+     * Guarda las respuestas completas que entrega el Assembler.
+     */
+    private static final class Recorder implements BidSnapshot.Listener {
+        private final List<List<AuctionItem>> responses = new ArrayList<>();
+        private final List<String> headers = new ArrayList<>();
+
+        @Override
+        public void onHistory(int auctionId, int from, int version, List<AuctionItem> bids) {
+            responses.add(bids);
+            headers.add(auctionId + " " + from + " " + version);
+        }
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(17);
+        BidHistory history = new BidHistory(1, new BidderDirectory(), false);
+        int count = BidSnapshot.MAX_BIDS - 96;
+        List<AuctionItem> bids = new ArrayList<>();
+        int price = 10;
+        long time = 1_700_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            price += 1 + random.nextInt(50);
+            time += random.nextInt(5000);
+            AuctionItem bid = new AuctionItem(1, "pujador" + random.nextInt(300), price);
+            bid.setTime(time);
+            history.set(i, bid);
+            bids.add(bid);
+        }
+
+        shuffledChunksAreReassembled(history, bids, random);
+        duplicatedChunksAreIgnored(history, bids);
+        newerResponseReplacesPartialOne(history, bids);
+        System.out.println("BidSnapshotTest: pruebas correctas");
+    }
+
+    private static void shuffledChunksAreReassembled(BidHistory history, List<AuctionItem> bids, Random random) {
+        byte[][] chunks = BidSnapshot.encode(1, history, 0, bids.size());
+        Checks.check(chunks.length > 2, "la respuesta debería ocupar varios datagramas, ocupa " + chunks.length);
+        Checks.equal(BidSnapshot.DEFLATED, chunks[0][BidSnapshot.HEADER_SIZE - 1], "compresión de la respuesta");
+        List<byte[]> shuffled = new ArrayList<>();
+        Collections.addAll(shuffled, chunks);
+        Collections.shuffle(shuffled, random);
+        Recorder recorder = new Recorder();
+        BidSnapshot.Assembler assembler = new BidSnapshot.Assembler(recorder);
+        for (int i = 0; i < shuffled.size(); i++) {
+            Checks.equal(0, recorder.responses.size(), "respuestas entregadas antes del último trozo");
+            assembler.accept(shuffled.get(i), shuffled.get(i).length);
+        }
+        Checks.equal(1, recorder.responses.size(), "respuestas entregadas");
+        Checks.equal("1 0 " + bids.size(), recorder.headers.get(0), "lote, versión de partida y versión");
+        checkBids(bids, 0, recorder.responses.get(0));
+    }
+
+    /**
+     * Un trozo repetido no cuenta dos veces: la respuesta sólo se entrega con todos los trozos.
+     */
+    private static void duplicatedChunksAreIgnored(BidHistory history, List<AuctionItem> bids) {
+        int from = 100;
+        byte[][] chunks = BidSnapshot.encode(1, history, from, bids.size());
+        Recorder recorder = new Recorder();
+        BidSnapshot.Assembler assembler = new BidSnapshot.Assembler(recorder);
+        for (int i = chunks.length - 1; i > 0; i--) {
+            assembler.accept(chunks[i], chunks[i].length);
+            assembler.accept(chunks[i], chunks[i].length);
+        }
+        Checks.equal(0, recorder.responses.size(), "respuestas entregadas sin el primer trozo");
+        assembler.accept(chunks[0], chunks[0].length);
+        Checks.equal(1, recorder.responses.size(), "respuestas entregadas");
+        checkBids(bids, from, recorder.responses.get(0));
+    }
+
+    /**
+     * Los trozos de una respuesta más reciente descartan la que estaba a medias.
+     */
+    private static void newerResponseReplacesPartialOne(BidHistory history, List<AuctionItem> bids) {
+        byte[][] older = BidSnapshot.encode(1, history, 0, bids.size() - 1);
+        byte[][] newer = BidSnapshot.encode(1, history, 0, bids.size());
+        Recorder recorder = new Recorder();
+        BidSnapshot.Assembler assembler = new BidSnapshot.Assembler(recorder);
+        for (int i = 0; i < older.length - 1; i++)
+            assembler.accept(older[i], older[i].length);
+        for (byte[] chunk : newer)
+            assembler.accept(chunk, chunk.length);
+        // El último trozo de la respuesta anterior llega tarde y no debe mezclarse con la nueva
+        assembler.accept(older[older.length - 1], older[older.length - 1].length);
+        Checks.equal(1, recorder.responses.size(), "respuestas entregadas");
+        Checks.equal("1 0 " + bids.size(), recorder.headers.get(0), "versión entregada");
+        checkBids(bids, 0, recorder.responses.get(0));
+    }
+
+    private static void checkBids(List<AuctionItem> expected, int from, List<AuctionItem> actual) {
+        Checks.equal(expected.size() - from, actual.size(), "pujas recibidas");
+        for (int i = 0; i < actual.size(); i++) {
+            AuctionItem want = expected.get(from + i);
+            AuctionItem got = actual.get(i);
+            String what = "puja " + (from + i + 1);
+            Checks.equal(want.getUsername(), got.getUsername(), what);
+            Checks.equal(want.getPrice(), got.getPrice(), what);
+            Checks.equal(want.getTime(), got.getTime(), what);
+            Checks.equal(1, got.getAuctionId(), what);
+        }
+    }
+}
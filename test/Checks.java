@@ -0,0 +1,22 @@
+import java.util.Objects;
+
+
+/**
+ * Checks reúne las comprobaciones de las pruebas de comportamiento. Las pruebas no usan ninguna
+ * biblioteca: cada una es una clase con main que termina con un AssertionError en cuanto algo falla.
+ */
+final class Checks {
+
+    private Checks() {
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+
+    static void equal(Object expected, Object actual, String what) {
+        if (!Objects.equals(expected, actual))
+            throw new AssertionError(what + ": se esperaba " + expected + " y se ha obtenido " + actual);
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Pruebas de DeadlineScheduler: tareas en los tres primeros niveles de la rueda, que bajan de nivel
+ * al acercarse su vencimiento, y cancelación.
+ */
+public class DeadlineSchedulerTest {
+
+    // Retraso máximo admitido sobre el vencimiento, holgado para máquinas cargadas
+    private static final long TOLERANCE = 200;
+
+    public static void main(String[] args) throws Exception {
+        DeadlineScheduler scheduler = new DeadlineScheduler();
+        scheduler.start();
+
+        long now = System.currentTimeMillis();
+        // Primer nivel (menos de 64 ms), segundo (hasta 4096 ms) y tercero
+        long[] delays = {5, 40, 300, 2500, 4500};
+        long[] ranAt = new long[delays.length];
+        List<Integer> order = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(delays.length);
+        // Se programan en orden inverso para que el orden de ejecución no dependa del de llegada
+        for (int i = delays.length - 1; i >= 0; i--) {
+            int task = i;
+            scheduler.schedule(now + delays[i], () -> {
+                ranAt[task] = System.currentTimeMillis();
+                synchronized (order) {
+                    order.add(task);
+                }
+                done.countDown();
+            });
+        }
+        boolean[] cancelledRan = new boolean[2];
+        DeadlineScheduler.Timeout near = scheduler.schedule(now + 20, () -> cancelledRan[0] = true);
+        DeadlineScheduler.Timeout far = scheduler.schedule(now + 3000, () -> cancelledRan[1] = true);
+        Checks.check(scheduler.cancel(near), "la tarea cercana debería poder cancelarse");
+        Checks.check(scheduler.cancel(far), "la tarea lejana debería poder cancelarse");
+
+        boolean[] pastRan = new boolean[1];
+        CountDownLatch past = new CountDownLatch(1);
+        scheduler.schedule(now - 1000, () -> {
+            pastRan[0] = true;
+            past.countDown();
+        });
+        Checks.check(past.await(TOLERANCE, TimeUnit.MILLISECONDS), "una tarea vencida debería ejecutarse enseguida");
+
+        Checks.check(done.await(delays[delays.length - 1] + 5000, TimeUnit.MILLISECONDS), "no se han ejecutado todas las tareas");
+        for (int i = 0; i < delays.length; i++) {
+            long late = ranAt[i] - (now + delays[i]);
+            Checks.check(late >= 0, "la tarea a " + delays[i] + " ms se ha ejecutado " + (-late) + " ms antes de tiempo");
+            Checks.check(late <= TOLERANCE, "la tarea a " + delays[i] + " ms se ha ejecutado con " + late + " ms de retraso");
+        }
+        synchronized (order) {
+            for (int i = 0; i < order.size(); i++)
+                Checks.equal(i, order.get(i), "orden de ejecución");
+        }
+        Thread.sleep(100);
+        Checks.check(!cancelledRan[0] && !cancelledRan[1], "una tarea cancelada se ha ejecutado");
+        Checks.check(pastRan[0], "la tarea vencida no se ha ejecutado");
+        System.out.println("DeadlineSchedulerTest: pruebas correctas");
+    }
+}
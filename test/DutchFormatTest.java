@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pruebas de DutchFormat: bajada del precio por escalones, venta a la primera puja que acepta el
+ * precio del reloj, un solo comprador aunque pujen varios a la vez y lote vendido al reproducir la
+ * venta o al cerrarse durante ella.
+ */
+public class DutchFormatTest {
+
+    private static final long OPENED_AT = 1000;
+
+    public static void main(String[] args) throws Exception {
+        priceDropsByStepsAboveTheFloor();
+        firstBidBuysAtTheClockPrice();
+        onlyOneOfConcurrentBuyersWins();
+        restoredSaleMarksTheLotSold();
+        closeBeforeTheSaleLeavesNoWinner();
+        System.out.println("DutchFormatTest: pruebas correctas");
+    }
+
+    private static void priceDropsByStepsAboveTheFloor() {
+        BidEngine bids = newEngine();
+        DutchFormat format = newFormat();
+        Checks.equal(100, format.getAskingPrice(bids, OPENED_AT), "precio al abrir");
+        Checks.equal(100, format.getAskingPrice(bids, OPENED_AT + DutchFormat.STEP - 1), "precio antes del primer escalón");
+        Checks.equal(80, format.getAskingPrice(bids, OPENED_AT + DutchFormat.STEP), "precio tras un escalón");
+        Checks.equal(20, format.getAskingPrice(bids, OPENED_AT + 4 * DutchFormat.STEP), "precio tras cuatro escalones");
+        Checks.equal(11, format.getAskingPrice(bids, OPENED_AT + 10 * DutchFormat.STEP), "precio mínimo");
+        format.open(OPENED_AT + 5000);
+        Checks.equal(OPENED_AT, format.getOpenedAt(), "sólo cuenta la primera apertura");
+    }
+
+    /**
+     * Una puja por debajo del reloj se rechaza; la primera que lo alcanza compra al precio del reloj
+     * aunque ofrezca más, y las siguientes se rechazan.
+     */
+    private static void firstBidBuysAtTheClockPrice() {
+        BidEngine bids = newEngine();
+        DutchFormat format = newFormat();
+        long now = OPENED_AT + DutchFormat.STEP + 500;
+        Checks.equal(0, format.submit(bids, bid("ana", 70, now)), "puja por debajo del reloj");
+        Checks.check(!format.isSettled(), "el lote no debería estar vendido");
+        Checks.equal(2, format.submit(bids, bid("bea", 90, now)), "compra");
+        Checks.check(format.isSettled(), "el lote debería estar vendido");
+        Checks.equal("bea", bids.getBest().getUsername(), "comprador");
+        Checks.equal(80, bids.getBest().getPrice(), "precio de la compra");
+        Checks.equal(80, format.getAskingPrice(bids, now + 10 * DutchFormat.STEP), "el precio no baja tras la venta");
+        Checks.equal(0, format.submit(bids, bid("carla", 200, now)), "puja tras la venta");
+
+        bids.close();
+        List<AuctionItem> winners = format.close(bids);
+        Checks.equal(1, winners.size(), "ganadores");
+        Checks.equal("bea", winners.get(0).getUsername(), "ganador");
+    }
+
+    private static void onlyOneOfConcurrentBuyersWins() throws InterruptedException {
+        BidEngine bids = newEngine();
+        DutchFormat format = newFormat();
+        AtomicInteger sold = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> buyers = new ArrayList<>();
+        for (int b = 0; b < 8; b++) {
+            String username = "comprador" + b;
+            Thread buyer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (format.submit(bids, bid(username, 100, OPENED_AT)) > 0)
+                    sold.incrementAndGet();
+            });
+            buyer.start();
+            buyers.add(buyer);
+        }
+        start.countDown();
+        for (Thread buyer : buyers)
+            buyer.join();
+        Checks.equal(1, sold.get(), "compras aceptadas");
+        Checks.equal(2, bids.size(), "pujas del historial");
+    }
+
+    /**
+     * Reproducir la venta del diario deja el lote vendido a ese precio.
+     */
+    private static void restoredSaleMarksTheLotSold() {
+        BidEngine bids = newEngine();
+        DutchFormat format = newFormat();
+        Checks.equal(2, format.restore(bids, bid("ana", 60, OPENED_AT)), "venta restaurada");
+        Checks.check(format.isSettled(), "el lote restaurado debería estar vendido");
+        Checks.equal(60, format.getAskingPrice(bids, OPENED_AT), "precio de la venta restaurada");
+        Checks.equal(0, format.submit(bids, bid("bea", 100, OPENED_AT)), "puja tras la venta restaurada");
+    }
+
+    /**
+     * Si el lote se cierra antes de que la venta entre en el motor, no hay venta ni ganador.
+     */
+    private static void closeBeforeTheSaleLeavesNoWinner() {
+        BidEngine bids = newEngine();
+        DutchFormat format = newFormat();
+        bids.close();
+        Checks.equal(0, format.submit(bids, bid("ana", 100, OPENED_AT)), "compra con el lote cerrado");
+        Checks.equal(1, bids.size(), "pujas del historial");
+        Checks.equal(0, format.close(bids).size(), "ganadores");
+    }
+
+    private static BidEngine newEngine() {
+        return new BidEngine(new AuctionItem(1, "salida", 10));
+    }
+
+    private static DutchFormat newFormat() {
+        DutchFormat format = new DutchFormat(100, 20);
+        format.open(OPENED_AT);
+        return format;
+    }
+
+    private static AuctionItem bid(String username, int price, long time) {
+        AuctionItem bid = new AuctionItem(1, username, price);
+        bid.setTime(time);
+        return bid;
+    }
+}
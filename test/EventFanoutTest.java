@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+
+/**
+ * Pruebas de EventFanout: las pujas de un mismo reparto dan un solo precio por lote, los usuarios
+ * superados reciben su aviso, el cierre sustituye al precio pendiente y una suscripción que no lee
+ * descarta los mensajes más antiguos.
+ */
+public class EventFanoutTest {
+
+    public static void main(String[] args) throws Exception {
+        coalescesPricePerLotAndWarnsOutbid();
+        closeReplacesPendingPrice();
+        slowSubscriptionDropsTheOldest();
+        System.out.println("EventFanoutTest: pruebas correctas");
+    }
+
+    /**
+     * Las pujas avisadas antes de arrancar el hilo se reparten juntas: un precio por lote y un aviso
+     * de puja superada para el usuario suscrito. Una suscripción cancelada ya no recibe nada.
+     */
+    private static void coalescesPricePerLotAndWarnsOutbid() throws InterruptedException {
+        EventFanout events = new EventFanout(new BidderDirectory());
+        EventFanout.Subscription ana = events.subscribe("ana", false, null);
+        EventFanout.Subscription anyone = events.subscribe(null, true, null);
+        events.bidAccepted(new AuctionItem(1, "ana", 20), 2);
+        events.bidAccepted(new AuctionItem(1, "bea", 30), 3);
+        events.bidAccepted(new AuctionItem(2, "dani", 50), 2);
+        events.bidAccepted(new AuctionItem(1, "carla", 40), 4);
+        events.start();
+
+        await(() -> ana.getDepth() == 3 && anyone.getDepth() == 2, "mensajes repartidos");
+        Checks.equal("[precio 1 4 40, precio 2 2 50, superada 1 4 40]", drain(ana), "mensajes de ana");
+        EventFanout.Event first = anyone.poll();
+        Checks.equal("Nueva puja en el lote 1: 40\u20ac (carla).", first.getText(), "texto del precio");
+        Checks.equal("[precio 2 2 50]", drain(anyone), "mensajes sin usuario");
+
+        events.unsubscribe(ana);
+        Checks.check(ana.take() == null, "una suscripción cancelada no debería esperar mensajes");
+        Checks.check(!events.getSubscriptions().contains(ana), "la suscripción cancelada sigue activa");
+        events.bidAccepted(new AuctionItem(1, "ana", 60), 5);
+        await(() -> anyone.getDepth() == 1, "precio tras cancelar la suscripción");
+        Checks.equal(0, ana.getDepth(), "mensajes de la suscripción cancelada");
+    }
+
+    /**
+     * El cierre de un lote descarta el precio que la conexión aún no ha leído.
+     */
+    private static void closeReplacesPendingPrice() throws InterruptedException {
+        EventFanout events = new EventFanout(new BidderDirectory());
+        EventFanout.Subscription subscription = events.subscribe("ana", false, null);
+        events.start();
+        Auction auction = new Auction(new Product(1, "Lote", "Descripción", 10, new BidderDirectory(), false));
+        auction.start(System.currentTimeMillis(), 60000);
+        AuctionItem bid = new AuctionItem(1, "ana", 20);
+        int sequence = auction.submit(bid);
+        events.bidAccepted(bid, sequence);
+        await(() -> subscription.getDepth() == 1, "precio pendiente");
+
+        auction.close();
+        events.auctionClosed(auction);
+        events.bidAccepted(new AuctionItem(2, "bea", 30), 2);
+        await(() -> subscription.getDepth() >= 2, "cierre repartido");
+        Checks.equal("[cierre 1 2 20, precio 2 2 30]", drain(subscription), "mensajes tras el cierre");
+    }
+
+    /**
+     * Una conexión que no lee guarda como mucho MAX_PENDING_EVENTS mensajes y cuenta los descartados.
+     */
+    private static void slowSubscriptionDropsTheOldest() throws InterruptedException {
+        EventFanout events = new EventFanout(new BidderDirectory());
+        EventFanout.Subscription subscription = events.subscribe(null, false, null);
+        for (int auctionId = 1; auctionId <= 300; auctionId++)
+            events.bidAccepted(new AuctionItem(auctionId, "ana", 20), 2);
+        events.start();
+        await(() -> subscription.getDropped() > 0, "mensajes descartados");
+        Checks.equal(256, subscription.getDepth(), "mensajes pendientes");
+        Checks.equal(44L, subscription.getDropped(), "mensajes descartados");
+        Checks.equal("precio 45 2 20", describe(subscription.poll()), "mensaje pendiente más antiguo");
+    }
+
+    private static String drain(EventFanout.Subscription subscription) {
+        List<String> out = new ArrayList<>();
+        EventFanout.Event event;
+        while ((event = subscription.poll()) != null)
+            out.add(describe(event));
+        return out.toString();
+    }
+
+    private static String describe(EventFanout.Event event) {
+        ByteBuffer in = ByteBuffer.wrap(event.getFrame());
+        in.position(BidFrame.HEADER_SIZE);
+        byte kind = in.get();
+        String name = kind == BidFrame.PRICE_CHANGED ? "precio" : kind == BidFrame.BID_OUTBID ? "superada" : "cierre";
+        return name + " " + in.getInt() + " " + in.getInt() + " " + in.getInt();
+    }
+
+    private static void await(BooleanSupplier condition, String what) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                throw new AssertionError("tiempo agotado: " + what);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pruebas de LatencyHistogram: percentiles con el error de las casillas y ninguna muestra perdida
+ * cuando varios hilos registran a la vez en franjas distintas.
+ */
+public class LatencyHistogramTest {
+
+    public static void main(String[] args) throws Exception {
+        percentilesWithinBucketError();
+        concurrentRecordsAreAllCounted();
+        addAndReset();
+        System.out.println("LatencyHistogramTest: pruebas correctas");
+    }
+
+    private static void percentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Checks.equal(0L, histogram.getValueAtPercentile(50), "percentil sin valores");
+        for (long value = 1; value <= 100000; value++)
+            histogram.record(value);
+        Checks.equal(100000L, histogram.getTotalCount(), "valores registrados");
+        checkClose(50000, histogram.getValueAtPercentile(50), "mediana");
+        checkClose(99000, histogram.getValueAtPercentile(99), "percentil 99");
+        checkClose(100000, histogram.getMaxValue(), "máximo");
+        histogram.record(-5);
+        Checks.equal(0L, histogram.getValueAtPercentile(0), "un valor negativo cuenta como 0");
+    }
+
+    /**
+     * Ocho hilos registran a la vez; la suma de las franjas tiene todas las muestras.
+     */
+    private static void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        int threads = 8;
+        int perThread = 200000;
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long value = 1000L * (t + 1);
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < perThread; i++)
+                    histogram.record(value);
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers)
+            writer.join();
+        Checks.equal((long) threads * perThread, histogram.getTotalCount(), "valores registrados por todos los hilos");
+        checkClose(4000, histogram.getValueAtPercentile(50), "mediana de los hilos");
+        checkClose(8000, histogram.getMaxValue(), "máximo de los hilos");
+    }
+
+    private static void addAndReset() {
+        LatencyHistogram interval = new LatencyHistogram();
+        LatencyHistogram total = new LatencyHistogram();
+        for (int i = 0; i < 10; i++)
+            interval.record(200);
+        total.add(interval);
+        total.add(interval);
+        Checks.equal(20L, total.getTotalCount(), "valores sumados");
+        interval.reset();
+        Checks.equal(0L, interval.getTotalCount(), "valores tras borrar");
+        Checks.equal(0L, interval.getMaxValue(), "máximo tras borrar");
+        Checks.equal(20L, total.getTotalCount(), "borrar uno no afecta al otro");
+    }
+
+    /**
+     * Comprueba que un percentil no se aleja del valor esperado más que el error de su casilla.
+     */
+    private static void checkClose(long expected, long actual, String what) {
+        Checks.check(Math.abs(actual - expected) <= expected * 0.016 + 1,
+                what + ": se esperaba unos " + expected + " y se ha obtenido " + actual);
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pruebas de ProxyBids: el máximo más alto gana con el segundo más un incremento, responde a las
+ * pujas manuales hasta su máximo y hace sus pujas con el identificador del pujador.
+ */
+public class ProxyBidsTest {
+
+    private static final int ANA = 1;
+    private static final int BEA = 2;
+    private static final int CARLA = 3;
+
+    public static void main(String[] args) throws Exception {
+        highestMaxWinsAtSecondPlusIncrement();
+        answersManualBidsUpToItsMax();
+        equalMaxGoesToTheFirst();
+        concurrentRegistrationsKeepTheTwoHighest();
+        productResolvesProxiesByBidder();
+        System.out.println("ProxyBidsTest: pruebas correctas");
+    }
+
+    /**
+     * Dos máximos se resuelven con una sola puja automática del más alto.
+     */
+    private static void highestMaxWinsAtSecondPlusIncrement() {
+        BidEngine bids = newEngine();
+        ProxyBids proxies = new ProxyBids(5);
+        List<String> placed = new ArrayList<>();
+        ProxyBids.Placement placement = placement(bids, placed);
+
+        Checks.check(proxies.register(ANA, 100), "el primer máximo va ganando");
+        proxies.resolve(bids, placement);
+        Checks.equal("[1@15]", placed.toString(), "puja del primer máximo");
+        Checks.check(proxies.register(BEA, 150), "un máximo mayor pasa a ser el más alto");
+        proxies.resolve(bids, placement);
+        Checks.equal("[1@15, 2@105]", placed.toString(), "pujas automáticas");
+        Checks.equal(BEA, proxies.getLeader(), "pujador del máximo más alto");
+        Checks.equal(BEA, bids.getBest().getBidderId(), "pujador ganador");
+        Checks.check(!proxies.hasCompetitor(BEA), "una puja del máximo más alto no tiene competidor");
+        Checks.check(proxies.hasCompetitor(ANA), "una puja de otro pujador sí");
+    }
+
+    /**
+     * Una puja manual por debajo del máximo recibe respuesta; una por encima ya no.
+     */
+    private static void answersManualBidsUpToItsMax() {
+        BidEngine bids = newEngine();
+        ProxyBids proxies = new ProxyBids(1);
+        List<String> placed = new ArrayList<>();
+        ProxyBids.Placement placement = placement(bids, placed);
+        proxies.register(ANA, 50);
+        proxies.resolve(bids, placement);
+
+        Checks.check(bids.submit(bid(CARLA, 40)) > 0, "puja manual por debajo del máximo");
+        proxies.resolve(bids, placement);
+        Checks.equal(ANA, bids.getBest().getBidderId(), "el máximo responde");
+        Checks.equal(41, bids.getBest().getPrice(), "respuesta con el incremento");
+
+        Checks.check(bids.submit(bid(CARLA, 50)) > 0, "puja manual igual al máximo");
+        proxies.resolve(bids, placement);
+        Checks.equal(CARLA, bids.getBest().getBidderId(), "el máximo ya no puede responder");
+        Checks.equal("[1@11, 1@41]", placed.toString(), "pujas automáticas");
+    }
+
+    /**
+     * A igual máximo va ganando el que lo fijó primero, al precio de su máximo.
+     */
+    private static void equalMaxGoesToTheFirst() {
+        BidEngine bids = newEngine();
+        ProxyBids proxies = new ProxyBids(1);
+        proxies.register(ANA, 80);
+        Checks.check(!proxies.register(BEA, 80), "a igual máximo sigue el primero");
+        proxies.resolve(bids, placement(bids, new ArrayList<>()));
+        Checks.equal(ANA, bids.getBest().getBidderId(), "ganador con el mismo máximo");
+        Checks.equal(80, bids.getBest().getPrice(), "precio con el mismo máximo");
+    }
+
+    /**
+     * Varios hilos fijan máximos a la vez; el estado final tiene el más alto y el segundo.
+     */
+    private static void concurrentRegistrationsKeepTheTwoHighest() throws InterruptedException {
+        ProxyBids proxies = new ProxyBids(1);
+        int threads = 4;
+        int perThread = 10000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int bidderId = t + 1;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < perThread; i++)
+                    proxies.register(bidderId, i * threads + bidderId);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers)
+            worker.join();
+        BidEngine bids = newEngine();
+        proxies.resolve(bids, placement(bids, new ArrayList<>()));
+        Checks.equal(threads, proxies.getLeader(), "pujador del máximo más alto");
+        // El segundo máximo es el último del penúltimo hilo
+        int second = (perThread - 1) * threads + threads - 1;
+        Checks.equal(second + 1, bids.getBest().getPrice(), "segundo máximo más el incremento");
+    }
+
+    /**
+     * Product resuelve las pujas máximas por identificador aunque reciba los nombres.
+     */
+    private static void productResolvesProxiesByBidder() {
+        BidderDirectory bidders = new BidderDirectory();
+        Product product = new Product(1, "Lote", "Descripción", 10, bidders, false);
+        Checks.check(product.addProxyBid("ana", 100), "la puja máxima va ganando");
+        Checks.check(product.addBid("bea", 60), "puja manual");
+        Checks.equal("ana", product.getMaxBid().getUsername(), "la puja máxima responde");
+        Checks.equal(61, product.getMaxBid().getPrice(), "precio de la respuesta");
+        Checks.equal(bidders.intern("ana"), product.getMaxBid().getBidderId(), "identificador del ganador");
+        Checks.check(!product.addProxyBid("bea", 90), "un máximo menor no gana");
+        Checks.equal(91, product.getMaxBid().getPrice(), "precio tras el segundo máximo");
+    }
+
+    private static ProxyBids.Placement placement(BidEngine bids, List<String> placed) {
+        return (bidderId, price) -> {
+            placed.add(bidderId + "@" + price);
+            bids.submit(bid(bidderId, price));
+            return true;
+        };
+    }
+
+    private static BidEngine newEngine() {
+        return new BidEngine(new AuctionItem(1, "salida", 10));
+    }
+
+    private static AuctionItem bid(int bidderId, int price) {
+        AuctionItem bid = new AuctionItem(1, "pujador" + bidderId, price);
+        bid.setBidderId(bidderId);
+        return bid;
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Pruebas de SealedBidFormat: una puja por pujador, elección de los k ganadores con empates de precio
+ * y reconstrucción del resultado a partir de los ganadores anotados.
+ */
+public class SealedBidFormatTest {
+
+    public static void main(String[] args) {
+        onlyOneBidPerBidder();
+        tiedWinnersAllWin();
+        tiesBeyondTheUnitsGoToTheOldest();
+        restoredWinnersMatch();
+        System.out.println("SealedBidFormatTest: pruebas correctas");
+    }
+
+    private static void onlyOneBidPerBidder() {
+        BidEngine bids = newEngine();
+        SealedBidFormat format = new SealedBidFormat(2);
+        Checks.equal(0, format.submit(bids, bid("ana", 10, 1)), "puja al precio de salida");
+        Checks.equal(AuctionFormat.SEALED, format.submit(bids, bid("ana", 50, 2)), "primera puja");
+        Checks.equal(AuctionFormat.ALREADY_BID, format.submit(bids, bid("ana", 60, 3)), "segunda puja del mismo pujador");
+        Checks.equal(1, bids.size(), "las pujas en sobre cerrado no entran en el motor");
+        format.close(bids);
+        Checks.equal(0, format.submit(bids, bid("bea", 70, 4)), "puja tras el cierre");
+    }
+
+    /**
+     * Con tres unidades y tres pujas al mismo precio, las tres ganan y cada una recibe su número de
+     * secuencia; la cuarta, más baja, se queda fuera.
+     */
+    private static void tiedWinnersAllWin() {
+        BidEngine bids = newEngine();
+        SealedBidFormat format = new SealedBidFormat(3);
+        format.submit(bids, bid("dani", 90, 1));
+        format.submit(bids, bid("carla", 100, 4));
+        format.submit(bids, bid("ana", 100, 2));
+        format.submit(bids, bid("bea", 100, 3));
+        List<AuctionItem> winners = format.close(bids);
+
+        Checks.equal("[ana, bea, carla]", names(winners), "ganadores, de mejor a peor");
+        Checks.equal(4, bids.size(), "secuencia tras añadir tres ganadores");
+        List<AuctionItem> history = bids.getHistory();
+        Checks.equal("[salida, carla, bea, ana]", names(history), "historial, de peor a mejor ganador");
+        Checks.equal("ana", bids.getBest().getUsername(), "puja ganadora del motor");
+    }
+
+    /**
+     * Con dos unidades y tres pujas empatadas, ganan las dos más antiguas y, a igual instante, la que
+     * se guardó antes.
+     */
+    private static void tiesBeyondTheUnitsGoToTheOldest() {
+        BidEngine bids = newEngine();
+        SealedBidFormat format = new SealedBidFormat(2);
+        format.submit(bids, bid("eva", 80, 5));
+        format.submit(bids, bid("fran", 80, 5));
+        format.submit(bids, bid("gala", 80, 6));
+        format.submit(bids, bid("hugo", 40, 1));
+        Checks.equal("[eva, fran]", names(format.close(bids)), "ganadores empatados");
+    }
+
+    /**
+     * Los ganadores anotados en el diario o recibidos del líder, aplicados en orden de secuencia,
+     * dejan el mismo historial aunque empaten en precio.
+     */
+    private static void restoredWinnersMatch() {
+        BidEngine bids = newEngine();
+        SealedBidFormat format = new SealedBidFormat(2);
+        format.submit(bids, bid("ana", 70, 1));
+        format.submit(bids, bid("bea", 70, 2));
+        format.close(bids);
+
+        BidEngine restored = newEngine();
+        SealedBidFormat copy = new SealedBidFormat(2);
+        List<AuctionItem> history = bids.getHistory();
+        for (int i = 1; i < history.size(); i++)
+            Checks.equal(i + 1, copy.restore(restored, history.get(i)), "secuencia del ganador restaurado");
+        Checks.equal(names(history), names(restored.getHistory()), "historial restaurado");
+    }
+
+    private static BidEngine newEngine() {
+        return new BidEngine(new AuctionItem(1, "salida", 10));
+    }
+
+    private static AuctionItem bid(String username, int price, long time) {
+        AuctionItem bid = new AuctionItem(1, username, price);
+        bid.setTime(time);
+        return bid;
+    }
+
+    private static String names(List<AuctionItem> bids) {
+        List<String> names = new ArrayList<>();
+        for (AuctionItem bid : bids)
+            names.add(bid.getUsername());
+        return names.toString();
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Pruebas de SessionRegistry: una sesión se reanuda sólo con su identificador y su clave, se
+ * conserva al cerrar sus conexiones, guarda la puja más alta por lote y es la misma para todos los
+ * hilos que la piden a la vez.
+ */
+public class SessionRegistryTest {
+
+    public static void main(String[] args) throws Exception {
+        resumeNeedsTheToken();
+        recordsHighestBidPerLot();
+        concurrentLookupsShareOneSession();
+        System.out.println("SessionRegistryTest: pruebas correctas");
+    }
+
+    /**
+     * Dos conexiones del mismo usuario comparten sesión; al cerrarlas la sesión se conserva y se puede
+     * reanudar, pero no con otra clave ni con otro identificador.
+     */
+    private static void resumeNeedsTheToken() {
+        BidderDirectory bidders = new BidderDirectory();
+        SessionRegistry sessions = new SessionRegistry(bidders);
+        SessionRegistry.Session ana = sessions.open("ana");
+        Checks.equal(bidders.intern("ana"), ana.getBidderId(), "identificador de la sesión");
+        Checks.equal("ana", ana.getUsername(), "usuario de la sesión");
+        Checks.check(ana.getToken() != 0, "la sesión no tiene clave");
+        Checks.check(sessions.open("ana") == ana, "otra conexión del mismo usuario abre otra sesión");
+        Checks.equal(1, sessions.getConnectedSessions(), "sesiones conectadas con dos conexiones");
+
+        sessions.close(ana);
+        Checks.check(ana.isConnected(), "la sesión sigue teniendo una conexión");
+        sessions.close(ana);
+        Checks.check(!ana.isConnected(), "la sesión ya no tiene conexiones");
+        Checks.equal(0, sessions.getConnectedSessions(), "sesiones conectadas tras cerrar");
+
+        Checks.check(sessions.resume(ana.getBidderId(), ana.getToken() + 1) == null, "reanudación con otra clave");
+        Checks.check(sessions.resume(BidderDirectory.UNKNOWN_BIDDER, ana.getToken()) == null, "reanudación sin identificador");
+        Checks.check(sessions.resume(1000, ana.getToken()) == null, "reanudación de un pujador desconocido");
+        Checks.equal(0L, sessions.getResumed(), "reanudaciones rechazadas");
+        Checks.check(sessions.resume(ana.getBidderId(), ana.getToken()) == ana, "reanudación con la clave");
+        Checks.equal(1L, sessions.getResumed(), "reanudaciones");
+        Checks.equal(1, sessions.getConnectedSessions(), "sesiones conectadas tras reanudar");
+    }
+
+    /**
+     * La sesión guarda la puja más alta en cada lote y los lotes por orden de primera puja.
+     */
+    private static void recordsHighestBidPerLot() {
+        BidderDirectory bidders = new BidderDirectory();
+        SessionRegistry sessions = new SessionRegistry(bidders);
+        int ana = bidders.intern("ana");
+        for (int auctionId = 1; auctionId <= 6; auctionId++)
+            sessions.recordBid(ana, auctionId, auctionId * 10);
+        sessions.recordBid(ana, 2, 50);
+        sessions.recordBid(ana, 3, 5);
+        sessions.recordBid(BidderDirectory.UNKNOWN_BIDDER, 1, 100);
+
+        SessionRegistry.Session session = sessions.sessionOf(ana);
+        Checks.equal(50, session.getHighestBid(2), "puja más alta tras subirla");
+        Checks.equal(30, session.getHighestBid(3), "puja más alta tras una menor");
+        Checks.equal(60, session.getHighestBid(6), "puja en el último lote");
+        Checks.equal(0, session.getHighestBid(7), "lote sin pujas");
+        Checks.equal("[1, 2, 3, 4, 5, 6]", Arrays.toString(session.getLots(SessionRegistry.MAX_RESUMED_LOTS)), "lotes con pujas");
+        Checks.equal("[5, 6]", Arrays.toString(session.getLots(2)), "lotes más recientes");
+        Checks.equal("ana", session.getUsername(), "usuario de la sesión creada por una puja");
+    }
+
+    /**
+     * Varios hilos piden a la vez las sesiones de pujadores que aún no tienen, más allá del tamaño
+     * inicial del array; todos obtienen la misma sesión para cada pujador.
+     */
+    private static void concurrentLookupsShareOneSession() throws InterruptedException {
+        BidderDirectory bidders = new BidderDirectory();
+        SessionRegistry sessions = new SessionRegistry(bidders);
+        int count = 1000;
+        for (int i = 0; i < count; i++)
+            bidders.intern("pujador" + i);
+        AtomicReferenceArray<SessionRegistry.Session> seen = new AtomicReferenceArray<>(count + 1);
+        AtomicInteger different = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread lookup = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int bidderId = 1; bidderId <= count; bidderId++) {
+                    SessionRegistry.Session session = sessions.sessionOf(bidderId);
+                    if (!seen.compareAndSet(bidderId, null, session) && seen.get(bidderId) != session)
+                        different.incrementAndGet();
+                }
+            });
+            lookup.start();
+            threads.add(lookup);
+        }
+        start.countDown();
+        for (Thread lookup : threads)
+            lookup.join();
+
+        Checks.equal(0, different.get(), "sesiones distintas para el mismo pujador");
+        for (int bidderId = 1; bidderId <= count; bidderId++) {
+            SessionRegistry.Session session = sessions.sessionOf(bidderId);
+            Checks.check(session == seen.get(bidderId), "sesión perdida del pujador " + bidderId);
+            Checks.equal(bidderId, session.getBidderId(), "identificador de la sesión " + bidderId);
+        }
+    }
+}